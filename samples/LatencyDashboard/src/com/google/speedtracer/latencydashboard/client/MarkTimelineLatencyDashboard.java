@@ -32,6 +32,8 @@ import com.google.gwt.visualization.client.visualizations.Gauge;
 import com.google.gwt.visualization.client.visualizations.LineChart;
 import com.google.gwt.visualization.client.visualizations.PieChart;
 import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -121,7 +123,50 @@ public class MarkTimelineLatencyDashboard implements EntryPoint {
         null, contactsGaugeOptions));
   }
 
+  private void populateCharts(CustomDashboardRecord[] records) {
+    if (records.length > 0) {
+      for (LatencyDashboardChart chart : markTimelineCharts) {
+        chart.populateChart(records);
+      }
+    } else {
+      WarningPane.get().show(
+          "Retrieved empty custom dashboard data. Check the server and try to 'Refresh'");
+    }
+  }
+
+  /**
+   * Charts the median of each of the latest revisions, which is steadier than
+   * any single run.
+   */
   private void populateDashboard() {
+    timelineService.getDashboardRollups(RollupPeriod.REVISION, 15,
+        new AsyncCallback<DashboardRollup[]>() {
+
+          public void onFailure(Throwable caught) {
+            WarningPane.get().show(
+                "Couldn't retrieve dashboard data.  Check the server and try to 'Refresh'");
+          }
+
+          public void onSuccess(DashboardRollup[] result) {
+            final List<CustomDashboardRecord> medians = new ArrayList<CustomDashboardRecord>();
+            for (DashboardRollup rollup : result) {
+              if (rollup.getCustomCount() > 0) {
+                medians.add(rollup.getCustomMedianRecord());
+              }
+            }
+            if (medians.isEmpty()) {
+              // Records stored before rollups were kept have none.
+              populateFromLatestRecords();
+              return;
+            }
+            populateCharts(medians.toArray(
+                new CustomDashboardRecord[medians.size()]));
+          }
+
+        });
+  }
+
+  private void populateFromLatestRecords() {
     timelineService.getCustomDashboardLatestRecords(15,
         new AsyncCallback<CustomDashboardRecord[]>() {
 
@@ -131,14 +176,7 @@ public class MarkTimelineLatencyDashboard implements EntryPoint {
           }
 
           public void onSuccess(CustomDashboardRecord[] result) {
-            if (result.length > 0) {
-              for (LatencyDashboardChart chart : markTimelineCharts) {
-                chart.populateChart(result);
-              }
-            } else {
-              WarningPane.get().show(
-                  "Retrieved empty custom dashboard data. Check the server and try to 'Refresh'");
-            }
+            populateCharts(result);
           }
 
         });
@@ -32,6 +32,8 @@ import com.google.gwt.visualization.client.visualizations.Gauge;
 import com.google.gwt.visualization.client.visualizations.LineChart;
 import com.google.gwt.visualization.client.visualizations.PieChart;
 import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -96,7 +98,45 @@ public class StartupLatencyDashboard implements EntryPoint {
     }, AreaChart.PACKAGE, LineChart.PACKAGE, PieChart.PACKAGE, Gauge.PACKAGE);
   }
 
+  private void populateCharts(DashboardRecord[] records) {
+    if (records.length > 0) {
+      for (LatencyDashboardChart chart : charts) {
+        chart.populateChart(records);
+      }
+    } else {
+      WarningPane.get().show(
+          "Retrieved empty dashboard data. Check the server and try to 'Refresh'");
+    }
+  }
+
+  /**
+   * Charts the median of each of the latest revisions, which is steadier than
+   * any single run.
+   */
   private void populateDashboard() {
+    timelineService.getDashboardRollups(RollupPeriod.REVISION, 15,
+        new AsyncCallback<DashboardRollup[]>() {
+          public void onFailure(Throwable caught) {
+            WarningPane.get().show(
+                "Couldn't retrieve dashboard data.  Check the server and try to 'Refresh'");
+          }
+
+          public void onSuccess(DashboardRollup[] result) {
+            if (result.length == 0) {
+              // Records stored before rollups were kept have none.
+              populateFromLatestRecords();
+              return;
+            }
+            final DashboardRecord[] medians = new DashboardRecord[result.length];
+            for (int i = 0; i < result.length; ++i) {
+              medians[i] = result[i].getMedianRecord();
+            }
+            populateCharts(medians);
+          }
+        });
+  }
+
+  private void populateFromLatestRecords() {
     timelineService.getDashboardLatestRecords(15,
         new AsyncCallback<DashboardRecord[]>() {
           public void onFailure(Throwable caught) {
@@ -105,14 +145,7 @@ public class StartupLatencyDashboard implements EntryPoint {
           }
 
           public void onSuccess(DashboardRecord[] result) {
-            if (result.length > 0) {
-              for (LatencyDashboardChart chart : charts) {
-                chart.populateChart(result);
-              }
-            } else {
-              WarningPane.get().show(
-                  "Retrieved empty dashboard data. Check the server and try to 'Refresh'");
-            }
+            populateCharts(result);
           }
         });
   }
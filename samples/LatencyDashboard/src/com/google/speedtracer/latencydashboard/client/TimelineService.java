@@ -19,6 +19,8 @@ import com.google.gwt.user.client.rpc.RemoteService;
 import com.google.gwt.user.client.rpc.RemoteServiceRelativePath;
 import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
 import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
 
 /**
  * GWT RPC definition for retrieving latest {@link DashboardRecord}s from the
@@ -28,4 +30,5 @@ import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
 public interface TimelineService extends RemoteService {
   DashboardRecord[] getDashboardLatestRecords(int n);
   CustomDashboardRecord[] getCustomDashboardLatestRecords(int n);
+  DashboardRollup[] getDashboardRollups(RollupPeriod period, int n);
 }
@@ -18,6 +18,8 @@ package com.google.speedtracer.latencydashboard.client;
 import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
 import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
 
 /**
  * RPC definition for retrieving data from the Datastore.
@@ -30,4 +32,7 @@ public interface TimelineServiceAsync {
   void getCustomDashboardLatestRecords(int n,
       AsyncCallback<CustomDashboardRecord[]> callback);
 
+  void getDashboardRollups(RollupPeriod period, int n,
+      AsyncCallback<DashboardRollup[]> callback);
+
 }
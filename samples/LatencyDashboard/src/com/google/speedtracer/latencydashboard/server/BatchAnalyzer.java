@@ -0,0 +1,352 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonArray;
+import com.google.json.serialization.JsonException;
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command line tool that analyzes a directory of headless dumps, the same
+ * payloads that are posted to {@link SpeedTraceReceiverServlet}, and writes the
+ * resulting {@link DashboardRecord} metrics of all of them as CSV or JSON.
+ * Dumps whose names end in <code>.gz</code> are decompressed as they are read.
+ * 
+ * Each dump is analyzed by its own task on a {@link ForkJoinPool}, so idle
+ * workers steal the remaining dumps and throughput scales with the number of
+ * cores.
+ * 
+ * <pre>
+ * java com.google.speedtracer.latencydashboard.server.BatchAnalyzer \
+ *     [-format csv|json] [-threads n] [-out file] directory
+ * </pre>
+ */
+public class BatchAnalyzer {
+  /**
+   * The outcome of analyzing a single dump.
+   */
+  public static class Result {
+    private final TraceAnalysis analysis;
+    private final String error;
+    private final File file;
+
+    private Result(File file, TraceAnalysis analysis, String error) {
+      this.file = file;
+      this.analysis = analysis;
+      this.error = error;
+    }
+
+    /**
+     * Returns <code>null</code> if the dump could not be analyzed.
+     */
+    public TraceAnalysis getAnalysis() {
+      return analysis;
+    }
+
+    /**
+     * Returns the reason the dump could not be analyzed, or <code>null</code>.
+     */
+    public String getError() {
+      return error;
+    }
+
+    public File getFile() {
+      return file;
+    }
+  }
+
+  /**
+   * Splits a range of dumps in half until there is one task per dump.
+   */
+  private static class AnalyzeTask extends RecursiveAction {
+    private static final long serialVersionUID = -3467236745512948216L;
+
+    private final int end;
+    private final File[] files;
+    private final Result[] results;
+    private final int start;
+
+    AnalyzeTask(File[] files, Result[] results, int start, int end) {
+      this.files = files;
+      this.results = results;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start == 1) {
+        results[start] = analyzeFile(files[start]);
+        return;
+      }
+      final int mid = (start + end) >>> 1;
+      invokeAll(new AnalyzeTask(files, results, start, mid), new AnalyzeTask(
+          files, results, mid, end));
+    }
+  }
+
+  /**
+   * Analyzes every dump in <code>files</code> on <code>pool</code>.
+   * 
+   * @return the results, in the same order as <code>files</code>
+   */
+  public static Result[] analyzeAll(File[] files, ForkJoinPool pool) {
+    final Result[] results = new Result[files.length];
+    if (files.length > 0) {
+      pool.invoke(new AnalyzeTask(files, results, 0, files.length));
+    }
+    return results;
+  }
+
+  /**
+   * Analyzes a single dump. Failures are reported in the result rather than
+   * thrown so that one bad dump does not abort the batch.
+   */
+  public static Result analyzeFile(File file) {
+    try {
+      // Dumps may be archived gzip compressed.
+      final InputStream input = file.getName().endsWith(".gz")
+          ? new GZIPInputStream(new FileInputStream(file), 16 * 1024)
+          : new FileInputStream(file);
+      try {
+        return new Result(file, TraceAnalysis.analyze(input), null);
+      } finally {
+        input.close();
+      }
+    } catch (IOException ex) {
+      return new Result(file, null, ex.toString());
+    } catch (JsonException ex) {
+      return new Result(file, null, ex.toString());
+    } catch (RuntimeException ex) {
+      // AnalyzeException, or a dump that is valid JSON but not a trace.
+      return new Result(file, null, ex.toString());
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    String format = "csv";
+    String outFile = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    String directory = null;
+    for (int i = 0; i < args.length; ++i) {
+      if ("-format".equals(args[i]) && i + 1 < args.length) {
+        format = args[++i];
+      } else if ("-threads".equals(args[i]) && i + 1 < args.length) {
+        threads = parseThreads(args[++i]);
+        if (threads < 1) {
+          directory = null;
+          break;
+        }
+      } else if ("-out".equals(args[i]) && i + 1 < args.length) {
+        outFile = args[++i];
+      } else if (directory == null && !args[i].startsWith("-")) {
+        directory = args[i];
+      } else {
+        directory = null;
+        break;
+      }
+    }
+
+    if (directory == null || !new File(directory).isDirectory()
+        || !("csv".equals(format) || "json".equals(format))) {
+      System.err.println("Usage: BatchAnalyzer [-format csv|json] "
+          + "[-threads n] [-out file] directory");
+      System.exit(1);
+    }
+
+    final File[] files = listDumps(new File(directory));
+    final long start = System.currentTimeMillis();
+    final Result[] results = analyzeAll(files, new ForkJoinPool(threads));
+    int failures = 0;
+    for (Result result : results) {
+      if (result.getError() != null) {
+        System.err.println(result.getFile() + ": " + result.getError());
+        ++failures;
+      }
+    }
+
+    final Writer writer = new OutputStreamWriter(outFile == null ? System.out
+        : new FileOutputStream(outFile), "UTF-8");
+    if ("json".equals(format)) {
+      writeJson(results, writer);
+    } else {
+      writeCsv(results, writer);
+    }
+    writer.flush();
+    if (outFile != null) {
+      writer.close();
+    }
+
+    System.err.println("Analyzed " + (results.length - failures) + " of "
+        + results.length + " dumps in " + (System.currentTimeMillis() - start)
+        + "ms on " + threads + " threads.");
+  }
+
+  /**
+   * Writes one row per successfully analyzed dump. The markTimeline metrics
+   * of all dumps are merged into additional columns, left empty for dumps that
+   * did not report them.
+   */
+  public static void writeCsv(Result[] results, Writer writer)
+      throws IOException {
+    final Set<String> customNames = getCustomMetricNames(results);
+    final PrintWriter out = new PrintWriter(writer);
+    out.print("file,name,revision,timeStamp");
+    for (String name : TraceAnalysis.METRIC_NAMES) {
+      out.print(',');
+      out.print(name);
+    }
+    for (String name : customNames) {
+      out.print(',');
+      out.print(escapeCsv(name));
+    }
+    out.println();
+
+    for (Result result : results) {
+      if (result.getAnalysis() == null) {
+        continue;
+      }
+      final DashboardRecord record = result.getAnalysis().getDashboardRecord();
+      out.print(escapeCsv(result.getFile().getName()));
+      out.print(',');
+      out.print(escapeCsv(record.getName()));
+      out.print(',');
+      out.print(escapeCsv(record.getRevision()));
+      out.print(',');
+      out.print((long) record.getTimestamp());
+      for (double value : TraceAnalysis.getMetrics(record)) {
+        out.print(',');
+        out.print(value);
+      }
+      final CustomDashboardRecord customRecord =
+          result.getAnalysis().getCustomDashboardRecord();
+      for (String name : customNames) {
+        out.print(',');
+        final Double value = customRecord.getCustomMetrics().get(name);
+        if (value != null) {
+          out.print(value);
+        }
+      }
+      out.println();
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes an array with one object per successfully analyzed dump.
+   */
+  public static void writeJson(Result[] results, Writer writer)
+      throws IOException {
+    final JsonArray array = new JsonArray();
+    for (Result result : results) {
+      if (result.getAnalysis() == null) {
+        continue;
+      }
+      final DashboardRecord record = result.getAnalysis().getDashboardRecord();
+      final JsonObject object = new JsonObject();
+      object.put("file", result.getFile().getName());
+      object.put("name", record.getName());
+      object.put("revision", record.getRevision());
+      object.put("timeStamp", (long) record.getTimestamp());
+      final double[] metrics = TraceAnalysis.getMetrics(record);
+      for (int i = 0; i < TraceAnalysis.METRIC_NAMES.length; ++i) {
+        object.put(TraceAnalysis.METRIC_NAMES[i], metrics[i]);
+      }
+
+      final CustomDashboardRecord customRecord =
+          result.getAnalysis().getCustomDashboardRecord();
+      if (customRecord.isValid()) {
+        final JsonObject custom = new JsonObject();
+        for (String name : customRecord.getCustomMetrics().keySet()) {
+          custom.put(name, customRecord.getCustomMetrics().get(name));
+        }
+        object.put("custom", custom);
+      }
+      array.add(object);
+    }
+    array.write(writer);
+    writer.write('\n');
+  }
+
+  private static String escapeCsv(String value) {
+    if (value == null) {
+      return "";
+    }
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+        && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static Set<String> getCustomMetricNames(Result[] results) {
+    final Set<String> names = new TreeSet<String>();
+    for (Result result : results) {
+      if (result.getAnalysis() != null) {
+        names.addAll(result.getAnalysis().getCustomDashboardRecord()
+            .getCustomMetrics().keySet());
+      }
+    }
+    return names;
+  }
+
+  private static File[] listDumps(File directory) {
+    final File[] files = directory.listFiles();
+    int count = 0;
+    for (File file : files) {
+      if (file.isFile()) {
+        files[count++] = file;
+      }
+    }
+    final File[] dumps = new File[count];
+    System.arraycopy(files, 0, dumps, 0, count);
+    // Sorted so that the output is stable from run to run.
+    Arrays.sort(dumps);
+    return dumps;
+  }
+
+  /**
+   * Returns the thread count given on the command line, or 0 if it is not a
+   * positive number.
+   */
+  private static int parseThreads(String value) {
+    try {
+      return Math.max(0, Integer.parseInt(value));
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  private BatchAnalyzer() {
+  }
+}
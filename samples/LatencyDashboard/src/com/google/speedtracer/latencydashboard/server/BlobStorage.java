@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+/**
+ * Where a {@link TraceArchive} keeps its data, as byte arrays by key. Keys are
+ * made of lower case letters, digits and dashes. Values are at most a little
+ * over {@link TraceArchive#CHUNK_SIZE} bytes.
+ * 
+ * {@link DatastoreBlobStorage} keeps them in the AppEngine datastore and
+ * {@link FileBlobStorage} in local files.
+ */
+public interface BlobStorage {
+  /**
+   * Removes the value stored under <code>key</code>, if there is one.
+   */
+  void delete(String key);
+
+  /**
+   * Returns the value stored under <code>key</code>, or <code>null</code> if
+   * there is none.
+   */
+  byte[] get(String key);
+
+  /**
+   * Stores <code>value</code> under <code>key</code>, replacing any value
+   * already stored.
+   */
+  void put(String key, byte[] value);
+}
@@ -56,6 +56,9 @@ public class CustomDashboardRecordStore {
     }
   }
 
+  private static final int CACHE_CAPACITY = 100;
+  private static final long CACHE_TTL_MS = 60 * 1000;
+
   private static final String CUSTOM_KEY_PREFIX = "custom_";
   private static final String KEY_PROP_NAME = "name";
 
@@ -63,10 +66,31 @@ public class CustomDashboardRecordStore {
   private static final String KEY_PROP_TIMESTAMP = "timeStamp";
   private static final String KIND = "CustomDashboardRecord";
 
+  private static final LatestRecordsCache<CustomDashboardRecord> latestRecords =
+      new LatestRecordsCache<CustomDashboardRecord>(CACHE_CAPACITY,
+          CACHE_TTL_MS) {
+    @Override
+    protected CustomDashboardRecord[] createArray(int length) {
+      return new CustomDashboardRecord[length];
+    }
+
+    @Override
+    protected double getTimestamp(CustomDashboardRecord record) {
+      return record.getTimestamp();
+    }
+
+    @Override
+    protected Iterator<CustomDashboardRecord> query(DatastoreService store,
+        int n) {
+      return CustomDashboardRecordStore.getLatest(store, n);
+    }
+  };
+
   public static String clear(DatastoreService store, String name) {
     Transaction tx = store.beginTransaction();
     store.prepare(new Query(KIND).addFilter("name", FilterOperator.EQUAL, name));
     tx.commit();
+    latestRecords.invalidate();
     return null;
   }
 
@@ -93,6 +117,17 @@ public class CustomDashboardRecordStore {
     return result;
   }
 
+  /**
+   * Returns the records with the given name and revision.
+   */
+  public static Iterator<CustomDashboardRecord> getByRevision(
+      DatastoreService store, String name, String revision) {
+    Query query = new Query(KIND).addFilter(KEY_PROP_NAME,
+        FilterOperator.EQUAL, name).addFilter(KEY_PROP_REVISION,
+        FilterOperator.EQUAL, revision);
+    return new CustomDashboardRecordIterator(store.prepare(query).asIterator());
+  }
+
   /**
    * Retreives the n latest records using the timestamp field.
    */
@@ -105,12 +140,33 @@ public class CustomDashboardRecordStore {
             FetchOptions.Builder.withLimit(n)));
   }
 
+  /**
+   * Returns the cache of the latest records, which is kept up to date with the
+   * records stored by this instance.
+   */
+  public static LatestRecordsCache<CustomDashboardRecord> getLatestCache() {
+    return latestRecords;
+  }
+
   /**
    * Store a Custom Dashboard record in the persistent store.
    */
   public static void put(DatastoreService store,
       CustomDashboardRecord dashboardRecord) {
-    Entity entity = new Entity(KIND);
+    store.put(toEntity(dashboardRecord));
+    latestRecords.add(dashboardRecord);
+  }
+
+  /**
+   * Creates the entity that
+   * {@link #put(DatastoreService, CustomDashboardRecord)} stores, so that
+   * several records can be stored in one call. The entity is named by the run
+   * of the record, so storing a record again replaces it.
+   */
+  static Entity toEntity(CustomDashboardRecord dashboardRecord) {
+    Entity entity = new Entity(KIND, ServerUtilities.getRunId(
+        dashboardRecord.getName(), dashboardRecord.getRevision(),
+        dashboardRecord.getTimestamp()));
     entity.setProperty(KEY_PROP_TIMESTAMP, dashboardRecord.getTimestamp());
     entity.setProperty(KEY_PROP_NAME, dashboardRecord.getName());
     entity.setProperty(KEY_PROP_REVISION, dashboardRecord.getRevision());
@@ -119,6 +175,6 @@ public class CustomDashboardRecordStore {
     for (String key : customMeasures.keySet()) {
       entity.setProperty(CUSTOM_KEY_PREFIX + key, customMeasures.get(key));
     }
-    store.put(entity);
+    return entity;
   }
 }
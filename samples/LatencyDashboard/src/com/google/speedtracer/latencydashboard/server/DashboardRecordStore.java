@@ -19,6 +19,7 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
 
@@ -51,6 +52,13 @@ public class DashboardRecordStore {
     }
   }
 
+  /**
+   * The charts show the latest 15 records, leave room for larger requests.
+   */
+  private static final int CACHE_CAPACITY = 100;
+
+  private static final long CACHE_TTL_MS = 60 * 1000;
+
   private static final String KEY_PROP_NAME = "name";
   private static final String KEY_PROP_REVISION = "revision";
   private static final String KEY_PROP_TIMESTAMP = "timeStamp";
@@ -76,6 +84,24 @@ public class DashboardRecordStore {
   private static final String PROP_PAINT_DURATION = "paint_duration";
   private static final String PROP_PARSE_HTML_DURATION = "parse_html_duration";
 
+  private static final LatestRecordsCache<DashboardRecord> latestRecords =
+      new LatestRecordsCache<DashboardRecord>(CACHE_CAPACITY, CACHE_TTL_MS) {
+    @Override
+    protected DashboardRecord[] createArray(int length) {
+      return new DashboardRecord[length];
+    }
+
+    @Override
+    protected double getTimestamp(DashboardRecord record) {
+      return record.getTimestamp();
+    }
+
+    @Override
+    protected Iterator<DashboardRecord> query(DatastoreService store, int n) {
+      return DashboardRecordStore.getLatest(store, n);
+    }
+  };
+
   public static DashboardRecord get(Entity entity) {
     Map<String, Object> properties = entity.getProperties();
 
@@ -136,6 +162,17 @@ public class DashboardRecordStore {
     return result;
   }
 
+  /**
+   * Returns the records with the given name and revision.
+   */
+  public static Iterator<DashboardRecord> getByRevision(
+      DatastoreService store, String name, String revision) {
+    Query query = new Query(KIND).addFilter(KEY_PROP_NAME,
+        FilterOperator.EQUAL, name).addFilter(KEY_PROP_REVISION,
+        FilterOperator.EQUAL, revision);
+    return new DashboardRecordIterator(store.prepare(query).asIterator());
+  }
+
   public static Iterator<DashboardRecord> getLatest(DatastoreService store,
       int n) {
     return new DashboardRecordIterator(
@@ -145,8 +182,28 @@ public class DashboardRecordStore {
             FetchOptions.Builder.withLimit(n)));
   }
 
+  /**
+   * Returns the cache of the latest records, which is kept up to date with the
+   * records stored by this instance.
+   */
+  public static LatestRecordsCache<DashboardRecord> getLatestCache() {
+    return latestRecords;
+  }
+
   public static void put(DatastoreService store, DashboardRecord dashboardRecord) {
-    Entity entity = new Entity(KIND);
+    store.put(toEntity(dashboardRecord));
+    latestRecords.add(dashboardRecord);
+  }
+
+  /**
+   * Creates the entity that {@link #put(DatastoreService, DashboardRecord)}
+   * stores, so that several records can be stored in one call. The entity is
+   * named by the run of the record, so storing a record again replaces it.
+   */
+  static Entity toEntity(DashboardRecord dashboardRecord) {
+    Entity entity = new Entity(KIND, ServerUtilities.getRunId(
+        dashboardRecord.getName(), dashboardRecord.getRevision(),
+        (long) dashboardRecord.getTimestamp()));
     entity.setProperty(KEY_PROP_TIMESTAMP, dashboardRecord.getTimestamp());
     entity.setProperty(KEY_PROP_NAME, dashboardRecord.getName());
     entity.setProperty(KEY_PROP_REVISION, dashboardRecord.getRevision());
@@ -184,7 +241,7 @@ public class DashboardRecordStore {
         dashboardRecord.parseHtmlDuration);
     entity.setProperty(PROP_RECALCULATE_STYLE_DURATION,
         dashboardRecord.recalculateStyleDuration);
-    store.put(entity);
+    return entity;
   }
 
   private static double getDoubleProperty(Map<String, Object> properties,
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Keeps blobs in the AppEngine datastore, one entity per key.
+ */
+public class DatastoreBlobStorage implements BlobStorage {
+  private static final String KIND = "ArchiveBlob";
+
+  private static final String PROP_DATA = "data";
+
+  private final DatastoreService store;
+
+  public DatastoreBlobStorage(DatastoreService store) {
+    this.store = store;
+  }
+
+  public void delete(String key) {
+    store.delete(KeyFactory.createKey(KIND, key));
+  }
+
+  public byte[] get(String key) {
+    try {
+      final Entity entity = store.get(KeyFactory.createKey(KIND, key));
+      return ((Blob) entity.getProperty(PROP_DATA)).getBytes();
+    } catch (EntityNotFoundException ex) {
+      return null;
+    }
+  }
+
+  public void put(String key, byte[] value) {
+    final Entity entity = new Entity(KIND, key);
+    entity.setUnindexedProperty(PROP_DATA, new Blob(value));
+    store.put(entity);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps records in the AppEngine datastore, through
+ * {@link DashboardRecordStore} and {@link CustomDashboardRecordStore}. The
+ * latest records are served from the caches of those stores. Rollups are kept
+ * by {@link RollupStore}.
+ */
+public class DatastoreRecordStorage implements RecordStorage {
+  /**
+   * Returns an id for a batch of records, from the names of their entities.
+   */
+  private static String getBatchId(List<Entity> entities) {
+    final StringBuilder names = new StringBuilder();
+    for (Entity entity : entities) {
+      names.append(entity.getKey().getName()).append(' ');
+    }
+    try {
+      return ServerUtilities.hash(names.toString().getBytes("UTF-8"));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private final DatastoreService store;
+
+  public DatastoreRecordStorage(DatastoreService store) {
+    this.store = store;
+  }
+
+  public CustomDashboardRecord[] getCustomDashboardLatestRecords(int n) {
+    return CustomDashboardRecordStore.getLatestCache().getLatest(store, n);
+  }
+
+  public CustomDashboardRecord[] getCustomDashboardRecords(String name,
+      String revision) {
+    final List<CustomDashboardRecord> records = new ArrayList<CustomDashboardRecord>();
+    final Iterator<CustomDashboardRecord> iter = CustomDashboardRecordStore.getByRevision(
+        store, name, revision);
+    while (iter.hasNext()) {
+      records.add(iter.next());
+    }
+    return records.toArray(new CustomDashboardRecord[records.size()]);
+  }
+
+  public DashboardRecord[] getDashboardLatestRecords(int n) {
+    return DashboardRecordStore.getLatestCache().getLatest(store, n);
+  }
+
+  public DashboardRecord[] getDashboardRecords(String name, String revision) {
+    final List<DashboardRecord> records = new ArrayList<DashboardRecord>();
+    final Iterator<DashboardRecord> iter = DashboardRecordStore.getByRevision(
+        store, name, revision);
+    while (iter.hasNext()) {
+      records.add(iter.next());
+    }
+    return records.toArray(new DashboardRecord[records.size()]);
+  }
+
+  public DashboardRollup[] getDashboardRollups(RollupPeriod period, int n) {
+    return RollupStore.getLatest(store, period, n);
+  }
+
+  /**
+   * Stores all of the records in one datastore call, then merges them into the
+   * rollups. The records are named by their runs and the rollups remember the
+   * batches merged into them, so a put that failed part way through can simply
+   * be repeated with the same records.
+   * 
+   * @throws ConcurrentModificationException if a rollup could not be updated
+   */
+  public void put(List<DashboardRecord> records,
+      List<CustomDashboardRecord> customRecords) {
+    final List<Entity> entities = new ArrayList<Entity>(records.size()
+        + customRecords.size());
+    for (DashboardRecord record : records) {
+      entities.add(DashboardRecordStore.toEntity(record));
+    }
+    for (CustomDashboardRecord customRecord : customRecords) {
+      entities.add(CustomDashboardRecordStore.toEntity(customRecord));
+    }
+    store.put(entities);
+
+    RollupStore.merge(store, getBatchId(entities), Rollup.collect(records,
+        customRecords));
+
+    // Only once nothing is left to repeat, so the caches hold each record once.
+    for (DashboardRecord record : records) {
+      DashboardRecordStore.getLatestCache().add(record);
+    }
+    for (CustomDashboardRecord customRecord : customRecords) {
+      CustomDashboardRecordStore.getLatestCache().add(customRecord);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonException;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link IngestionPipeline} for running the war outside of AppEngine, with
+ * the pending uploads held in a bounded queue in memory and analyzed by a
+ * fixed number of local worker threads.
+ * 
+ * Each worker takes as many queued uploads as there are, up to
+ * {@link #MAX_BATCH}, and stores all of their records with one
+ * {@link RecordStorage#put(List, List)}, which for a {@link FileRecordStorage}
+ * is one write and one fsync.
+ * 
+ * Pending uploads are lost if the process stops before they are stored, and
+ * records that can not be stored are dropped, as they would most likely fail
+ * again. Both are logged.
+ */
+public class ExecutorIngestionPipeline extends IngestionPipeline {
+  /**
+   * An upload waiting to be analyzed.
+   */
+  private static class Upload {
+    final byte[] body;
+
+    final String contentEncoding;
+
+    final long received = System.currentTimeMillis();
+
+    Upload(byte[] body, String contentEncoding) {
+      this.body = body;
+      this.contentEncoding = contentEncoding;
+    }
+  }
+
+  /**
+   * The most uploads whose records are stored at once.
+   */
+  static final int MAX_BATCH = 32;
+
+  /**
+   * How long a worker waits for an upload before checking whether the
+   * pipeline was closed.
+   */
+  private static final long POLL_MS = 100;
+
+  /**
+   * How long {@link #close()} waits for the queued uploads to be stored.
+   */
+  private static final long SHUTDOWN_MS = 30 * 1000;
+
+  private volatile boolean closed;
+
+  private final ExecutorService executor;
+
+  // Uploads accepted but not yet stored, whether queued or being ingested.
+  private final AtomicInteger pending = new AtomicInteger();
+
+  private final BlockingQueue<Upload> uploads;
+
+  /**
+   * @param storage where records are stored
+   * @param archive where the full dumps are archived, or <code>null</code> to
+   *          not keep them
+   * @param capacity the number of uploads accepted but not yet stored, beyond
+   *          which uploads are refused
+   * @param workers the number of threads that analyze and store uploads
+   */
+  public ExecutorIngestionPipeline(RecordStorage storage,
+      TraceArchive archive, int capacity, int workers) {
+    super(storage, archive, capacity);
+    uploads = new ArrayBlockingQueue<Upload>(Math.max(1, capacity));
+    executor = Executors.newFixedThreadPool(workers);
+    for (int i = 0; i < workers; ++i) {
+      executor.execute(new Runnable() {
+        public void run() {
+          work();
+        }
+      });
+    }
+  }
+
+  /**
+   * Stops taking uploads, and waits for the workers to store the ones that are
+   * queued.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_MS, TimeUnit.MILLISECONDS)) {
+        System.err.println("Dropping " + getPendingCount()
+            + " pending speedTrace uploads");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException ex) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Queues an upload for the workers.
+   */
+  @Override
+  public boolean submit(byte[] body, String contentEncoding) {
+    if (body.length > MAX_UPLOAD_BYTES) {
+      throw new IllegalArgumentException("Upload of " + body.length
+          + " bytes is larger than " + MAX_UPLOAD_BYTES);
+    }
+    if (closed || pending.incrementAndGet() > capacity) {
+      pending.decrementAndGet();
+      rejected.incrementAndGet();
+      return false;
+    }
+    // Never full, as it holds no more than the pending uploads.
+    uploads.add(new Upload(body, contentEncoding));
+    accepted.incrementAndGet();
+    return true;
+  }
+
+  @Override
+  long getPendingCount() {
+    return pending.get();
+  }
+
+  /**
+   * Analyzes a batch of uploads and stores the records of those that could be
+   * analyzed.
+   */
+  private void ingest(List<Upload> batch) {
+    final List<DashboardRecord> records = new ArrayList<DashboardRecord>(
+        batch.size());
+    final List<CustomDashboardRecord> customRecords =
+        new ArrayList<CustomDashboardRecord>(batch.size());
+    final List<Upload> analyzed = new ArrayList<Upload>(batch.size());
+    for (Upload upload : batch) {
+      try {
+        addRecords(analyze(new ByteArrayInputStream(upload.body),
+            upload.contentEncoding), records, customRecords);
+        analyzed.add(upload);
+      } catch (IOException ex) {
+        fail("analyzing", ex);
+      } catch (JsonException ex) {
+        fail("analyzing", ex);
+      } catch (RuntimeException ex) {
+        // AnalyzeException, or an upload that is valid JSON but not a trace.
+        fail("analyzing", ex);
+      }
+    }
+    if (analyzed.isEmpty()) {
+      return;
+    }
+
+    try {
+      storage.put(records, customRecords);
+    } catch (RuntimeException ex) {
+      System.err.println("Failure storing " + analyzed.size()
+          + " speedTrace uploads: " + ex);
+      failed.addAndGet(analyzed.size());
+      return;
+    }
+    for (Upload upload : analyzed) {
+      stored(upload.received);
+    }
+  }
+
+  /**
+   * Runs on each worker thread until the pipeline is closed and the queue is
+   * empty.
+   */
+  private void work() {
+    final List<Upload> batch = new ArrayList<Upload>(MAX_BATCH);
+    while (!closed || !uploads.isEmpty()) {
+      final Upload first;
+      try {
+        first = uploads.poll(POLL_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        return;
+      }
+      if (first == null) {
+        continue;
+      }
+      batch.add(first);
+      uploads.drainTo(batch, MAX_BATCH - 1);
+      try {
+        ingest(batch);
+      } finally {
+        pending.addAndGet(-batch.size());
+        batch.clear();
+      }
+    }
+  }
+}
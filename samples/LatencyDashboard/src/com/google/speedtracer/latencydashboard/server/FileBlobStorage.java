@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Keeps blobs in a local directory, one file per key. Files are spread over
+ * subdirectories by the first characters of their key's hash, so that no
+ * directory grows too large.
+ * 
+ * A blob is written to a temporary file that is renamed into place once it is
+ * on disk, so that readers never see a partially written one.
+ */
+public class FileBlobStorage implements BlobStorage {
+  private final File directory;
+
+  /**
+   * Uses <code>directory</code>, creating it if needed.
+   */
+  public FileBlobStorage(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create " + directory);
+    }
+    this.directory = directory;
+  }
+
+  public void delete(String key) {
+    getFile(key).delete();
+  }
+
+  public byte[] get(String key) {
+    final File file = getFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      final RandomAccessFile input = new RandomAccessFile(file, "r");
+      try {
+        final byte[] value = new byte[(int) input.length()];
+        input.readFully(value);
+        return value;
+      } finally {
+        input.close();
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public void put(String key, byte[] value) {
+    final File file = getFile(key);
+    final File parent = file.getParentFile();
+    try {
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Could not create " + parent);
+      }
+      final File temp = File.createTempFile(key, ".tmp", parent);
+      final FileOutputStream output = new FileOutputStream(temp);
+      try {
+        output.write(value);
+        output.getFD().sync();
+      } finally {
+        output.close();
+      }
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        throw new IOException("Could not rename " + temp + " to " + file);
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Keys start with a type and a dash, followed by a hash. Anything else, such
+   * as a key with a path separator in it, is refused rather than resolved
+   * outside of the directory.
+   */
+  private File getFile(String key) {
+    for (int i = 0; i < key.length(); ++i) {
+      final char c = key.charAt(i);
+      if ((c < 'a' || c > 'z') && (c < '0' || c > '9') && c != '-') {
+        throw new IllegalArgumentException("Malformed blob key " + key);
+      }
+    }
+    final int start = key.indexOf('-') + 1;
+    final String bucket = key.length() >= start + 2 ? key.substring(start,
+        start + 2) : "00";
+    return new File(new File(directory, bucket), key);
+  }
+}
@@ -0,0 +1,570 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps records in append-only files in a local directory, so that the
+ * dashboard can run, and be benchmarked, without the AppEngine datastore.
+ * 
+ * Each kind of record has its own log. A record is written as its payload
+ * length, a CRC32 of the payload and the payload itself. The records of one
+ * {@link #put(List, List)} are appended with one write and made durable with
+ * one fsync. Reads decode records straight from a memory mapping of the log.
+ * 
+ * The index, by timestamp and by name and revision, is kept in memory and
+ * rebuilt by scanning the log when it is opened. So are the rollups, which
+ * cost a few kilobytes for each name and bucket. A record that was only
+ * partially written when the process stopped fails its length or CRC check
+ * and is cut off the end of the log. A damaged record with intact records
+ * after it is skipped, and reported, rather than cutting them off too. A log
+ * can hold up to 2GB, the most that one mapping covers.
+ */
+public class FileRecordStorage implements RecordStorage {
+  /**
+   * An append-only file of records of one kind, and its index.
+   */
+  private abstract static class RecordLog<T> {
+    private static final int HEADER_SIZE = 8;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static String getRevisionKey(String name, String revision) {
+      return name + '\u0000' + revision;
+    }
+
+    private final FileChannel channel;
+
+    private int count;
+
+    private MappedByteBuffer map;
+
+    // Offsets of all records, ordered by timestamp. Records with the same
+    // timestamp are in the order stored.
+    private long[] offsets = new long[INITIAL_CAPACITY];
+
+    // Offsets of the records of each name and revision, in the order stored.
+    private final Map<String, List<Long>> revisions =
+        new HashMap<String, List<Long>>();
+
+    private long size;
+
+    // The timestamps of the records in offsets.
+    private double[] timestamps = new double[INITIAL_CAPACITY];
+
+    RecordLog(File file) throws IOException {
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      size = channel.size();
+      load();
+    }
+
+    synchronized void append(List<T> records) throws IOException {
+      if (records.isEmpty()) {
+        return;
+      }
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream output = new DataOutputStream(bytes);
+      final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      final CRC32 crc = new CRC32();
+      for (T record : records) {
+        payload.reset();
+        write(record, new DataOutputStream(payload));
+        crc.reset();
+        crc.update(payload.toByteArray());
+        output.writeInt(payload.size());
+        output.writeInt((int) crc.getValue());
+        payload.writeTo(output);
+      }
+
+      final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+      long position = size;
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+      channel.force(false);
+
+      long offset = size;
+      for (T record : records) {
+        index(record, offset);
+        offset += HEADER_SIZE + buffer.getInt((int) (offset - size));
+      }
+      size = position;
+    }
+
+    synchronized void close() throws IOException {
+      map = null;
+      channel.close();
+    }
+
+    synchronized List<T> getByRevision(String name, String revision)
+        throws IOException {
+      final List<Long> revisionOffsets = revisions.get(getRevisionKey(name,
+          revision));
+      final List<T> records = new ArrayList<T>();
+      if (revisionOffsets != null) {
+        final ByteBuffer view = getView();
+        for (Long offset : revisionOffsets) {
+          records.add(readAt(view, offset));
+        }
+      }
+      return records;
+    }
+
+    synchronized int getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the records from position <code>first</code>, inclusive, to
+     * <code>last</code>, exclusive, in timestamp order.
+     */
+    synchronized List<T> getRange(int first, int last) throws IOException {
+      final List<T> range = new ArrayList<T>(Math.max(0, last - first));
+      if (first < last) {
+        final ByteBuffer view = getView();
+        for (int i = first; i < last; ++i) {
+          range.add(readAt(view, offsets[i]));
+        }
+      }
+      return range;
+    }
+
+    /**
+     * Returns the latest <code>n</code> records, newest first.
+     */
+    synchronized List<T> getLatest(int n) throws IOException {
+      final int length = Math.max(0, Math.min(n, count));
+      final List<T> records = new ArrayList<T>(length);
+      if (length > 0) {
+        final ByteBuffer view = getView();
+        for (int i = count - 1; i >= count - length; --i) {
+          records.add(readAt(view, offsets[i]));
+        }
+      }
+      return records;
+    }
+
+    abstract String getName(T record);
+
+    abstract String getRevision(T record);
+
+    abstract double getTimestamp(T record);
+
+    abstract T read(ByteBuffer buffer);
+
+    abstract void write(T record, DataOutputStream output) throws IOException;
+
+    /**
+     * Returns a view of the log, mapping it again if it has grown.
+     */
+    private ByteBuffer getView() throws IOException {
+      if (map == null || map.capacity() < size) {
+        map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      return map.duplicate();
+    }
+
+    private void index(T record, long offset) {
+      if (count == offsets.length) {
+        final long[] newOffsets = new long[count * 2];
+        System.arraycopy(offsets, 0, newOffsets, 0, count);
+        offsets = newOffsets;
+        final double[] newTimestamps = new double[count * 2];
+        System.arraycopy(timestamps, 0, newTimestamps, 0, count);
+        timestamps = newTimestamps;
+      }
+      // Records mostly arrive in timestamp order, so this rarely shifts much.
+      final double timestamp = getTimestamp(record);
+      int index = count;
+      while (index > 0 && timestamps[index - 1] > timestamp) {
+        --index;
+      }
+      System.arraycopy(offsets, index, offsets, index + 1, count - index);
+      System.arraycopy(timestamps, index, timestamps, index + 1, count - index);
+      offsets[index] = offset;
+      timestamps[index] = timestamp;
+      ++count;
+
+      final String key = getRevisionKey(getName(record), getRevision(record));
+      List<Long> revisionOffsets = revisions.get(key);
+      if (revisionOffsets == null) {
+        revisionOffsets = new ArrayList<Long>();
+        revisions.put(key, revisionOffsets);
+      }
+      revisionOffsets.add(offset);
+    }
+
+    /**
+     * Returns the offset of the first intact record at or after
+     * <code>offset</code>, or -1 if there is none.
+     */
+    private long findRecord(ByteBuffer view, long offset) {
+      for (; offset + HEADER_SIZE <= size; ++offset) {
+        if (readChecked(view, offset) != null) {
+          return offset;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Indexes the records in the log. Damage followed by intact records, such
+     * as a corrupt block in the middle of the log, is skipped over and
+     * reported. Damage that runs to the end is a partially written record and
+     * is cut off.
+     */
+    private void load() throws IOException {
+      if (size == 0) {
+        return;
+      }
+      final ByteBuffer view = getView();
+      long offset = 0;
+      while (offset + HEADER_SIZE <= size) {
+        final T record = readChecked(view, offset);
+        if (record != null) {
+          index(record, offset);
+          offset += HEADER_SIZE + view.getInt((int) offset);
+          continue;
+        }
+        final long next = findRecord(view, offset + 1);
+        if (next < 0) {
+          break;
+        }
+        System.err.println("Skipping " + (next - offset)
+            + " corrupt bytes at offset " + offset + " of a record log");
+        offset = next;
+      }
+
+      if (offset < size) {
+        System.err.println("Truncating " + (size - offset)
+            + " bytes of partially written records");
+        map = null;
+        channel.truncate(offset);
+        size = offset;
+      }
+    }
+
+    /**
+     * Returns the record at <code>offset</code>, or <code>null</code> if its
+     * length or CRC does not check out or it can not be decoded.
+     */
+    private T readChecked(ByteBuffer view, long offset) {
+      final int length = view.getInt((int) offset);
+      if (length < 0 || offset + HEADER_SIZE + length > size) {
+        return null;
+      }
+      final byte[] payload = new byte[length];
+      view.position((int) offset + HEADER_SIZE);
+      view.get(payload);
+      final CRC32 crc = new CRC32();
+      crc.update(payload);
+      if ((int) crc.getValue() != view.getInt((int) offset + 4)) {
+        return null;
+      }
+      try {
+        return read(ByteBuffer.wrap(payload));
+      } catch (RuntimeException ex) {
+        // An empty or garbled payload that happens to match its CRC.
+        return null;
+      }
+    }
+
+    private T readAt(ByteBuffer view, long offset) {
+      view.limit((int) offset + HEADER_SIZE + view.getInt((int) offset));
+      view.position((int) offset + HEADER_SIZE);
+      final T record = read(view);
+      view.limit(view.capacity());
+      return record;
+    }
+  }
+
+  private static final String CUSTOM_DASHBOARD_LOG = "custom_dashboard_records.log";
+
+  private static final String DASHBOARD_LOG = "dashboard_records.log";
+
+  /**
+   * The number of records read at a time to rebuild the rollups.
+   */
+  private static final int ROLLUP_LOAD_BATCH_SIZE = 10000;
+
+  private final RecordLog<CustomDashboardRecord> customRecords;
+
+  private final RecordLog<DashboardRecord> records;
+
+  // By key, guarded by itself.
+  private final Map<String, Rollup> rollups = new HashMap<String, Rollup>();
+
+  /**
+   * Opens the logs in <code>directory</code>, creating them if needed.
+   */
+  public FileRecordStorage(File directory) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create " + directory);
+    }
+    records = new RecordLog<DashboardRecord>(
+        new File(directory, DASHBOARD_LOG)) {
+      @Override
+      String getName(DashboardRecord record) {
+        return record.getName();
+      }
+
+      @Override
+      String getRevision(DashboardRecord record) {
+        return record.getRevision();
+      }
+
+      @Override
+      double getTimestamp(DashboardRecord record) {
+        return record.getTimestamp();
+      }
+
+      @Override
+      DashboardRecord read(ByteBuffer buffer) {
+        final double timestamp = buffer.getDouble();
+        final DashboardRecord record = new DashboardRecord((long) timestamp,
+            ServerUtilities.readString(buffer),
+            ServerUtilities.readString(buffer));
+        record.setBootstrapDuration(buffer.getDouble());
+        record.setBootstrapStartTime(buffer.getDouble());
+        record.setDomContentLoadedTime(buffer.getDouble());
+        record.setEvalScriptDuration(buffer.getDouble());
+        record.setGarbageCollectionDuration(buffer.getDouble());
+        record.setJavaScriptExecutionDuration(buffer.getDouble());
+        record.setLayoutDuration(buffer.getDouble());
+        record.setLoadEventTime(buffer.getDouble());
+        record.setLoadExternalRefsDuration(buffer.getDouble());
+        record.setLoadExternalRefsTime(buffer.getDouble());
+        record.setMainResourceRequestTime(buffer.getDouble());
+        record.setMainResourceResponseTime(buffer.getDouble());
+        record.setModuleEvalDuration(buffer.getDouble());
+        record.setModuleStartupDuration(buffer.getDouble());
+        record.setModuleStartupTime(buffer.getDouble());
+        record.setPaintDuration(buffer.getDouble());
+        record.setParseHtmlDuration(buffer.getDouble());
+        record.setRecalculateStyleDuration(buffer.getDouble());
+        return record;
+      }
+
+      @Override
+      void write(DashboardRecord record, DataOutputStream output)
+          throws IOException {
+        output.writeDouble(record.getTimestamp());
+        ServerUtilities.writeString(output, record.getName());
+        ServerUtilities.writeString(output, record.getRevision());
+        output.writeDouble(record.bootstrapDuration);
+        output.writeDouble(record.bootstrapStartTime);
+        output.writeDouble(record.domContentLoadedTime);
+        output.writeDouble(record.evalScriptDuration);
+        output.writeDouble(record.garbageCollectionDuration);
+        output.writeDouble(record.javaScriptExecutionDuration);
+        output.writeDouble(record.layoutDuration);
+        output.writeDouble(record.loadEventTime);
+        output.writeDouble(record.loadExternalRefsDuration);
+        output.writeDouble(record.loadExternalRefsTime);
+        output.writeDouble(record.mainResourceRequestTime);
+        output.writeDouble(record.mainResourceResponseTime);
+        output.writeDouble(record.moduleEvalDuration);
+        output.writeDouble(record.moduleStartupDuration);
+        output.writeDouble(record.moduleStartupTime);
+        output.writeDouble(record.paintDuration);
+        output.writeDouble(record.parseHtmlDuration);
+        output.writeDouble(record.recalculateStyleDuration);
+      }
+    };
+
+    customRecords = new RecordLog<CustomDashboardRecord>(new File(directory,
+        CUSTOM_DASHBOARD_LOG)) {
+      @Override
+      String getName(CustomDashboardRecord record) {
+        return record.getName();
+      }
+
+      @Override
+      String getRevision(CustomDashboardRecord record) {
+        return record.getRevision();
+      }
+
+      @Override
+      double getTimestamp(CustomDashboardRecord record) {
+        return record.getTimestamp();
+      }
+
+      @Override
+      CustomDashboardRecord read(ByteBuffer buffer) {
+        final CustomDashboardRecord record = new CustomDashboardRecord(
+            buffer.getLong(), ServerUtilities.readString(buffer),
+            ServerUtilities.readString(buffer));
+        for (int i = buffer.getInt(); i > 0; --i) {
+          record.addCustomMeasure(ServerUtilities.readString(buffer),
+              buffer.getDouble());
+        }
+        return record;
+      }
+
+      @Override
+      void write(CustomDashboardRecord record, DataOutputStream output)
+          throws IOException {
+        output.writeLong(record.getTimestamp());
+        ServerUtilities.writeString(output, record.getName());
+        ServerUtilities.writeString(output, record.getRevision());
+        final Map<String, Double> metrics = record.getCustomMetrics();
+        output.writeInt(metrics.size());
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+          ServerUtilities.writeString(output, entry.getKey());
+          output.writeDouble(entry.getValue());
+        }
+      }
+    };
+
+    loadRollups();
+  }
+
+  public void close() throws IOException {
+    records.close();
+    customRecords.close();
+  }
+
+  public CustomDashboardRecord[] getCustomDashboardLatestRecords(int n) {
+    try {
+      final List<CustomDashboardRecord> latest = customRecords.getLatest(n);
+      return latest.toArray(new CustomDashboardRecord[latest.size()]);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public CustomDashboardRecord[] getCustomDashboardRecords(String name,
+      String revision) {
+    try {
+      final List<CustomDashboardRecord> found = customRecords.getByRevision(
+          name, revision);
+      return found.toArray(new CustomDashboardRecord[found.size()]);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public DashboardRecord[] getDashboardLatestRecords(int n) {
+    try {
+      final List<DashboardRecord> latest = records.getLatest(n);
+      return latest.toArray(new DashboardRecord[latest.size()]);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public DashboardRecord[] getDashboardRecords(String name, String revision) {
+    try {
+      final List<DashboardRecord> found = records.getByRevision(name, revision);
+      return found.toArray(new DashboardRecord[found.size()]);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public DashboardRollup[] getDashboardRollups(RollupPeriod period, int n) {
+    final List<Rollup> matching = new ArrayList<Rollup>();
+    synchronized (rollups) {
+      for (Rollup rollup : rollups.values()) {
+        if (rollup.getPeriod() == period) {
+          matching.add(rollup);
+        }
+      }
+      Collections.sort(matching, new Comparator<Rollup>() {
+        public int compare(Rollup a, Rollup b) {
+          return a.getLastTimestamp() > b.getLastTimestamp() ? -1
+              : a.getLastTimestamp() < b.getLastTimestamp() ? 1 : 0;
+        }
+      });
+      final int length = Math.max(0, Math.min(n, matching.size()));
+      final DashboardRollup[] result = new DashboardRollup[length];
+      for (int i = 0; i < length; ++i) {
+        result[i] = matching.get(i).toDashboardRollup();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Returns the number of records stored.
+   */
+  public int getRecordCount() {
+    return records.getCount() + customRecords.getCount();
+  }
+
+  public void put(List<DashboardRecord> dashboardRecords,
+      List<CustomDashboardRecord> customDashboardRecords) {
+    try {
+      records.append(dashboardRecords);
+      customRecords.append(customDashboardRecords);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    addToRollups(Rollup.collect(dashboardRecords, customDashboardRecords));
+  }
+
+  private void addToRollups(Collection<Rollup> deltas) {
+    synchronized (rollups) {
+      for (Rollup delta : deltas) {
+        final Rollup rollup = rollups.get(delta.getKey());
+        if (rollup == null) {
+          rollups.put(delta.getKey(), delta);
+        } else {
+          rollup.merge(delta);
+        }
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the rollups from the records, a batch at a time.
+   */
+  private void loadRollups() throws IOException {
+    final List<DashboardRecord> noRecords = Collections.emptyList();
+    final List<CustomDashboardRecord> noCustomRecords = Collections.emptyList();
+    for (int i = 0, n = records.getCount(); i < n;
+        i += ROLLUP_LOAD_BATCH_SIZE) {
+      final int last = Math.min(n, i + ROLLUP_LOAD_BATCH_SIZE);
+      addToRollups(Rollup.collect(records.getRange(i, last), noCustomRecords));
+    }
+    for (int i = 0, n = customRecords.getCount(); i < n;
+        i += ROLLUP_LOAD_BATCH_SIZE) {
+      final int last = Math.min(n, i + ROLLUP_LOAD_BATCH_SIZE);
+      addToRollups(Rollup.collect(noRecords, customRecords.getRange(i, last)));
+    }
+  }
+}
@@ -17,16 +17,20 @@ package com.google.speedtracer.latencydashboard.server;
 
 import com.google.json.serialization.JsonException;
 import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.server.TraceModel;
 import com.google.speedtracer.shared.EventRecordType;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.List;
 
 /**
  * A class that analyzes a SpeedTrace sent from the headless extension via XHR.
+ * 
+ * The analyzer registers itself with a {@link SpeedTraceAnalyzer} and collects
+ * its metrics from the log message events seen during
+ * {@link SpeedTraceAnalyzer#analyze()}.
  */
-public class GwtAnalyzer {
+public class GwtAnalyzer implements SpeedTraceAnalyzer.NodeConsumer {
   private static final String GWT_LIGHTWEIGHT_STATS_PREFIX = "__gwtStatsEvent: ";
 
   private double bootstrapEndTime = 0;
@@ -39,21 +43,30 @@ public class GwtAnalyzer {
   private double moduleStartupEndTime = 0;
   private double moduleStartupTime = 0;
 
-  private final SpeedTraceAnalyzer speedTraceAnalyzer;
-
   public GwtAnalyzer(SpeedTraceAnalyzer speedTraceAnalyzer) {
-
-    this.speedTraceAnalyzer = speedTraceAnalyzer;
+    speedTraceAnalyzer.addNodeConsumer(this);
   }
 
   /**
-   * Scans the data used to create this analyzer and extracts key metrics from
-   * the data.
-   * 
-   * @throws JsonException
+   * Extracts key metrics from GWT lightweight metrics log messages.
    */
-  public void analyze() throws JsonException {
-    analyzeLogRecords();
+  public void consume(TraceModel trace, int node) throws JsonException {
+    if (trace.getType(node) != EventRecordType.LOG_MESSAGE_EVENT) {
+      return;
+    }
+
+    String message = trace.getLabel(node);
+    if (message != null && message.startsWith(GWT_LIGHTWEIGHT_STATS_PREFIX)) {
+      try {
+        String embeddedJson = message.substring(GWT_LIGHTWEIGHT_STATS_PREFIX.length());
+        JsonObject messageObject = JsonObject.parse(new StringReader(
+            embeddedJson));
+        analyzeLightweightMetric(messageObject, trace.getTime(node));
+      } catch (IOException ex) {
+        System.err.println("Huh? IO Exception? " + ex);
+        ex.printStackTrace();
+      }
+    }
   }
 
   public double getBootstrapEndTime() {
@@ -119,27 +132,6 @@ public class GwtAnalyzer {
     }
   }
 
-  private void analyzeLogRecords() throws JsonException {
-    List<JsonObject> logRecords = speedTraceAnalyzer.findRecordsByType(EventRecordType.LOG_MESSAGE_EVENT);
-
-    for (JsonObject logRecord : logRecords) {
-      JsonObject dataObject = logRecord.get("data").asObject();
-      String message = dataObject.get("message").asString().getString();
-      if (message.startsWith(GWT_LIGHTWEIGHT_STATS_PREFIX)) {
-        try {
-          String embeddedJson = message.substring(GWT_LIGHTWEIGHT_STATS_PREFIX.length());
-          JsonObject messageObject = JsonObject.parse(new StringReader(
-              embeddedJson));
-          analyzeLightweightMetric(messageObject,
-              logRecord.get("time").asNumber().getDecimal());
-        } catch (IOException ex) {
-          System.err.println("Huh? IO Exception? " + ex);
-          ex.printStackTrace();
-        }
-      }
-    }
-  }
-
   private boolean isMatchingMetric(JsonObject messageObject, String subSystem,
       String evtGroup, String type) {
     String subSystemCmp = messageObject.get("subSystem").asString().getString();
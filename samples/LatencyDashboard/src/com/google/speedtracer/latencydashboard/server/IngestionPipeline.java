@@ -0,0 +1,215 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonException;
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Analyzes and stores the uploads posted to {@link SpeedTraceReceiverServlet}
+ * off the request that posted them.
+ * 
+ * {@link #submit(byte[], String)} saves the raw body, still content encoded,
+ * and returns. The upload is later run through {@link TraceAnalysis}, and the
+ * resulting {@link DashboardRecord} and {@link CustomDashboardRecord} are
+ * stored in the {@link RecordStorage}. {@link TaskQueueIngestionPipeline} does
+ * this in task queue tasks on AppEngine, {@link ExecutorIngestionPipeline} in
+ * local threads elsewhere; {@link ServerUtilities#createIngestionPipeline}
+ * picks one to match the storage.
+ * 
+ * When there is a {@link TraceArchive}, the full dump of each upload is also
+ * archived. A dump that can not be archived is logged and its records are
+ * stored all the same.
+ * 
+ * At most <code>capacity</code> uploads are pending at once. Beyond that
+ * {@link #submit(byte[], String)} refuses uploads, so that a burst is pushed
+ * back to the senders rather than piling up.
+ */
+public abstract class IngestionPipeline {
+  /**
+   * Uploads are held in memory while they are saved, so the largest accepted
+   * upload is still bounded.
+   */
+  public static final int MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * Adds the records of <code>analysis</code> to the lists to be stored.
+   */
+  static void addRecords(TraceAnalysis analysis, List<DashboardRecord> records,
+      List<CustomDashboardRecord> customRecords) {
+    records.add(analysis.getDashboardRecord());
+    if (analysis.getCustomDashboardRecord().isValid()) {
+      customRecords.add(analysis.getCustomDashboardRecord());
+    }
+  }
+
+  final AtomicLong accepted = new AtomicLong();
+
+  final int capacity;
+
+  final AtomicLong failed = new AtomicLong();
+
+  final AtomicLong rejected = new AtomicLong();
+
+  final AtomicLong retried = new AtomicLong();
+
+  final RecordStorage storage;
+
+  private final TraceArchive archive;
+
+  private final AtomicLong archiveFailed = new AtomicLong();
+
+  private final AtomicLong maxLatency = new AtomicLong();
+
+  private final AtomicLong stored = new AtomicLong();
+
+  private final AtomicLong totalLatency = new AtomicLong();
+
+  /**
+   * @param storage where records are stored
+   * @param archive where the full dumps are archived, or <code>null</code> to
+   *          not keep them
+   * @param capacity the number of uploads accepted but not yet stored, beyond
+   *          which uploads are refused
+   */
+  IngestionPipeline(RecordStorage storage, TraceArchive archive, int capacity) {
+    this.storage = storage;
+    this.archive = archive;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Stops taking uploads. Uploads that were accepted are stored first, where
+   * that is up to this instance.
+   */
+  public void close() {
+  }
+
+  /**
+   * Returns counters for monitoring. They only count the uploads that passed
+   * through this instance. Latencies are measured from when an upload is
+   * accepted to when its records are stored.
+   */
+  public JsonObject getMetrics() {
+    final long storedCount = stored.get();
+    final JsonObject metrics = new JsonObject();
+    metrics.put("accepted", accepted.get());
+    metrics.put("archiveFailed", archiveFailed.get());
+    metrics.put("failed", failed.get());
+    metrics.put("maxLatencyMs", maxLatency.get());
+    metrics.put("meanLatencyMs", storedCount == 0 ? 0
+        : (double) totalLatency.get() / storedCount);
+    metrics.put("pending", getPendingCount());
+    metrics.put("rejected", rejected.get());
+    metrics.put("retried", retried.get());
+    metrics.put("stored", storedCount);
+    return metrics;
+  }
+
+  /**
+   * Saves an upload to be analyzed and stored.
+   * 
+   * @param body the request body, still content encoded, of at most
+   *          {@link #MAX_UPLOAD_BYTES}
+   * @param contentEncoding the value of the Content-Encoding header, may be
+   *          <code>null</code>
+   * @return <code>false</code> if the pipeline is full and the upload was
+   *         refused
+   */
+  public abstract boolean submit(byte[] body, String contentEncoding);
+
+  /**
+   * Runs the analysis over an upload, and archives its dump.
+   * 
+   * @param body the upload, still content encoded
+   * @throws IOException if the upload can not be decoded
+   * @throws JsonException if the trace is malformed
+   */
+  TraceAnalysis analyze(InputStream body, String contentEncoding)
+      throws IOException, JsonException {
+    final InputStream input = ServerUtilities.decodeContent(body,
+        contentEncoding);
+    if (input == null) {
+      throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+    }
+    if (archive == null) {
+      return TraceAnalysis.analyze(input);
+    }
+    // The dump is archived as the analyzers read it, so that it is never held
+    // in memory whole.
+    final TraceArchive.ArchivingInputStream archiving = archive.archive(input);
+    final TraceAnalysis analysis;
+    boolean analyzed = false;
+    try {
+      analysis = TraceAnalysis.analyze(archiving);
+      analyzed = true;
+    } finally {
+      if (!analyzed) {
+        archiving.abandon();
+      }
+    }
+    try {
+      archiving.finish(analysis.getDashboardRecord());
+    } catch (IOException ex) {
+      archiveFailed(ex);
+    } catch (RuntimeException ex) {
+      archiveFailed(ex);
+    }
+    return analysis;
+  }
+
+  /**
+   * Counts an upload that is dropped, because it could not be read or
+   * analyzed.
+   */
+  void fail(String what, Exception ex) {
+    System.err.println("Failure " + what + " speedTrace upload: " + ex);
+    failed.incrementAndGet();
+  }
+
+  /**
+   * Returns the number of uploads accepted but not yet stored, counting no
+   * further than the capacity.
+   */
+  abstract long getPendingCount();
+
+  /**
+   * Counts an upload whose records were stored.
+   * 
+   * @param received when the upload was accepted
+   */
+  void stored(long received) {
+    final long latency = System.currentTimeMillis() - received;
+    totalLatency.addAndGet(latency);
+    long max = maxLatency.get();
+    while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+      max = maxLatency.get();
+    }
+    stored.incrementAndGet();
+  }
+
+  private void archiveFailed(Exception ex) {
+    System.err.println("Failure archiving speedTrace upload: " + ex);
+    archiveFailed.incrementAndGet();
+  }
+}
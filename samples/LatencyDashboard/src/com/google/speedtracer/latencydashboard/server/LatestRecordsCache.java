@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.DatastoreService;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of the latest records of one kind, newest first, for the
+ * dashboard charts that many viewers poll at once.
+ * 
+ * Records stored through this instance are added as they are written, and
+ * deleting records through this instance drops the cache. Records written or
+ * deleted by other instances are only seen once the cache is reloaded, which
+ * happens when it is older than its time to live.
+ * 
+ * @param <T> the type of record
+ */
+public abstract class LatestRecordsCache<T> {
+  private final int capacity;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private long loadTime;
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  // Newest first, null until loaded.
+  private List<T> records;
+
+  private final long ttlMs;
+
+  /**
+   * @param capacity the number of records kept, requests for more always go to
+   *          the datastore
+   * @param ttlMs how long the records are served before they are reloaded
+   */
+  protected LatestRecordsCache(int capacity, long ttlMs) {
+    this.capacity = capacity;
+    this.ttlMs = ttlMs;
+  }
+
+  /**
+   * Adds a record that was just stored.
+   */
+  public synchronized void add(T record) {
+    if (records == null) {
+      return;
+    }
+    final double timestamp = getTimestamp(record);
+    int index = records.size();
+    while (index > 0 && getTimestamp(records.get(index - 1)) <= timestamp) {
+      --index;
+    }
+    // A full cache already holds newer records than this one.
+    if (index < capacity) {
+      records.add(index, record);
+      if (records.size() > capacity) {
+        records.remove(capacity);
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Returns the latest <code>n</code> records, newest first.
+   */
+  public T[] getLatest(DatastoreService store, int n) {
+    if (n > capacity) {
+      missCount.incrementAndGet();
+      return toArray(load(store, n), n);
+    }
+    synchronized (this) {
+      final long now = System.currentTimeMillis();
+      if (records != null && now - loadTime < ttlMs) {
+        hitCount.incrementAndGet();
+      } else {
+        // Loading under the lock means that when the cache expires, only one
+        // of the viewers waiting on it queries the datastore.
+        missCount.incrementAndGet();
+        records = load(store, capacity);
+        loadTime = now;
+      }
+      return toArray(records, n);
+    }
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Drops the cached records, so that the next request reloads them.
+   */
+  public synchronized void invalidate() {
+    records = null;
+  }
+
+  protected abstract T[] createArray(int length);
+
+  protected abstract double getTimestamp(T record);
+
+  /**
+   * Queries the latest <code>n</code> records, newest first.
+   */
+  protected abstract Iterator<T> query(DatastoreService store, int n);
+
+  private List<T> load(DatastoreService store, int n) {
+    final List<T> loaded = new ArrayList<T>(n);
+    final Iterator<T> iter = query(store, n);
+    while (iter.hasNext()) {
+      loaded.add(iter.next());
+    }
+    return loaded;
+  }
+
+  private T[] toArray(List<T> list, int n) {
+    final T[] result = createArray(Math.max(0, Math.min(n, list.size())));
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = list.get(i);
+    }
+    return result;
+  }
+}
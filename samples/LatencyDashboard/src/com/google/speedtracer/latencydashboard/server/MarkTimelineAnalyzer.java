@@ -20,13 +20,13 @@ import com.google.json.serialization.JsonException;
 import com.google.json.serialization.JsonObject;
 import com.google.json.serialization.JsonString;
 import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.server.TraceModel;
 import com.google.speedtracer.shared.EventRecordType;
 
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.List;
 
 /**
  * Constructs {@link CustomDashboardRecord}s from console.markTimeline messages
@@ -52,39 +52,37 @@ import java.util.List;
  * e.g. __myTimeline{"measurementSet" : "foo", event : "baz" } records the 'baz'
  * event within the 'foo' measurement set. This should occur after the 'start'
  * event and before the 'total' event.
+ * 
+ * The analyzer registers itself with a {@link SpeedTraceAnalyzer} and picks up
+ * the messages during {@link SpeedTraceAnalyzer#analyze()}.
  */
 
-public class MarkTimelineAnalyzer {
+public class MarkTimelineAnalyzer implements SpeedTraceAnalyzer.NodeConsumer {
   private Map<String, MarkTimelineMeasurementSet> measurements = new TreeMap<String, MarkTimelineMeasurementSet>();
 
   private final String prefix;
 
-  private final SpeedTraceAnalyzer speedTraceAnalyzer;
-
   public MarkTimelineAnalyzer(SpeedTraceAnalyzer speedTraceAnalyzer,
       String prefix) {
     this.prefix = prefix;
-    this.speedTraceAnalyzer = speedTraceAnalyzer;
+    speedTraceAnalyzer.addNodeConsumer(this);
   }
 
-  // TODO(conroy): refactor this and the other analyzers to use a visitor (for
-  // a single pass on the data)
-  public void analyze() throws JsonException {
-    List<JsonObject> logRecords = speedTraceAnalyzer.findRecordsByType(EventRecordType.LOG_MESSAGE_EVENT);
-    for (JsonObject logRecord : logRecords) {
-      JsonObject dataObject = logRecord.get("data").asObject();
-      String message = dataObject.get("message").asString().getString();
-      if (message.startsWith(prefix)) {
-        try {
-          String embeddedJson = message.substring(prefix.length());
-          JsonObject timelineObject = JsonObject.parse(new StringReader(
-              embeddedJson));
-          analyzeTimelineMessage(timelineObject,
-              logRecord.get("time").asNumber().getDecimal());
-        } catch (IOException ex) {
-          System.err.println("Huh? IO Exception? " + ex);
-          ex.printStackTrace();
-        }
+  public void consume(TraceModel trace, int node) throws JsonException {
+    if (trace.getType(node) != EventRecordType.LOG_MESSAGE_EVENT) {
+      return;
+    }
+
+    String message = trace.getLabel(node);
+    if (message != null && message.startsWith(prefix)) {
+      try {
+        String embeddedJson = message.substring(prefix.length());
+        JsonObject timelineObject = JsonObject.parse(new StringReader(
+            embeddedJson));
+        analyzeTimelineMessage(timelineObject, trace.getTime(node));
+      } catch (IOException ex) {
+        System.err.println("Huh? IO Exception? " + ex);
+        ex.printStackTrace();
       }
     }
   }
@@ -130,7 +128,7 @@ public class MarkTimelineAnalyzer {
       MarkTimelineMeasurementSet measurement = measurements.get(measurementName);
       measurement.handleEvent(event, eventTime);
     } else {
-      System.out.println("Skipping measurementSet " + measurementName);
+      System.err.println("Skipping measurementSet " + measurementName);
     }
   }
 }
@@ -64,7 +64,7 @@ public class MarkTimelineMeasurementSet {
    */
   public void handleEvent(String event, double eventTime) {
     if (endTime != 0) {
-      System.out.println("Ignoring multiple event reports for " + name);
+      System.err.println("Ignoring multiple event reports for " + name);
       return;
     }
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Mergeable estimate of the distribution of a metric, from which quantiles can
+ * be read to within {@link #RELATIVE_ACCURACY} of the true value.
+ * 
+ * Values are counted in buckets whose bounds grow geometrically, so every
+ * value in a bucket is within the relative accuracy of the bucket's midpoint.
+ * Merging two sketches adds up their bucket counts, and gives the same sketch
+ * as adding all of their values to one. Only the buckets between the lowest
+ * and highest value are kept; latencies between a microsecond and an hour
+ * span about 1100. If a sketch ever needs more than {@link #MAX_BUCKETS}, the
+ * lowest buckets are folded together, which only costs accuracy at the lowest
+ * quantiles.
+ * 
+ * Values below {@link #MIN_VALUE}, including negative ones, are counted as 0.
+ */
+public class QuantileSketch {
+  static final int MAX_BUCKETS = 2048;
+
+  static final double MIN_VALUE = 1e-3;
+
+  static final double RELATIVE_ACCURACY = 0.01;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY)
+      / (1 - RELATIVE_ACCURACY);
+
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+
+  /**
+   * Reads a sketch written by {@link #write(DataOutputStream)}.
+   */
+  public static QuantileSketch read(ByteBuffer buffer) {
+    final QuantileSketch sketch = new QuantileSketch();
+    sketch.zeroCount = buffer.getLong();
+    sketch.offset = buffer.getInt();
+    final int length = buffer.getInt();
+    sketch.counts = new long[length];
+    for (int i = 0; i < length; ++i) {
+      sketch.counts[i] = buffer.getLong();
+      sketch.count += sketch.counts[i];
+    }
+    sketch.count += sketch.zeroCount;
+    return sketch;
+  }
+
+  private static int getIndex(double value) {
+    return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+  }
+
+  private static double getValue(int index) {
+    return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+  }
+
+  private long count;
+
+  // counts[i] is the number of values in bucket offset + i. Bucket i holds the
+  // values in (GAMMA^(i - 1), GAMMA^i].
+  private long[] counts = new long[0];
+
+  private int offset;
+
+  private long zeroCount;
+
+  public void add(double value) {
+    if (!(value >= MIN_VALUE)) {
+      ++zeroCount;
+    } else {
+      addToBucket(getIndex(value), 1);
+    }
+    ++count;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the estimated value at quantile <code>q</code>, between 0 and 1,
+   * or NaN if the sketch is empty.
+   */
+  public double getQuantile(double q) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    final long rank = (long) (q * (count - 1));
+    long seen = zeroCount;
+    if (rank < seen) {
+      return 0;
+    }
+    for (int i = 0; i < counts.length; ++i) {
+      seen += counts[i];
+      if (rank < seen) {
+        return getValue(offset + i);
+      }
+    }
+    return getValue(offset + counts.length - 1);
+  }
+
+  public void merge(QuantileSketch other) {
+    zeroCount += other.zeroCount;
+    if (counts.length == 0) {
+      offset = other.offset;
+      counts = new long[other.counts.length];
+    } else if (other.counts.length > 0) {
+      setRange(Math.min(offset, other.offset), Math.max(offset
+          + counts.length, other.offset + other.counts.length) - 1);
+    }
+    for (int i = 0; i < other.counts.length; ++i) {
+      if (other.counts[i] != 0) {
+        addToBucket(other.offset + i, other.counts[i]);
+      }
+    }
+    count += other.count;
+  }
+
+  /**
+   * Writes the sketch, leaving out empty buckets at either end.
+   */
+  public void write(DataOutputStream output) throws IOException {
+    int first = 0;
+    int last = counts.length - 1;
+    while (first <= last && counts[first] == 0) {
+      ++first;
+    }
+    while (last >= first && counts[last] == 0) {
+      --last;
+    }
+    output.writeLong(zeroCount);
+    output.writeInt(offset + first);
+    output.writeInt(last - first + 1);
+    for (int i = first; i <= last; ++i) {
+      output.writeLong(counts[i]);
+    }
+  }
+
+  private void addToBucket(int index, long n) {
+    if (counts.length == 0) {
+      offset = index;
+      counts = new long[1];
+    } else {
+      setRange(Math.min(index, offset), Math.max(index, offset
+          + counts.length - 1));
+    }
+    // Values below the lowest bucket were folded into it.
+    counts[Math.max(index, offset) - offset] += n;
+  }
+
+  /**
+   * Resizes the buckets to cover <code>low</code> to <code>high</code>. If
+   * that is more than {@link #MAX_BUCKETS}, the lowest are folded together.
+   */
+  private void setRange(int low, int high) {
+    low = Math.max(low, high - MAX_BUCKETS + 1);
+    if (low == offset && high == offset + counts.length - 1) {
+      return;
+    }
+    final long[] newCounts = new long[high - low + 1];
+    for (int i = 0; i < counts.length; ++i) {
+      newCounts[Math.max(offset + i, low) - low] += counts[i];
+    }
+    counts = newCounts;
+    offset = low;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import java.util.List;
+
+/**
+ * Where {@link DashboardRecord}s and {@link CustomDashboardRecord}s are kept.
+ * {@link DatastoreRecordStorage} keeps them in the AppEngine datastore and
+ * {@link FileRecordStorage} in local files, for running the dashboard on other
+ * hosts. {@link ServerUtilities#getRecordStorage()} returns the one that is
+ * configured.
+ */
+public interface RecordStorage {
+  /**
+   * Returns the latest <code>n</code> custom records, newest first.
+   */
+  CustomDashboardRecord[] getCustomDashboardLatestRecords(int n);
+
+  /**
+   * Returns the custom records with the given name and revision.
+   */
+  CustomDashboardRecord[] getCustomDashboardRecords(String name,
+      String revision);
+
+  /**
+   * Returns the latest <code>n</code> records, newest first.
+   */
+  DashboardRecord[] getDashboardLatestRecords(int n);
+
+  /**
+   * Returns the records with the given name and revision.
+   */
+  DashboardRecord[] getDashboardRecords(String name, String revision);
+
+  /**
+   * Returns the latest <code>n</code> rollups of <code>period</code>, by the
+   * time of their latest record, newest first.
+   */
+  DashboardRollup[] getDashboardRollups(RollupPeriod period, int n);
+
+  /**
+   * Stores several records at once, and adds them to the rollups. Either list
+   * may be empty.
+   */
+  void put(List<DashboardRecord> records,
+      List<CustomDashboardRecord> customRecords);
+}
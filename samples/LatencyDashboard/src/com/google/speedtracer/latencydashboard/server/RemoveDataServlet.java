@@ -109,6 +109,9 @@ public class RemoveDataServlet extends HttpServlet {
         try {
           dss.delete(keys);
           deletedCount += keys.size();
+          // Stop serving the deleted records from this instance's caches.
+          DashboardRecordStore.getLatestCache().invalidate();
+          CustomDashboardRecordStore.getLatestCache().invalidate();
           break;
         } catch (Throwable ignore) {
           continue;
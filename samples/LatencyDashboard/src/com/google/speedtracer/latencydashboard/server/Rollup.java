@@ -0,0 +1,391 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.MetricSummary;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running statistics of every metric of the records of one name in one
+ * {@link RollupPeriod} bucket. This is the server side, mergeable form of a
+ * {@link DashboardRollup}.
+ * 
+ * Rollups are maintained as records are stored: the records of each batch are
+ * collected into delta rollups with {@link #collect(List, List)}, which are
+ * then merged into the stored ones. Serving the charts then costs one rollup
+ * per bucket rather than one record per run.
+ * 
+ * Only durations and times relative to the start of a run are summarized. The
+ * start itself, {@link TraceAnalysis#BASE_TIME_METRIC}, is a wall clock time
+ * and is left out; the rollup keeps the first and last timestamps instead.
+ */
+public class Rollup {
+  /**
+   * Running statistics of a single metric.
+   */
+  static class Metric {
+    static Metric read(ByteBuffer buffer) {
+      final Metric metric = new Metric();
+      metric.sum = buffer.getDouble();
+      metric.min = buffer.getDouble();
+      metric.max = buffer.getDouble();
+      metric.sketch = QuantileSketch.read(buffer);
+      return metric;
+    }
+
+    private double max = Double.NEGATIVE_INFINITY;
+
+    private double min = Double.POSITIVE_INFINITY;
+
+    private QuantileSketch sketch = new QuantileSketch();
+
+    private double sum;
+
+    void add(double value) {
+      if (Double.isNaN(value)) {
+        return;
+      }
+      sum += value;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+      sketch.add(value);
+    }
+
+    long getCount() {
+      return sketch.getCount();
+    }
+
+    /**
+     * Returns the estimated value at quantile <code>q</code>, which is never
+     * outside of the exact minimum and maximum.
+     */
+    double getQuantile(double q) {
+      return Math.max(min, Math.min(max, sketch.getQuantile(q)));
+    }
+
+    void merge(Metric other) {
+      sum += other.sum;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+      sketch.merge(other.sketch);
+    }
+
+    MetricSummary toSummary() {
+      final long count = getCount();
+      if (count == 0) {
+        return new MetricSummary(0, Double.NaN, Double.NaN, Double.NaN,
+            Double.NaN, Double.NaN, Double.NaN);
+      }
+      return new MetricSummary(count, sum / count, min, max, getQuantile(0.5),
+          getQuantile(0.9), getQuantile(0.99));
+    }
+
+    void write(DataOutputStream output) throws IOException {
+      output.writeDouble(sum);
+      output.writeDouble(min);
+      output.writeDouble(max);
+      sketch.write(output);
+    }
+  }
+
+  // The index of TraceAnalysis.BASE_TIME_METRIC, which is not summarized.
+  private static final int BASE_TIME_INDEX = Arrays.asList(
+      TraceAnalysis.METRIC_NAMES).indexOf(TraceAnalysis.BASE_TIME_METRIC);
+
+  /**
+   * Collects the records of a batch into one rollup for each name and bucket
+   * of every {@link RollupPeriod}.
+   */
+  public static Collection<Rollup> collect(List<DashboardRecord> records,
+      List<CustomDashboardRecord> customRecords) {
+    final Map<String, Rollup> rollups = new LinkedHashMap<String, Rollup>();
+    for (DashboardRecord record : records) {
+      final long timestamp = (long) record.getTimestamp();
+      for (RollupPeriod period : RollupPeriod.values()) {
+        getRollup(rollups, record.getName(), period, record.getRevision(),
+            timestamp).add(record);
+      }
+    }
+    for (CustomDashboardRecord customRecord : customRecords) {
+      for (RollupPeriod period : RollupPeriod.values()) {
+        getRollup(rollups, customRecord.getName(), period,
+            customRecord.getRevision(), customRecord.getTimestamp()).add(
+            customRecord);
+      }
+    }
+    return rollups.values();
+  }
+
+  /**
+   * Reads a rollup written by {@link #write(DataOutputStream)}.
+   */
+  public static Rollup read(ByteBuffer buffer) {
+    final RollupPeriod period = RollupPeriod.valueOf(
+        ServerUtilities.readString(buffer));
+    final String name = ServerUtilities.readString(buffer);
+    final String bucket = ServerUtilities.readString(buffer);
+    final Rollup rollup = new Rollup(period, name, bucket, buffer.getLong());
+    rollup.firstTimestamp = buffer.getLong();
+    rollup.lastTimestamp = buffer.getLong();
+    rollup.revision = ServerUtilities.readString(buffer);
+    rollup.count = buffer.getInt();
+    rollup.customCount = buffer.getInt();
+    for (int i = 0; i < rollup.metrics.length; ++i) {
+      rollup.metrics[i] = Metric.read(buffer);
+    }
+    for (int i = buffer.getInt(); i > 0; --i) {
+      rollup.customMetrics.put(ServerUtilities.readString(buffer),
+          Metric.read(buffer));
+    }
+    return rollup;
+  }
+
+  /**
+   * Creates an empty rollup for the bucket that holds a record of
+   * <code>revision</code> taken at <code>timestamp</code>.
+   */
+  private static Rollup create(RollupPeriod period, String name,
+      String revision, long timestamp) {
+    final Rollup rollup = new Rollup(period, name, getBucket(period,
+        revision, timestamp), period.getBucketStart(timestamp));
+    rollup.revision = revision;
+    for (int i = 0; i < rollup.metrics.length; ++i) {
+      rollup.metrics[i] = new Metric();
+    }
+    return rollup;
+  }
+
+  /**
+   * The name is prefixed with its length, so that keys can not collide
+   * whatever characters the name holds.
+   */
+  private static String formatKey(RollupPeriod period, String name,
+      String bucket) {
+    return period + ":" + String.valueOf(name).length() + ":" + name + ":"
+        + bucket;
+  }
+
+  /**
+   * Returns the revision for a {@link RollupPeriod#REVISION} rollup, otherwise
+   * the start of the time bucket.
+   */
+  private static String getBucket(RollupPeriod period, String revision,
+      long timestamp) {
+    return period == RollupPeriod.REVISION ? revision
+        : Long.toString(period.getBucketStart(timestamp));
+  }
+
+  private static Rollup getRollup(Map<String, Rollup> rollups, String name,
+      RollupPeriod period, String revision, long timestamp) {
+    final String key = formatKey(period, name, getBucket(period, revision,
+        timestamp));
+    Rollup rollup = rollups.get(key);
+    if (rollup == null) {
+      rollup = create(period, name, revision, timestamp);
+      rollups.put(key, rollup);
+    }
+    return rollup;
+  }
+
+  // The revision the bucket is keyed by, or the starting time as a string.
+  private final String bucket;
+
+  private int count;
+
+  private int customCount;
+
+  private final Map<String, Metric> customMetrics =
+      new TreeMap<String, Metric>();
+
+  private long firstTimestamp = Long.MAX_VALUE;
+
+  private long lastTimestamp = Long.MIN_VALUE;
+
+  // In the order of TraceAnalysis.METRIC_NAMES.
+  private final Metric[] metrics =
+      new Metric[TraceAnalysis.METRIC_NAMES.length];
+
+  private final String name;
+
+  private final RollupPeriod period;
+
+  // The revision of the latest record.
+  private String revision;
+
+  private final long start;
+
+  private Rollup(RollupPeriod period, String name, String bucket, long start) {
+    this.period = period;
+    this.name = name;
+    this.bucket = bucket;
+    this.start = start;
+  }
+
+  public void add(CustomDashboardRecord customRecord) {
+    addTimestamp(customRecord.getTimestamp(), customRecord.getRevision());
+    for (Map.Entry<String, Double> entry :
+        customRecord.getCustomMetrics().entrySet()) {
+      Metric metric = customMetrics.get(entry.getKey());
+      if (metric == null) {
+        metric = new Metric();
+        customMetrics.put(entry.getKey(), metric);
+      }
+      metric.add(entry.getValue());
+    }
+    ++customCount;
+  }
+
+  public void add(DashboardRecord record) {
+    addTimestamp((long) record.getTimestamp(), record.getRevision());
+    final double[] values = TraceAnalysis.getMetrics(record);
+    for (int i = 0; i < metrics.length; ++i) {
+      if (i != BASE_TIME_INDEX) {
+        metrics[i].add(values[i]);
+      }
+    }
+    ++count;
+  }
+
+  /**
+   * Returns a key that identifies the name, period and bucket of the rollup.
+   */
+  public String getKey() {
+    return formatKey(period, name, bucket);
+  }
+
+  public long getLastTimestamp() {
+    return lastTimestamp;
+  }
+
+  public RollupPeriod getPeriod() {
+    return period;
+  }
+
+  /**
+   * Adds the records of <code>other</code>, a rollup with the same key.
+   */
+  public void merge(Rollup other) {
+    if (!getKey().equals(other.getKey())) {
+      throw new IllegalArgumentException("Cannot merge rollup "
+          + other.getKey() + " into " + getKey());
+    }
+    firstTimestamp = Math.min(firstTimestamp, other.firstTimestamp);
+    addTimestamp(other.lastTimestamp, other.revision);
+    for (int i = 0; i < metrics.length; ++i) {
+      metrics[i].merge(other.metrics[i]);
+    }
+    for (Map.Entry<String, Metric> entry : other.customMetrics.entrySet()) {
+      final Metric metric = customMetrics.get(entry.getKey());
+      if (metric == null) {
+        final Metric copy = new Metric();
+        copy.merge(entry.getValue());
+        customMetrics.put(entry.getKey(), copy);
+      } else {
+        metric.merge(entry.getValue());
+      }
+    }
+    count += other.count;
+    customCount += other.customCount;
+  }
+
+  public byte[] toBytes() {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      write(new DataOutputStream(bytes));
+    } catch (IOException ex) {
+      // Not thrown when writing to memory.
+      throw new RuntimeException(ex);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Returns the summary served to the charts.
+   */
+  public DashboardRollup toDashboardRollup() {
+    final DashboardRollup result = new DashboardRollup(name, period, start,
+        revision, firstTimestamp, lastTimestamp);
+    result.setCount(count);
+    result.setCustomCount(customCount);
+
+    final double[] medians = new double[metrics.length];
+    for (int i = 0; i < metrics.length; ++i) {
+      if (i == BASE_TIME_INDEX) {
+        medians[i] = Double.NaN;
+        continue;
+      }
+      final MetricSummary summary = metrics[i].toSummary();
+      result.getMetrics().put(TraceAnalysis.METRIC_NAMES[i], summary);
+      medians[i] = summary.getP50();
+    }
+    final DashboardRecord medianRecord = new DashboardRecord(lastTimestamp,
+        name, revision);
+    TraceAnalysis.setMetrics(medianRecord, medians);
+    result.setMedianRecord(medianRecord);
+
+    final CustomDashboardRecord customMedianRecord = new CustomDashboardRecord(
+        lastTimestamp, name, revision);
+    for (Map.Entry<String, Metric> entry : customMetrics.entrySet()) {
+      final MetricSummary summary = entry.getValue().toSummary();
+      result.getCustomMetrics().put(entry.getKey(), summary);
+      customMedianRecord.addCustomMeasure(entry.getKey(), summary.getP50());
+    }
+    result.setCustomMedianRecord(customMedianRecord);
+    return result;
+  }
+
+  public void write(DataOutputStream output) throws IOException {
+    ServerUtilities.writeString(output, period.name());
+    ServerUtilities.writeString(output, name);
+    ServerUtilities.writeString(output, bucket);
+    output.writeLong(start);
+    output.writeLong(firstTimestamp);
+    output.writeLong(lastTimestamp);
+    ServerUtilities.writeString(output, revision);
+    output.writeInt(count);
+    output.writeInt(customCount);
+    for (Metric metric : metrics) {
+      metric.write(output);
+    }
+    output.writeInt(customMetrics.size());
+    for (Map.Entry<String, Metric> entry : customMetrics.entrySet()) {
+      ServerUtilities.writeString(output, entry.getKey());
+      entry.getValue().write(output);
+    }
+  }
+
+  private void addTimestamp(long timestamp, String timestampRevision) {
+    firstTimestamp = Math.min(firstTimestamp, timestamp);
+    if (timestamp >= lastTimestamp) {
+      lastTimestamp = timestamp;
+      revision = timestampRevision;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+/**
+ * Handles persistence for {@link Rollup}.
+ * 
+ * Each rollup is its own entity, named by its key, so merging a batch into it
+ * is a transactional read, merge and write of that one entity. The same
+ * transaction writes a child entity named by the batch, so that a batch which
+ * is stored again, after a failure part way through, is only counted once.
+ * 
+ * Rollups only cover the records stored since rollups were introduced; older
+ * records are not backfilled, so the history of the charts starts empty.
+ */
+public class RollupStore {
+  /**
+   * The kind of the entity that marks a batch as merged into its parent.
+   */
+  private static final String BATCH_KIND = "DashboardRollupBatch";
+
+  private static final String KIND = "DashboardRollup";
+
+  /**
+   * Attempts at merging into a rollup that another instance is updating at
+   * the same time.
+   */
+  private static final int MAX_ATTEMPTS = 5;
+
+  private static final String PROP_DATA = "data";
+  private static final String PROP_LAST_TIMESTAMP = "last_timestamp";
+  private static final String PROP_PERIOD = "period";
+
+  public static Rollup get(Entity entity) {
+    final Blob data = (Blob) entity.getProperty(PROP_DATA);
+    return Rollup.read(ByteBuffer.wrap(data.getBytes()));
+  }
+
+  /**
+   * Returns the latest <code>n</code> rollups of <code>period</code>, newest
+   * first.
+   */
+  public static DashboardRollup[] getLatest(DatastoreService store,
+      RollupPeriod period, int n) {
+    final Query query = new Query(KIND).addFilter(PROP_PERIOD,
+        FilterOperator.EQUAL, period.name()).addSort(PROP_LAST_TIMESTAMP,
+        SortDirection.DESCENDING);
+    final List<DashboardRollup> rollups = new ArrayList<DashboardRollup>();
+    for (Entity entity : store.prepare(query).asIterable(
+        FetchOptions.Builder.withLimit(n))) {
+      rollups.add(get(entity).toDashboardRollup());
+    }
+    return rollups.toArray(new DashboardRollup[rollups.size()]);
+  }
+
+  /**
+   * Merges each of <code>deltas</code> into the stored rollup with the same
+   * key, creating it if needed. Rollups that already hold the batch are left
+   * as they are.
+   * 
+   * @param batchId identifies the records the deltas were collected from
+   * @throws ConcurrentModificationException if a rollup could not be updated,
+   *           in which case the batch should be merged again later
+   */
+  public static void merge(DatastoreService store, String batchId,
+      Collection<Rollup> deltas) {
+    for (Rollup delta : deltas) {
+      merge(store, batchId, delta);
+    }
+  }
+
+  static Entity toEntity(Key key, Rollup rollup) {
+    final Entity entity = new Entity(key);
+    entity.setProperty(PROP_PERIOD, rollup.getPeriod().name());
+    entity.setProperty(PROP_LAST_TIMESTAMP, rollup.getLastTimestamp());
+    entity.setUnindexedProperty(PROP_DATA, new Blob(rollup.toBytes()));
+    return entity;
+  }
+
+  private static void merge(DatastoreService store, String batchId,
+      Rollup delta) {
+    final Key key = KeyFactory.createKey(KIND, delta.getKey());
+    final Key batchKey = KeyFactory.createKey(key, BATCH_KIND, batchId);
+    for (int attempt = 1;; ++attempt) {
+      final Transaction txn = store.beginTransaction();
+      try {
+        try {
+          store.get(txn, batchKey);
+          return;
+        } catch (EntityNotFoundException ex) {
+          // Not merged yet.
+        }
+
+        Rollup rollup;
+        try {
+          rollup = get(store.get(txn, key));
+          rollup.merge(delta);
+        } catch (EntityNotFoundException ex) {
+          rollup = delta;
+        }
+        store.put(txn, Arrays.asList(toEntity(key, rollup), new Entity(
+            batchKey)));
+        txn.commit();
+        return;
+      } catch (ConcurrentModificationException ex) {
+        if (attempt == MAX_ATTEMPTS) {
+          throw ex;
+        }
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+  }
+}
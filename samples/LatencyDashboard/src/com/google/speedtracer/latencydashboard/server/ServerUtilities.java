@@ -15,15 +15,161 @@
  */
 package com.google.speedtracer.latencydashboard.server;
 
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.labs.taskqueue.QueueFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Utility class for server side code.
  */
 public class ServerUtilities {
+  /**
+   * The system property that selects where records are kept: "datastore", the
+   * default, or "file:" followed by the directory for a
+   * {@link FileRecordStorage}. The {@link TraceArchive} is kept in the same
+   * place, in a "traces" subdirectory for files.
+   * 
+   * AppEngine can not write local files, so files are for running the war in
+   * another servlet container, started with for example
+   * <code>-Dlatencydashboard.storage=file:/var/lib/latencydashboard</code>.
+   */
+  public static final String STORAGE_PROPERTY = "latencydashboard.storage";
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static RecordStorage recordStorage;
+
+  private static TraceArchive traceArchive;
+
+  /**
+   * Returns a new pipeline for uploads that suits the storage selected by
+   * {@link #STORAGE_PROPERTY}: task queue tasks for the datastore, local
+   * threads for files.
+   * 
+   * @param storage where records are stored
+   * @param archive where the full dumps are archived, or <code>null</code>
+   * @param capacity the number of uploads accepted but not yet stored
+   * @param workers the number of local threads, used with files
+   * @param taskUrl the URL that ingest tasks post to, used with the datastore
+   */
+  public static IngestionPipeline createIngestionPipeline(
+      RecordStorage storage, TraceArchive archive, int capacity, int workers,
+      String taskUrl) {
+    final String setting = System.getProperty(STORAGE_PROPERTY, "datastore");
+    if (setting.startsWith("file:")) {
+      return new ExecutorIngestionPipeline(storage, archive, capacity,
+          workers);
+    } else if ("datastore".equals(setting)) {
+      return new TaskQueueIngestionPipeline(storage,
+          DatastoreServiceFactory.getDatastoreService(), archive,
+          QueueFactory.getQueue(TaskQueueIngestionPipeline.QUEUE_NAME),
+          taskUrl, capacity);
+    } else {
+      throw new IllegalArgumentException("Unknown " + STORAGE_PROPERTY + ": "
+          + setting);
+    }
+  }
+
+  /**
+   * Wraps a request body so that it is decompressed as it is read.
+   * 
+   * @param input the raw request body
+   * @param contentEncoding the value of the Content-Encoding header, may be
+   *          <code>null</code>
+   * @return a stream of the decoded body, or <code>null</code> if the encoding
+   *         is not supported
+   * @throws IOException
+   */
+  public static InputStream decodeContent(InputStream input,
+      String contentEncoding) throws IOException {
+    if (contentEncoding == null || contentEncoding.length() == 0
+        || "identity".equalsIgnoreCase(contentEncoding)) {
+      return input;
+    }
+    if ("gzip".equalsIgnoreCase(contentEncoding)
+        || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+      return new GZIPInputStream(input, 16 * 1024);
+    }
+    if ("deflate".equalsIgnoreCase(contentEncoding)) {
+      return new InflaterInputStream(input);
+    }
+    return null;
+  }
+
+  /**
+   * Reads an input stream to the end.
+   * 
+   * @param input stream to read from.
+   * @return the bytes read.
+   * @throws IOException
+   */
+  public static byte[] streamToBytes(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
+    byte[] buffer = new byte[16 * 1024];
+    int result = 0;
+    while (-1 != (result = input.read(buffer))) {
+      output.write(buffer, 0, result);
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Returns the storage selected by {@link #STORAGE_PROPERTY}, shared by all of
+   * the servlets.
+   * 
+   * @throws IOException if the storage files can not be opened
+   */
+  public static synchronized RecordStorage getRecordStorage()
+      throws IOException {
+    if (recordStorage == null) {
+      final String storage = System.getProperty(STORAGE_PROPERTY, "datastore");
+      if (storage.startsWith("file:")) {
+        recordStorage = new FileRecordStorage(new File(storage.substring(5)));
+      } else if ("datastore".equals(storage)) {
+        recordStorage = new DatastoreRecordStorage(
+            DatastoreServiceFactory.getDatastoreService());
+      } else {
+        throw new IllegalArgumentException("Unknown " + STORAGE_PROPERTY
+            + ": " + storage);
+      }
+    }
+    return recordStorage;
+  }
+
+  /**
+   * Returns the archive of full traces, kept where {@link #STORAGE_PROPERTY}
+   * selects and shared by all of the servlets.
+   * 
+   * @throws IOException if the archive directory can not be created
+   */
+  public static synchronized TraceArchive getTraceArchive() throws IOException {
+    if (traceArchive == null) {
+      final String storage = System.getProperty(STORAGE_PROPERTY, "datastore");
+      if (storage.startsWith("file:")) {
+        traceArchive = new TraceArchive(new FileBlobStorage(new File(
+            storage.substring(5), "traces")));
+      } else if ("datastore".equals(storage)) {
+        traceArchive = new TraceArchive(new DatastoreBlobStorage(
+            DatastoreServiceFactory.getDatastoreService()));
+      } else {
+        throw new IllegalArgumentException("Unknown " + STORAGE_PROPERTY
+            + ": " + storage);
+      }
+    }
+    return traceArchive;
+  }
 
   /**
    * Read an input stream as UTF8 bytes and converts to a String.
@@ -61,6 +207,77 @@ public class ServerUtilities {
     return writer.toString();
   }
 
+  static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException ex) {
+      // Every Java platform has SHA-1.
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Returns an id for the run of <code>name</code> at <code>revision</code>
+   * that was taken at <code>timestamp</code>. The records of a run that is
+   * stored again get the same id.
+   */
+  static String getRunId(String name, String revision, long timestamp) {
+    final String id = name + '\u0000' + revision + '\u0000' + timestamp;
+    try {
+      return hash(id.getBytes("UTF-8"));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Returns the SHA-1 of <code>bytes</code> in hex.
+   */
+  static String hash(byte[] bytes) {
+    return toHex(createDigest().digest(bytes));
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+   */
+  static String readString(ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  static String toHex(byte[] digest) {
+    final char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; ++i) {
+      hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /**
+   * Writes a string, which may be <code>null</code>, as its UTF-8 length and
+   * bytes.
+   */
+  static void writeString(DataOutputStream output, String value)
+      throws IOException {
+    if (value == null) {
+      output.writeInt(-1);
+      return;
+    }
+    final byte[] bytes = value.getBytes("UTF-8");
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
   private ServerUtilities() {
     // Utility class. Do not instantiate.
   }
@@ -18,9 +18,7 @@ package com.google.speedtracer.latencydashboard.server;
 import com.google.json.serialization.JsonArray;
 import com.google.json.serialization.JsonException;
 import com.google.json.serialization.JsonObject;
-import com.google.json.serialization.JsonValue;
-import com.google.speedtracer.server.JsonTraverser;
-import com.google.speedtracer.server.SelfTimeVisitor;
+import com.google.speedtracer.server.TraceModel;
 import com.google.speedtracer.shared.EventRecordType;
 
 import java.util.ArrayList;
@@ -28,8 +26,29 @@ import java.util.List;
 
 /**
  * A class that analyzes a SpeedTrace sent from the headless extension via XHR.
+ * 
+ * The records are converted into a {@link TraceModel}, either all at once or
+ * one record at a time as they are streamed in, and all of the analysis happens
+ * in a single pass over them. Other analyzers that need to look at individual
+ * events register a {@link NodeConsumer} with
+ * {@link #addNodeConsumer(NodeConsumer)} before the analysis starts instead of
+ * scanning the records themselves.
  */
 public class SpeedTraceAnalyzer {
+  /**
+   * Receives each event node, in pre-order, from the main resource request
+   * onward during the analysis.
+   */
+  public interface NodeConsumer {
+    void consume(TraceModel trace, int node) throws JsonException;
+  }
+
+  /**
+   * Used to convert one record at a time when records are streamed in with
+   * {@link #analyzeRecord(JsonObject)}.
+   */
+  private TraceModel.Builder builder;
+  private final List<NodeConsumer> consumers = new ArrayList<NodeConsumer>();
   private double domContentLoadedTime = 0;
   private double evalScriptDuration = 0;
   private double garbageCollectionDuration = 0;
@@ -38,89 +57,89 @@ public class SpeedTraceAnalyzer {
   private double loadEventTime = 0;
   private long mainResourceIdentfier;
   private double mainResourceResponseTime = 0;
+  private boolean mainResourceResponseFound = false;
   private int mainResourceStartIndex = -1;
   private double mainResourceStartTime = 0;
   private double paintDuration = 0;
   private double parseHtmlDuration = 0;
-  private final JsonArray records;
+  private int recordCount = 0;
   private double styleRecalculationDuration;
+  private final TraceModel trace;
+
+  /**
+   * Creates an analyzer that is fed records one at a time with
+   * {@link #analyzeRecord(JsonObject)}, followed by a call to
+   * {@link #finish()}.
+   */
+  public SpeedTraceAnalyzer() {
+    this.trace = null;
+  }
 
-  public SpeedTraceAnalyzer(JsonArray recordsJsonArray) {
-    this.records = recordsJsonArray;
+  public SpeedTraceAnalyzer(JsonArray recordsJsonArray) throws JsonException {
+    this(TraceModel.create(recordsJsonArray));
+  }
+
+  public SpeedTraceAnalyzer(TraceModel trace) {
+    this.trace = trace;
+  }
+
+  /**
+   * Registers a consumer to receive the analyzed event nodes. Must be called
+   * before any records are analyzed.
+   */
+  public void addNodeConsumer(NodeConsumer consumer) {
+    consumers.add(consumer);
   }
 
   /**
-   * Run the analysis on the specified records.
+   * Run the analysis on the records passed to the constructor.
+   * 
+   * The main resource request and response are located from the top level
+   * records, and every node from the main resource request onward is
+   * aggregated and passed to the registered {@link NodeConsumer}s, all in one
+   * pass.
    * 
    * @throws JsonException
    */
   public void analyze() throws JsonException {
-    calcSelfTime();
-
-    this.mainResourceStartIndex = findMainResourceStartTime();
-    this.mainResourceResponseTime = findMainResourceResponseTime();
-    
-    JsonTraverser traverser = new JsonTraverser();
-
-    JsonTraverser.JsonVisitor visitor = new JsonTraverser.JsonVisitor() {
-      public void postProcess() {
-      }
+    for (int i = 0, length = trace.getRecordCount(); i < length; ++i) {
+      analyzeRecord(trace, trace.getRecordNode(i));
+    }
+    finish();
+  }
 
-      public void visit(JsonObject node) throws JsonException {
-        int type = (int) (node.get("type").asNumber().getInteger());
-        switch (type) {
-          // Look for DOMContentLoaded & Load events
-          case EventRecordType.DOM_CONTENT_LOADED:
-            domContentLoadedTime = node.get("time").asNumber().getDecimal();
-            break;
-            
-          case EventRecordType.LOAD_EVENT:
-            loadEventTime = node.get("time").asNumber().getDecimal();
-            break;
-
-          // Aggregate event type times.
-          case EventRecordType.JAVASCRIPT_EXECUTION:
-            javaScriptExecutionDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-
-          case EventRecordType.LAYOUT_EVENT:
-            layoutDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-
-          case EventRecordType.RECALC_STYLE_EVENT:
-            styleRecalculationDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-
-          case EventRecordType.EVAL_SCRIPT_EVENT:
-            evalScriptDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-
-          case EventRecordType.GC_EVENT:
-            garbageCollectionDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-
-          case EventRecordType.PAINT_EVENT:
-            paintDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-
-          case EventRecordType.PARSE_HTML_EVENT:
-            parseHtmlDuration += node.get("selfTime").asNumber().getDecimal();
-            break;
-        }
-      }
-    };
-    for (int i = this.mainResourceStartIndex, length = records.getLength(); i < length; ++i) {
-      traverser.traversePreOrder(records.get(i).asObject(), visitor);
+  /**
+   * Analyzes the next top level record of a trace that is being streamed in.
+   * The record is not retained, so the caller only needs to hold one record in
+   * memory at a time.
+   * 
+   * @throws JsonException
+   */
+  public void analyzeRecord(JsonObject record) throws JsonException {
+    if (builder == null) {
+      builder = TraceModel.builder();
     }
+    builder.clear();
+    analyzeRecord(builder.addRecord(record).build(), 0);
   }
 
-  public List<JsonObject> findRecordsByType(int queryType) throws JsonException {
-    List<JsonObject> results = new ArrayList<JsonObject>();
-    for (int i = this.mainResourceStartIndex, length = this.records.getLength(); i < length; ++i) {
-      // Perform a recursive search
-      findRecordsByTypeRecursive(records.get(i).asObject(), queryType, results);
+  /**
+   * Completes the analysis once all records have been passed to
+   * {@link #analyzeRecord(JsonObject)}.
+   * 
+   * @throws AnalyzeException if the main resource request or response was not
+   *           found
+   */
+  public void finish() {
+    if (mainResourceStartIndex < 0) {
+      throw new AnalyzeException(
+          "Could not find time of main resource send request.");
+    }
+    if (!mainResourceResponseFound) {
+      throw new AnalyzeException(
+          "Could not find time of main resource receive response between "
+              + this.mainResourceStartIndex + " and " + recordCount + ".");
     }
-    return results;
   }
 
   public double getDomContentLoadedTime() {
@@ -175,83 +194,98 @@ public class SpeedTraceAnalyzer {
     return parseHtmlDuration;
   }
 
-  public JsonArray getRecords() {
-    return records;
-  }
-
   public double getStyleRecalculationDuration() {
     return styleRecalculationDuration;
   }
 
-  private void calcSelfTime() throws JsonException {
-    SelfTimeVisitor selfTimeVisitor = new SelfTimeVisitor();
-    for (int i = 0, length = records.getLength(); i < length; ++i) {
-      JsonObject record = records.get(i).asObject();
-      JsonTraverser.get().traverse(record, selfTimeVisitor);
+  private void aggregate(TraceModel trace, int node) {
+    switch (trace.getType(node)) {
+      // Look for DOMContentLoaded & Load events
+      case EventRecordType.DOM_CONTENT_LOADED:
+        domContentLoadedTime = trace.getTime(node);
+        break;
+
+      case EventRecordType.LOAD_EVENT:
+        loadEventTime = trace.getTime(node);
+        break;
+
+      // Aggregate event type times.
+      case EventRecordType.JAVASCRIPT_EXECUTION:
+        javaScriptExecutionDuration += trace.getSelfTime(node);
+        break;
+
+      case EventRecordType.LAYOUT_EVENT:
+        layoutDuration += trace.getSelfTime(node);
+        break;
+
+      case EventRecordType.RECALC_STYLE_EVENT:
+        styleRecalculationDuration += trace.getSelfTime(node);
+        break;
+
+      case EventRecordType.EVAL_SCRIPT_EVENT:
+        evalScriptDuration += trace.getSelfTime(node);
+        break;
+
+      case EventRecordType.GC_EVENT:
+        garbageCollectionDuration += trace.getSelfTime(node);
+        break;
+
+      case EventRecordType.PAINT_EVENT:
+        paintDuration += trace.getSelfTime(node);
+        break;
+
+      case EventRecordType.PARSE_HTML_EVENT:
+        parseHtmlDuration += trace.getSelfTime(node);
+        break;
     }
   }
 
-  private double findMainResourceResponseTime() {
-    for (int i = this.mainResourceStartIndex, length = records.getLength(); i < length; ++i) {
-      JsonObject topLevelRec = records.get(i).asObject();
-      long type = topLevelRec.get("type").asNumber().getInteger();
-      if (type == EventRecordType.RESOURCE_RECEIVE_RESPONSE
-          || type == EventRecordType.RESOURCE_DATA_RECEIVED
-          || type == EventRecordType.RESOURCE_FINISH) {
-        JsonObject data = topLevelRec.get("data").asObject();
-        if (data == JsonValue.NULL) {
-          throw new AnalyzeException(
-              "Expected data object in RESOURCE_RECEIVE_RESPONSE");
-        }
-        long identifier = data.get("identifier").asNumber().getInteger();
-        if (this.mainResourceIdentfier == identifier) {
-          return topLevelRec.get("time").asNumber().getDecimal();
+  private void analyzeRecord(TraceModel trace, int topLevelNode)
+      throws JsonException {
+    if (mainResourceStartIndex < 0) {
+      if (isMainResourceStart(trace, topLevelNode)) {
+        mainResourceStartIndex = recordCount;
+      }
+    } else if (!mainResourceResponseFound) {
+      checkMainResourceResponse(trace, topLevelNode);
+    }
+    ++recordCount;
+
+    if (mainResourceStartIndex >= 0) {
+      final int end = trace.getSubtreeEnd(topLevelNode);
+      for (int node = topLevelNode; node < end; ++node) {
+        aggregate(trace, node);
+        for (int j = 0, n = consumers.size(); j < n; ++j) {
+          consumers.get(j).consume(trace, node);
         }
       }
     }
-    throw new AnalyzeException(
-        "Could not find time of main resource receive response between "
-            + this.mainResourceStartIndex + " and " + records.getLength() + ".");
   }
 
-  private int findMainResourceStartTime() {
-    for (int i = 0, length = records.getLength(); i < length; ++i) {
-      JsonObject topLevelRec = records.get(i).asObject();
-      long type = topLevelRec.get("type").asNumber().getInteger();
-      if (type == EventRecordType.RESOURCE_SEND_REQUEST) {
-        JsonObject data = topLevelRec.get("data").asObject();
-        if (data == JsonValue.NULL) {
-          throw new AnalyzeException(
-              "Expected data object in RESOURCE_SEND_REQUEST");
-        }
-        JsonValue isMainResource = data.get("isMainResource");
-        JsonValue identifier = data.get("identifier");
-        if (isMainResource != null && isMainResource != JsonValue.NULL
-            && identifier != null && identifier != JsonValue.NULL) {
-          this.mainResourceIdentfier = identifier.asNumber().getInteger();
-          this.mainResourceStartTime = topLevelRec.get("time").asNumber().getDecimal();
-          // System.out.println("Found: " + data);
-          return i;
-        }
+  private void checkMainResourceResponse(TraceModel trace, int topLevelNode) {
+    final int type = trace.getType(topLevelNode);
+    if (type == EventRecordType.RESOURCE_RECEIVE_RESPONSE
+        || type == EventRecordType.RESOURCE_DATA_RECEIVED
+        || type == EventRecordType.RESOURCE_FINISH) {
+      if (!trace.hasIdentifier(topLevelNode)) {
+        throw new AnalyzeException(
+            "Expected data.identifier in RESOURCE_RECEIVE_RESPONSE");
+      }
+      if (this.mainResourceIdentfier == trace.getIdentifier(topLevelNode)) {
+        this.mainResourceResponseTime = trace.getTime(topLevelNode);
+        this.mainResourceResponseFound = true;
       }
     }
-    throw new AnalyzeException(
-        "Could not find time of main resource send request.");
   }
 
-  private void findRecordsByTypeRecursive(JsonObject record, int queryType,
-      List<JsonObject> results) throws JsonException {
-    long type = record.get("type").asNumber().getInteger();
-    if (type == queryType) {
-      results.add(record);
-    }
-    JsonValue childNode = record.get("children");
-    if (childNode != JsonValue.NULL) {
-      JsonArray children = childNode.asArray();
-      for (int i = 0, length = children.getLength(); i < length; ++i) {
-        findRecordsByTypeRecursive(children.get(i).asObject(), queryType,
-            results);
-      }
+  private boolean isMainResourceStart(TraceModel trace, int topLevelNode) {
+    if (trace.getType(topLevelNode) == EventRecordType.RESOURCE_SEND_REQUEST
+        && trace.isMainResource(topLevelNode)
+        && trace.hasIdentifier(topLevelNode)) {
+      this.mainResourceIdentfier = trace.getIdentifier(topLevelNode);
+      this.mainResourceStartTime = trace.getTime(topLevelNode);
+      return true;
     }
+    return false;
   }
 }
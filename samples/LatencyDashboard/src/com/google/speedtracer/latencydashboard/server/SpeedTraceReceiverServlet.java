@@ -15,13 +15,11 @@
  */
 package com.google.speedtracer.latencydashboard.server;
 
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.json.serialization.JsonException;
-import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
-import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.json.serialization.JsonObject;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.text.DecimalFormat;
+import java.io.InputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -36,202 +34,160 @@ import javax.servlet.http.HttpServletResponse;
  * header - object with some metadata about the trace. data - an array of the
  * speedtracer records.
  * 
- * The SpeedTrace data is parsed using the {@link SpeedTraceAnalyzer} and
- * {@link GwtAnalyzer} classes and stored in a {@link DashboardRecord} which is
- * then stored in the AppEngine datastore.
+ * The upload is saved and handed to an {@link IngestionPipeline}, which parses
+ * it using the {@link TraceAnalysis} class and stores the resulting
+ * {@link com.google.speedtracer.latencydashboard.shared.DashboardRecord} in the
+ * configured {@link RecordStorage}. The request returns as soon as the upload
+ * is saved. When the pipeline is full it is refused with a 429 status, and the
+ * sender should retry later. Uploads larger than
+ * {@link IngestionPipeline#MAX_UPLOAD_BYTES} are refused with a 413 status.
+ * 
+ * With the datastore, the pipeline runs the analysis in task queue tasks, which
+ * post to <code>/speedtracereceiver/ingest</code> and are handled here too.
+ * With files, it runs in <code>ingestWorkers</code> local threads.
+ * 
+ * The full dump is kept in the {@link TraceArchive}, unless the
+ * <code>archiveTraces</code> init parameter is <code>false</code>.
+ * 
+ * A GET request returns the metrics of the pipeline and the archive, and the
+ * hit and miss counts of the latest record caches, as JSON.
  */
 public class SpeedTraceReceiverServlet extends HttpServlet {
+  /**
+   * HttpServletResponse has no constant for Too Many Requests.
+   */
+  static final int SC_TOO_MANY_REQUESTS = 429;
+
+  // Init parameters, see web.xml.
+  private static final String PARAM_ARCHIVE = "archiveTraces";
+  private static final String PARAM_CAPACITY = "ingestCapacity";
+  private static final String PARAM_WORKERS = "ingestWorkers";
+
+  /**
+   * The servlet path that the ingest tasks post to, see web.xml.
+   */
+  private static final String INGEST_PATH = "/speedtracereceiver/ingest";
+
+  private static final String RETRY_AFTER_SECONDS = "5";
 
   /**
    * 
    */
   private static final long serialVersionUID = 1549873162336369719L;
 
-  private static final String MARKTIMELINE_PREFIX = "__stats_event";
+  private static void putCacheMetrics(JsonObject metrics, String prefix,
+      LatestRecordsCache<?> cache) {
+    metrics.put(prefix + "Hits", cache.getHitCount());
+    metrics.put(prefix + "Misses", cache.getMissCount());
+  }
 
-  @Override
-  protected void doPost(HttpServletRequest req, HttpServletResponse resp)
-      throws ServletException, IOException {
+  private transient TraceArchive archive;
 
-    // Read the SpeedTrace data.
-    String rawJson = ServerUtilities.streamToString(req.getInputStream());
+  private transient IngestionPipeline pipeline;
 
-    // Tuck away the raw data into an internal format.
-    SpeedTraceRecord speedTraceRecord = null;
+  @Override
+  public void init() throws ServletException {
+    final RecordStorage storage;
     try {
-      speedTraceRecord = new SpeedTraceRecord(rawJson);
-    } catch (JsonException ex) {
-      System.err.println("Bad Json: \n" + format100(rawJson));
-      throw new RuntimeException(
-          "Failure converting Json string to speedTrace record: " + ex, ex);
+      storage = ServerUtilities.getRecordStorage();
+      if (!"false".equals(getInitParameter(PARAM_ARCHIVE))) {
+        archive = ServerUtilities.getTraceArchive();
+      }
+    } catch (IOException ex) {
+      throw new ServletException(ex);
     }
+    pipeline = ServerUtilities.createIngestionPipeline(storage, archive,
+        getIntParameter(PARAM_CAPACITY, 64), getIntParameter(PARAM_WORKERS, 2),
+        INGEST_PATH);
+  }
 
-    System.out.println("Captured timeline record.  " + rawJson.length()
-        + " bytes long.");
-
-    // We could store the entire speed trace here. You could pull it up in
-    // SpeedTracer later if you want (but its a lot of data).
-    // Store.storeEntireTrace(speedTraceRecord);
+  @Override
+  public void destroy() {
+    pipeline.close();
+  }
 
-    SpeedTraceAnalyzer analyzer = null;
-    try {
-      analyzer = new SpeedTraceAnalyzer(speedTraceRecord.getDataObject());
-    } catch (JsonException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-      return;
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    final JsonObject metrics = pipeline.getMetrics();
+    putCacheMetrics(metrics, "dashboardCache",
+        DashboardRecordStore.getLatestCache());
+    putCacheMetrics(metrics, "customDashboardCache",
+        CustomDashboardRecordStore.getLatestCache());
+    if (archive != null) {
+      metrics.put("archive", archive.getMetrics());
     }
+    metrics.write(resp.getWriter());
+  }
 
-    // Extract some statistics from the data
-    DashboardRecord dashboardRecord = null;
-    try {
-      dashboardRecord = processForDashboard(analyzer, speedTraceRecord);
-    } catch (JsonException ex) {
-      System.err.println("Malformed Json passed to processForDashboards: " + ex);
-      ex.printStackTrace();
+  @Override
+  protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    if (INGEST_PATH.equals(req.getServletPath())) {
+      if (!(pipeline instanceof TaskQueueIngestionPipeline)) {
+        resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      // Any status other than 2xx makes the task queue run the task again.
+      if (!((TaskQueueIngestionPipeline) pipeline).ingest(req.getParameter(
+          TaskQueueIngestionPipeline.PARAM_KEY))) {
+        resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+            "Upload is still pending");
+      }
+      return;
     }
 
-    CustomDashboardRecord customRecord = null;
-    try {
-      customRecord = processCustomForDashBoard(analyzer, speedTraceRecord);
-    } catch (JsonException ex) {
-      System.err.println("Malformed Json passed to custom processForDashboards: "
-          + ex);
-      ex.printStackTrace();
+    // Uploads may be compressed by the headless extension. They are kept
+    // compressed until analyzed.
+    final String contentEncoding = req.getHeader("Content-Encoding");
+    if (req.getContentLength() > IngestionPipeline.MAX_UPLOAD_BYTES) {
+      resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+          "Upload is larger than " + IngestionPipeline.MAX_UPLOAD_BYTES
+              + " bytes");
+      return;
     }
-
-    // Store the statistics in the datastore
-    if (dashboardRecord != null) {
-      DashboardRecordStore.put(DatastoreServiceFactory.getDatastoreService(),
-          dashboardRecord);
+    final byte[] body = ServerUtilities.streamToBytes(req.getInputStream());
+    if (body.length > IngestionPipeline.MAX_UPLOAD_BYTES) {
+      resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+          "Upload is larger than " + IngestionPipeline.MAX_UPLOAD_BYTES
+              + " bytes");
+      return;
     }
-    if (customRecord != null && customRecord.isValid()) {
-      CustomDashboardRecordStore.put(
-          DatastoreServiceFactory.getDatastoreService(), customRecord);
+    final InputStream input;
+    try {
+      input = ServerUtilities.decodeContent(new ByteArrayInputStream(body),
+          contentEncoding);
+    } catch (IOException ex) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Malformed " + contentEncoding + " content");
+      return;
     }
-  }
-
-  /**
-   * When a JSON error is encountered, the problem can be difficult to see. This
-   * reformats the buffer so a character position in the dump can be easily
-   * found.
-   * 
-   * @param input A line of long text.
-   * @return A human readable buffer that puts 100 chars per line and a leading
-   *         column with character position.
-   */
-  private String format100(String input) {
-    StringBuilder builder = new StringBuilder();
-    int index = 0;
-    while (index < input.length()) {
-      DecimalFormat position = new DecimalFormat("######");
-      int endIndex = Math.min(input.length(), index + 100);
-      builder.append(position.format(index) + ": "
-          + input.substring(index, endIndex) + "\n");
-      index += 100;
+    if (input == null) {
+      resp.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+          "Unsupported Content-Encoding");
+      return;
     }
-    return builder.toString();
-  }
 
-  /**
-   * @param speedTraceRecord
-   * @return
-   */
-  private CustomDashboardRecord processCustomForDashBoard(
-      SpeedTraceAnalyzer analyzer, SpeedTraceRecord speedTraceRecord)
-      throws JsonException {
-    CustomDashboardRecord customRecord = new CustomDashboardRecord(
-        speedTraceRecord.getTimestamp(), speedTraceRecord.getName(),
-        speedTraceRecord.getRevision());
-
-    MarkTimelineAnalyzer markTimelineAnalyzer = new MarkTimelineAnalyzer(
-        analyzer, MARKTIMELINE_PREFIX);
-    markTimelineAnalyzer.registerMeasurementSet("client_load");
-    markTimelineAnalyzer.registerMeasurementSet("prefetch_cache_fill");
-    markTimelineAnalyzer.registerMeasurementSet("page");
-    markTimelineAnalyzer.registerMeasurementSet("digests_search");
-    markTimelineAnalyzer.registerMeasurementSet("contact-sort");
-
-    markTimelineAnalyzer.analyze();
-    markTimelineAnalyzer.store(customRecord);
-
-    if (customRecord.isValid()) {
-      System.out.println("Custom Record: " + customRecord.getFormattedRecord());
+    if (!pipeline.submit(body, contentEncoding)) {
+      resp.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+      resp.sendError(SC_TOO_MANY_REQUESTS, "Too many uploads in progress");
+      return;
     }
-    return customRecord;
   }
 
-  /**
-   * Given a JSON dump of speedtracer data, process the data with the analyzers
-   * to produce a record to be stored in the App Engine datastore.
-   * 
-   * @param speedTraceRecord Incoming SpeedTrace data from the Headless
-   *          Extension.
-   * @return a populated record with statistics about the trace.
-   * @throws JsonException occurs when a property is missing or an unexpected
-   *           type encountered in the JSON dump.
-   */
-  private DashboardRecord processForDashboard(SpeedTraceAnalyzer analyzer,
-      SpeedTraceRecord speedTraceRecord) throws JsonException {
-    DashboardRecord record = new DashboardRecord(
-        speedTraceRecord.getTimestamp(), speedTraceRecord.getName(),
-        speedTraceRecord.getRevision());
-
-    // Populate the record with general statistics from the dump
-    analyzer.analyze();
-    double baseTime = analyzer.getMainResourceRequestTime();
-    record.setMainResourceRequestTime(baseTime);
-    record.setMainResourceResponseTime(analyzer.getMainResourceResponseTime()
-        - baseTime);
-
-    record.setDomContentLoadedTime(analyzer.getDomContentLoadedTime()
-        - baseTime);
-    record.setLoadEventTime(analyzer.getLoadEventTime() - baseTime);
-    record.setEvalScriptDuration(analyzer.getEvalScriptDuration());
-    record.setGarbageCollectionDuration(analyzer.getGarbageCollectionDuration());
-    record.setJavaScriptExecutionDuration(analyzer.getJavaScriptExecutionDuration());
-    record.setLayoutDuration(analyzer.getLayoutDuration());
-    record.setRecalculateStyleDuration(analyzer.getLayoutDuration());
-    record.setPaintDuration(analyzer.getPaintDuration());
-    record.setParseHtmlDuration(analyzer.getParseHtmlDuration());
-
-    // Look for GWT specific statistics.
-    GwtAnalyzer gwtAnalyzer = new GwtAnalyzer(analyzer);
-    gwtAnalyzer.analyze();
-
-    if (gwtAnalyzer.getBootstrapStartTime() > 0) {
-      record.setBootstrapStartTime(gwtAnalyzer.getBootstrapStartTime()
-          - baseTime);
-      if (gwtAnalyzer.getBootstrapEndTime() > 0) {
-        record.setBootstrapDuration(gwtAnalyzer.getBootstrapEndTime()
-            - gwtAnalyzer.getBootstrapStartTime());
-      }
+  private int getIntParameter(String name, int defaultValue)
+      throws ServletException {
+    final String value = getInitParameter(name);
+    if (value == null) {
+      return defaultValue;
     }
-
-    if (gwtAnalyzer.getModuleStartupTime() > 0) {
-      record.setModuleStartupTime(gwtAnalyzer.getModuleStartupTime() - baseTime);
-      if (gwtAnalyzer.getModuleEvalEndTime() > 0) {
-        record.setModuleEvalDuration(gwtAnalyzer.getModuleEvalEndTime()
-            - gwtAnalyzer.getModuleEvalStartTime());
-      }
-      if (gwtAnalyzer.getModuleStartupEndTime() > 0) {
-        record.setModuleStartupDuration(gwtAnalyzer.getModuleStartupEndTime()
-            - gwtAnalyzer.getModuleStartupTime());
-      }
-    }
-
-    if (gwtAnalyzer.getLoadExternalRefsStartTime() > 0) {
-      record.setLoadExternalRefsTime(gwtAnalyzer.getLoadExternalRefsStartTime()
-          - baseTime);
-      if (gwtAnalyzer.getLoadExternalRefsEndTime() > 0) {
-        record.setLoadExternalRefsDuration(gwtAnalyzer.getLoadExternalRefsEndTime()
-            - gwtAnalyzer.getLoadExternalRefsStartTime());
-      }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException ex) {
+      throw new ServletException("Init parameter " + name
+          + " is not a number: " + value);
     }
-
-    // This bit of debugging is useful just to see that data is getting across.
-    System.out.println("Dashboard Record:\n" + record.getFormattedRecord());
-
-    return record;
   }
 }
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.labs.taskqueue.Queue;
+import com.google.appengine.api.labs.taskqueue.TaskOptions;
+import com.google.json.serialization.JsonException;
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link IngestionPipeline} that runs on AppEngine, with the pending
+ * uploads saved in the datastore and analyzed in task queue tasks.
+ * 
+ * {@link #submit(byte[], String)} saves the raw body in chunks, children of a
+ * pending entity, since a datastore entity holds at most 1MB. In one
+ * transaction it then saves the pending entity and adds a task for it to the
+ * {@link #QUEUE_NAME} queue, which queue.xml limits to a steady rate. The task
+ * calls back into {@link #ingest(String)}, which runs {@link TraceAnalysis},
+ * stores the resulting records and deletes the pending entity. An upload
+ * whose records can not be stored is left pending and the task queue runs its
+ * task again later.
+ * 
+ * A task first claims its pending entity in a transaction, so that an upload
+ * is only ingested by one task at a time even if the task queue runs its task
+ * twice at the same time. A claim that is not released within
+ * {@link #CLAIM_LEASE_MS}, for example because the request ran out of time,
+ * lapses. Once the records are stored the pending entity is marked as stored
+ * before it is deleted, so a task that runs again after a failed delete only
+ * deletes it. Should a task fail between storing and marking, storing the
+ * records again replaces them, see {@link DatastoreRecordStorage}.
+ * 
+ * Each task stores the records of one upload. Batching them would need tasks
+ * to wait for each other, which costs more latency than the batched writes
+ * save at the rates the queue allows.
+ */
+public class TaskQueueIngestionPipeline extends IngestionPipeline {
+  /**
+   * The request parameter of an ingest task that holds the key of its pending
+   * entity.
+   */
+  public static final String PARAM_KEY = "key";
+
+  /**
+   * The queue that the ingest tasks are added to, see queue.xml.
+   */
+  public static final String QUEUE_NAME = "ingest";
+
+  /**
+   * The size of the chunks that a pending upload is saved in.
+   */
+  static final int CHUNK_SIZE = 512 * 1024;
+
+  /**
+   * How long a task has to ingest the upload that it claimed before another
+   * one may claim it. Requests run for 30 seconds at the most.
+   */
+  static final long CLAIM_LEASE_MS = 60 * 1000;
+
+  private static final String CHUNK_KIND = "PendingSpeedTraceChunk";
+
+  private static final String KIND = "PendingSpeedTrace";
+
+  private static final String PROP_BODY = "body";
+  private static final String PROP_CHUNKS = "chunks";
+  private static final String PROP_CLAIMED = "claimed";
+  private static final String PROP_CONTENT_ENCODING = "content_encoding";
+  private static final String PROP_RECEIVED = "received";
+  private static final String PROP_STORED = "stored";
+
+  /**
+   * Returns the keys of the chunks of a pending upload.
+   */
+  private static List<Key> getChunkKeys(Key key, long chunkCount) {
+    final List<Key> keys = new ArrayList<Key>();
+    for (int i = 1; i <= chunkCount; ++i) {
+      keys.add(KeyFactory.createKey(key, CHUNK_KIND, i));
+    }
+    return keys;
+  }
+
+  private final AtomicLong busy = new AtomicLong();
+
+  private final Queue queue;
+
+  private final DatastoreService store;
+
+  private final String url;
+
+  /**
+   * @param storage where records are stored
+   * @param store where pending uploads are saved
+   * @param archive where the full dumps are archived, or <code>null</code> to
+   *          not keep them
+   * @param queue where the ingest tasks are added
+   * @param url the URL that the ingest tasks are posted to, which calls
+   *          {@link #ingest(String)}
+   * @param capacity the number of uploads accepted but not yet stored, beyond
+   *          which uploads are refused
+   */
+  public TaskQueueIngestionPipeline(RecordStorage storage,
+      DatastoreService store, TraceArchive archive, Queue queue, String url,
+      int capacity) {
+    super(storage, archive, capacity);
+    this.store = store;
+    this.queue = queue;
+    this.url = url;
+  }
+
+  @Override
+  public JsonObject getMetrics() {
+    final JsonObject metrics = super.getMetrics();
+    metrics.put("busy", busy.get());
+    return metrics;
+  }
+
+  /**
+   * Analyzes and stores a pending upload, on behalf of its task.
+   * 
+   * @param encodedKey the {@link #PARAM_KEY} parameter of the task
+   * @return <code>false</code> if the upload is still pending and its task
+   *         should be run again
+   */
+  public boolean ingest(String encodedKey) {
+    final Key key;
+    try {
+      key = KeyFactory.stringToKey(encodedKey);
+    } catch (IllegalArgumentException ex) {
+      System.err.println("Dropping ingest task for bad key " + encodedKey);
+      return true;
+    }
+
+    final Entity entity;
+    try {
+      entity = claim(key);
+    } catch (ConcurrentModificationException ex) {
+      busy.incrementAndGet();
+      return false;
+    }
+    if (entity == null) {
+      // Already ingested by an earlier run of the task.
+      return true;
+    }
+    if (entity.hasProperty(PROP_STORED)) {
+      return delete(entity);
+    }
+
+    final byte[] body;
+    try {
+      body = readBody(entity);
+    } catch (EntityNotFoundException ex) {
+      fail("reading", ex);
+      return delete(entity);
+    } catch (RuntimeException ex) {
+      System.err.println("Failure reading speedTrace upload: " + ex);
+      retried.incrementAndGet();
+      release(entity);
+      return false;
+    }
+
+    final TraceAnalysis analysis;
+    try {
+      analysis = analyze(new ByteArrayInputStream(body),
+          (String) entity.getProperty(PROP_CONTENT_ENCODING));
+    } catch (IOException ex) {
+      fail("analyzing", ex);
+      return delete(entity);
+    } catch (JsonException ex) {
+      fail("analyzing", ex);
+      return delete(entity);
+    } catch (RuntimeException ex) {
+      // AnalyzeException, or an upload that is valid JSON but not a trace.
+      fail("analyzing", ex);
+      return delete(entity);
+    }
+
+    final List<DashboardRecord> records = new ArrayList<DashboardRecord>(1);
+    final List<CustomDashboardRecord> customRecords =
+        new ArrayList<CustomDashboardRecord>(1);
+    addRecords(analysis, records, customRecords);
+    try {
+      storage.put(records, customRecords);
+      markStored(entity);
+    } catch (RuntimeException ex) {
+      System.err.println("Failure storing speedTrace upload: " + ex);
+      retried.incrementAndGet();
+      release(entity);
+      return false;
+    }
+    stored((Long) entity.getProperty(PROP_RECEIVED));
+    return delete(entity);
+  }
+
+  /**
+   * Saves an upload and adds a task to ingest it.
+   */
+  @Override
+  public boolean submit(byte[] body, String contentEncoding) {
+    if (body.length > MAX_UPLOAD_BYTES) {
+      throw new IllegalArgumentException("Upload of " + body.length
+          + " bytes is larger than " + MAX_UPLOAD_BYTES);
+    }
+    if (getPendingCount() >= capacity) {
+      rejected.incrementAndGet();
+      return false;
+    }
+
+    // The chunks are saved one at a time, as a datastore call carries at most
+    // 1MB, and before the pending entity so that its task finds them all.
+    final Key key = store.allocateIds(KIND, 1).getStart();
+    final List<Key> chunkKeys = getChunkKeys(key, (body.length + CHUNK_SIZE
+        - 1) / CHUNK_SIZE);
+    final Entity entity = new Entity(key);
+    entity.setUnindexedProperty(PROP_CHUNKS, (long) chunkKeys.size());
+    entity.setUnindexedProperty(PROP_CONTENT_ENCODING, contentEncoding);
+    entity.setProperty(PROP_RECEIVED, System.currentTimeMillis());
+    boolean saved = false;
+    try {
+      for (int i = 0; i < chunkKeys.size(); ++i) {
+        final int offset = i * CHUNK_SIZE;
+        final byte[] chunk = new byte[Math.min(CHUNK_SIZE, body.length
+            - offset)];
+        System.arraycopy(body, offset, chunk, 0, chunk.length);
+        final Entity chunkEntity = new Entity(chunkKeys.get(i));
+        chunkEntity.setUnindexedProperty(PROP_BODY, new Blob(chunk));
+        store.put(chunkEntity);
+      }
+
+      // The task is only added if the upload is saved, and the upload is only
+      // saved if the task is added, so no upload is left without a task.
+      final Transaction txn = store.beginTransaction();
+      try {
+        store.put(txn, entity);
+        queue.add(txn, TaskOptions.Builder.url(url).param(PARAM_KEY,
+            KeyFactory.keyToString(key)));
+        txn.commit();
+        saved = true;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    } finally {
+      if (!saved) {
+        deleteQuietly(chunkKeys);
+      }
+    }
+    accepted.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Returns the number of pending uploads, counting no further than the
+   * capacity.
+   */
+  @Override
+  long getPendingCount() {
+    return store.prepare(new Query(KIND).setKeysOnly()).asList(
+        FetchOptions.Builder.withLimit(Math.max(1, capacity))).size();
+  }
+
+  /**
+   * Marks a pending upload as being ingested.
+   * 
+   * @return the pending entity, or <code>null</code> if it no longer exists
+   * @throws ConcurrentModificationException if another task holds the claim
+   */
+  private Entity claim(Key key) {
+    final Transaction txn = store.beginTransaction();
+    try {
+      final Entity entity;
+      try {
+        entity = store.get(txn, key);
+      } catch (EntityNotFoundException ex) {
+        return null;
+      }
+      final long now = System.currentTimeMillis();
+      final Long claimed = (Long) entity.getProperty(PROP_CLAIMED);
+      if (claimed != null && now - claimed < CLAIM_LEASE_MS) {
+        throw new ConcurrentModificationException("Upload " + key
+            + " is being ingested");
+      }
+      entity.setUnindexedProperty(PROP_CLAIMED, now);
+      store.put(txn, entity);
+      txn.commit();
+      return entity;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Deletes a pending upload and its chunks.
+   * 
+   * @return <code>false</code> if they could not be deleted, and the task
+   *         should be run again to delete them
+   */
+  private boolean delete(Entity entity) {
+    final List<Key> keys = getChunkKeys(entity.getKey(),
+        (Long) entity.getProperty(PROP_CHUNKS));
+    keys.add(entity.getKey());
+    try {
+      store.delete(keys);
+      return true;
+    } catch (RuntimeException ex) {
+      System.err.println("Failure deleting speedTrace upload: " + ex);
+      release(entity);
+      return false;
+    }
+  }
+
+  private void deleteQuietly(List<Key> keys) {
+    try {
+      store.delete(keys);
+    } catch (RuntimeException ex) {
+      System.err.println("Failure deleting unsaved speedTrace upload: " + ex);
+    }
+  }
+
+  /**
+   * Marks a claimed upload whose records were stored, and gives up the claim.
+   */
+  private void markStored(Entity entity) {
+    // Also on the copy in hand, which release puts back should the delete
+    // fail.
+    entity.removeProperty(PROP_CLAIMED);
+    entity.setUnindexedProperty(PROP_STORED, true);
+    final Transaction txn = store.beginTransaction();
+    try {
+      final Entity current = store.get(txn, entity.getKey());
+      current.removeProperty(PROP_CLAIMED);
+      current.setUnindexedProperty(PROP_STORED, true);
+      store.put(txn, current);
+      txn.commit();
+    } catch (EntityNotFoundException ex) {
+      // Deleted by a run of the task that took over a lapsed claim.
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Reads the body of a pending upload back from its chunks.
+   * 
+   * @throws EntityNotFoundException if a chunk is missing
+   */
+  private byte[] readBody(Entity entity) throws EntityNotFoundException {
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (Key chunkKey : getChunkKeys(entity.getKey(),
+        (Long) entity.getProperty(PROP_CHUNKS))) {
+      final byte[] chunk = ((Blob) store.get(chunkKey).getProperty(PROP_BODY))
+          .getBytes();
+      body.write(chunk, 0, chunk.length);
+    }
+    return body.toByteArray();
+  }
+
+  /**
+   * Gives up the claim on an upload that could not be stored, so that the
+   * next run of its task need not wait for the claim to lapse.
+   */
+  private void release(Entity entity) {
+    entity.removeProperty(PROP_CLAIMED);
+    try {
+      store.put(entity);
+    } catch (RuntimeException ex) {
+      System.err.println("Failure releasing speedTrace upload: " + ex);
+    }
+  }
+}
@@ -15,56 +15,58 @@
  */
 package com.google.speedtracer.latencydashboard.server;
 
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.gwt.user.server.rpc.RemoteServiceServlet;
 import com.google.speedtracer.latencydashboard.client.TimelineService;
 import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
 import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.io.IOException;
+
+import javax.servlet.ServletException;
 
 /**
  * AppEngine hosted service that sends timeline data to the client.
+ * 
+ * The charts are polled by many viewers. When the records are kept in the
+ * datastore, the latest ones are served from the caches of the record stores
+ * rather than queried on every request.
  */
 @SuppressWarnings("serial")
 public class TimelineServiceImpl extends RemoteServiceServlet implements
     TimelineService {
 
+  private transient RecordStorage storage;
+
   /**
-   * Retrieve the latest custom records from the dashboard in the datastore.
+   * Retrieve the latest custom records from the dashboard record storage.
    */
   public CustomDashboardRecord[] getCustomDashboardLatestRecords(int n) {
-    Iterator<CustomDashboardRecord> origResults = CustomDashboardRecordStore.getLatest(
-        DatastoreServiceFactory.getDatastoreService(), n);
-    List<CustomDashboardRecord> listResults = new ArrayList<CustomDashboardRecord>();
-    while (origResults.hasNext()) {
-      CustomDashboardRecord item = origResults.next();
-      listResults.add(item);
-    }
-    // Copy the list into an array to pass over RPC
-    CustomDashboardRecord arrayResults[] = null;
-    arrayResults = listResults.toArray(new CustomDashboardRecord[listResults.size()]);
-
-    return arrayResults;
+    return storage.getCustomDashboardLatestRecords(n);
   }
 
   /**
-   * Retrieve the latest records from the dashboard in the datastore.
+   * Retrieve the latest records from the dashboard record storage.
    */
   public DashboardRecord[] getDashboardLatestRecords(int n) {
-    Iterator<DashboardRecord> origResults = DashboardRecordStore.getLatest(
-        DatastoreServiceFactory.getDatastoreService(), n);
-    List<DashboardRecord> listResults = new ArrayList<DashboardRecord>();
-    while (origResults.hasNext()) {
-      DashboardRecord item = origResults.next();
-      listResults.add(item);
-    }
-    // Copy the list into an array to pass over RPC
-    DashboardRecord arrayResults[] = null;
-    arrayResults = listResults.toArray(new DashboardRecord[listResults.size()]);
+    return storage.getDashboardLatestRecords(n);
+  }
+
+  /**
+   * Retrieve the latest rollups of a period from the dashboard record storage.
+   */
+  public DashboardRollup[] getDashboardRollups(RollupPeriod period, int n) {
+    return storage.getDashboardRollups(period, n);
+  }
 
-    return arrayResults;
+  @Override
+  public void init() throws ServletException {
+    super.init();
+    try {
+      storage = ServerUtilities.getRecordStorage();
+    } catch (IOException ex) {
+      throw new ServletException(ex);
+    }
   }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonArray;
+import com.google.json.serialization.JsonException;
+import com.google.json.serialization.JsonObject;
+import com.google.json.serialization.JsonPullParser;
+import com.google.json.serialization.JsonPullParser.Event;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Runs the {@link SpeedTraceAnalyzer}, {@link GwtAnalyzer} and
+ * {@link MarkTimelineAnalyzer} over a single trace and collects their results
+ * into a {@link DashboardRecord} and a {@link CustomDashboardRecord}.
+ * 
+ * This holds no references to shared state, so separate traces can be analyzed
+ * concurrently.
+ */
+public class TraceAnalysis {
+  /**
+   * The names of the metrics of a {@link DashboardRecord}, in the order
+   * returned by {@link #getMetrics(DashboardRecord)}. {@link BatchAnalyzer}
+   * writes them as columns and {@link Rollup} summarizes all of them but
+   * {@link #BASE_TIME_METRIC}.
+   */
+  static final String[] METRIC_NAMES = {
+      "bootstrapDuration", "bootstrapStartTime", "domContentLoadedTime",
+      "evalScriptDuration", "garbageCollectionDuration",
+      "javaScriptExecutionDuration", "layoutDuration", "loadEventTime",
+      "loadExternalRefsDuration", "loadExternalRefsTime",
+      "mainResourceRequestTime", "mainResourceResponseTime",
+      "moduleEvalDuration", "moduleStartupDuration", "moduleStartupTime",
+      "paintDuration", "parseHtmlDuration", "recalculateStyleDuration"};
+
+  /**
+   * The metric that is the wall clock time of the run, which the times of the
+   * other metrics are relative to. It is not summarized by {@link Rollup}.
+   */
+  static final String BASE_TIME_METRIC = "mainResourceRequestTime";
+
+  private static final String MARKTIMELINE_PREFIX = "__stats_event";
+
+  /**
+   * Analyzes a trace as it is read from a stream containing a headless dump.
+   * Only one top level record is held in memory at a time.
+   * 
+   * @param input the dump, encoded as UTF-8
+   * @throws JsonException if the trace is malformed
+   * @throws AnalyzeException if the main resource could not be found
+   */
+  public static TraceAnalysis analyze(InputStream input) throws IOException,
+      JsonException {
+    final TraceAnalysis analysis = new TraceAnalysis();
+    final JsonPullParser parser = JsonPullParser.create(input);
+    if (parser.next() != Event.START_OBJECT) {
+      throw new JsonException("Expected a headless dump object");
+    }
+
+    JsonObject header = null;
+    while (parser.next() == Event.FIELD_NAME) {
+      final String fieldName = parser.getFieldName();
+      if ("header".equals(fieldName)) {
+        header = parser.readValue().asObject();
+      } else if ("data".equals(fieldName)) {
+        if (parser.next() != Event.START_ARRAY) {
+          throw new JsonException("Expected data to be an array");
+        }
+        while (parser.next() == Event.START_OBJECT) {
+          analysis.analyzer.analyzeRecord(parser.readValue().asObject());
+        }
+        if (parser.getEvent() != Event.END_ARRAY) {
+          throw new JsonException("Expected data to contain only records");
+        }
+      } else {
+        parser.skipValue();
+      }
+    }
+
+    if (header == null) {
+      throw new JsonException("Missing header in headless dump");
+    }
+    analysis.finish((long) header.get("timeStamp").asNumber().getDecimal(),
+        header.get("name").asString().getString(),
+        header.get("revision").asString().getString());
+    return analysis;
+  }
+
+  /**
+   * Analyzes a trace that has already been read into memory.
+   * 
+   * @param speedTraceRecord Incoming SpeedTrace data from the Headless
+   *          Extension.
+   * @throws JsonException if the trace is malformed
+   * @throws AnalyzeException if the main resource could not be found
+   */
+  public static TraceAnalysis analyze(SpeedTraceRecord speedTraceRecord)
+      throws JsonException {
+    final TraceAnalysis analysis = new TraceAnalysis();
+    final JsonArray records = speedTraceRecord.getDataObject();
+    for (int i = 0, n = records.getLength(); i < n; ++i) {
+      analysis.analyzer.analyzeRecord(records.get(i).asObject());
+    }
+    analysis.finish(speedTraceRecord.getTimestamp(),
+        speedTraceRecord.getName(), speedTraceRecord.getRevision());
+    return analysis;
+  }
+
+  /**
+   * Returns the metrics of <code>record</code> in the order of
+   * {@link #METRIC_NAMES}.
+   */
+  static double[] getMetrics(DashboardRecord record) {
+    return new double[] {
+        record.bootstrapDuration, record.bootstrapStartTime,
+        record.domContentLoadedTime, record.evalScriptDuration,
+        record.garbageCollectionDuration, record.javaScriptExecutionDuration,
+        record.layoutDuration, record.loadEventTime,
+        record.loadExternalRefsDuration, record.loadExternalRefsTime,
+        record.mainResourceRequestTime, record.mainResourceResponseTime,
+        record.moduleEvalDuration, record.moduleStartupDuration,
+        record.moduleStartupTime, record.paintDuration,
+        record.parseHtmlDuration, record.recalculateStyleDuration};
+  }
+
+  /**
+   * Sets the metrics of <code>record</code> from values in the order of
+   * {@link #METRIC_NAMES}.
+   */
+  static void setMetrics(DashboardRecord record, double[] metrics) {
+    record.setBootstrapDuration(metrics[0]);
+    record.setBootstrapStartTime(metrics[1]);
+    record.setDomContentLoadedTime(metrics[2]);
+    record.setEvalScriptDuration(metrics[3]);
+    record.setGarbageCollectionDuration(metrics[4]);
+    record.setJavaScriptExecutionDuration(metrics[5]);
+    record.setLayoutDuration(metrics[6]);
+    record.setLoadEventTime(metrics[7]);
+    record.setLoadExternalRefsDuration(metrics[8]);
+    record.setLoadExternalRefsTime(metrics[9]);
+    record.setMainResourceRequestTime(metrics[10]);
+    record.setMainResourceResponseTime(metrics[11]);
+    record.setModuleEvalDuration(metrics[12]);
+    record.setModuleStartupDuration(metrics[13]);
+    record.setModuleStartupTime(metrics[14]);
+    record.setPaintDuration(metrics[15]);
+    record.setParseHtmlDuration(metrics[16]);
+    record.setRecalculateStyleDuration(metrics[17]);
+  }
+
+  /**
+   * Creates the analyzer for the markTimeline measurement sets we track.
+   */
+  private static MarkTimelineAnalyzer createMarkTimelineAnalyzer(
+      SpeedTraceAnalyzer analyzer) {
+    MarkTimelineAnalyzer markTimelineAnalyzer = new MarkTimelineAnalyzer(
+        analyzer, MARKTIMELINE_PREFIX);
+    markTimelineAnalyzer.registerMeasurementSet("client_load");
+    markTimelineAnalyzer.registerMeasurementSet("prefetch_cache_fill");
+    markTimelineAnalyzer.registerMeasurementSet("page");
+    markTimelineAnalyzer.registerMeasurementSet("digests_search");
+    markTimelineAnalyzer.registerMeasurementSet("contact-sort");
+    return markTimelineAnalyzer;
+  }
+
+  private CustomDashboardRecord customDashboardRecord;
+
+  private DashboardRecord dashboardRecord;
+
+  // The GWT and markTimeline analyzers consume events during the single pass
+  // over the records made by the SpeedTraceAnalyzer.
+  private final SpeedTraceAnalyzer analyzer = new SpeedTraceAnalyzer();
+
+  private final GwtAnalyzer gwtAnalyzer = new GwtAnalyzer(analyzer);
+
+  private final MarkTimelineAnalyzer markTimelineAnalyzer =
+      createMarkTimelineAnalyzer(analyzer);
+
+  private TraceAnalysis() {
+  }
+
+  /**
+   * Returns the markTimeline measurements. Check
+   * {@link CustomDashboardRecord#isValid()} before storing it.
+   */
+  public CustomDashboardRecord getCustomDashboardRecord() {
+    return customDashboardRecord;
+  }
+
+  public DashboardRecord getDashboardRecord() {
+    return dashboardRecord;
+  }
+
+  /**
+   * Completes the analysis and, given the header of the dump, produces the
+   * records to be stored in the App Engine datastore.
+   */
+  private void finish(long timeStamp, String name, String revision) {
+    analyzer.finish();
+
+    customDashboardRecord = new CustomDashboardRecord(timeStamp, name,
+        revision);
+    markTimelineAnalyzer.store(customDashboardRecord);
+
+    DashboardRecord record = new DashboardRecord(timeStamp, name, revision);
+
+    // Populate the record with general statistics from the dump
+    double baseTime = analyzer.getMainResourceRequestTime();
+    record.setMainResourceRequestTime(baseTime);
+    record.setMainResourceResponseTime(analyzer.getMainResourceResponseTime()
+        - baseTime);
+
+    record.setDomContentLoadedTime(analyzer.getDomContentLoadedTime()
+        - baseTime);
+    record.setLoadEventTime(analyzer.getLoadEventTime() - baseTime);
+    record.setEvalScriptDuration(analyzer.getEvalScriptDuration());
+    record.setGarbageCollectionDuration(analyzer.getGarbageCollectionDuration());
+    record.setJavaScriptExecutionDuration(analyzer.getJavaScriptExecutionDuration());
+    record.setLayoutDuration(analyzer.getLayoutDuration());
+    record.setRecalculateStyleDuration(analyzer.getLayoutDuration());
+    record.setPaintDuration(analyzer.getPaintDuration());
+    record.setParseHtmlDuration(analyzer.getParseHtmlDuration());
+
+    // Add GWT specific statistics.
+    if (gwtAnalyzer.getBootstrapStartTime() > 0) {
+      record.setBootstrapStartTime(gwtAnalyzer.getBootstrapStartTime()
+          - baseTime);
+      if (gwtAnalyzer.getBootstrapEndTime() > 0) {
+        record.setBootstrapDuration(gwtAnalyzer.getBootstrapEndTime()
+            - gwtAnalyzer.getBootstrapStartTime());
+      }
+    }
+
+    if (gwtAnalyzer.getModuleStartupTime() > 0) {
+      record.setModuleStartupTime(gwtAnalyzer.getModuleStartupTime() - baseTime);
+      if (gwtAnalyzer.getModuleEvalEndTime() > 0) {
+        record.setModuleEvalDuration(gwtAnalyzer.getModuleEvalEndTime()
+            - gwtAnalyzer.getModuleEvalStartTime());
+      }
+      if (gwtAnalyzer.getModuleStartupEndTime() > 0) {
+        record.setModuleStartupDuration(gwtAnalyzer.getModuleStartupEndTime()
+            - gwtAnalyzer.getModuleStartupTime());
+      }
+    }
+
+    if (gwtAnalyzer.getLoadExternalRefsStartTime() > 0) {
+      record.setLoadExternalRefsTime(gwtAnalyzer.getLoadExternalRefsStartTime()
+          - baseTime);
+      if (gwtAnalyzer.getLoadExternalRefsEndTime() > 0) {
+        record.setLoadExternalRefsDuration(gwtAnalyzer.getLoadExternalRefsEndTime()
+            - gwtAnalyzer.getLoadExternalRefsStartTime());
+      }
+    }
+
+    dashboardRecord = record;
+  }
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archive of the full headless dumps posted to
+ * {@link SpeedTraceReceiverServlet}, kept so that regressions can be debugged
+ * from the raw trace long after its records were charted.
+ * 
+ * Dumps are addressed by the SHA-1 of their content, so an upload that is
+ * posted again is only stored once. Each is gzip compressed, which takes the
+ * repetitive JSON of a trace down to a few percent of its size, and the
+ * compressed stream is split into chunks that fit in a datastore entity. A
+ * dump is archived as it is read, so it is never held in memory whole. Its
+ * chunks are written under a random id, as the hash is only known at the end,
+ * and the entry, written after its chunks, records that id with the sizes and
+ * the number of chunks.
+ * A separate index maps the name, revision and timestamp of the
+ * {@link DashboardRecord} analyzed from a dump to the dump's id.
+ * 
+ * Reads stream the chunks one at a time, either as stored or decompressed
+ * back to the original dump.
+ */
+public class TraceArchive {
+  /**
+   * The sizes of an archived dump.
+   */
+  public static class Entry {
+    private static Entry read(byte[] bytes) {
+      final DataInputStream input = new DataInputStream(
+          new ByteArrayInputStream(bytes));
+      try {
+        return new Entry(input.readLong(), input.readLong(), input.readInt(),
+            input.readUTF());
+      } catch (IOException ex) {
+        throw new RuntimeException("Malformed trace archive entry", ex);
+      }
+    }
+
+    private final int chunkCount;
+
+    private final String chunkId;
+
+    private final long compressedLength;
+
+    private final long length;
+
+    private Entry(long length, long compressedLength, int chunkCount,
+        String chunkId) {
+      this.length = length;
+      this.compressedLength = compressedLength;
+      this.chunkCount = chunkCount;
+      this.chunkId = chunkId;
+    }
+
+    public int getChunkCount() {
+      return chunkCount;
+    }
+
+    /**
+     * Returns the number of bytes stored.
+     */
+    public long getCompressedLength() {
+      return compressedLength;
+    }
+
+    /**
+     * Returns the length of the original dump.
+     */
+    public long getLength() {
+      return length;
+    }
+
+    private byte[] toBytes() {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream output = new DataOutputStream(bytes);
+      try {
+        output.writeLong(length);
+        output.writeLong(compressedLength);
+        output.writeInt(chunkCount);
+        output.writeUTF(chunkId);
+      } catch (IOException ex) {
+        // Not thrown when writing to memory.
+        throw new RuntimeException(ex);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * Archives a dump as it is read, see
+   * {@link TraceArchive#archive(InputStream)}. Reading passes each byte on to
+   * the SHA-1 digest and the compressed chunks of the dump.
+   */
+  public class ArchivingInputStream extends FilterInputStream {
+    private final ChunkOutputStream chunks;
+
+    private final MessageDigest digest = ServerUtilities.createDigest();
+
+    // The first failure to store a chunk, thrown by finish().
+    private RuntimeException failure;
+
+    private long length;
+
+    private final GZIPOutputStream output;
+
+    private ArchivingInputStream(InputStream input) {
+      super(input);
+      chunks = new ChunkOutputStream(storage, createChunkId(), chunkSize);
+      try {
+        output = new GZIPOutputStream(chunks) {
+          {
+            def.setLevel(Deflater.BEST_COMPRESSION);
+          }
+        };
+      } catch (IOException ex) {
+        // Not thrown by a ChunkOutputStream.
+        throw new RuntimeException(ex);
+      }
+    }
+
+    /**
+     * Deletes whatever was stored of a dump that is not to be archived, for
+     * example because it could not be analyzed.
+     */
+    public void abandon() {
+      try {
+        output.close();
+      } catch (IOException ex) {
+        // Not thrown by a ChunkOutputStream.
+      } catch (RuntimeException ex) {
+        // The chunks written so far are deleted all the same.
+      }
+      chunks.delete();
+    }
+
+    /**
+     * Reads whatever the caller left of the dump, then stores its entry unless
+     * the same dump is already archived, and indexes it by the record analyzed
+     * from it.
+     * 
+     * What was stored of a dump that can not be read to the end, or whose
+     * chunks can not all be stored, is deleted.
+     * 
+     * @param record the record analyzed from the dump, or <code>null</code>
+     * @return the id of the dump
+     * @throws IOException if the rest of the dump can not be read
+     */
+    public String finish(DashboardRecord record) throws IOException {
+      try {
+        final byte[] buffer = new byte[16 * 1024];
+        while (read(buffer) != -1) {
+          // Only read for the digest and the chunks.
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        output.close();
+      } catch (IOException ex) {
+        abandon();
+        throw ex;
+      } catch (RuntimeException ex) {
+        abandon();
+        throw ex;
+      }
+
+      final String traceId = ServerUtilities.toHex(digest.digest());
+      if (storage.get(ENTRY_PREFIX + traceId) == null) {
+        // Written last, so that the chunks of an entry are always all there.
+        storage.put(ENTRY_PREFIX + traceId, new Entry(length, chunks.total,
+            chunks.count, chunks.chunkId).toBytes());
+        archived.incrementAndGet();
+        rawBytes.addAndGet(length);
+        compressedBytes.addAndGet(chunks.total);
+      } else {
+        chunks.delete();
+        duplicates.incrementAndGet();
+      }
+
+      if (record != null) {
+        storage.put(getRecordKey(record.getName(), record.getRevision(),
+            (long) record.getTimestamp()), traceId.getBytes("UTF-8"));
+      }
+      return traceId;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int b = super.read();
+      if (b != -1) {
+        tee(new byte[] {(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int n) throws IOException {
+      final int read = super.read(bytes, offset, n);
+      if (read > 0) {
+        tee(bytes, offset, read);
+      }
+      return read;
+    }
+
+    @Override
+    public void reset() throws IOException {
+      throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Reads the skipped bytes, as they are part of the dump too.
+     */
+    @Override
+    public long skip(long n) throws IOException {
+      final byte[] buffer = new byte[(int) Math.min(n, 16 * 1024)];
+      long skipped = 0;
+      while (skipped < n) {
+        final int read = read(buffer, 0, (int) Math.min(n - skipped,
+            buffer.length));
+        if (read == -1) {
+          break;
+        }
+        skipped += read;
+      }
+      return skipped;
+    }
+
+    private void tee(byte[] bytes, int offset, int n) throws IOException {
+      digest.update(bytes, offset, n);
+      length += n;
+      if (failure != null) {
+        return;
+      }
+      try {
+        output.write(bytes, offset, n);
+      } catch (RuntimeException ex) {
+        // A dump that can not be archived is still read to the end for
+        // whoever is analyzing it.
+        failure = ex;
+      }
+    }
+  }
+
+  /**
+   * Stores what is written to it as numbered chunks of the same dump.
+   */
+  private static class ChunkOutputStream extends OutputStream {
+    private final byte[] buffer;
+
+    private int count;
+
+    private int length;
+
+    private final String chunkId;
+
+    private final BlobStorage storage;
+
+    private long total;
+
+    ChunkOutputStream(BlobStorage storage, String chunkId, int chunkSize) {
+      this.storage = storage;
+      this.chunkId = chunkId;
+      this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void close() {
+      if (length > 0) {
+        writeChunk();
+      }
+    }
+
+    /**
+     * Deletes the chunks written so far.
+     */
+    public void delete() {
+      for (int i = 0; i < count; ++i) {
+        storage.delete(getChunkKey(chunkId, i));
+      }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int n) {
+      while (n > 0) {
+        final int copied = Math.min(n, buffer.length - length);
+        System.arraycopy(bytes, offset, buffer, length, copied);
+        length += copied;
+        offset += copied;
+        n -= copied;
+        if (length == buffer.length) {
+          writeChunk();
+        }
+      }
+    }
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    private void writeChunk() {
+      final byte[] chunk = new byte[length];
+      System.arraycopy(buffer, 0, chunk, 0, length);
+      storage.put(getChunkKey(chunkId, count), chunk);
+      ++count;
+      total += length;
+      length = 0;
+    }
+  }
+
+  /**
+   * Keeps each entity well under the 1MB datastore limit.
+   */
+  static final int CHUNK_SIZE = 512 * 1024;
+
+  private static final String CHUNK_PREFIX = "chunk-";
+
+  private static final String ENTRY_PREFIX = "trace-";
+
+  private static final String RECORD_PREFIX = "record-";
+
+  /**
+   * Returns whether <code>id</code> has the form of a trace id, the SHA-1 of a
+   * dump in lower case hex. Ids from requests are checked before they are
+   * used to build blob keys.
+   */
+  public static boolean isTraceId(String id) {
+    if (id == null || id.length() != 40) {
+      return false;
+    }
+    for (int i = 0; i < id.length(); ++i) {
+      final char c = id.charAt(i);
+      if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a new id for the chunks of a dump being archived.
+   */
+  private static String createChunkId() {
+    try {
+      return ServerUtilities.hash(UUID.randomUUID().toString().getBytes(
+          "UTF-8"));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  private static String getChunkKey(String chunkId, int index) {
+    return CHUNK_PREFIX + chunkId + "-" + index;
+  }
+
+  private static String getRecordKey(String name, String revision,
+      long timestamp) {
+    return RECORD_PREFIX + ServerUtilities.getRunId(name, revision, timestamp);
+  }
+
+  private final AtomicLong archived = new AtomicLong();
+
+  private final int chunkSize;
+
+  private final AtomicLong compressedBytes = new AtomicLong();
+
+  private final AtomicLong duplicates = new AtomicLong();
+
+  private final AtomicLong rawBytes = new AtomicLong();
+
+  private final BlobStorage storage;
+
+  public TraceArchive(BlobStorage storage) {
+    this(storage, CHUNK_SIZE);
+  }
+
+  TraceArchive(BlobStorage storage, int chunkSize) {
+    this.storage = storage;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Stores a dump that is already in memory, see
+   * {@link #archive(InputStream)}.
+   * 
+   * @param dump the upload, no longer content encoded
+   * @param record the record analyzed from the dump, or <code>null</code>
+   * @return the id of the dump
+   */
+  public String archive(byte[] dump, DashboardRecord record) {
+    try {
+      return archive(new ByteArrayInputStream(dump)).finish(record);
+    } catch (IOException ex) {
+      // Not thrown when reading from memory.
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Starts archiving a dump as it is read. The caller reads the dump through
+   * the returned stream, then either calls
+   * {@link ArchivingInputStream#finish(DashboardRecord)} to store it, unless
+   * the same dump is already stored, or
+   * {@link ArchivingInputStream#abandon()} to drop it.
+   * 
+   * @param dump the upload, no longer content encoded
+   */
+  public ArchivingInputStream archive(InputStream dump) {
+    return new ArchivingInputStream(dump);
+  }
+
+  /**
+   * Returns the id of the dump that the record with the given name, revision
+   * and timestamp was analyzed from, or <code>null</code> if it was not
+   * archived.
+   */
+  public String findTrace(String name, String revision, long timestamp) {
+    final byte[] traceId = storage.get(getRecordKey(name, revision, timestamp));
+    try {
+      return traceId == null ? null : new String(traceId, "UTF-8");
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Returns the entry of a dump, or <code>null</code> if it is not archived
+   * or <code>traceId</code> is not a trace id.
+   */
+  public Entry getEntry(String traceId) {
+    if (!isTraceId(traceId)) {
+      return null;
+    }
+    final byte[] entry = storage.get(ENTRY_PREFIX + traceId);
+    return entry == null ? null : Entry.read(entry);
+  }
+
+  /**
+   * Returns counters of the dumps archived by this instance.
+   */
+  public JsonObject getMetrics() {
+    final JsonObject metrics = new JsonObject();
+    metrics.put("archived", archived.get());
+    metrics.put("compressedBytes", compressedBytes.get());
+    metrics.put("duplicates", duplicates.get());
+    metrics.put("rawBytes", rawBytes.get());
+    return metrics;
+  }
+
+  /**
+   * Opens a dump in the headless dump format it was posted in.
+   * 
+   * @return the dump, or <code>null</code> if it is not archived
+   */
+  public InputStream open(String traceId) throws IOException {
+    final InputStream compressed = openCompressed(traceId);
+    return compressed == null ? null : new GZIPInputStream(compressed,
+        16 * 1024);
+  }
+
+  /**
+   * Opens a dump gzip compressed, as it is stored.
+   * 
+   * @return the dump, or <code>null</code> if it is not archived
+   */
+  public InputStream openCompressed(final String traceId) {
+    final Entry entry = getEntry(traceId);
+    if (entry == null) {
+      return null;
+    }
+    // Each chunk is only read once the previous one has been consumed.
+    return new SequenceInputStream(new Enumeration<InputStream>() {
+      private int next;
+
+      public boolean hasMoreElements() {
+        return next < entry.getChunkCount();
+      }
+
+      public InputStream nextElement() {
+        if (!hasMoreElements()) {
+          throw new NoSuchElementException();
+        }
+        final String key = getChunkKey(entry.chunkId, next++);
+        final byte[] chunk = storage.get(key);
+        if (chunk == null) {
+          throw new IllegalStateException("Missing trace archive chunk " + key);
+        }
+        return new ByteArrayInputStream(chunk);
+      }
+    });
+  }
+}
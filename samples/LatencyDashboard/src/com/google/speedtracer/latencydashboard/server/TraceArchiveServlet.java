@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the dumps kept by the {@link TraceArchive}, in the headless dump
+ * format they were posted to {@link SpeedTraceReceiverServlet} in. A dump is
+ * either requested by its id, or by the name, revision and timestamp of the
+ * record analyzed from it:
+ * 
+ * <pre>
+ * GET /trace?id=&lt;id&gt;
+ * GET /trace?name=&lt;name&gt;&amp;revision=&lt;revision&gt;&amp;timestamp=&lt;ms&gt;
+ * </pre>
+ * 
+ * Clients that accept gzip get the dump as it is stored, without decompressing
+ * it on the server.
+ */
+public class TraceArchiveServlet extends HttpServlet {
+  private static final long serialVersionUID = -2706343584003129186L;
+
+  private transient TraceArchive archive;
+
+  @Override
+  public void init() throws ServletException {
+    try {
+      archive = ServerUtilities.getTraceArchive();
+    } catch (IOException ex) {
+      throw new ServletException(ex);
+    }
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    String traceId = req.getParameter("id");
+    if (traceId != null && !TraceArchive.isTraceId(traceId)) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "Expected an id of 40 lower case hex digits");
+      return;
+    }
+    if (traceId == null) {
+      final long timestamp;
+      try {
+        timestamp = Long.parseLong(String.valueOf(req.getParameter(
+            "timestamp")));
+      } catch (NumberFormatException ex) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Expected an id, or a name, revision and timestamp");
+        return;
+      }
+      traceId = archive.findTrace(req.getParameter("name"),
+          req.getParameter("revision"), timestamp);
+    }
+    final TraceArchive.Entry entry = traceId == null ? null
+        : archive.getEntry(traceId);
+    if (entry == null) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No such trace");
+      return;
+    }
+
+    final String acceptEncoding = req.getHeader("Accept-Encoding");
+    final boolean gzip = acceptEncoding != null
+        && acceptEncoding.toLowerCase().contains("gzip");
+    resp.setContentType("application/json");
+    resp.setCharacterEncoding("UTF-8");
+    final InputStream input;
+    if (gzip) {
+      resp.setHeader("Content-Encoding", "gzip");
+      resp.setHeader("Content-Length", Long.toString(
+          entry.getCompressedLength()));
+      input = archive.openCompressed(traceId);
+    } else {
+      resp.setHeader("Content-Length", Long.toString(entry.getLength()));
+      input = archive.open(traceId);
+    }
+    try {
+      final OutputStream output = resp.getOutputStream();
+      final byte[] buffer = new byte[16 * 1024];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+    } finally {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.shared;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pre-aggregated statistics of the records of one name over one
+ * {@link RollupPeriod} bucket, so that the charts can show trends without
+ * fetching every run.
+ * 
+ * The median record and custom median record hold the p50 of each metric, so
+ * they can be charted in place of a single run.
+ */
+public class DashboardRollup implements Serializable {
+
+  private static final long serialVersionUID = -6217402218866440911L;
+
+  private int count;
+
+  private int customCount;
+
+  private CustomDashboardRecord customMedianRecord;
+
+  /**
+   * Summaries of the custom metrics, by label.
+   */
+  private HashMap<String, MetricSummary> customMetrics =
+      new HashMap<String, MetricSummary>();
+
+  private long firstTimestamp;
+
+  private long lastTimestamp;
+
+  private DashboardRecord medianRecord;
+
+  /**
+   * Summaries of the {@link DashboardRecord} metrics, by field name.
+   */
+  private HashMap<String, MetricSummary> metrics =
+      new HashMap<String, MetricSummary>();
+
+  private String name;
+
+  private RollupPeriod period;
+
+  private String revision;
+
+  private long start;
+
+  public DashboardRollup() {
+  }
+
+  public DashboardRollup(String name, RollupPeriod period, long start,
+      String revision, long firstTimestamp, long lastTimestamp) {
+    this.name = name;
+    this.period = period;
+    this.start = start;
+    this.revision = revision;
+    this.firstTimestamp = firstTimestamp;
+    this.lastTimestamp = lastTimestamp;
+  }
+
+  /**
+   * Returns the number of {@link DashboardRecord}s in the rollup.
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the number of {@link CustomDashboardRecord}s in the rollup.
+   */
+  public int getCustomCount() {
+    return customCount;
+  }
+
+  /**
+   * Returns a record with the median of each custom metric. It is not valid if
+   * the rollup has no custom records.
+   */
+  public CustomDashboardRecord getCustomMedianRecord() {
+    return customMedianRecord;
+  }
+
+  public Map<String, MetricSummary> getCustomMetrics() {
+    return customMetrics;
+  }
+
+  public long getFirstTimestamp() {
+    return firstTimestamp;
+  }
+
+  public long getLastTimestamp() {
+    return lastTimestamp;
+  }
+
+  /**
+   * Returns a record with the median of each metric, timestamped with the
+   * latest record of the rollup.
+   */
+  public DashboardRecord getMedianRecord() {
+    return medianRecord;
+  }
+
+  public Map<String, MetricSummary> getMetrics() {
+    return metrics;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public RollupPeriod getPeriod() {
+    return period;
+  }
+
+  /**
+   * Returns the revision of a {@link RollupPeriod#REVISION} rollup, otherwise
+   * the revision of the latest record in the bucket.
+   */
+  public String getRevision() {
+    return revision;
+  }
+
+  /**
+   * Returns the start of the bucket, or 0 for a {@link RollupPeriod#REVISION}
+   * rollup.
+   */
+  public long getStart() {
+    return start;
+  }
+
+  public void setCount(int count) {
+    this.count = count;
+  }
+
+  public void setCustomCount(int customCount) {
+    this.customCount = customCount;
+  }
+
+  public void setCustomMedianRecord(CustomDashboardRecord customMedianRecord) {
+    this.customMedianRecord = customMedianRecord;
+  }
+
+  public void setMedianRecord(DashboardRecord medianRecord) {
+    this.medianRecord = medianRecord;
+  }
+}
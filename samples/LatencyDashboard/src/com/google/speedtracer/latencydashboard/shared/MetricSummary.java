@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.shared;
+
+import java.io.Serializable;
+
+/**
+ * Statistics of one metric over the records of a {@link DashboardRollup}. The
+ * percentiles are estimates within 1% of the true value.
+ */
+public class MetricSummary implements Serializable {
+
+  private static final long serialVersionUID = 3362163529780651712L;
+
+  private long count;
+
+  private double max;
+
+  private double mean;
+
+  private double min;
+
+  private double p50;
+
+  private double p90;
+
+  private double p99;
+
+  public MetricSummary() {
+  }
+
+  public MetricSummary(long count, double mean, double min, double max,
+      double p50, double p90, double p99) {
+    this.count = count;
+    this.mean = mean;
+    this.min = min;
+    this.max = max;
+    this.p50 = p50;
+    this.p90 = p90;
+    this.p99 = p99;
+  }
+
+  /**
+   * Returns the number of records that had a value for the metric.
+   */
+  public long getCount() {
+    return count;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getP50() {
+    return p50;
+  }
+
+  public double getP90() {
+    return p90;
+  }
+
+  public double getP99() {
+    return p99;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.shared;
+
+/**
+ * How the records of a {@link DashboardRollup} are grouped. Rollups are always
+ * kept per name as well.
+ */
+public enum RollupPeriod {
+  /**
+   * One rollup per UTC day.
+   */
+  DAY(24 * 60 * 60 * 1000L),
+
+  /**
+   * One rollup per hour.
+   */
+  HOUR(60 * 60 * 1000L),
+
+  /**
+   * One rollup per revision, however long it was measured for.
+   */
+  REVISION(0);
+
+  private final long lengthMs;
+
+  private RollupPeriod(long lengthMs) {
+    this.lengthMs = lengthMs;
+  }
+
+  /**
+   * Returns the start of the bucket holding <code>timestamp</code>, or 0 for
+   * {@link #REVISION}, which is not bucketed by time.
+   */
+  public long getBucketStart(long timestamp) {
+    if (lengthMs == 0) {
+      return 0;
+    }
+    return timestamp - timestamp % lengthMs;
+  }
+}
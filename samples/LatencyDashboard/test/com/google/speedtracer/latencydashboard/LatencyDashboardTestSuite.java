@@ -15,7 +15,13 @@
  */
 package com.google.speedtracer.latencydashboard;
 
+import com.google.speedtracer.latencydashboard.server.BatchAnalyzerTests;
 import com.google.speedtracer.latencydashboard.server.CustomDashboardRecordStoreTests;
+import com.google.speedtracer.latencydashboard.server.FileRecordStorageTests;
+import com.google.speedtracer.latencydashboard.server.IngestionPipelineTests;
+import com.google.speedtracer.latencydashboard.server.LatestRecordsCacheTests;
+import com.google.speedtracer.latencydashboard.server.RollupTests;
+import com.google.speedtracer.latencydashboard.server.TraceArchiveTests;
 import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecordTests;
 
 import junit.framework.TestSuite;
@@ -26,8 +32,14 @@ import junit.framework.TestSuite;
 public class LatencyDashboardTestSuite extends TestSuite {
   public static TestSuite suite() {
     final TestSuite suite = new TestSuite("All Tests");
+    suite.addTestSuite(BatchAnalyzerTests.class);
     suite.addTestSuite(CustomDashboardRecordTests.class);
     suite.addTestSuite(CustomDashboardRecordStoreTests.class);
+    suite.addTestSuite(FileRecordStorageTests.class);
+    suite.addTestSuite(IngestionPipelineTests.class);
+    suite.addTestSuite(LatestRecordsCacheTests.class);
+    suite.addTestSuite(RollupTests.class);
+    suite.addTestSuite(TraceArchiveTests.class);
     return suite;
   }
 }
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonArray;
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.server.BatchAnalyzer.Result;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests for {@link BatchAnalyzer}.
+ */
+public class BatchAnalyzerTests extends TestCase {
+
+  private File directory;
+
+  public void setUp() throws IOException {
+    directory = File.createTempFile("batchanalyzer", "");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  public void testAnalyzeAll() throws Exception {
+    final int count = 20;
+    final File[] files = new File[count + 1];
+    for (int i = 0; i < count; ++i) {
+      files[i] = writeDump("dump" + i + ".json",
+          TestDumps.create("r" + i, i));
+    }
+    files[count] = writeDump("bad.json", "{\"header\":");
+
+    final Result[] results = BatchAnalyzer.analyzeAll(files, new ForkJoinPool(
+        4));
+    assertEquals(count + 1, results.length);
+    for (int i = 0; i < count; ++i) {
+      assertNull(results[i].getError());
+      final DashboardRecord record =
+          results[i].getAnalysis().getDashboardRecord();
+      assertEquals("r" + i, record.getRevision());
+      assertEquals(5.0 + i, record.mainResourceResponseTime, .001);
+    }
+    assertNull(results[count].getAnalysis());
+    assertNotNull(results[count].getError());
+
+    final StringWriter csv = new StringWriter();
+    BatchAnalyzer.writeCsv(results, csv);
+    final String[] lines = csv.toString().split("\n");
+    // A header, and one line per valid dump.
+    assertEquals(count + 1, lines.length);
+    assertTrue(lines[0].startsWith("file,name,revision,timeStamp,"));
+    assertEquals(4 + TraceAnalysis.METRIC_NAMES.length,
+        lines[1].trim().split(",").length);
+
+    final StringWriter json = new StringWriter();
+    BatchAnalyzer.writeJson(results, json);
+    final JsonArray array = JsonArray.parse(new StringReader(json.toString()));
+    assertEquals(count, array.getLength());
+    final JsonObject first = array.get(0).asObject();
+    assertEquals("dump0.json", first.get("file").asString().getString());
+    assertEquals(5.0,
+        first.get("mainResourceResponseTime").asNumber().getDecimal(), .001);
+  }
+
+  public void testGzipDump() throws Exception {
+    final File file = new File(directory, "dump.json.gz");
+    final OutputStream output = new GZIPOutputStream(new FileOutputStream(
+        file));
+    try {
+      output.write(TestDumps.create("r", 2).getBytes("UTF-8"));
+    } finally {
+      output.close();
+    }
+
+    final Result result = BatchAnalyzer.analyzeFile(file);
+    assertNull(result.getError());
+    assertEquals(7.0,
+        result.getAnalysis().getDashboardRecord().mainResourceResponseTime,
+        .001);
+  }
+
+  private File writeDump(String name, String contents) throws IOException {
+    final File file = new File(directory, name);
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(contents);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+}
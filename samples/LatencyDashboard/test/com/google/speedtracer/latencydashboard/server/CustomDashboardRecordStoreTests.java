@@ -47,6 +47,20 @@ public class CustomDashboardRecordStoreTests extends TestCase {
     helper.tearDown();
   }
 
+  public void testClearInvalidatesCache() {
+    DatastoreService store = DatastoreServiceFactory.getDatastoreService();
+    LatestRecordsCache<CustomDashboardRecord> cache =
+        CustomDashboardRecordStore.getLatestCache();
+    cache.getLatest(store, 10);
+    long misses = cache.getMissCount();
+    cache.getLatest(store, 10);
+    assertEquals("cached", misses, cache.getMissCount());
+
+    CustomDashboardRecordStore.clear(store, "UnitTest-testClear");
+    cache.getLatest(store, 10);
+    assertEquals("reloaded after clear", misses + 1, cache.getMissCount());
+  }
+
   public void testGetPut() {
     String unitTestName = "UnitTest-testPut";
     DatastoreService store = DatastoreServiceFactory.getDatastoreService();
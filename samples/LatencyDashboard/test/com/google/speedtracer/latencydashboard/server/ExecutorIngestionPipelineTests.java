@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for {@link ExecutorIngestionPipeline}, storing into a
+ * {@link FileRecordStorage}.
+ */
+public class ExecutorIngestionPipelineTests extends TestCase {
+
+  /**
+   * Holds up every put until <code>open</code> is counted down.
+   */
+  private static class GatedStorage extends FileRecordStorage {
+    private final CountDownLatch open = new CountDownLatch(1);
+
+    GatedStorage(File directory) throws IOException {
+      super(directory);
+    }
+
+    @Override
+    public void put(List<DashboardRecord> records,
+        List<CustomDashboardRecord> customRecords) {
+      try {
+        open.await();
+      } catch (InterruptedException ex) {
+        throw new RuntimeException(ex);
+      }
+      super.put(records, customRecords);
+    }
+  }
+
+  private File directory;
+
+  public void setUp() throws IOException {
+    directory = File.createTempFile("ingestionpipeline", "");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  public void testBadUploadIsDropped() throws Exception {
+    final FileRecordStorage storage = new FileRecordStorage(directory);
+    final ExecutorIngestionPipeline pipeline = new ExecutorIngestionPipeline(
+        storage, null, 10, 1);
+    assertTrue(pipeline.submit("{\"header\":".getBytes("UTF-8"), null));
+    assertTrue(pipeline.submit(TestDumps.create("r", 0).getBytes("UTF-8"),
+        null));
+    pipeline.close();
+
+    final JsonObject metrics = pipeline.getMetrics();
+    assertEquals(1, metrics.get("failed").asNumber().getInteger());
+    assertEquals(1, metrics.get("stored").asNumber().getInteger());
+    assertEquals(1, storage.getRecordCount());
+    storage.close();
+  }
+
+  public void testRefusesUploadsWhenFull() throws Exception {
+    final GatedStorage storage = new GatedStorage(directory);
+    final ExecutorIngestionPipeline pipeline = new ExecutorIngestionPipeline(
+        storage, null, 2, 1);
+    final byte[] dump = TestDumps.create("r", 0).getBytes("UTF-8");
+    assertTrue(pipeline.submit(dump, null));
+    assertTrue(pipeline.submit(dump, null));
+    // Both are pending, whether queued or held up in the storage.
+    assertFalse(pipeline.submit(dump, null));
+    assertEquals(2, pipeline.getMetrics().get("pending").asNumber()
+        .getInteger());
+    assertEquals(1, pipeline.getMetrics().get("rejected").asNumber()
+        .getInteger());
+
+    storage.open.countDown();
+    pipeline.close();
+    assertEquals(0, pipeline.getMetrics().get("pending").asNumber()
+        .getInteger());
+    assertEquals(2, pipeline.getMetrics().get("stored").asNumber()
+        .getInteger());
+    // A closed pipeline takes no more uploads.
+    assertFalse(pipeline.submit(dump, null));
+    storage.close();
+  }
+
+  public void testSubmit() throws Exception {
+    final int count = 50;
+    final FileRecordStorage storage = new FileRecordStorage(directory);
+    final ExecutorIngestionPipeline pipeline = new ExecutorIngestionPipeline(
+        storage, null, count, 4);
+    for (int i = 0; i < count; ++i) {
+      final String dump = TestDumps.create("r" + i, i);
+      // Half of the uploads are compressed, as the headless extension may.
+      assertTrue(i % 2 == 0 ? pipeline.submit(dump.getBytes("UTF-8"), null)
+          : pipeline.submit(TestDumps.gzip(dump), "gzip"));
+    }
+    // Stores all of the queued uploads before returning.
+    pipeline.close();
+
+    final DashboardRecord[] records = storage.getDashboardLatestRecords(
+        2 * count);
+    assertEquals(count, records.length);
+    for (DashboardRecord record : records) {
+      final int i = Integer.parseInt(record.getRevision().substring(1));
+      assertEquals(5.0 + i, record.mainResourceResponseTime, .001);
+    }
+    final JsonObject metrics = pipeline.getMetrics();
+    assertEquals(count, metrics.get("stored").asNumber().getInteger());
+    assertEquals(0, metrics.get("pending").asNumber().getInteger());
+    storage.close();
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link FileRecordStorage}.
+ */
+public class FileRecordStorageTests extends TestCase {
+
+  private File directory;
+
+  public void setUp() throws IOException {
+    directory = File.createTempFile("filerecordstorage", "");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  public void testCorruptRecord() throws IOException {
+    FileRecordStorage storage = new FileRecordStorage(directory);
+    storage.put(Arrays.asList(createRecord(1, "r1")),
+        Collections.<CustomDashboardRecord> emptyList());
+    final File log = new File(directory, "dashboard_records.log");
+    final long first = log.length();
+    storage.put(Arrays.asList(createRecord(2, "r2"), createRecord(3, "r3")),
+        Collections.<CustomDashboardRecord> emptyList());
+    storage.close();
+    final long length = log.length();
+
+    // Garble the payload of the second record, leaving the third intact.
+    final RandomAccessFile file = new RandomAccessFile(log, "rw");
+    file.seek(first + 10);
+    file.write(new byte[] {1, 2, 3, 4});
+    file.close();
+
+    storage = new FileRecordStorage(directory);
+    assertEquals(length, log.length());
+    final DashboardRecord[] latest = storage.getDashboardLatestRecords(10);
+    assertEquals(2, latest.length);
+    assertEquals(3.0, latest[0].getTimestamp());
+    assertEquals(1.0, latest[1].getTimestamp());
+    storage.close();
+  }
+
+  public void testGetDashboardRecords() throws IOException {
+    final FileRecordStorage storage = new FileRecordStorage(directory);
+    storage.put(Arrays.asList(createRecord(1, "r1"), createRecord(2, "r2"),
+        createRecord(3, "r1")), Arrays.asList(createCustomRecord(4, "r2")));
+
+    final DashboardRecord[] found = storage.getDashboardRecords("test", "r1");
+    assertEquals(2, found.length);
+    assertEquals(1.0, found[0].getTimestamp());
+    assertEquals(3.0, found[1].getTimestamp());
+    assertEquals(0, storage.getDashboardRecords("test", "r3").length);
+    assertEquals(0, storage.getDashboardRecords("other", "r1").length);
+
+    final CustomDashboardRecord[] custom = storage.getCustomDashboardRecords(
+        "test", "r2");
+    assertEquals(1, custom.length);
+    assertEquals(4.0, custom[0].getMetric("measure"), .001);
+    storage.close();
+  }
+
+  public void testLatest() throws IOException {
+    final FileRecordStorage storage = new FileRecordStorage(directory);
+    assertEquals(0, storage.getDashboardLatestRecords(10).length);
+
+    // Out of timestamp order, in several batches.
+    final List<DashboardRecord> records = new ArrayList<DashboardRecord>();
+    for (long timestamp : new long[] {5, 1, 4, 2, 3}) {
+      records.add(createRecord(timestamp, "r" + timestamp));
+      storage.put(records, Collections.<CustomDashboardRecord> emptyList());
+      records.clear();
+    }
+    storage.put(records, Arrays.asList(createCustomRecord(7, "r7"),
+        createCustomRecord(6, "r6")));
+
+    final DashboardRecord[] latest = storage.getDashboardLatestRecords(3);
+    assertEquals(3, latest.length);
+    assertEquals(5.0, latest[0].getTimestamp());
+    assertEquals(4.0, latest[1].getTimestamp());
+    assertEquals(3.0, latest[2].getTimestamp());
+    assertEquals("r4", latest[1].getRevision());
+    assertEquals(4.0, latest[1].mainResourceResponseTime, .001);
+    assertEquals(5, storage.getDashboardLatestRecords(10).length);
+
+    final CustomDashboardRecord[] custom =
+        storage.getCustomDashboardLatestRecords(10);
+    assertEquals(2, custom.length);
+    assertEquals(7, custom[0].getTimestamp());
+    assertEquals(6, custom[1].getTimestamp());
+    storage.close();
+  }
+
+  public void testReopen() throws IOException {
+    FileRecordStorage storage = new FileRecordStorage(directory);
+    storage.put(Arrays.asList(createRecord(2, "r2"), createRecord(1, "r1")),
+        Arrays.asList(createCustomRecord(3, "r3")));
+    storage.close();
+
+    storage = new FileRecordStorage(directory);
+    assertEquals(3, storage.getRecordCount());
+    storage.put(Arrays.asList(createRecord(3, "r3")),
+        Collections.<CustomDashboardRecord> emptyList());
+    final DashboardRecord[] latest = storage.getDashboardLatestRecords(10);
+    assertEquals(3, latest.length);
+    assertEquals(3.0, latest[0].getTimestamp());
+    assertEquals(2.0, latest[1].getTimestamp());
+    assertEquals(1.0, latest[2].getTimestamp());
+    assertEquals("r3", storage.getCustomDashboardLatestRecords(1)[0]
+        .getRevision());
+    storage.close();
+  }
+
+  public void testRollups() throws IOException {
+    FileRecordStorage storage = new FileRecordStorage(directory);
+    storage.put(Arrays.asList(createRecord(1, "r1"), createRecord(3, "r1"),
+        createRecord(2, "r2")), Arrays.asList(createCustomRecord(4, "r2")));
+    storage.close();
+
+    // The rollups are rebuilt from the logs.
+    storage = new FileRecordStorage(directory);
+    storage.put(Arrays.asList(createRecord(5, "r1")),
+        Collections.<CustomDashboardRecord> emptyList());
+    final DashboardRollup[] rollups = storage.getDashboardRollups(
+        RollupPeriod.REVISION, 10);
+    assertEquals(2, rollups.length);
+    assertEquals("r1", rollups[0].getRevision());
+    assertEquals(3, rollups[0].getCount());
+    assertEquals(5, rollups[0].getLastTimestamp());
+    assertEquals(3.0, rollups[0].getMedianRecord().mainResourceResponseTime,
+        3.0 * .01);
+    assertEquals(5.0, rollups[0].getMetrics().get("mainResourceResponseTime")
+        .getMax());
+    assertEquals("r2", rollups[1].getRevision());
+    assertEquals(1, rollups[1].getCount());
+    assertEquals(1, rollups[1].getCustomCount());
+
+    assertEquals(1,
+        storage.getDashboardRollups(RollupPeriod.REVISION, 1).length);
+    final DashboardRollup[] days = storage.getDashboardRollups(
+        RollupPeriod.DAY, 10);
+    assertEquals(1, days.length);
+    assertEquals(4, days[0].getCount());
+    assertEquals("r1", days[0].getRevision());
+    storage.close();
+  }
+
+  public void testTruncatedRecord() throws IOException {
+    FileRecordStorage storage = new FileRecordStorage(directory);
+    storage.put(Arrays.asList(createRecord(1, "r1"), createRecord(2, "r2")),
+        Collections.<CustomDashboardRecord> emptyList());
+    storage.close();
+
+    // Cut the last record short, as if the process stopped while writing it.
+    final File log = new File(directory, "dashboard_records.log");
+    final RandomAccessFile file = new RandomAccessFile(log, "rw");
+    final long length = file.length();
+    file.setLength(length - 10);
+    file.close();
+
+    storage = new FileRecordStorage(directory);
+    assertEquals(1, storage.getRecordCount());
+    assertTrue(log.length() < length - 10);
+    storage.put(Arrays.asList(createRecord(3, "r3")),
+        Collections.<CustomDashboardRecord> emptyList());
+    storage.close();
+
+    storage = new FileRecordStorage(directory);
+    final DashboardRecord[] latest = storage.getDashboardLatestRecords(10);
+    assertEquals(2, latest.length);
+    assertEquals(3.0, latest[0].getTimestamp());
+    assertEquals(1.0, latest[1].getTimestamp());
+    storage.close();
+  }
+
+  private CustomDashboardRecord createCustomRecord(long timestamp,
+      String revision) {
+    final CustomDashboardRecord record = new CustomDashboardRecord(timestamp,
+        "test", revision);
+    record.addCustomMeasure("measure", (double) timestamp);
+    return record;
+  }
+
+  private DashboardRecord createRecord(long timestamp, String revision) {
+    final DashboardRecord record = new DashboardRecord(timestamp, "test",
+        revision);
+    record.setMainResourceResponseTime(timestamp);
+    return record;
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.DatastoreService;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for {@link LatestRecordsCache}.
+ */
+public class LatestRecordsCacheTests extends TestCase {
+  /**
+   * Serves records from a list kept newest first, standing in for the
+   * datastore.
+   */
+  private static class TestCache extends LatestRecordsCache<Long> {
+    private final List<Long> stored = new ArrayList<Long>();
+
+    private int queryCount;
+
+    private TestCache(int capacity, long ttlMs) {
+      super(capacity, ttlMs);
+    }
+
+    @Override
+    protected Long[] createArray(int length) {
+      return new Long[length];
+    }
+
+    @Override
+    protected double getTimestamp(Long record) {
+      return record;
+    }
+
+    @Override
+    protected Iterator<Long> query(DatastoreService store, int n) {
+      ++queryCount;
+      return stored.subList(0, Math.min(n, stored.size())).iterator();
+    }
+
+    private void store(long record) {
+      int index = 0;
+      while (index < stored.size() && stored.get(index) > record) {
+        ++index;
+      }
+      stored.add(index, record);
+      add(record);
+    }
+  }
+
+  public void testAdd() {
+    final TestCache cache = new TestCache(3, 60 * 1000);
+    cache.store(10);
+    cache.store(30);
+    assertEquals(2, cache.getLatest(null, 3).length);
+
+    cache.store(20);
+    cache.store(40);
+    // Older than all of the cached records.
+    cache.store(5);
+    assertEquals(1, cache.queryCount);
+    assertEquals(1, cache.getMissCount());
+    // Added in order, and trimmed to the capacity.
+    assertRecords(new long[] {40, 30, 20}, cache.getLatest(null, 3));
+    assertRecords(new long[] {40}, cache.getLatest(null, 1));
+    assertEquals(1, cache.queryCount);
+    assertEquals(2, cache.getHitCount());
+  }
+
+  public void testExpires() throws InterruptedException {
+    final TestCache cache = new TestCache(10, 1);
+    cache.stored.add(Long.valueOf(10));
+    assertRecords(new long[] {10}, cache.getLatest(null, 5));
+    // Stored by another instance.
+    cache.stored.add(0, Long.valueOf(20));
+    Thread.sleep(5);
+    assertRecords(new long[] {20, 10}, cache.getLatest(null, 5));
+    assertEquals(2, cache.queryCount);
+    assertEquals(0, cache.getHitCount());
+  }
+
+  public void testInvalidate() {
+    final TestCache cache = new TestCache(5, 60 * 1000);
+    cache.store(10);
+    cache.store(20);
+    assertRecords(new long[] {20, 10}, cache.getLatest(null, 5));
+    // Deleted, which the cache only learns of when it is invalidated.
+    cache.stored.remove(0);
+    assertRecords(new long[] {20, 10}, cache.getLatest(null, 5));
+    cache.invalidate();
+    assertRecords(new long[] {10}, cache.getLatest(null, 5));
+    assertEquals(2, cache.queryCount);
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testLargerThanCapacity() {
+    final TestCache cache = new TestCache(2, 60 * 1000);
+    for (int i = 1; i <= 5; ++i) {
+      cache.store(i);
+    }
+    assertRecords(new long[] {5, 4, 3, 2}, cache.getLatest(null, 4));
+    assertRecords(new long[] {5, 4, 3, 2}, cache.getLatest(null, 4));
+    assertEquals(2, cache.queryCount);
+    assertEquals(0, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  public void testNotLoaded() {
+    final TestCache cache = new TestCache(5, 60 * 1000);
+    // Nothing is cached until the first request.
+    cache.add(Long.valueOf(10));
+    assertEquals(0, cache.getLatest(null, 5).length);
+    cache.store(20);
+    cache.invalidate();
+    assertRecords(new long[] {20}, cache.getLatest(null, 5));
+    assertEquals(2, cache.queryCount);
+  }
+
+  private void assertRecords(long[] expected, Long[] actual) {
+    assertEquals(expected.length, actual.length);
+    for (int i = 0; i < expected.length; ++i) {
+      assertEquals(expected[i], actual[i].longValue());
+    }
+  }
+}
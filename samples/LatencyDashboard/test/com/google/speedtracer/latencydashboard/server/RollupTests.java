@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.MetricSummary;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for {@link Rollup} and {@link QuantileSketch}.
+ */
+public class RollupTests extends TestCase {
+  private static final long HOUR_MS = 60 * 60 * 1000L;
+
+  public void testBaseTimeIsNotSummarized() {
+    final DashboardRecord record = createRecord(HOUR_MS, "r1", 10);
+    record.setMainResourceRequestTime(1.2e12);
+    final DashboardRollup rollup = find(Rollup.collect(Arrays.asList(record),
+        Collections.<CustomDashboardRecord> emptyList()),
+        RollupPeriod.REVISION, "r1");
+    assertNull(rollup.getMetrics().get(TraceAnalysis.BASE_TIME_METRIC));
+    assertTrue(Double.isNaN(rollup.getMedianRecord().mainResourceRequestTime));
+    assertEquals(10.0, rollup.getMedianRecord().loadEventTime, 10.0 * .01);
+  }
+
+  public void testCollect() {
+    final List<DashboardRecord> records = new ArrayList<DashboardRecord>();
+    records.add(createRecord(HOUR_MS + 1, "r1", 10));
+    records.add(createRecord(HOUR_MS + 2, "r1", 30));
+    records.add(createRecord(2 * HOUR_MS, "r2", 20));
+    final CustomDashboardRecord customRecord = new CustomDashboardRecord(
+        HOUR_MS + 3, "test", "r1");
+    customRecord.addCustomMeasure("measure", 5.0);
+
+    final Collection<Rollup> rollups = Rollup.collect(records,
+        Arrays.asList(customRecord));
+    // Two revisions, two hours and one day.
+    assertEquals(5, rollups.size());
+
+    final DashboardRollup r1 = find(rollups, RollupPeriod.REVISION, "r1");
+    assertEquals(2, r1.getCount());
+    assertEquals(1, r1.getCustomCount());
+    assertEquals(HOUR_MS + 1, r1.getFirstTimestamp());
+    assertEquals(HOUR_MS + 3, r1.getLastTimestamp());
+    final MetricSummary summary = r1.getMetrics().get("loadEventTime");
+    assertEquals(2, summary.getCount());
+    assertEquals(20.0, summary.getMean(), .001);
+    assertEquals(10.0, summary.getMin());
+    assertEquals(30.0, summary.getMax());
+    assertEquals(10.0, r1.getMedianRecord().loadEventTime, 10.0 * .01);
+    assertEquals(5.0, r1.getCustomMedianRecord().getMetric("measure"),
+        5.0 * .01);
+
+    final DashboardRollup hour = find(rollups, RollupPeriod.HOUR, "r1");
+    assertEquals(HOUR_MS, hour.getStart());
+    assertEquals(2, hour.getCount());
+
+    final DashboardRollup day = find(rollups, RollupPeriod.DAY, "r2");
+    assertEquals(0, day.getStart());
+    assertEquals(3, day.getCount());
+    assertEquals("r2", day.getRevision());
+  }
+
+  public void testMerge() {
+    final List<DashboardRecord> first = new ArrayList<DashboardRecord>();
+    final List<DashboardRecord> second = new ArrayList<DashboardRecord>();
+    final List<DashboardRecord> all = new ArrayList<DashboardRecord>();
+    final Random random = new Random(42);
+    for (int i = 0; i < 1000; ++i) {
+      final DashboardRecord record = createRecord(i, "r1",
+          random.nextDouble() * 1000);
+      (i % 2 == 0 ? first : second).add(record);
+      all.add(record);
+    }
+    final List<CustomDashboardRecord> none = Collections.emptyList();
+
+    final Rollup merged = find(Rollup.collect(first, none));
+    merged.merge(find(Rollup.collect(second, none)));
+    final MetricSummary expected = find(Rollup.collect(all, none))
+        .toDashboardRollup().getMetrics().get("loadEventTime");
+    final MetricSummary actual = merged.toDashboardRollup().getMetrics().get(
+        "loadEventTime");
+    assertEquals(expected.getCount(), actual.getCount());
+    // The sums are added in a different order.
+    assertEquals(expected.getMean(), actual.getMean(), 1e-9);
+    assertEquals(expected.getMin(), actual.getMin());
+    assertEquals(expected.getMax(), actual.getMax());
+    assertEquals(expected.getP50(), actual.getP50());
+    assertEquals(expected.getP90(), actual.getP90());
+    assertEquals(expected.getP99(), actual.getP99());
+
+    final Rollup other = find(Rollup.collect(Arrays.asList(createRecord(0,
+        "r2", 1)), none));
+    try {
+      merged.merge(other);
+      fail("Merged rollups of different revisions");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+
+  public void testReadWrite() {
+    final CustomDashboardRecord customRecord = new CustomDashboardRecord(2,
+        "test", "r1");
+    customRecord.addCustomMeasure("measure", 5.0);
+    final Rollup rollup = find(Rollup.collect(Arrays.asList(createRecord(1,
+        "r1", 10), createRecord(3, "r1", 20)), Arrays.asList(customRecord)));
+
+    final byte[] bytes = rollup.toBytes();
+    final Rollup read = Rollup.read(ByteBuffer.wrap(bytes));
+    assertEquals(rollup.getKey(), read.getKey());
+    assertTrue(Arrays.equals(bytes, read.toBytes()));
+    final DashboardRollup summary = read.toDashboardRollup();
+    assertEquals(2, summary.getCount());
+    assertEquals(1, summary.getCustomCount());
+    assertEquals(3, summary.getLastTimestamp());
+  }
+
+  public void testSketchAccuracy() {
+    final QuantileSketch sketch = new QuantileSketch();
+    final double[] values = new double[10000];
+    final Random random = new Random(42);
+    for (int i = 0; i < values.length; ++i) {
+      // Spread over several orders of magnitude, like latencies.
+      values[i] = Math.exp(random.nextDouble() * 12);
+      sketch.add(values[i]);
+    }
+    Arrays.sort(values);
+    for (double q : new double[] {0, .5, .9, .99, 1}) {
+      final double exact = values[(int) (q * (values.length - 1))];
+      assertEquals(exact, sketch.getQuantile(q), exact
+          * QuantileSketch.RELATIVE_ACCURACY);
+    }
+    assertEquals(values.length, sketch.getCount());
+  }
+
+  public void testSketchCollapse() {
+    final QuantileSketch sketch = new QuantileSketch();
+    sketch.add(1e9);
+    // Needs far more buckets than are kept.
+    for (double value = 1e-2; value < 1e9; value *= 1.001) {
+      sketch.add(value);
+    }
+    final double max = sketch.getQuantile(1);
+    assertEquals(1e9, max, 1e9 * QuantileSketch.RELATIVE_ACCURACY);
+    final double p99 = sketch.getQuantile(.99);
+    assertTrue(p99 > 1e8 && p99 < 1e9);
+  }
+
+  public void testSketchReadWrite() throws IOException {
+    final QuantileSketch sketch = new QuantileSketch();
+    sketch.add(0);
+    sketch.add(-5);
+    sketch.add(3);
+    sketch.add(300);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    sketch.write(new DataOutputStream(bytes));
+
+    final QuantileSketch read = QuantileSketch.read(ByteBuffer.wrap(
+        bytes.toByteArray()));
+    assertEquals(4, read.getCount());
+    assertEquals(0.0, read.getQuantile(0));
+    assertEquals(0.0, read.getQuantile(.34));
+    assertEquals(3.0, read.getQuantile(.67), 3 * .01);
+    assertEquals(300.0, read.getQuantile(1), 300 * .01);
+
+    final QuantileSketch empty = QuantileSketch.read(ByteBuffer.wrap(
+        new byte[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}));
+    assertEquals(0, empty.getCount());
+    assertTrue(Double.isNaN(empty.getQuantile(.5)));
+    empty.merge(read);
+    assertEquals(300.0, empty.getQuantile(1), 300 * .01);
+  }
+
+  private DashboardRecord createRecord(long timestamp, String revision,
+      double loadEventTime) {
+    final DashboardRecord record = new DashboardRecord(timestamp, "test",
+        revision);
+    record.setLoadEventTime(loadEventTime);
+    return record;
+  }
+
+  /**
+   * Returns the revision rollup of a batch with a single revision.
+   */
+  private Rollup find(Collection<Rollup> rollups) {
+    for (Rollup rollup : rollups) {
+      if (rollup.getPeriod() == RollupPeriod.REVISION) {
+        return rollup;
+      }
+    }
+    throw new AssertionError("No revision rollup");
+  }
+
+  private DashboardRollup find(Collection<Rollup> rollups,
+      RollupPeriod period, String revision) {
+    for (Rollup rollup : rollups) {
+      final DashboardRollup summary = rollup.toDashboardRollup();
+      if (rollup.getPeriod() == period
+          && revision.equals(summary.getRevision())) {
+        return summary;
+      }
+    }
+    throw new AssertionError("No " + period + " rollup of " + revision);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line tool that measures the ingest and query throughput of a
+ * {@link FileRecordStorage}. It stores synthetic records in batches, then
+ * queries them the way the dashboard charts do, and finally times reopening
+ * the storage.
+ * 
+ * <pre>
+ * java com.google.speedtracer.latencydashboard.server.StorageBenchmark \
+ *     [-records n] [-batch n] [-queries n] directory
+ * </pre>
+ */
+public class StorageBenchmark {
+  private static final int REVISIONS = 100;
+
+  public static void main(String[] args) throws IOException {
+    int recordCount = 100000;
+    int batchSize = 50;
+    int queryCount = 10000;
+    String directory = null;
+    for (int i = 0; i < args.length; ++i) {
+      if ("-records".equals(args[i]) && i + 1 < args.length) {
+        recordCount = Integer.parseInt(args[++i]);
+      } else if ("-batch".equals(args[i]) && i + 1 < args.length) {
+        batchSize = Integer.parseInt(args[++i]);
+      } else if ("-queries".equals(args[i]) && i + 1 < args.length) {
+        queryCount = Integer.parseInt(args[++i]);
+      } else if (directory == null && !args[i].startsWith("-")) {
+        directory = args[i];
+      } else {
+        directory = null;
+        break;
+      }
+    }
+
+    if (directory == null || batchSize < 1) {
+      System.err.println("Usage: StorageBenchmark [-records n] [-batch n] "
+          + "[-queries n] directory");
+      System.exit(1);
+    }
+
+    FileRecordStorage storage = new FileRecordStorage(new File(directory));
+    final int existing = storage.getRecordCount();
+
+    long start = System.nanoTime();
+    final List<DashboardRecord> records = new ArrayList<DashboardRecord>();
+    final List<CustomDashboardRecord> customRecords =
+        new ArrayList<CustomDashboardRecord>();
+    for (int i = 0; i < recordCount; ++i) {
+      records.add(createRecord(existing + i));
+      customRecords.add(createCustomRecord(existing + i));
+      if (records.size() == batchSize || i == recordCount - 1) {
+        storage.put(records, customRecords);
+        records.clear();
+        customRecords.clear();
+      }
+    }
+    report("Stored", recordCount, "uploads", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < queryCount; ++i) {
+      storage.getDashboardLatestRecords(15);
+      storage.getCustomDashboardLatestRecords(15);
+    }
+    report("Queried the latest 15 records", queryCount, "times", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < queryCount; ++i) {
+      storage.getDashboardRecords("benchmark", "r" + (i % REVISIONS));
+    }
+    report("Queried a revision", queryCount, "times", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < queryCount; ++i) {
+      storage.getDashboardRollups(RollupPeriod.REVISION, 15);
+    }
+    report("Queried the latest 15 revision rollups", queryCount, "times",
+        start);
+
+    storage.close();
+    start = System.nanoTime();
+    storage = new FileRecordStorage(new File(directory));
+    report("Reopened", storage.getRecordCount(), "records", start);
+    storage.close();
+  }
+
+  private static CustomDashboardRecord createCustomRecord(int i) {
+    final CustomDashboardRecord record = new CustomDashboardRecord(
+        1000L * i, "benchmark", "r" + (i % REVISIONS));
+    record.addCustomMeasure("client_load", (double) (i % 1000));
+    record.addCustomMeasure("page", (double) (i % 500));
+    return record;
+  }
+
+  private static DashboardRecord createRecord(int i) {
+    final DashboardRecord record = new DashboardRecord(1000L * i, "benchmark",
+        "r" + (i % REVISIONS));
+    record.setDomContentLoadedTime(i % 1000);
+    record.setLoadEventTime(i % 2000);
+    record.setMainResourceResponseTime(i % 100);
+    return record;
+  }
+
+  private static void report(String what, int count, String unit, long start) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(what + " " + count + " " + unit + " in "
+        + Math.round(seconds * 1000) + "ms, "
+        + Math.round(count / seconds) + " per second.");
+  }
+
+  private StorageBenchmark() {
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.labs.taskqueue.QueueFactory;
+import com.google.appengine.api.labs.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.CustomDashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+import com.google.speedtracer.latencydashboard.shared.DashboardRollup;
+import com.google.speedtracer.latencydashboard.shared.RollupPeriod;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests for {@link TaskQueueIngestionPipeline}. Like
+ * {@link CustomDashboardRecordStoreTests}, these need the AppEngine testing
+ * jar files on the class path, and are run from the LatencyDashboard
+ * directory so that war/WEB-INF/queue.xml is found.
+ * 
+ * The local task queue does not run the tasks here, so the tests pass the key
+ * of each task to {@link TaskQueueIngestionPipeline#ingest(String)}
+ * themselves.
+ */
+public class TaskQueueIngestionPipelineTests extends TestCase {
+
+  /**
+   * Fails to store records while <code>broken</code> is set. With
+   * <code>storeFirst</code> it stores them before failing, as when a put
+   * fails part way through.
+   */
+  private static class FlakyStorage extends DatastoreRecordStorage {
+    private boolean broken = true;
+
+    private final boolean storeFirst;
+
+    FlakyStorage(DatastoreService store, boolean storeFirst) {
+      super(store);
+      this.storeFirst = storeFirst;
+    }
+
+    @Override
+    public void put(List<DashboardRecord> records,
+        List<CustomDashboardRecord> customRecords) {
+      if (broken) {
+        if (storeFirst) {
+          super.put(records, customRecords);
+        }
+        throw new RuntimeException("Storage is down");
+      }
+      super.put(records, customRecords);
+    }
+  }
+
+  private final LocalServiceTestHelper helper = new LocalServiceTestHelper(
+      new LocalDatastoreServiceTestConfig(),
+      new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true)
+          .setQueueXmlPath("war/WEB-INF/queue.xml"));
+
+  private DatastoreService store;
+
+  public void setUp() {
+    helper.setUp();
+    store = DatastoreServiceFactory.getDatastoreService();
+  }
+
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  public void testBadUploadIsDropped() throws Exception {
+    final TaskQueueIngestionPipeline pipeline = createPipeline(
+        new DatastoreRecordStorage(store), 10);
+    assertTrue(pipeline.submit("{\"header\":".getBytes("UTF-8"), null));
+    final List<String> keys = getTaskKeys();
+    assertEquals(1, keys.size());
+    // The upload can not be analyzed, so its task is not run again.
+    assertTrue(pipeline.ingest(keys.get(0)));
+
+    final JsonObject metrics = pipeline.getMetrics();
+    assertEquals(1, metrics.get("failed").asNumber().getInteger());
+    assertEquals(0, metrics.get("stored").asNumber().getInteger());
+    assertEquals(0, metrics.get("pending").asNumber().getInteger());
+    assertFalse(DashboardRecordStore.getLatest(store, 10).hasNext());
+  }
+
+  public void testFailedStoreIsRetried() throws Exception {
+    final FlakyStorage storage = new FlakyStorage(store, false);
+    final TaskQueueIngestionPipeline pipeline = createPipeline(storage, 10);
+    assertTrue(pipeline.submit(TestDumps.create("r", 0).getBytes("UTF-8"),
+        null));
+    final String key = getTaskKeys().get(0);
+
+    assertFalse(pipeline.ingest(key));
+    JsonObject metrics = pipeline.getMetrics();
+    assertEquals(1, metrics.get("retried").asNumber().getInteger());
+    assertEquals(1, metrics.get("pending").asNumber().getInteger());
+
+    // The claim was released, so the next run of the task need not wait.
+    storage.broken = false;
+    assertTrue(pipeline.ingest(key));
+    metrics = pipeline.getMetrics();
+    assertEquals(1, metrics.get("stored").asNumber().getInteger());
+    assertEquals(0, metrics.get("pending").asNumber().getInteger());
+    assertTrue(DashboardRecordStore.getLatest(store, 10).hasNext());
+  }
+
+  public void testIngestOnlyOnce() throws Exception {
+    final TaskQueueIngestionPipeline pipeline = createPipeline(
+        new DatastoreRecordStorage(store), 10);
+    assertTrue(pipeline.submit(TestDumps.create("r", 0).getBytes("UTF-8"),
+        null));
+    final String key = getTaskKeys().get(0);
+    assertTrue(pipeline.ingest(key));
+    // A second run of the same task finds nothing left to do.
+    assertTrue(pipeline.ingest(key));
+
+    assertEquals(1, pipeline.getMetrics().get("stored").asNumber()
+        .getInteger());
+    final Iterator<DashboardRecord> records = DashboardRecordStore.getLatest(
+        store, 10);
+    assertTrue(records.hasNext());
+    records.next();
+    assertFalse(records.hasNext());
+  }
+
+  public void testLargeUpload() throws Exception {
+    final TaskQueueIngestionPipeline pipeline = createPipeline(
+        new DatastoreRecordStorage(store), 10);
+    final byte[] dump = TestDumps.create("r", 0, 20000).getBytes("UTF-8");
+    // Too large for one entity, so it is saved in several chunks.
+    assertTrue(dump.length > 2 * TaskQueueIngestionPipeline.CHUNK_SIZE);
+    assertTrue(pipeline.submit(dump, null));
+    assertTrue(pipeline.ingest(getTaskKeys().get(0)));
+
+    final Iterator<DashboardRecord> records = DashboardRecordStore.getLatest(
+        store, 10);
+    assertTrue(records.hasNext());
+    assertEquals(5.0, records.next().mainResourceResponseTime, .001);
+    assertEquals(0, pipeline.getMetrics().get("pending").asNumber()
+        .getInteger());
+  }
+
+  public void testPartialStoreIsCountedOnce() throws Exception {
+    final FlakyStorage storage = new FlakyStorage(store, true);
+    final TaskQueueIngestionPipeline pipeline = createPipeline(storage, 10);
+    assertTrue(pipeline.submit(TestDumps.create("r", 0).getBytes("UTF-8"),
+        null));
+    final String key = getTaskKeys().get(0);
+    assertFalse(pipeline.ingest(key));
+    storage.broken = false;
+    assertTrue(pipeline.ingest(key));
+
+    // Storing the records again replaced them, and the rollups only counted
+    // them once.
+    final Iterator<DashboardRecord> records = DashboardRecordStore.getLatest(
+        store, 10);
+    assertTrue(records.hasNext());
+    records.next();
+    assertFalse(records.hasNext());
+    final DashboardRollup[] rollups = storage.getDashboardRollups(
+        RollupPeriod.REVISION, 10);
+    assertEquals(1, rollups.length);
+    assertEquals(1, rollups[0].getCount());
+  }
+
+  public void testRefusesUploadsWhenFull() throws Exception {
+    final TaskQueueIngestionPipeline pipeline = createPipeline(
+        new DatastoreRecordStorage(store), 2);
+    final byte[] dump = TestDumps.create("r", 0).getBytes("UTF-8");
+    assertTrue(pipeline.submit(dump, null));
+    assertTrue(pipeline.submit(dump, null));
+    assertFalse(pipeline.submit(dump, null));
+    assertEquals(1, pipeline.getMetrics().get("rejected").asNumber()
+        .getInteger());
+
+    // Storing an upload makes room for another.
+    assertTrue(pipeline.ingest(getTaskKeys().get(0)));
+    assertTrue(pipeline.submit(dump, null));
+    assertEquals(3, pipeline.getMetrics().get("accepted").asNumber()
+        .getInteger());
+  }
+
+  public void testSubmit() throws Exception {
+    final int count = 10;
+    final TaskQueueIngestionPipeline pipeline = createPipeline(
+        new DatastoreRecordStorage(store), count);
+    for (int i = 0; i < count; ++i) {
+      final String dump = TestDumps.create("r" + i, i);
+      // Half of the uploads are compressed, as the headless extension may.
+      assertTrue(i % 2 == 0 ? pipeline.submit(dump.getBytes("UTF-8"), null)
+          : pipeline.submit(TestDumps.gzip(dump), "gzip"));
+    }
+    final List<String> keys = getTaskKeys();
+    assertEquals(count, keys.size());
+    for (String key : keys) {
+      assertTrue(pipeline.ingest(key));
+    }
+
+    int found = 0;
+    final Iterator<DashboardRecord> records = DashboardRecordStore.getLatest(
+        store, 2 * count);
+    while (records.hasNext()) {
+      final DashboardRecord record = records.next();
+      final int i = Integer.parseInt(record.getRevision().substring(1));
+      assertEquals(5.0 + i, record.mainResourceResponseTime, .001);
+      ++found;
+    }
+    assertEquals(count, found);
+    final JsonObject metrics = pipeline.getMetrics();
+    assertEquals(count, metrics.get("stored").asNumber().getInteger());
+    // Every upload was stored, so none are left pending.
+    assertEquals(0, metrics.get("pending").asNumber().getInteger());
+  }
+
+  private TaskQueueIngestionPipeline createPipeline(RecordStorage storage,
+      int capacity) {
+    return new TaskQueueIngestionPipeline(storage, store, null,
+        QueueFactory.getQueue(TaskQueueIngestionPipeline.QUEUE_NAME),
+        "/speedtracereceiver/ingest", capacity);
+  }
+
+  /**
+   * Returns the keys of the ingest tasks that were added, in order.
+   */
+  private List<String> getTaskKeys() throws IOException {
+    final String prefix = TaskQueueIngestionPipeline.PARAM_KEY + "=";
+    final List<String> keys = new ArrayList<String>();
+    for (TaskStateInfo task : LocalTaskQueueTestConfig.getLocalTaskQueue()
+        .getQueueStateInfo().get(TaskQueueIngestionPipeline.QUEUE_NAME)
+        .getTaskInfo()) {
+      final String body = task.getBody();
+      assertTrue(body, body.startsWith(prefix));
+      keys.add(URLDecoder.decode(body.substring(prefix.length()), "UTF-8"));
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.speedtracer.shared.EventRecordType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Headless dumps shared by the tests of the analysis and the pipelines.
+ */
+class TestDumps {
+  /**
+   * Returns a dump named "test" whose main resource response arrives
+   * <code>5 + responseDelay</code> ms after its request.
+   */
+  static String create(String revision, int responseDelay) {
+    return create(revision, responseDelay, 0);
+  }
+
+  /**
+   * Returns a dump like {@link #create(String, int)}, padded with
+   * <code>layouts</code> more layout events to make it larger.
+   */
+  static String create(String revision, int responseDelay, int layouts) {
+    final StringBuilder dump = new StringBuilder("{\"header\":{\"name\":"
+        + "\"test\",\"revision\":\"" + revision
+        + "\",\"timeStamp\":1000},\"data\":[{\"type\":"
+        + EventRecordType.RESOURCE_SEND_REQUEST + ",\"time\":10,\"data\":"
+        + "{\"identifier\":1,\"isMainResource\":true,\"url\":\"http://a/\"}},"
+        + "{\"type\":" + EventRecordType.RESOURCE_RECEIVE_RESPONSE
+        + ",\"time\":" + (15 + responseDelay)
+        + ",\"data\":{\"identifier\":1}},{\"type\":"
+        + EventRecordType.LAYOUT_EVENT
+        + ",\"time\":30,\"duration\":2,\"data\":{}}");
+    for (int i = 0; i < layouts; ++i) {
+      dump.append(",{\"type\":").append(EventRecordType.LAYOUT_EVENT).append(
+          ",\"time\":").append(31 + i).append(",\"duration\":1,\"data\":{}}");
+    }
+    return dump.append("]}").toString();
+  }
+
+  static byte[] gzip(String contents) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream output = new GZIPOutputStream(bytes);
+    try {
+      output.write(contents.getBytes("UTF-8"));
+    } finally {
+      output.close();
+    }
+    return bytes.toByteArray();
+  }
+
+  private TestDumps() {
+    // Utility class. Do not instantiate.
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.latencydashboard.server;
+
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.latencydashboard.shared.DashboardRecord;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for {@link TraceArchive}, kept in a {@link FileBlobStorage}.
+ */
+public class TraceArchiveTests extends TestCase {
+  private static int countFiles(File file) {
+    if (!file.isDirectory()) {
+      return 1;
+    }
+    int count = 0;
+    for (File child : file.listFiles()) {
+      count += countFiles(child);
+    }
+    return count;
+  }
+
+  private static void delete(File file) {
+    if (file.isDirectory()) {
+      for (File child : file.listFiles()) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static byte[] readAll(InputStream input) throws IOException {
+    try {
+      return ServerUtilities.streamToBytes(input);
+    } finally {
+      input.close();
+    }
+  }
+
+  private File directory;
+
+  public void setUp() throws IOException {
+    directory = File.createTempFile("tracearchive", "");
+    directory.delete();
+    directory.mkdir();
+  }
+
+  public void tearDown() {
+    delete(directory);
+  }
+
+  public void testArchive() throws IOException {
+    final TraceArchive archive = new TraceArchive(new FileBlobStorage(
+        directory));
+    final byte[] dump = createDump(1000);
+    final String traceId = archive.archive(dump, new DashboardRecord(1234,
+        "test", "r1"));
+
+    final TraceArchive.Entry entry = archive.getEntry(traceId);
+    assertEquals(dump.length, entry.getLength());
+    assertTrue(entry.getCompressedLength() < dump.length / 10);
+    assertEquals(1, entry.getChunkCount());
+
+    assertTrue(Arrays.equals(dump, readAll(archive.open(traceId))));
+    assertTrue(Arrays.equals(dump, readAll(new GZIPInputStream(
+        archive.openCompressed(traceId)))));
+
+    assertEquals(traceId, archive.findTrace("test", "r1", 1234));
+    assertNull(archive.findTrace("test", "r1", 1235));
+    assertNull(archive.findTrace("test", "r2", 1234));
+    assertNull(archive.getEntry("0000"));
+    assertNull(archive.open("0000"));
+  }
+
+  public void testAbandon() throws IOException {
+    final TraceArchive archive = new TraceArchive(new FileBlobStorage(
+        directory), 1024);
+    final TraceArchive.ArchivingInputStream input = archive.archive(
+        new ByteArrayInputStream(createDump(10000)));
+    final byte[] buffer = new byte[16 * 1024];
+    while (input.read(buffer) != -1) {
+      // Analyzed, say, and found to be no trace.
+    }
+    assertTrue(countFiles(directory) > 0);
+    input.abandon();
+    assertEquals(0, countFiles(directory));
+    assertEquals(0, archive.getMetrics().get("archived").asNumber()
+        .getInteger());
+  }
+
+  public void testArchiveStream() throws IOException {
+    final TraceArchive archive = new TraceArchive(new FileBlobStorage(
+        directory), 1024);
+    final byte[] dump = createDump(10000);
+    final TraceArchive.ArchivingInputStream input = archive.archive(
+        new ByteArrayInputStream(dump));
+    // The reader may stop before the end, the rest is archived all the same.
+    final byte[] head = new byte[1000];
+    assertEquals(head.length, input.read(head));
+    assertEquals(1000, input.skip(1000));
+    final String traceId = input.finish(new DashboardRecord(1234, "test",
+        "r1"));
+
+    assertEquals(dump.length, archive.getEntry(traceId).getLength());
+    assertTrue(Arrays.equals(dump, readAll(archive.open(traceId))));
+    assertEquals(traceId, archive.findTrace("test", "r1", 1234));
+    // The same dump archived from memory has the same id, and its chunks
+    // are dropped as duplicates.
+    final int files = countFiles(directory);
+    assertEquals(traceId, archive.archive(dump, null));
+    assertEquals(files, countFiles(directory));
+  }
+
+  public void testBadTraceIds() throws IOException {
+    final TraceArchive archive = new TraceArchive(new FileBlobStorage(
+        directory));
+    final String traceId = archive.archive(createDump(10), null);
+    assertTrue(TraceArchive.isTraceId(traceId));
+    assertFalse(TraceArchive.isTraceId(null));
+    assertFalse(TraceArchive.isTraceId(traceId.substring(1)));
+    assertFalse(TraceArchive.isTraceId(traceId.toUpperCase()));
+    // The length of an id, but not its digits.
+    assertFalse(TraceArchive.isTraceId("../../../../etc/passwd-"
+        + "00000000000000000"));
+    assertNull(archive.getEntry("../" + traceId));
+    assertNull(archive.open("/" + traceId));
+    try {
+      new FileBlobStorage(directory).get("trace-/../../x");
+      fail("Expected a malformed key to be refused");
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+  }
+
+  public void testChunks() throws IOException {
+    final TraceArchive archive = new TraceArchive(new FileBlobStorage(
+        directory), 1024);
+    final byte[] dump = createDump(10000);
+    final String traceId = archive.archive(dump, null);
+
+    final TraceArchive.Entry entry = archive.getEntry(traceId);
+    assertEquals((entry.getCompressedLength() + 1023) / 1024,
+        entry.getChunkCount());
+    assertTrue(entry.getChunkCount() > 1);
+    assertTrue(Arrays.equals(dump, readAll(archive.open(traceId))));
+
+    // Reopened, as after a restart.
+    final TraceArchive reopened = new TraceArchive(new FileBlobStorage(
+        directory), 1024);
+    assertTrue(Arrays.equals(dump, readAll(reopened.open(traceId))));
+  }
+
+  public void testDuplicates() throws IOException {
+    final TraceArchive archive = new TraceArchive(new FileBlobStorage(
+        directory));
+    final byte[] dump = createDump(100);
+    final String traceId = archive.archive(dump, new DashboardRecord(1,
+        "test", "r1"));
+    assertEquals(traceId, archive.archive(dump.clone(), new DashboardRecord(
+        2, "test", "r1")));
+    final String otherId = archive.archive(createDump(101), null);
+    assertFalse(traceId.equals(otherId));
+
+    final JsonObject metrics = archive.getMetrics();
+    assertEquals(2, metrics.get("archived").asNumber().getInteger());
+    assertEquals(1, metrics.get("duplicates").asNumber().getInteger());
+    // Both records lead to the one copy of the dump.
+    assertEquals(traceId, archive.findTrace("test", "r1", 1));
+    assertEquals(traceId, archive.findTrace("test", "r1", 2));
+  }
+
+  /**
+   * Builds a dump with records like those the headless extension sends.
+   */
+  private byte[] createDump(int recordCount) throws IOException {
+    final StringBuilder dump = new StringBuilder(
+        "{\"header\":{\"name\":\"test\",\"revision\":\"r1\","
+            + "\"timeStamp\":1234},\"data\":[");
+    for (int i = 0; i < recordCount; ++i) {
+      if (i > 0) {
+        dump.append(',');
+      }
+      dump.append("{\"type\":2,\"time\":").append(1285270000000.5 + i * 7.25);
+      dump.append(",\"duration\":").append(i % 17 + .25);
+      dump.append(",\"sequence\":").append(i);
+      dump.append(",\"data\":{\"type\":\"click\",\"url\":"
+          + "\"http://www.example.com/app.js\"},\"children\":[{\"type\":4,"
+          + "\"time\":").append(1285270000001.5 + i * 7.25);
+      dump.append(",\"duration\":3.5,\"data\":{\"width\":1024,"
+          + "\"height\":768},\"children\":[]}]}");
+    }
+    dump.append("]}");
+    return dump.toString().getBytes("UTF-8");
+  }
+}
@@ -73,7 +73,7 @@ public class JsonObject implements JsonValue, Iterable<Pair<String, JsonValue>>
         case '"':
           tokenizer.back(c);
           // Ready to start a key.
-          final String key = tokenizer.nextString();
+          final String key = tokenizer.nextKey();
           if (tokenizer.nextNonWhitespace() != ':') {
             throw new JsonException("Invalid object: expecting \":\"");
           }
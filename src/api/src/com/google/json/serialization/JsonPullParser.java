@@ -0,0 +1,313 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.json.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Streaming JSON parser. Rather than building a tree of {@link JsonValue}s for
+ * the entire payload, the caller pulls one {@link Event} at a time with
+ * {@link #next()}. Only the current token and the nesting of the enclosing
+ * containers are kept in memory, so very large documents can be walked in
+ * constant space. {@link #readValue()} can be used to materialize a single
+ * sub-tree (e.g. one trace record) when random access is needed.
+ */
+public class JsonPullParser {
+  /**
+   * The kinds of tokens reported by {@link JsonPullParser#next()}.
+   */
+  public enum Event {
+    BOOLEAN, END_ARRAY, END_DOCUMENT, END_OBJECT, FIELD_NAME, NULL, NUMBER,
+    START_ARRAY, START_OBJECT, STRING
+  }
+
+  private static final int CONTEXT_ARRAY = 1;
+  private static final int CONTEXT_OBJECT = 2;
+
+  public static JsonPullParser create(InputStream stream) {
+    try {
+      return create(new InputStreamReader(stream, "UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      // UTF-8 is always supported.
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static JsonPullParser create(Reader reader) {
+    return new JsonPullParser(new Tokenizer(reader));
+  }
+
+  private int[] contexts = new int[16];
+
+  private int depth = 0;
+
+  private Event event;
+
+  private boolean expectingFieldValue = false;
+
+  private String fieldName;
+
+  private boolean isFirstInContainer = true;
+
+  /**
+   * The <code>Tokenizer.LITERAL_*</code> kind of the current scalar. Numbers
+   * are kept in the tokenizer as primitives and never boxed.
+   */
+  private int literal;
+
+  private boolean started = false;
+
+  private String string;
+
+  private final Tokenizer tokenizer;
+
+  JsonPullParser(Tokenizer tokenizer) {
+    this.tokenizer = tokenizer;
+  }
+
+  public boolean getBoolean() {
+    assert event == Event.BOOLEAN;
+    return literal == Tokenizer.LITERAL_TRUE;
+  }
+
+  public double getDecimal() {
+    assert event == Event.NUMBER;
+    return tokenizer.getDecimalValue();
+  }
+
+  /**
+   * Returns the number of containers enclosing the current token. The
+   * START_OBJECT/START_ARRAY event of a container reports the depth of its
+   * contents, the matching END event reports the depth of the container.
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  public Event getEvent() {
+    return event;
+  }
+
+  /**
+   * Returns the name of the most recent field in the enclosing object. This
+   * stays valid while the field's value is being reported.
+   */
+  public String getFieldName() {
+    return fieldName;
+  }
+
+  public long getInteger() {
+    assert event == Event.NUMBER;
+    return literal == Tokenizer.LITERAL_INTEGER ? tokenizer.getIntegerValue()
+        : (long) tokenizer.getDecimalValue();
+  }
+
+  public String getString() {
+    if (event == Event.FIELD_NAME) {
+      return fieldName;
+    }
+    assert event == Event.STRING;
+    return string;
+  }
+
+  /**
+   * Advances to the next token.
+   * 
+   * @return the event for the token, {@link Event#END_DOCUMENT} once the
+   *         top-level value has been completely consumed
+   * @throws JsonException if the input is not well-formed JSON
+   */
+  public Event next() throws IOException, JsonException {
+    string = null;
+    if (depth == 0) {
+      if (started) {
+        if (tokenizer.nextNonWhitespace() != -1) {
+          throw new JsonException("Unexpected data after top-level value");
+        }
+        return event = Event.END_DOCUMENT;
+      }
+      started = true;
+      return event = nextValueEvent();
+    }
+
+    if (contexts[depth - 1] == CONTEXT_OBJECT) {
+      return event = nextInObject();
+    }
+    return event = nextInArray();
+  }
+
+  /**
+   * Reads the value at the current position into a tree. When positioned on a
+   * START_OBJECT or START_ARRAY event, the entire container is consumed and
+   * the parser is left on the matching END event. When positioned on a
+   * FIELD_NAME, the field's value is read.
+   */
+  public JsonValue readValue() throws IOException, JsonException {
+    if (event == Event.FIELD_NAME) {
+      next();
+    }
+
+    switch (event) {
+      case START_OBJECT:
+        final JsonObject object = new JsonObject();
+        while (next() != Event.END_OBJECT) {
+          final String key = fieldName;
+          next();
+          object.put(key, readValue());
+        }
+        return object;
+      case START_ARRAY:
+        final JsonArray array = new JsonArray();
+        while (next() != Event.END_ARRAY) {
+          array.add(readValue());
+        }
+        return array;
+      case BOOLEAN:
+        return JsonBoolean.create(getBoolean());
+      case NULL:
+        return JsonValue.NULL;
+      case NUMBER:
+        return literal == Tokenizer.LITERAL_INTEGER
+            ? JsonNumber.create(tokenizer.getIntegerValue())
+            : JsonNumber.create(tokenizer.getDecimalValue());
+      case STRING:
+        return JsonString.create(string);
+      default:
+        throw new JsonException("No value at " + event);
+    }
+  }
+
+  /**
+   * Skips the value at the current position without materializing it. Has the
+   * same positioning rules as {@link #readValue()}.
+   */
+  public void skipValue() throws IOException, JsonException {
+    if (event == Event.FIELD_NAME) {
+      next();
+    }
+
+    if (event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      return;
+    }
+
+    final int targetDepth = depth - 1;
+    while (depth > targetDepth) {
+      if (next() == Event.END_DOCUMENT) {
+        throw new JsonException("Unexpected end of input");
+      }
+    }
+  }
+
+  private Event nextInArray() throws IOException, JsonException {
+    int c = tokenizer.nextNonWhitespace();
+    if (c == ']') {
+      pop();
+      return Event.END_ARRAY;
+    }
+
+    if (isFirstInContainer) {
+      tokenizer.back(c);
+      isFirstInContainer = false;
+    } else if (c != ',') {
+      throw new JsonException("Invalid array: expected , or ]");
+    }
+    return nextValueEvent();
+  }
+
+  private Event nextInObject() throws IOException, JsonException {
+    if (expectingFieldValue) {
+      expectingFieldValue = false;
+      return nextValueEvent();
+    }
+
+    int c = tokenizer.nextNonWhitespace();
+    if (c == '}') {
+      pop();
+      return Event.END_OBJECT;
+    }
+
+    if (!isFirstInContainer) {
+      if (c != ',') {
+        throw new JsonException("Invalid object: expecting } or ,");
+      }
+      c = tokenizer.nextNonWhitespace();
+    }
+
+    if (c != '"') {
+      throw new JsonException("Invalid object: expecting key");
+    }
+
+    tokenizer.back(c);
+    fieldName = tokenizer.nextKey();
+    if (tokenizer.nextNonWhitespace() != ':') {
+      throw new JsonException("Invalid object: expecting \":\"");
+    }
+    isFirstInContainer = false;
+    expectingFieldValue = true;
+    return Event.FIELD_NAME;
+  }
+
+  private Event nextValueEvent() throws IOException, JsonException {
+    final int c = tokenizer.nextNonWhitespace();
+    switch (c) {
+      case -1:
+        throw new JsonException("Unexpected end of input");
+      case '{':
+        push(CONTEXT_OBJECT);
+        return Event.START_OBJECT;
+      case '[':
+        push(CONTEXT_ARRAY);
+        return Event.START_ARRAY;
+      case '"':
+        tokenizer.back(c);
+        string = tokenizer.nextString();
+        return Event.STRING;
+      default:
+        tokenizer.back(c);
+        literal = tokenizer.nextScalar();
+        switch (literal) {
+          case Tokenizer.LITERAL_NULL:
+            return Event.NULL;
+          case Tokenizer.LITERAL_TRUE:
+          case Tokenizer.LITERAL_FALSE:
+            return Event.BOOLEAN;
+          default:
+            return Event.NUMBER;
+        }
+    }
+  }
+
+  private void pop() {
+    --depth;
+    // A container we are returning to has at least one element (the one we
+    // just finished).
+    isFirstInContainer = false;
+  }
+
+  private void push(int context) {
+    if (depth == contexts.length) {
+      final int[] grown = new int[contexts.length * 2];
+      System.arraycopy(contexts, 0, grown, 0, contexts.length);
+      contexts = grown;
+    }
+    contexts[depth++] = context;
+    isFirstInContainer = true;
+  }
+}
@@ -15,68 +15,109 @@
  */
 package com.google.json.serialization;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 
+/**
+ * Scans JSON tokens out of a {@link Reader}. Characters are read in blocks into
+ * a buffer owned by the tokenizer, and strings, keys and numbers are decoded
+ * straight from that buffer so that the common cases do not allocate
+ * intermediate strings.
+ */
 class Tokenizer {
+  static final int LITERAL_DECIMAL = 0;
+  static final int LITERAL_FALSE = 1;
+  static final int LITERAL_INTEGER = 2;
+  static final int LITERAL_NULL = 3;
+  static final int LITERAL_TRUE = 4;
+
+  private static final int BUFFER_SIZE = 8 * 1024;
   private static final int INVALID_CHAR = -1;
+
+  /**
+   * Number of entries in the key cache. Trace records only use a few dozen
+   * distinct property names, so a small direct mapped table suffices.
+   */
+  private static final int KEY_CACHE_SIZE = 256;
+
+  /**
+   * The largest mantissa that is exactly representable as a double.
+   */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /**
+   * Powers of ten that are exactly representable as doubles.
+   */
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
   private static final String STOPCHARS = ",:]}/\\\"[{;=#";
-  private static JsonNumber getNumberForLiteral(String literal)
-      throws JsonException {
-    try {
-      // The .2 is not a good value, we would need 0.2
-      if (literal.indexOf('.') > 0 || literal.indexOf('e') > 0
-          || literal.indexOf('E') > 0) {
-        return JsonNumber.create(Double.parseDouble(literal));
-      }
-      return JsonNumber.create(Long.parseLong(literal));
-    } catch (NumberFormatException e) {
-      throw new JsonException("Invalid number literal: " + literal);
-    }
+
+  private static boolean isDigit(int c) {
+    return c >= '0' && c <= '9';
   }
 
-  private static JsonValue getValueForLiteral(String literal)
-      throws JsonException {
-    if ("".equals(literal)) {
-      throw new JsonException("Missing value");
-    }
+  private static boolean isStopChar(int c) {
+    return c == INVALID_CHAR || Character.isWhitespace(c)
+        || STOPCHARS.indexOf((char) c) >= 0;
+  }
 
-    if ("null".equals(literal)) {
-      return JsonValue.NULL;
-    }
+  private final char[] buffer = new char[BUFFER_SIZE];
 
-    if ("true".equals(literal)) {
-      return JsonBoolean.create(true);
-    }
+  private int bufferLength = 0;
 
-    if ("false".equals(literal)) {
-      return JsonBoolean.create(false);
-    }
+  private int bufferPosition = 0;
 
-    final char c = literal.charAt(0);
-    if (c == '-' || Character.isDigit(c)) {
-      return getNumberForLiteral(literal);
-    }
+  private double decimalValue;
 
-    throw new JsonException("Invalid literal: \"" + literal + "\"");
-  }
+  private long integerValue;
+
+  private final String[] keyCache = new String[KEY_CACHE_SIZE];
+
+  private final StringBuilder literalBuffer = new StringBuilder();
 
   private int pushBackBuffer = INVALID_CHAR;
 
   private final Reader reader;
 
   Tokenizer(Reader reader) {
-    this.reader = new BufferedReader(reader);
+    this.reader = reader;
   }
 
   void back(char c) {
     assert pushBackBuffer == INVALID_CHAR;
-    pushBackBuffer = c;
+    // Characters are almost always pushed back right after being read, in
+    // which case we can simply rewind the buffer.
+    if (bufferPosition > 0 && buffer[bufferPosition - 1] == c) {
+      --bufferPosition;
+    } else {
+      pushBackBuffer = c;
+    }
   }
 
   void back(int c) {
-    back((char) c);
+    // Pushing back the end of the stream is a no-op, the next read will report
+    // it again.
+    if (c != INVALID_CHAR) {
+      back((char) c);
+    }
+  }
+
+  /**
+   * Returns the value of the last {@link #LITERAL_DECIMAL} or
+   * {@link #LITERAL_INTEGER} scanned by {@link #nextScalar()}.
+   */
+  double getDecimalValue() {
+    return decimalValue;
+  }
+
+  /**
+   * Returns the value of the last {@link #LITERAL_INTEGER} scanned by
+   * {@link #nextScalar()}.
+   */
+  long getIntegerValue() {
+    return integerValue;
   }
 
   int next() throws IOException {
@@ -86,7 +127,10 @@ class Tokenizer {
       return c;
     }
 
-    return reader.read();
+    if (bufferPosition == bufferLength && !fill()) {
+      return INVALID_CHAR;
+    }
+    return buffer[bufferPosition++];
   }
 
   String next(int n) throws IOException, JsonException {
@@ -94,25 +138,71 @@ class Tokenizer {
       return "";
     }
 
-    char[] buffer = new char[n];
-    int pos = 0;
-
-    if (pushBackBuffer != INVALID_CHAR) {
-      buffer[0] = (char) pushBackBuffer;
-      pos = 1;
-      pushBackBuffer = INVALID_CHAR;
+    final char[] chars = new char[n];
+    for (int i = 0; i < n; ++i) {
+      final int c = next();
+      if (c == INVALID_CHAR) {
+        throw new JsonException(/* TODO(knorton): Add message. */);
+      }
+      chars[i] = (char) c;
     }
 
-    int len;
-    while ((pos < n) && ((len = reader.read(buffer, pos, n - pos)) != -1)) {
-      pos += len;
+    return String.valueOf(chars);
+  }
+
+  /**
+   * Reads a quoted object key. Keys repeat heavily in trace data, so they are
+   * looked up in a small cache and the same {@link String} instance is
+   * returned for every occurrence of a key.
+   */
+  String nextKey() throws IOException, JsonException {
+    int c = next();
+    assert c == '"';
+
+    // Fast path: the whole key is in the buffer and has no escapes.
+    if (pushBackBuffer == INVALID_CHAR) {
+      int hash = 0;
+      for (int i = bufferPosition; i < bufferLength; ++i) {
+        final char d = buffer[i];
+        if (d == '"') {
+          final int start = bufferPosition;
+          bufferPosition = i + 1;
+          return internKey(hash, start, i - start);
+        }
+        if (d == '\\' || d == '\r' || d == '\n') {
+          break;
+        }
+        hash = 31 * hash + d;
+      }
     }
 
-    if (pos < n) {
-      throw new JsonException(/* TODO(knorton): Add message. */);
+    final String key = nextStringContents();
+    final int index = key.hashCode() & (KEY_CACHE_SIZE - 1);
+    final String cached = keyCache[index];
+    if (key.equals(cached)) {
+      return cached;
     }
+    keyCache[index] = key;
+    return key;
+  }
 
-    return String.valueOf(buffer);
+  /**
+   * Reads a literal ({@code null}, {@code true}, {@code false} or a number)
+   * into a {@link JsonValue}.
+   */
+  JsonValue nextLiteral() throws IOException, JsonException {
+    switch (nextScalar()) {
+      case LITERAL_NULL:
+        return JsonValue.NULL;
+      case LITERAL_TRUE:
+        return JsonBoolean.TRUE;
+      case LITERAL_FALSE:
+        return JsonBoolean.FALSE;
+      case LITERAL_INTEGER:
+        return JsonNumber.create(integerValue);
+      default:
+        return JsonNumber.create(decimalValue);
+    }
   }
 
   int nextNonWhitespace() throws IOException {
@@ -124,13 +214,282 @@ class Tokenizer {
     }
   }
 
+  /**
+   * Scans a literal without allocating. Numbers are decoded directly into
+   * {@link #getIntegerValue()} and {@link #getDecimalValue()}.
+   * 
+   * @return one of the <code>LITERAL_*</code> constants
+   */
+  int nextScalar() throws IOException, JsonException {
+    final int c = next();
+    switch (c) {
+      case 'n':
+        return nextKeyword("null", LITERAL_NULL);
+      case 't':
+        return nextKeyword("true", LITERAL_TRUE);
+      case 'f':
+        return nextKeyword("false", LITERAL_FALSE);
+      default:
+        if (c == '-' || isDigit(c)) {
+          back(c);
+          return nextNumber();
+        }
+        back(c);
+        throw invalidLiteral("");
+    }
+  }
+
   String nextString() throws IOException, JsonException {
-    final StringBuffer buffer = new StringBuffer();
     int c = next();
     assert c == '"';
-    while (true) {
+
+    // Fast path: the whole string is in the buffer and has no escapes.
+    if (pushBackBuffer == INVALID_CHAR) {
+      for (int i = bufferPosition; i < bufferLength; ++i) {
+        final char d = buffer[i];
+        if (d == '"') {
+          final String value = new String(buffer, bufferPosition, i
+              - bufferPosition);
+          bufferPosition = i + 1;
+          return value;
+        }
+        if (d == '\\' || d == '\r' || d == '\n') {
+          break;
+        }
+      }
+    }
+
+    return nextStringContents();
+  }
+
+  String nextUntilOneOf(String chars) throws IOException {
+    literalBuffer.setLength(0);
+    int c = next();
+    while (c != INVALID_CHAR) {
+      if (Character.isWhitespace(c) || chars.indexOf((char) c) >= 0) {
+        back(c);
+        break;
+      }
+      literalBuffer.append((char) c);
+      c = next();
+    }
+    return literalBuffer.toString();
+  }
+
+  JsonValue nextValue() throws IOException, JsonException {
+    final int c = nextNonWhitespace();
+    back(c);
+    switch (c) {
+      case '"':
+        return JsonString.create(nextString());
+      case '{':
+        return JsonObject.parse(this);
+      case '[':
+        return JsonArray.parse(this);
+      case INVALID_CHAR:
+        throw new JsonException("Missing value");
+      default:
+        return nextLiteral();
+    }
+  }
+
+  /**
+   * Refills the read buffer from the underlying reader. The buffer is reused
+   * for the lifetime of the tokenizer, so reading a stream of any length costs
+   * a single fixed size allocation.
+   * 
+   * @return <code>false</code> if the end of the stream has been reached
+   */
+  private boolean fill() throws IOException {
+    int len;
+    do {
+      len = reader.read(buffer, 0, buffer.length);
+    } while (len == 0);
+
+    if (len < 0) {
+      bufferPosition = bufferLength = 0;
+      return false;
+    }
+
+    bufferPosition = 0;
+    bufferLength = len;
+    return true;
+  }
+
+  private String internKey(int hash, int start, int length) {
+    final int index = hash & (KEY_CACHE_SIZE - 1);
+    final String cached = keyCache[index];
+    if (cached != null && cached.length() == length) {
+      int i = 0;
+      while (i < length && cached.charAt(i) == buffer[start + i]) {
+        ++i;
+      }
+      if (i == length) {
+        return cached;
+      }
+    }
+    final String key = new String(buffer, start, length);
+    keyCache[index] = key;
+    return key;
+  }
+
+  /**
+   * Reports an invalid literal, consuming the rest of it so that the message
+   * includes the offending text.
+   */
+  private JsonException invalidLiteral(String prefix) throws IOException {
+    final String literal = prefix + nextUntilOneOf(STOPCHARS);
+    if (literal.length() == 0) {
+      return new JsonException("Missing value");
+    }
+    return new JsonException("Invalid literal: \"" + literal + "\"");
+  }
+
+  private JsonException invalidNumber() throws IOException {
+    final String prefix = literalBuffer.toString();
+    return new JsonException("Invalid number literal: " + prefix
+        + nextUntilOneOf(STOPCHARS));
+  }
+
+  private int nextKeyword(String keyword, int literal) throws IOException,
+      JsonException {
+    // The first character has already been matched.
+    for (int i = 1, n = keyword.length(); i < n; ++i) {
+      final int c = next();
+      if (c != keyword.charAt(i)) {
+        back(c);
+        throw invalidLiteral(keyword.substring(0, i));
+      }
+    }
+
+    final int c = next();
+    back(c);
+    if (!isStopChar(c)) {
+      throw invalidLiteral(keyword);
+    }
+    return literal;
+  }
+
+  /**
+   * Decodes a number from the input. Integers are accumulated directly into a
+   * long. Decimals whose digits fit in a double's mantissa and whose exponent
+   * is small are computed with a single exactly rounded multiply or divide;
+   * anything else falls back to {@link Double#parseDouble(String)}.
+   */
+  private int nextNumber() throws IOException, JsonException {
+    literalBuffer.setLength(0);
+    long mantissa = 0;
+    boolean mantissaOverflow = false;
+    boolean isDecimal = false;
+    int scale = 0;
+
+    int c = next();
+    final boolean negative = c == '-';
+    if (negative) {
+      literalBuffer.append('-');
+      c = next();
+    }
+
+    if (!isDigit(c)) {
+      back(c);
+      throw invalidNumber();
+    }
+
+    while (isDigit(c)) {
+      literalBuffer.append((char) c);
+      if (mantissa < MAX_EXACT_MANTISSA) {
+        mantissa = mantissa * 10 + (c - '0');
+      } else {
+        mantissaOverflow = true;
+      }
       c = next();
+    }
+
+    if (c == '.') {
+      isDecimal = true;
+      literalBuffer.append('.');
+      c = next();
+      // Some producers write integral decimals as "1.", which
+      // Double.parseDouble has always accepted.
+      while (isDigit(c)) {
+        literalBuffer.append((char) c);
+        if (mantissa < MAX_EXACT_MANTISSA) {
+          mantissa = mantissa * 10 + (c - '0');
+          --scale;
+        } else {
+          mantissaOverflow = true;
+        }
+        c = next();
+      }
+    }
+
+    int exponent = 0;
+    if (c == 'e' || c == 'E') {
+      isDecimal = true;
+      literalBuffer.append((char) c);
+      c = next();
+      boolean negativeExponent = false;
+      if (c == '-' || c == '+') {
+        literalBuffer.append((char) c);
+        negativeExponent = c == '-';
+        c = next();
+      }
+      if (!isDigit(c)) {
+        back(c);
+        throw invalidNumber();
+      }
+      while (isDigit(c)) {
+        literalBuffer.append((char) c);
+        if (exponent < 10000) {
+          exponent = exponent * 10 + (c - '0');
+        }
+        c = next();
+      }
+      if (negativeExponent) {
+        exponent = -exponent;
+      }
+    }
+
+    back(c);
+    if (!isStopChar(c)) {
+      throw invalidNumber();
+    }
+
+    try {
+      if (!isDecimal) {
+        integerValue = mantissaOverflow
+            ? Long.parseLong(literalBuffer.toString())
+            : (negative ? -mantissa : mantissa);
+        decimalValue = integerValue;
+        return LITERAL_INTEGER;
+      }
+
+      final int power = scale + exponent;
+      if (!mantissaOverflow && mantissa <= MAX_EXACT_MANTISSA
+          && power >= -22 && power <= 22) {
+        final double magnitude = power < 0 ? mantissa / POWERS_OF_TEN[-power]
+            : mantissa * POWERS_OF_TEN[power];
+        decimalValue = negative ? -magnitude : magnitude;
+      } else {
+        decimalValue = Double.parseDouble(literalBuffer.toString());
+      }
+      return LITERAL_DECIMAL;
+    } catch (NumberFormatException e) {
+      throw new JsonException("Invalid number literal: " + literalBuffer);
+    }
+  }
+
+  /**
+   * Reads the remainder of a quoted string, after the opening quote, decoding
+   * escapes.
+   */
+  private String nextStringContents() throws IOException, JsonException {
+    literalBuffer.setLength(0);
+    while (true) {
+      int c = next();
       switch (c) {
+        case INVALID_CHAR:
+          throw new JsonException("Unterminated string");
         case '\r':
         case '\n':
           throw new JsonException("");
@@ -138,64 +497,35 @@ class Tokenizer {
           c = next();
           switch (c) {
             case 'b':
-              buffer.append('\b');
+              literalBuffer.append('\b');
               break;
             case 't':
-              buffer.append('\t');
+              literalBuffer.append('\t');
               break;
             case 'n':
-              buffer.append('\n');
+              literalBuffer.append('\n');
               break;
             case 'f':
-              buffer.append('\f');
+              literalBuffer.append('\f');
               break;
             case 'r':
-              buffer.append('\r');
+              literalBuffer.append('\r');
               break;
             // TODO(knorton): I'm not sure I should even support this escaping
             // mode since JSON is always UTF-8.
             case 'u':
-              buffer.append((char) Integer.parseInt(next(4), 16));
+              literalBuffer.append((char) Integer.parseInt(next(4), 16));
               break;
             default:
-              buffer.append((char) c);
+              literalBuffer.append((char) c);
           }
           break;
         default:
           if (c == '"') {
-            return buffer.toString();
+            return literalBuffer.toString();
           }
-          buffer.append((char) c);
+          literalBuffer.append((char) c);
       }
     }
   }
-
-  String nextUntilOneOf(String chars) throws IOException {
-    final StringBuffer buffer = new StringBuffer();
-    int c = next();
-    while (c != INVALID_CHAR) {
-      if (Character.isWhitespace(c) || chars.indexOf((char) c) >= 0) {
-        back(c);
-        break;
-      }
-      buffer.append((char) c);
-      c = next();
-    }
-    return buffer.toString();
-  }
-
-  JsonValue nextValue() throws IOException, JsonException {
-    final int c = nextNonWhitespace();
-    back(c);
-    switch (c) {
-      case '"':
-        return JsonString.create(nextString());
-      case '{':
-        return JsonObject.parse(this);
-      case '[':
-        return JsonArray.parse(this);
-      default:
-        return getValueForLiteral(nextUntilOneOf(STOPCHARS));
-    }
-  }
 }
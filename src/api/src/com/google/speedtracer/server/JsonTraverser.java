@@ -46,6 +46,99 @@ public class JsonTraverser {
         throws JsonException;
   }
 
+  /**
+   * Post-order visitor that receives the results of its children in a window
+   * of a shared array rather than in a list of boxed values. The window is
+   * only valid for the duration of the call.
+   */
+  public static interface JsonVisitorDoubleArray {
+    public void postProcess();
+
+    /**
+     * @param values array holding the results of the children of
+     *          <code>node</code>, in order, at <code>values[offset]</code> to
+     *          <code>values[offset + count - 1]</code>
+     */
+    public double visit(JsonObject node, double[] values, int offset,
+        int count) throws JsonException;
+  }
+
+  private static final int INITIAL_CAPACITY = 32;
+
+  /**
+   * Explicit stack used by the {@link JsonVisitorDoubleArray} traversal. A new
+   * one is allocated for each call into the traverser, so the shared instance
+   * returned by {@link #get()} can be used from several threads at once.
+   */
+  private static class TraversalStack {
+    private JsonArray[] children = new JsonArray[INITIAL_CAPACITY];
+    private int[] nextChild = new int[INITIAL_CAPACITY];
+    private JsonObject[] nodes = new JsonObject[INITIAL_CAPACITY];
+    private int[] valueOffsets = new int[INITIAL_CAPACITY];
+    private double[] values = new double[INITIAL_CAPACITY];
+
+    private double traverse(JsonObject root,
+        JsonVisitorDoubleArray postOrderVisitor) throws JsonException {
+      int depth = 0;
+      int valueCount = 0;
+      push(depth++, root, valueCount);
+      while (true) {
+        final int top = depth - 1;
+        final JsonArray topChildren = children[top];
+        if (topChildren != null && nextChild[top] < topChildren.getLength()) {
+          final JsonObject child = topChildren.get(nextChild[top]++).asObject();
+          push(depth++, child, valueCount);
+          continue;
+        }
+
+        // All children are done and their results are on top of the value
+        // stack.
+        final int offset = valueOffsets[top];
+        final double result = postOrderVisitor.visit(nodes[top], values,
+            offset, valueCount - offset);
+        nodes[top] = null;
+        children[top] = null;
+        depth = top;
+        valueCount = offset;
+        if (depth == 0) {
+          return result;
+        }
+
+        if (valueCount == values.length) {
+          final double[] grown = new double[values.length * 2];
+          System.arraycopy(values, 0, grown, 0, values.length);
+          values = grown;
+        }
+        values[valueCount++] = result;
+      }
+    }
+
+    private void push(int depth, JsonObject node, int valueOffset) {
+      if (depth == nodes.length) {
+        final int capacity = nodes.length * 2;
+        final JsonArray[] grownChildren = new JsonArray[capacity];
+        System.arraycopy(children, 0, grownChildren, 0, depth);
+        children = grownChildren;
+        final int[] grownNextChild = new int[capacity];
+        System.arraycopy(nextChild, 0, grownNextChild, 0, depth);
+        nextChild = grownNextChild;
+        final JsonObject[] grownNodes = new JsonObject[capacity];
+        System.arraycopy(nodes, 0, grownNodes, 0, depth);
+        nodes = grownNodes;
+        final int[] grownValueOffsets = new int[capacity];
+        System.arraycopy(valueOffsets, 0, grownValueOffsets, 0, depth);
+        valueOffsets = grownValueOffsets;
+      }
+
+      final JsonValue childNode = node.get("children");
+      nodes[depth] = node;
+      children[depth] = childNode != JsonValue.NULL ? childNode.asArray()
+          : null;
+      nextChild[depth] = 0;
+      valueOffsets[depth] = valueOffset;
+    }
+  }
+
   private static JsonTraverser singleton;
 
   public static JsonTraverser get() {
@@ -72,6 +165,44 @@ public class JsonTraverser {
     postOrderVisitor.postProcess();
   }
 
+  /**
+   * Post-order traversal of every tree in an array of records, e.g. the
+   * <code>data</code> array of a trace dump. The visitor's
+   * {@link JsonVisitorDoubleArray#postProcess()} is called once, after the
+   * last record.
+   * 
+   * @param nodes the root nodes to traverse
+   * @param postOrderVisitor visitor to apply
+   * @throws JsonException
+   */
+  public void traverseAll(JsonArray nodes,
+      JsonVisitorDoubleArray postOrderVisitor) throws JsonException {
+    final TraversalStack stack = new TraversalStack();
+    for (int i = 0, n = nodes.getLength(); i < n; i++) {
+      stack.traverse(nodes.get(i).asObject(), postOrderVisitor);
+    }
+    postOrderVisitor.postProcess();
+  }
+
+  /**
+   * Post-order traversal of a UiEvent Context tree applying the visitor. The
+   * tree is walked with an explicit stack, so arbitrarily deep trees are
+   * handled without recursion.
+   * 
+   * @param eventNode the root node for the traversal
+   * @param postOrderVisitor visitor to apply. The results from child visits
+   *          are passed as a window of a reusable array.
+   * @return the result of visiting the root node
+   * @throws JsonException
+   */
+  public double traverseDoubleArray(JsonObject node,
+      JsonVisitorDoubleArray postOrderVisitor) throws JsonException {
+    final double result = new TraversalStack().traverse(node,
+        postOrderVisitor);
+    postOrderVisitor.postProcess();
+    return result;
+  }
+
   /**
    * Post-order traversal of a UiEvent Context tree applying the visitor.
    * 
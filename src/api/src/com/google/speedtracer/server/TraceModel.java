@@ -0,0 +1,421 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.server;
+
+import com.google.json.serialization.JsonArray;
+import com.google.json.serialization.JsonException;
+import com.google.json.serialization.JsonObject;
+import com.google.json.serialization.JsonValue;
+import com.google.speedtracer.shared.EventRecordType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read-only representation of a trace for server side analysis.
+ * 
+ * Every event node of every record is assigned an index, in pre-order, and its
+ * fields are kept in parallel primitive arrays. Strings (URLs of resource
+ * events and the text of log messages) are kept once in a string table. The
+ * self time of each node is computed when the model is built.
+ * 
+ * Since nodes are stored in pre-order, the descendants of node <code>i</code>
+ * are the nodes <code>i + 1</code> up to <code>getSubtreeEnd(i)</code>.
+ */
+public class TraceModel {
+  /**
+   * Accumulates records into a {@link TraceModel}.
+   */
+  public static class Builder {
+    private double[] durations = new double[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private long[] identifiers = new long[INITIAL_CAPACITY];
+    private int[] labels = new int[INITIAL_CAPACITY];
+    private int nodeCount = 0;
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int recordCount = 0;
+    private double[] selfTimes = new double[INITIAL_CAPACITY];
+    private int[] sequences = new int[INITIAL_CAPACITY];
+    // Explicit stack of the nodes whose children are still being added.
+    private JsonArray[] stackChildren = new JsonArray[INITIAL_STACK_CAPACITY];
+    private int[] stackNextChild = new int[INITIAL_STACK_CAPACITY];
+    private int[] stackNodes = new int[INITIAL_STACK_CAPACITY];
+    private final Map<String, Integer> stringIndexes =
+        new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+    private int[] subtreeEnds = new int[INITIAL_CAPACITY];
+    private double[] times = new double[INITIAL_CAPACITY];
+    private int[] types = new int[INITIAL_CAPACITY];
+
+    /**
+     * Appends a top level record, and all of its children, to the model.
+     */
+    public Builder addRecord(JsonObject record) throws JsonException {
+      final JsonValue sequence = record.get("sequence");
+      addTree(record, sequence.isNumber()
+          ? (int) sequence.asNumber().getInteger() : recordCount);
+      ++recordCount;
+      return this;
+    }
+
+    /**
+     * Appends all of the top level records in an array to the model.
+     */
+    public Builder addRecords(JsonArray records) throws JsonException {
+      for (int i = 0, n = records.getLength(); i < n; ++i) {
+        addRecord(records.get(i).asObject());
+      }
+      return this;
+    }
+
+    public TraceModel build() {
+      return new TraceModel(this);
+    }
+
+    /**
+     * Discards all records added so far, keeping the allocated storage so the
+     * builder can be reused.
+     */
+    public void clear() {
+      nodeCount = 0;
+      recordCount = 0;
+      stringIndexes.clear();
+      strings.clear();
+    }
+
+    private int addNode(JsonObject node, int parent, int sequence)
+        throws JsonException {
+      final JsonValue typeValue = node.get("type");
+      if (!typeValue.isNumber()) {
+        throw new JsonException("Expected a numeric type on event record");
+      }
+
+      final int index = nodeCount++;
+      ensureCapacity(nodeCount);
+      types[index] = (int) typeValue.asNumber().getInteger();
+      times[index] = getDecimal(node, "time");
+      durations[index] = getDecimal(node, "duration");
+      selfTimes[index] = durations[index];
+      parents[index] = parent;
+      sequences[index] = sequence;
+      identifiers[index] = 0;
+      labels[index] = NO_LABEL;
+      flags[index] = 0;
+
+      final JsonObject data = node.get("data").asObject();
+      if (data != null) {
+        final JsonValue identifier = data.get("identifier");
+        if (identifier.isNumber()) {
+          identifiers[index] = identifier.asNumber().getInteger();
+          flags[index] |= FLAG_HAS_IDENTIFIER;
+        }
+        if (data.get("isMainResource") != JsonValue.NULL) {
+          flags[index] |= FLAG_MAIN_RESOURCE;
+        }
+        final JsonValue label = data.get(
+            types[index] == EventRecordType.LOG_MESSAGE_EVENT ? "message"
+                : "url");
+        if (label.isString()) {
+          labels[index] = intern(label.asString().getString());
+        }
+      }
+
+      if (parent >= 0) {
+        selfTimes[parent] -= durations[index];
+      }
+      return index;
+    }
+
+    /**
+     * Adds a record and its descendants in pre-order. The tree is walked with
+     * an explicit stack so that deeply nested records cannot overflow the call
+     * stack.
+     */
+    private void addTree(JsonObject root, int sequence) throws JsonException {
+      int depth = push(0, root, addNode(root, -1, sequence));
+      while (depth > 0) {
+        final int top = depth - 1;
+        final JsonArray children = stackChildren[top];
+        if (children != null && stackNextChild[top] < children.getLength()) {
+          final JsonObject child = children.get(stackNextChild[top]++)
+              .asObject();
+          depth = push(depth, child, addNode(child, stackNodes[top], sequence));
+          continue;
+        }
+        subtreeEnds[stackNodes[top]] = nodeCount;
+        stackChildren[top] = null;
+        depth = top;
+      }
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity <= types.length) {
+        return;
+      }
+      final int newCapacity = Math.max(capacity, types.length * 2);
+      types = copyOf(types, newCapacity);
+      times = copyOf(times, newCapacity);
+      durations = copyOf(durations, newCapacity);
+      selfTimes = copyOf(selfTimes, newCapacity);
+      parents = copyOf(parents, newCapacity);
+      sequences = copyOf(sequences, newCapacity);
+      subtreeEnds = copyOf(subtreeEnds, newCapacity);
+      identifiers = copyOf(identifiers, newCapacity);
+      labels = copyOf(labels, newCapacity);
+      flags = copyOf(flags, newCapacity);
+    }
+
+    private int intern(String value) {
+      final Integer existing = stringIndexes.get(value);
+      if (existing != null) {
+        return existing;
+      }
+      final int index = strings.size();
+      strings.add(value);
+      stringIndexes.put(value, index);
+      return index;
+    }
+
+    /**
+     * Pushes a node whose children are to be added, and returns the new depth
+     * of the stack.
+     */
+    private int push(int depth, JsonObject node, int index) {
+      if (depth == stackNodes.length) {
+        final int capacity = depth * 2;
+        final JsonArray[] grownChildren = new JsonArray[capacity];
+        System.arraycopy(stackChildren, 0, grownChildren, 0, depth);
+        stackChildren = grownChildren;
+        stackNextChild = copyOf(stackNextChild, capacity);
+        stackNodes = copyOf(stackNodes, capacity);
+      }
+      final JsonValue children = node.get("children");
+      stackChildren[depth] = children.isArray() ? children.asArray() : null;
+      stackNextChild[depth] = 0;
+      stackNodes[depth] = index;
+      return depth + 1;
+    }
+  }
+
+  /**
+   * Interface used to walk the nodes of a {@link TraceModel}. This is the
+   * counterpart of {@link JsonTraverser.JsonVisitor}.
+   */
+  public static interface Visitor {
+    void postProcess();
+
+    void visit(TraceModel trace, int node);
+  }
+
+  public static final int NO_LABEL = -1;
+
+  private static final byte FLAG_HAS_IDENTIFIER = 1;
+  private static final byte FLAG_MAIN_RESOURCE = 2;
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int INITIAL_STACK_CAPACITY = 32;
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Builds a model from the <code>data</code> array of a trace dump.
+   */
+  public static TraceModel create(JsonArray records) throws JsonException {
+    return new Builder().addRecords(records).build();
+  }
+
+  private static byte[] copyOf(byte[] array, int length) {
+    final byte[] copy = new byte[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static double[] copyOf(double[] array, int length) {
+    final double[] copy = new double[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static int[] copyOf(int[] array, int length) {
+    final int[] copy = new int[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static long[] copyOf(long[] array, int length) {
+    final long[] copy = new long[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static double getDecimal(JsonObject node, String key) {
+    final JsonValue value = node.get(key);
+    return value.isNumber() ? value.asNumber().getDecimal() : 0;
+  }
+
+  private final double[] durations;
+  private final byte[] flags;
+  private final long[] identifiers;
+  private final int[] labels;
+  private final int nodeCount;
+  private final int[] parents;
+  private final int[] recordStarts;
+  private final double[] selfTimes;
+  private final int[] sequences;
+  private final String[] strings;
+  private final int[] subtreeEnds;
+  private final double[] times;
+  private final int[] types;
+
+  private TraceModel(Builder builder) {
+    nodeCount = builder.nodeCount;
+    types = copyOf(builder.types, nodeCount);
+    times = copyOf(builder.times, nodeCount);
+    durations = copyOf(builder.durations, nodeCount);
+    selfTimes = copyOf(builder.selfTimes, nodeCount);
+    parents = copyOf(builder.parents, nodeCount);
+    sequences = copyOf(builder.sequences, nodeCount);
+    subtreeEnds = copyOf(builder.subtreeEnds, nodeCount);
+    identifiers = copyOf(builder.identifiers, nodeCount);
+    labels = copyOf(builder.labels, nodeCount);
+    flags = copyOf(builder.flags, nodeCount);
+    strings = builder.strings.toArray(new String[builder.strings.size()]);
+
+    recordStarts = new int[builder.recordCount];
+    for (int node = 0, record = 0; node < nodeCount; node = subtreeEnds[node]) {
+      recordStarts[record++] = node;
+    }
+  }
+
+  public double getDuration(int node) {
+    return durations[node];
+  }
+
+  /**
+   * Returns the <code>data.identifier</code> of a resource event. Only
+   * meaningful if {@link #hasIdentifier(int)}.
+   */
+  public long getIdentifier(int node) {
+    return identifiers[node];
+  }
+
+  /**
+   * Returns the URL of a resource event or the message of a log event, or
+   * <code>null</code> if the node has neither.
+   */
+  public String getLabel(int node) {
+    final int label = labels[node];
+    return label == NO_LABEL ? null : strings[label];
+  }
+
+  public int getNodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * Returns the index of the parent node, or -1 for a top level record.
+   */
+  public int getParent(int node) {
+    return parents[node];
+  }
+
+  public int getRecordCount() {
+    return recordStarts.length;
+  }
+
+  /**
+   * Returns the node index of the top level record at <code>record</code>.
+   */
+  public int getRecordNode(int record) {
+    return recordStarts[record];
+  }
+
+  public double getSelfTime(int node) {
+    return selfTimes[node];
+  }
+
+  /**
+   * Returns the sequence number of the top level record containing the node.
+   */
+  public int getSequence(int node) {
+    return sequences[node];
+  }
+
+  /**
+   * Returns the index one past the last descendant of the node.
+   */
+  public int getSubtreeEnd(int node) {
+    return subtreeEnds[node];
+  }
+
+  public double getTime(int node) {
+    return times[node];
+  }
+
+  /**
+   * Returns the {@link EventRecordType} of the node.
+   */
+  public int getType(int node) {
+    return types[node];
+  }
+
+  public boolean hasIdentifier(int node) {
+    return (flags[node] & FLAG_HAS_IDENTIFIER) != 0;
+  }
+
+  public boolean isMainResource(int node) {
+    return (flags[node] & FLAG_MAIN_RESOURCE) != 0;
+  }
+
+  /**
+   * Pre-order traversal of all the nodes of the records starting at
+   * <code>firstRecord</code>.
+   */
+  public void traversePreOrder(int firstRecord, Visitor visitor) {
+    final int start = firstRecord < recordStarts.length
+        ? recordStarts[firstRecord] : nodeCount;
+    for (int node = start; node < nodeCount; ++node) {
+      visitor.visit(this, node);
+    }
+    visitor.postProcess();
+  }
+
+  /**
+   * Post-order traversal of all the nodes of the records starting at
+   * <code>firstRecord</code>.
+   */
+  public void traversePostOrder(int firstRecord, Visitor visitor) {
+    final int start = firstRecord < recordStarts.length
+        ? recordStarts[firstRecord] : nodeCount;
+    // Nodes are in pre-order, so a node is finished once the walk passes the
+    // end of its subtree. Pending ancestors are kept on a stack.
+    final int[] pending = new int[Math.max(1, nodeCount - start)];
+    int top = 0;
+    for (int node = start; node < nodeCount; ++node) {
+      while (top > 0 && subtreeEnds[pending[top - 1]] <= node) {
+        visitor.visit(this, pending[--top]);
+      }
+      pending[top++] = node;
+    }
+    while (top > 0) {
+      visitor.visit(this, pending[--top]);
+    }
+    visitor.postProcess();
+  }
+}
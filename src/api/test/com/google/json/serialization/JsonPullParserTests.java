@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.json.serialization;
+
+import com.google.json.serialization.JsonPullParser.Event;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Tests {@link JsonPullParser}.
+ */
+public class JsonPullParserTests extends TestCase {
+  private static JsonPullParser parserFor(String data) {
+    return JsonPullParser.create(new StringReader(data));
+  }
+
+  /**
+   * Tests the sequence of events for a nested document.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testEvents() throws IOException, JsonException {
+    final JsonPullParser parser = parserFor(
+        "{\"a\": [1, 2.5, \"s\"], \"b\" : {\"c\":true, \"d\":null}}");
+    assertEquals(Event.START_OBJECT, parser.next());
+    assertEquals(1, parser.getDepth());
+
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("a", parser.getFieldName());
+    assertEquals(Event.START_ARRAY, parser.next());
+    assertEquals(2, parser.getDepth());
+    assertEquals(Event.NUMBER, parser.next());
+    assertEquals(1, parser.getInteger());
+    assertEquals(Event.NUMBER, parser.next());
+    assertEquals(2.5, parser.getDecimal(), 0.001);
+    assertEquals(Event.STRING, parser.next());
+    assertEquals("s", parser.getString());
+    assertEquals(Event.END_ARRAY, parser.next());
+    assertEquals(1, parser.getDepth());
+
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("b", parser.getFieldName());
+    assertEquals(Event.START_OBJECT, parser.next());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("c", parser.getString());
+    assertEquals(Event.BOOLEAN, parser.next());
+    assertTrue(parser.getBoolean());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals(Event.NULL, parser.next());
+    assertEquals(Event.END_OBJECT, parser.next());
+
+    assertEquals(Event.END_OBJECT, parser.next());
+    assertEquals(0, parser.getDepth());
+    assertEquals(Event.END_DOCUMENT, parser.next());
+  }
+
+  /**
+   * Tests reading a document from a UTF-8 byte stream.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testInputStream() throws IOException, JsonException {
+    final JsonPullParser parser = JsonPullParser.create(
+        new ByteArrayInputStream("[\"\u8734\"]".getBytes("UTF-8")));
+    assertEquals(Event.START_ARRAY, parser.next());
+    assertEquals(Event.STRING, parser.next());
+    assertEquals("\u8734", parser.getString());
+    assertEquals(Event.END_ARRAY, parser.next());
+    assertEquals(Event.END_DOCUMENT, parser.next());
+  }
+
+  /**
+   * Tests that malformed documents are reported.
+   * 
+   * @throws IOException
+   */
+  public void testMalformed() throws IOException {
+    final String[] inputs = {
+        "[1 2]", "{\"a\" 1}", "{\"a\":1", "[\"abc", "{} {}"};
+    for (String input : inputs) {
+      final JsonPullParser parser = parserFor(input);
+      boolean didThrow = false;
+      try {
+        while (parser.next() != Event.END_DOCUMENT) {
+        }
+      } catch (JsonException e) {
+        didThrow = true;
+      }
+      assertTrue(input, didThrow);
+    }
+  }
+
+  /**
+   * Tests materializing one element of a stream at a time with
+   * {@link JsonPullParser#readValue()}.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testReadValue() throws IOException, JsonException {
+    final JsonPullParser parser = parserFor("{\"header\":{\"name\":\"x\"},"
+        + "\"data\":[{\"type\":1,\"children\":[{\"type\":2}]},{\"type\":3}]}");
+    assertEquals(Event.START_OBJECT, parser.next());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    final JsonObject header = parser.readValue().asObject();
+    assertEquals("x", header.get("name").asString().getString());
+    assertEquals(Event.END_OBJECT, parser.getEvent());
+
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("data", parser.getFieldName());
+    assertEquals(Event.START_ARRAY, parser.next());
+    assertEquals(Event.START_OBJECT, parser.next());
+    final JsonObject first = parser.readValue().asObject();
+    assertEquals(1, first.get("type").asNumber().getInteger());
+    final JsonObject child = first.get("children").asArray().get(0).asObject();
+    assertEquals(2, child.get("type").asNumber().getInteger());
+    assertEquals(Event.START_OBJECT, parser.next());
+    final JsonObject second = parser.readValue().asObject();
+    assertEquals(3, second.get("type").asNumber().getInteger());
+    assertEquals(Event.END_ARRAY, parser.next());
+    assertEquals(Event.END_OBJECT, parser.next());
+    assertEquals(Event.END_DOCUMENT, parser.next());
+  }
+
+  /**
+   * Tests {@link JsonPullParser#skipValue()}.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testSkipValue() throws IOException, JsonException {
+    final JsonPullParser parser = parserFor(
+        "{\"a\":{\"b\":[1,[2],{}]},\"c\":7,\"d\":8}");
+    assertEquals(Event.START_OBJECT, parser.next());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    parser.skipValue();
+    assertEquals(Event.END_OBJECT, parser.getEvent());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals("c", parser.getFieldName());
+    parser.skipValue();
+    assertEquals(Event.NUMBER, parser.getEvent());
+    assertEquals(Event.FIELD_NAME, parser.next());
+    assertEquals(Event.NUMBER, parser.next());
+    assertEquals(8, parser.getInteger());
+    assertEquals(Event.END_OBJECT, parser.next());
+    assertEquals(Event.END_DOCUMENT, parser.next());
+  }
+
+  /**
+   * Tests documents larger than the tokenizer's read buffer.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testLargeDocument() throws IOException, JsonException {
+    final StringBuilder builder = new StringBuilder("[");
+    final int count = 10000;
+    for (int i = 0; i < count; ++i) {
+      if (i > 0) {
+        builder.append(',');
+      }
+      builder.append("{\"time\":").append(i).append(".5,\"type\":");
+      builder.append(i % 20).append('}');
+    }
+    builder.append(']');
+
+    final JsonPullParser parser = parserFor(builder.toString());
+    assertEquals(Event.START_ARRAY, parser.next());
+    int records = 0;
+    while (parser.next() == Event.START_OBJECT) {
+      final JsonObject record = parser.readValue().asObject();
+      assertEquals(records + 0.5, record.get("time").asNumber().getDecimal(),
+          0.001);
+      ++records;
+    }
+    assertEquals(count, records);
+    assertEquals(Event.END_DOCUMENT, parser.next());
+  }
+}
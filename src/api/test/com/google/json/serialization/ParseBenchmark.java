@@ -0,0 +1,171 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.json.serialization;
+
+import com.google.json.serialization.JsonPullParser.Event;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures parse throughput of the tree and streaming APIs over the trace
+ * records in the rule test data sets, along with the previous tokenizer
+ * ({@link BaselineTokenizer}) on the same dump. This is not part of the test
+ * suite; run it by hand with the data files as arguments, e.g.
+ * 
+ * <pre>
+ * java com.google.json.serialization.ParseBenchmark src/test/rules/*.in
+ * </pre>
+ */
+public class ParseBenchmark {
+  private static final int MEASURED_RUNS = 20;
+  private static final int MIN_DUMP_SIZE = 8 * 1024 * 1024;
+  private static final int WARMUP_RUNS = 10;
+
+  public static void main(String[] args) throws IOException, JsonException {
+    if (args.length == 0) {
+      System.err.println("Usage: ParseBenchmark <file>...");
+      System.exit(1);
+    }
+
+    final String dump = createDump(readRecords(args));
+    System.out.println("Dump size: " + dump.length() + " chars");
+    if (!serialize(JsonObject.parse(new StringReader(dump))).equals(
+        serialize(new BaselineTokenizer(new StringReader(dump)).nextValue()))) {
+      System.err.println("Baseline and current parsers disagree");
+      System.exit(1);
+    }
+
+    report("JsonObject.parse, baseline tokenizer", dump, new Runnable() {
+      public void run() {
+        try {
+          new BaselineTokenizer(new StringReader(dump)).nextValue();
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    report("JsonObject.parse", dump, new Runnable() {
+      public void run() {
+        try {
+          JsonObject.parse(new StringReader(dump));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    report("JsonPullParser", dump, new Runnable() {
+      public void run() {
+        try {
+          sumTimes(JsonPullParser.create(new StringReader(dump)));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Wraps the records in the headless dump envelope, repeating them until the
+   * dump is large enough to give stable timings.
+   */
+  private static String createDump(List<String> records) {
+    final StringBuilder builder = new StringBuilder("{\"header\":{"
+        + "\"name\":\"benchmark\",\"revision\":\"0\",\"timeStamp\":0},"
+        + "\"data\":[");
+    boolean first = true;
+    while (builder.length() < MIN_DUMP_SIZE) {
+      for (String record : records) {
+        if (!first) {
+          builder.append(',');
+        }
+        builder.append(record);
+        first = false;
+      }
+    }
+    return builder.append("]}").toString();
+  }
+
+  private static List<String> readRecords(String[] files) throws IOException {
+    final List<String> records = new ArrayList<String>();
+    for (String file : files) {
+      final BufferedReader reader = new BufferedReader(new FileReader(
+          new File(file)));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.startsWith("{")) {
+            records.add(line);
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return records;
+  }
+
+  private static void report(String name, String dump, Runnable parse) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      parse.run();
+    }
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_RUNS; ++i) {
+      parse.run();
+    }
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    final double megabytes = (double) dump.length() * MEASURED_RUNS
+        / (1024 * 1024);
+    System.out.println(name + ": " + Math.round(megabytes / seconds)
+        + " MB/s");
+  }
+
+  /**
+   * Writes a value back out as JSON, so that the values built by two parsers
+   * can be compared.
+   */
+  private static String serialize(JsonValue value) throws IOException {
+    final StringWriter writer = new StringWriter();
+    value.write(writer);
+    return writer.toString();
+  }
+
+  /**
+   * Walks every record, touching the "time" of each node as an analyzer would.
+   */
+  private static double sumTimes(JsonPullParser parser) throws IOException,
+      JsonException {
+    double sum = 0;
+    while (parser.next() != Event.END_DOCUMENT) {
+      if (parser.getEvent() == Event.FIELD_NAME
+          && "time".equals(parser.getFieldName())) {
+        if (parser.next() == Event.NUMBER) {
+          sum += parser.getDecimal();
+        }
+      }
+    }
+    return sum;
+  }
+}
@@ -58,6 +58,69 @@ public class TokenizerTests extends TestCase {
     assertEquals(-1, tokenizer.next());
   }
 
+  /**
+   * Tests that {@link Tokenizer#nextKey()} returns the same instance for
+   * repeated keys.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testNextKey() throws IOException, JsonException {
+    final Tokenizer tokenizer = tokenizerFor(
+        "\"time\" \"type\" \"time\" \"t\\u0069me\"");
+    final String first = tokenizer.nextKey();
+    assertEquals("time", first);
+    tokenizer.nextNonWhitespace();
+    tokenizer.back('"');
+    assertEquals("type", tokenizer.nextKey());
+    tokenizer.nextNonWhitespace();
+    tokenizer.back('"');
+    assertSame(first, tokenizer.nextKey());
+    tokenizer.nextNonWhitespace();
+    tokenizer.back('"');
+    assertSame(first, tokenizer.nextKey());
+  }
+
+  /**
+   * Tests {@link Tokenizer#nextScalar()} decoding of numbers.
+   * 
+   * @throws IOException
+   * @throws JsonException
+   */
+  public void testNextScalarNumbers() throws IOException, JsonException {
+    final String[] decimals = {
+        "0.2", "-1.5", "9149.171000003815", "1234567.8901234567", "6.23e-20",
+        "1E5", "-0.000001", "12.3e+10", "123456789012345678901234567890.5",
+        "1."};
+    for (String decimal : decimals) {
+      final Tokenizer tokenizer = tokenizerFor(decimal);
+      assertEquals(decimal, Tokenizer.LITERAL_DECIMAL, tokenizer.nextScalar());
+      assertEquals(decimal, Double.parseDouble(decimal),
+          tokenizer.getDecimalValue(), 0);
+    }
+
+    final String[] integers = {"0", "420", "-17", "9007199254740993",
+        "-9223372036854775808"};
+    for (String integer : integers) {
+      final Tokenizer tokenizer = tokenizerFor(integer + ",");
+      assertEquals(integer, Tokenizer.LITERAL_INTEGER, tokenizer.nextScalar());
+      assertEquals(integer, Long.parseLong(integer),
+          tokenizer.getIntegerValue());
+      assertEquals(',', tokenizer.next());
+    }
+
+    final String[] invalid = {"-", ".5", "1e", "12abc", "1.2.3", "truex"};
+    for (String literal : invalid) {
+      boolean didThrow = false;
+      try {
+        tokenizerFor(literal).nextScalar();
+      } catch (JsonException e) {
+        didThrow = true;
+      }
+      assertTrue(literal, didThrow);
+    }
+  }
+
   /**
    * Tests {@link Tokenizer#nextNonWhitespace()}.
    * 
@@ -15,9 +15,11 @@
  */
 package com.google.speedtracer;
 
+import com.google.json.serialization.JsonPullParserTests;
 import com.google.json.serialization.JsonTests;
 import com.google.json.serialization.TokenizerTests;
 import com.google.speedtracer.server.JsonTraverserTest;
+import com.google.speedtracer.server.TraceModelTest;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -29,9 +31,11 @@ public class ApiTestsSuite extends TestSuite {
 
   public static Test suite() {
     final TestSuite suite = new TestSuite("Api Java Tests");
+    suite.addTestSuite(JsonPullParserTests.class);
     suite.addTestSuite(JsonTests.class);
     suite.addTestSuite(JsonTraverserTest.class);
     suite.addTestSuite(TokenizerTests.class);
+    suite.addTestSuite(TraceModelTest.class);
     return suite;
   }
 }
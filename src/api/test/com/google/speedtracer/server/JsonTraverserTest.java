@@ -21,6 +21,7 @@ import com.google.json.serialization.JsonObject;
 import com.google.json.serialization.JsonValue;
 import com.google.speedtracer.server.JsonTraverser.JsonVisitor;
 import com.google.speedtracer.server.JsonTraverser.JsonVisitorDouble;
+import com.google.speedtracer.server.JsonTraverser.JsonVisitorDoubleArray;
 
 import junit.framework.TestCase;
 
@@ -117,4 +118,147 @@ public class JsonTraverserTest extends TestCase {
       }
     });
   }
+
+  public void testTraverseAllSelfTime() throws JsonException {
+    JsonArray records = new JsonArray();
+    JsonObject first = makeChild("duration", 10);
+    JsonArray children = new JsonArray();
+    JsonObject child = makeChild("duration", 4);
+    JsonArray grandChildren = new JsonArray();
+    grandChildren.add(makeChild("duration", 1));
+    child.put("children", grandChildren);
+    children.add(child);
+    children.add(makeChild("duration", 3));
+    first.put("children", children);
+    records.add(first);
+    records.add(makeChild("duration", 5));
+
+    JsonTraverser.get().traverseAll(records, new SelfTimeArrayVisitor());
+    assertEquals(3.0, first.get("selfTime").asNumber().getDecimal(), .001);
+    assertEquals(3.0, child.get("selfTime").asNumber().getDecimal(), .001);
+    assertEquals(5.0,
+        records.get(1).asObject().get("selfTime").asNumber().getDecimal(),
+        .001);
+  }
+
+  public void testTraverseConcurrently() throws Exception {
+    final int depth = 2000;
+    final JsonObject root = makeChild("value", 0);
+    JsonObject parent = root;
+    for (int i = 1; i < depth; i++) {
+      JsonObject child = makeChild("value", i);
+      JsonArray children = new JsonArray();
+      children.add(child);
+      parent.put("children", children);
+      parent = child;
+    }
+
+    final double[] results = new double[8];
+    final Thread[] threads = new Thread[results.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < 50; j++) {
+              results[index] += JsonTraverser.get().traverseDoubleArray(root,
+                  new JsonVisitorDoubleArray() {
+                    public void postProcess() {
+                    }
+
+                    public double visit(JsonObject node, double[] values,
+                        int offset, int count) {
+                      return count == 0 ? 1 : values[offset] + 1;
+                    }
+                  });
+            }
+          } catch (JsonException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (double result : results) {
+      assertEquals(50.0 * depth, result, .001);
+    }
+  }
+
+  public void testTraverseDeepTree() throws JsonException {
+    // Deep enough to overflow the stack with a recursive traversal.
+    final int depth = 100000;
+    JsonObject root = makeChild("value", 0);
+    JsonObject parent = root;
+    for (int i = 1; i < depth; i++) {
+      JsonObject child = makeChild("value", i);
+      JsonArray children = new JsonArray();
+      children.add(child);
+      parent.put("children", children);
+      parent = child;
+    }
+
+    double result = JsonTraverser.get().traverseDoubleArray(root,
+        new JsonVisitorDoubleArray() {
+          public void postProcess() {
+          }
+
+          public double visit(JsonObject node, double[] values, int offset,
+              int count) {
+            return count == 0 ? 1 : values[offset] + 1;
+          }
+        });
+    assertEquals(depth, result, .001);
+  }
+
+  public void testTraverseSelfTime() throws JsonException {
+    JsonObject root = makeChild("duration", 10);
+    JsonArray children = new JsonArray();
+    children.add(makeChild("duration", 4));
+    root.put("children", children);
+
+    JsonTraverser.get().traverse(root, new SelfTimeVisitor());
+    assertEquals(6.0, root.get("selfTime").asNumber().getDecimal(), .001);
+  }
+
+  public void testTraversePostorderNumberArray() throws JsonException {
+    JsonObject root = new JsonObject();
+    root.put("value", 6);
+    JsonArray children = new JsonArray();
+    JsonObject child = makeChild("value", 3);
+    JsonArray grandChildren = new JsonArray();
+    grandChildren.add(makeChild("value", 1));
+    grandChildren.add(makeChild("value", 2));
+    child.put("children", grandChildren);
+    children.add(child);
+    children.add(makeChild("value", 3));
+    root.put("children", children);
+
+    JsonTraverser.get().traverseDoubleArray(root,
+        new JsonVisitorDoubleArray() {
+          private int postProcessCount = 0;
+
+          public void postProcess() {
+            postProcessCount++;
+            assertEquals(1, postProcessCount);
+          }
+
+          public double visit(JsonObject node, double[] values, int offset,
+              int count) throws JsonException {
+            long value = node.get("value").asNumber().getInteger();
+            if (count > 0) {
+              double sum = 0;
+              for (int i = offset; i < offset + count; i++) {
+                sum += values[i];
+              }
+              assertEquals(sum, value, .001);
+            }
+            return value;
+          }
+        });
+  }
 }
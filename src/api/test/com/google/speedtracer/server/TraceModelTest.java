@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.server;
+
+import com.google.json.serialization.JsonArray;
+import com.google.json.serialization.JsonException;
+import com.google.json.serialization.JsonObject;
+import com.google.speedtracer.shared.EventRecordType;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Test for {@link TraceModel} class.
+ */
+public class TraceModelTest extends TestCase {
+
+  private static TraceModel createModel() throws IOException, JsonException {
+    // Two records; the first has two children, the second of which has a
+    // child of its own.
+    final String data = "[{\"type\":" + EventRecordType.TIMER_FIRED
+        + ",\"time\":10,\"duration\":10,\"sequence\":4,\"data\":{},"
+        + "\"children\":[{\"type\":" + EventRecordType.LAYOUT_EVENT
+        + ",\"time\":11,\"duration\":2,\"data\":{}},{\"type\":"
+        + EventRecordType.JAVASCRIPT_EXECUTION
+        + ",\"time\":14,\"duration\":5,\"data\":{},\"children\":[{\"type\":"
+        + EventRecordType.LOG_MESSAGE_EVENT
+        + ",\"time\":15,\"data\":{\"message\":\"hello\"}}]}]},"
+        + "{\"type\":" + EventRecordType.RESOURCE_SEND_REQUEST
+        + ",\"time\":30,\"sequence\":5,\"data\":{\"identifier\":7,"
+        + "\"url\":\"http://a/\",\"isMainResource\":true}}]";
+    return TraceModel.create(JsonArray.parse(new StringReader(data)));
+  }
+
+  private static JsonObject makeNode(double duration) {
+    final JsonObject node = new JsonObject();
+    node.put("type", EventRecordType.LAYOUT_EVENT);
+    node.put("duration", duration);
+    node.put("data", new JsonObject());
+    return node;
+  }
+
+  public void testCreate() throws IOException, JsonException {
+    final TraceModel trace = createModel();
+    assertEquals(2, trace.getRecordCount());
+    assertEquals(5, trace.getNodeCount());
+    assertEquals(0, trace.getRecordNode(0));
+    assertEquals(4, trace.getRecordNode(1));
+
+    assertEquals(EventRecordType.TIMER_FIRED, trace.getType(0));
+    assertEquals(-1, trace.getParent(0));
+    assertEquals(4, trace.getSubtreeEnd(0));
+    assertEquals(3.0, trace.getSelfTime(0), 0.001);
+    assertEquals(4, trace.getSequence(0));
+
+    assertEquals(0, trace.getParent(1));
+    assertEquals(2.0, trace.getSelfTime(1), 0.001);
+    assertEquals(0, trace.getParent(2));
+    assertEquals(4, trace.getSubtreeEnd(2));
+    assertEquals(2, trace.getParent(3));
+    assertEquals("hello", trace.getLabel(3));
+    assertEquals(15.0, trace.getTime(3), 0.001);
+    assertEquals(4, trace.getSequence(3));
+    assertNull(trace.getLabel(1));
+    assertFalse(trace.hasIdentifier(1));
+    assertFalse(trace.isMainResource(1));
+
+    assertEquals(EventRecordType.RESOURCE_SEND_REQUEST, trace.getType(4));
+    assertTrue(trace.hasIdentifier(4));
+    assertEquals(7, trace.getIdentifier(4));
+    assertTrue(trace.isMainResource(4));
+    assertEquals("http://a/", trace.getLabel(4));
+    assertEquals(5, trace.getSequence(4));
+  }
+
+  public void testCreateDeepRecord() throws JsonException {
+    // Deep enough to overflow the stack with a recursive builder.
+    final int depth = 100000;
+    final JsonObject root = makeNode(depth);
+    JsonObject parent = root;
+    for (int i = 1; i < depth; i++) {
+      final JsonObject child = makeNode(depth - i);
+      final JsonArray children = new JsonArray();
+      children.add(child);
+      parent.put("children", children);
+      parent = child;
+    }
+    final JsonArray records = new JsonArray();
+    records.add(root);
+
+    final TraceModel trace = TraceModel.create(records);
+    assertEquals(depth, trace.getNodeCount());
+    assertEquals(depth, trace.getSubtreeEnd(0));
+    assertEquals(depth, trace.getSubtreeEnd(depth - 1));
+    assertEquals(depth - 2, trace.getParent(depth - 1));
+    assertEquals(1.0, trace.getSelfTime(0), 0.001);
+  }
+
+  public void testLongIdentifier() throws IOException, JsonException {
+    final String data = "[{\"type\":" + EventRecordType.RESOURCE_SEND_REQUEST
+        + ",\"time\":30,\"data\":{\"identifier\":8589934593}}]";
+    final TraceModel trace = TraceModel.create(JsonArray.parse(
+        new StringReader(data)));
+    assertTrue(trace.hasIdentifier(0));
+    assertEquals(8589934593L, trace.getIdentifier(0));
+  }
+
+  public void testTraversePostOrder() throws IOException, JsonException {
+    final StringBuilder order = new StringBuilder();
+    createModel().traversePostOrder(0, new TraceModel.Visitor() {
+      public void postProcess() {
+        order.append('.');
+      }
+
+      public void visit(TraceModel trace, int node) {
+        order.append(node);
+      }
+    });
+    assertEquals("13204.", order.toString());
+  }
+
+  public void testTraversePreOrder() throws IOException, JsonException {
+    final StringBuilder order = new StringBuilder();
+    createModel().traversePreOrder(1, new TraceModel.Visitor() {
+      public void postProcess() {
+        order.append('.');
+      }
+
+      public void visit(TraceModel trace, int node) {
+        order.append(node);
+      }
+    });
+    assertEquals("4.", order.toString());
+  }
+}
@@ -222,7 +222,7 @@ public class Tabs extends JavaScriptObject {
   }-*/;
 
   public static native TabRemovedEvent getOnTabRemovedEvent() /*-{
-    return chrome.tabs.onRemoved();
+    return chrome.tabs.onRemoved;
   }-*/;
 
   public static native TabUpdatedEvent getOnUpdatedEvent() /*-{
@@ -38,6 +38,13 @@ public class Logging {
       NetworkEventDispatcher.Listener, UiEventDispatcher.UiEventListener,
       HintletInterface.ExceptionListener {
 
+    // How many finished resources between reports of the resource store size.
+    private static final int RESOURCE_REPORT_INTERVAL = 100;
+
+    private int finishedResources;
+
+    private NetworkEventDispatcher networkEventDispatcher;
+
     private final ZippyLogger zippyLogger;
 
     public DebugListenerLogger() {
@@ -45,7 +52,8 @@ public class Logging {
     }
 
     public void listenTo(DataDispatcher dispatcher) {
-      dispatcher.getNetworkEventDispatcher().addListener(this);
+      networkEventDispatcher = dispatcher.getNetworkEventDispatcher();
+      networkEventDispatcher.addListener(this);
       dispatcher.getUiEventDispatcher().addUiEventListener(this);
       dispatcher.getHintletEngineHost().addExceptionHandler(this);
     }
@@ -81,6 +89,12 @@ public class Logging {
     }
 
     public void onNetworkResourceResponseFinished(NetworkResource resource) {
+      if (++finishedResources % RESOURCE_REPORT_INTERVAL == 0) {
+        logText("NetworkEventDispatcher: "
+            + networkEventDispatcher.getResourceCount() + " resources, about "
+            + (networkEventDispatcher.getApproximateResourceBytes() / 1024)
+            + " KB");
+      }
     }
 
     public void onNetworkResourceResponseStarted(NetworkResource resource) {
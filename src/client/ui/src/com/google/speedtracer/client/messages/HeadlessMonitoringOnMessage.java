@@ -34,6 +34,21 @@ public class HeadlessMonitoringOnMessage extends Message {
       return !!this.clearData;
     }-*/;
 
+    /**
+     * The maximum number of records to keep for the tab, or 0 if not passed.
+     */
+    public final native int getMaxRecords() /*-{
+      return this.maxRecords || 0;
+    }-*/;
+
+    /**
+     * The maximum total length, in characters, of the records to keep for the
+     * tab, or 0 if not passed.
+     */
+    public final native int getMaxSize() /*-{
+      return this.maxSize || 0;
+    }-*/;
+
     /**
      * If the content script sends down a URL, it indicates that the API
      * requesting that the current page be reloaded with a new URL after
@@ -42,6 +57,22 @@ public class HeadlessMonitoringOnMessage extends Message {
     public final native String getReloadUrl() /*-{
       return this.reload;
     }-*/;
+
+    /**
+     * Whether an overflow policy was passed. If not, the policy of the tab is
+     * left as it is.
+     */
+    public final native boolean hasOverflow() /*-{
+      return !!this.overflow;
+    }-*/;
+
+    /**
+     * Whether new records should be discarded once a limit is reached, rather
+     * than evicting the oldest records.
+     */
+    public final native boolean isDropNewest() /*-{
+      return this.overflow == "dropNewest";
+    }-*/;
   }
 
   public static final int TYPE = MessageType.PORT_HEADLESS_MONITORING_ON;
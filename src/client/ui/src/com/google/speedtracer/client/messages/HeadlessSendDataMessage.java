@@ -39,4 +39,11 @@ public class HeadlessSendDataMessage extends Message {
   public final native String getUrl() /*-{
     return this.url;
   }-*/;
+
+  /**
+   * Whether the API asked for the data to be sent gzip compressed.
+   */
+  public final native boolean isCompressed() /*-{
+    return !!this.compress;
+  }-*/;
 }
@@ -16,6 +16,7 @@
 package com.google.speedtracer.client.messages;
 
 import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.coreext.client.JSOArray;
 import com.google.gwt.coreext.client.JSON;
 import com.google.speedtracer.client.model.HintRecord;
 
@@ -26,6 +27,7 @@ import com.google.speedtracer.client.model.HintRecord;
  */
 public class HintMessage extends JavaScriptObject {
   public static final int HINT = 2;
+  public static final int HINT_BATCH = 3;
   public static final int LOG = 1;
 
   public static HintMessage create(String hintMessageStr) {
@@ -39,6 +41,14 @@ public class HintMessage extends JavaScriptObject {
     return this.payload;
   }-*/;
 
+  /**
+   * Returns the hints of a {@link #HINT_BATCH} message, in the order they
+   * fired.
+   */
+  public final native JSOArray<HintRecord> getHints() /*-{
+    return this.payload;
+  }-*/;
+
   public final native String getLog() /*-{
     return this.payload;
   }-*/;
@@ -51,6 +61,10 @@ public class HintMessage extends JavaScriptObject {
     return getType() == HINT;
   }
 
+  public final boolean isHintBatch() {
+    return getType() == HINT_BATCH;
+  }
+
   public final boolean isLog() {
     return getType() == LOG;
   }
@@ -18,7 +18,6 @@ package com.google.speedtracer.client.model;
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.GWT.UncaughtExceptionHandler;
 import com.google.gwt.coreext.client.JSOArray;
-import com.google.gwt.coreext.client.JSON;
 import com.google.speedtracer.client.ClientConfig;
 import com.google.speedtracer.client.model.CustomEvent.TypeRegisteringVisitor;
 
@@ -70,7 +69,27 @@ public class DataDispatcher implements HintletInterface.HintListener,
     return dispatcher;
   }
 
-  protected JSOArray<String> traceDataCopy = JSOArray.create();
+  /**
+   * Records are only serialized when the trace is saved, by which time the
+   * models have annotated them. Those annotations are left out so that the
+   * record reads as it did on arrival. They are only ever set on event
+   * records, which unlike data bags have a numeric type.
+   */
+  private static native String stringifyAsReceived(EventRecord record) /*-{
+    var annotations = {
+      durationMap : true,
+      hasUserLogs : true,
+      hints : true,
+      javaScriptProfileState : true,
+      selfTime : true
+    };
+    return JSON.stringify(record, function(key, value) {
+      if (annotations.hasOwnProperty(key) && typeof this.type == "number") {
+        return undefined;
+      }
+      return value;
+    });
+  }-*/;
 
   private final TypeRegisteringVisitor customTypeVisitor = new TypeRegisteringVisitor();
 
@@ -117,8 +136,6 @@ public class DataDispatcher implements HintletInterface.HintListener,
     sequenceBase += eventRecords.size();
     // Replace the existing global event index.
     eventRecords = new ArrayList<EventRecord>();
-    // Replace the backing String store.
-    traceDataCopy = JSOArray.create();
     // Clear any state in the event dispatchers;
     for (int i = 0, n = eventDispatchers.size(); i < n; i++) {
       eventDispatchers.get(i).clearData();
@@ -217,8 +234,16 @@ public class DataDispatcher implements HintletInterface.HintListener,
     return tabDescription;
   }
 
+  /**
+   * Serializes the records received so far, as they were received, for saving
+   * to a file.
+   */
   public JSOArray<String> getTraceCopy() {
-    return traceDataCopy;
+    JSOArray<String> traceCopy = JSOArray.create();
+    for (int i = 0, n = eventRecords.size(); i < n; i++) {
+      traceCopy.push(stringifyAsReceived(eventRecords.get(i)));
+    }
+    return traceCopy;
   }
 
   /**
@@ -239,8 +264,6 @@ public class DataDispatcher implements HintletInterface.HintListener,
     // Possibly register a new custom type.
     record.<UiEvent> cast().apply(customTypeVisitor);
 
-    // Keep a copy of the String for saving later.
-    traceDataCopy.push(JSON.stringify(record));
     eventRecords.add(record);
     fireOnEventRecord(record);
   }
@@ -259,6 +282,10 @@ public class DataDispatcher implements HintletInterface.HintListener,
 
   public void stopMonitoring() {
     getDataInstance().stopMonitoring();
+    if (hintletEngineHost != null) {
+      // Don't leave the last records waiting for a batch to fill.
+      hintletEngineHost.flush();
+    }
   }
 
   protected void addDispatcher(DataDispatcherDelegate dispatcher) {
@@ -312,6 +339,9 @@ public class DataDispatcher implements HintletInterface.HintListener,
     EventRecord rec = findEventRecordFromSequence(sequence);
     if (rec != null) {
       rec.addHint(hintletRecord);
+      if (UiEvent.isUiEvent(rec)) {
+        uiEventDispatcher.getEventIndex().onHintAdded(rec);
+      }
     }
   }
 }
@@ -17,7 +17,9 @@ package com.google.speedtracer.client.model;
 
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.GWT.UncaughtExceptionHandler;
+import com.google.gwt.coreext.client.JSOArray;
 import com.google.gwt.coreext.client.JSON;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.webworker.client.ErrorEvent;
 import com.google.gwt.webworker.client.ErrorHandler;
 import com.google.gwt.webworker.client.MessageEvent;
@@ -38,13 +40,37 @@ import java.util.List;
  * Class responsible for communicating with the hintlet engine worker thread and
  * for providing API for submitting records for analysis and for calling back
  * when a hint fires from a hintlet.
+ * 
+ * Records are posted to the worker in batches, as a JSON array, rather than
+ * one message per record. A batch is sent once it holds
+ * {@link #MAX_BATCH_SIZE} records, or about a frame after its first record
+ * arrived, whichever comes first.
  */
 public class HintletEngineHost implements DataDispatcherDelegate {
 
+  /**
+   * How long a record may wait for more records to join its batch.
+   */
+  private static final int FLUSH_DELAY_MS = 16;
+
+  private static final int MAX_BATCH_SIZE = 250;
+
   private final List<ExceptionListener> exceptionListeners = new ArrayList<ExceptionListener>();
+
+  private final Timer flushTimer = new Timer() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
   private final Worker hintletEngineWorker;
   private final List<HintListener> hintListeners = new ArrayList<HintListener>();
 
+  // Each record is stringified as it arrives, since other models may change
+  // the record after it was dispatched.
+  private JSOArray<String> pendingRecords = JSOArray.create();
+
   HintletEngineHost() {
     // Fire up the Dedicated worker that will run the actual hintlet engine.
     hintletEngineWorker = Worker.create("../hintletengine/hintletengine.nocache.js");
@@ -60,7 +86,8 @@ public class HintletEngineHost implements DataDispatcherDelegate {
   }
 
   public void clearData() {
-    // no-op
+    // Records dispatched before the clear still get their hints.
+    flush();
   }
 
   /**
@@ -68,13 +95,35 @@ public class HintletEngineHost implements DataDispatcherDelegate {
    * method calls in this instance - the object should be discarded.
    */
   public void destroy() {
+    flushTimer.cancel();
+    pendingRecords = JSOArray.create();
     hintletEngineWorker.terminate();
   }
 
+  /**
+   * Posts any records still waiting in the current batch to the worker.
+   */
+  public void flush() {
+    flushTimer.cancel();
+    if (pendingRecords.isEmpty()) {
+      return;
+    }
+    String batch = "[" + pendingRecords.join(",") + "]";
+    pendingRecords = JSOArray.create();
+    hintletEngineWorker.postMessage(batch);
+  }
+
   public void onEventRecord(EventRecord data) {
-    if (data.getType() != EventRecordType.PROFILE_DATA) {
+    if (data.getType() == EventRecordType.PROFILE_DATA) {
       // The hintlet engine does not like profile data
-      hintletEngineWorker.postMessage(JSON.stringify(data));
+      return;
+    }
+    if (pendingRecords.isEmpty()) {
+      flushTimer.schedule(FLUSH_DELAY_MS);
+    }
+    pendingRecords.push(JSON.stringify(data));
+    if (pendingRecords.size() >= MAX_BATCH_SIZE) {
+      flush();
     }
   }
 
@@ -130,6 +179,11 @@ public class HintletEngineHost implements DataDispatcherDelegate {
 
         if (msg.isHint()) {
           onHint(msg.getHint());
+        } else if (msg.isHintBatch()) {
+          JSOArray<HintRecord> hints = msg.getHints();
+          for (int i = 0, n = hints.size(); i < n; i++) {
+            onHint(hints.get(i));
+          }
         } else if (ClientConfig.isDebugMode()) {
           if (msg.isLog()) {
             Logging.getLogger().logText(msg.getLog());
@@ -15,16 +15,13 @@
  */
 package com.google.speedtracer.client.model;
 
-import com.google.gwt.core.client.JsArrayString;
 import com.google.gwt.coreext.client.IterableFastStringMap;
-import com.google.gwt.coreext.client.JSOArray;
 import com.google.gwt.dom.client.Document;
 import com.google.gwt.dom.client.Element;
 import com.google.speedtracer.client.ClientConfig;
 import com.google.speedtracer.client.Logging;
 import com.google.speedtracer.client.model.V8SymbolTable.AliasableEntry;
 import com.google.speedtracer.client.model.V8SymbolTable.V8Symbol;
-import com.google.speedtracer.client.util.Csv;
 import com.google.speedtracer.client.util.WorkQueue;
 
 import java.util.ArrayList;
@@ -46,7 +43,7 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * Used to store actions for parsing lines in the log.
    */
   interface LogAction {
-    void doAction(JsArrayString logLine);
+    void doAction(V8LogTokenizer logLine);
   }
 
   /**
@@ -59,7 +56,7 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
       this.commandName = commandName;
     }
 
-    public void doAction(JsArrayString logLine) {
+    public void doAction(V8LogTokenizer logLine) {
       if (ClientConfig.isDebugMode()) {
         Logging.getLogger().logText(
             "Unimplemented command: " + commandName + " alias: "
@@ -75,7 +72,6 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
   }
 
   private static class DebugStats {
-    public int addCollisions;
     public int lookupMisses;
     public int moveMisses;
     public int removeMisses;
@@ -87,10 +83,10 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    */
   private class LogLineWorker implements WorkQueue.Node {
     public int currentOffset;
-    public final JSOArray<String> logLines;
+    public final V8LogTokenizer logLines;
     public final UiEvent refRecord;
 
-    public LogLineWorker(JSOArray<String> logLines, UiEvent refRecord,
+    public LogLineWorker(V8LogTokenizer logLines, UiEvent refRecord,
         int currentOffset) {
       this.logLines = logLines;
       this.refRecord = refRecord;
@@ -125,8 +121,7 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
 
     public void execute() {
       currentProfile = profile;
-      JSOArray<String> logLines = JSOArray.splitString(
-          rawEvent.getProfileData(), "\n");
+      V8LogTokenizer logLines = new V8LogTokenizer(rawEvent.getProfileData());
       workQueue.prepend(new LogLineWorker(logLines, refRecord, 0));
     }
 
@@ -247,8 +242,8 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
     StringBuilder output = new StringBuilder();
     output.append("<h3>Debug Stats</h3>\n");
     output.append("<table>\n");
-    output.append("<tr><td>Add Collisions</td><td>" + debugStats.addCollisions
-        + "</td></tr>");
+    output.append("<tr><td>Add Collisions</td><td>"
+        + symbolTable.getCollisionCount() + "</td></tr>");
     output.append("<tr><td>Lookup Misses</td><td>" + debugStats.lookupMisses
         + "</td></tr>");
     output.append("<tr><td>Remove Misses</td><td>" + debugStats.removeMisses
@@ -283,9 +278,7 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
     if (workQueue == null) {
       // Process the event synchronously
       currentProfile = profile;
-      JSOArray<String> logLines = JSOArray.splitString(
-          rawEvent.getProfileData(), "\n");
-      processLogLines(refRecord, logLines, 0);
+      processLogLines(refRecord, new V8LogTokenizer(profileData), 0);
     } else {
       // Process the log entries using a deferred command to keep from blocking
       // the UI thread.
@@ -312,16 +305,22 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * @return a number corresponding to the address string.
    */
   double parseAddress(String addressString, String addressTag) {
+    return parseAddress(addressString, 0, addressString.length(), addressTag);
+  }
 
-    // TODO(zundel): Try using JavaScript's parseInt() rather than
-    // Long.parseLong() for better performance. Will performance
-    // in Development mode still be acceptable?
-    if (addressString.equals("overflow")) {
+  /**
+   * Returns a number corresponding to the address found between
+   * <code>start</code> and <code>end</code> of <code>source</code>, without
+   * copying it out.
+   */
+  double parseAddress(String source, int start, int end, String addressTag) {
+    int length = end - start;
+    if (length == 8 && source.startsWith("overflow", start)) {
       return 0;
-    } else if (addressString.startsWith("0x")) {
-      return Long.parseLong(addressString.substring(2), 16);
-    } else if (addressString.startsWith("0")) {
-      return Long.parseLong(addressString, 8);
+    } else if (length > 1 && source.startsWith("0x", start)) {
+      return V8LogTokenizer.parseNumber(source, start + 2, end, 16);
+    } else if (length > 0 && source.charAt(start) == '0') {
+      return V8LogTokenizer.parseNumber(source, start, end, 8);
     }
 
     double baseAddress = 0;
@@ -329,14 +328,15 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
       baseAddress = addressTags.get(addressTag);
     }
     double address = 0;
-    if (addressString.startsWith("+")) {
-      addressString = addressString.substring(1);
-      address = baseAddress + Long.parseLong(addressString, 16);
-    } else if (addressString.startsWith("-")) {
-      addressString = addressString.substring(1);
-      address = baseAddress - Long.parseLong(addressString, 16);
+    char sign = length > 0 ? source.charAt(start) : 0;
+    if (sign == '+') {
+      address = baseAddress
+          + V8LogTokenizer.parseNumber(source, start + 1, end, 16);
+    } else if (sign == '-') {
+      address = baseAddress
+          - V8LogTokenizer.parseNumber(source, start + 1, end, 16);
     } else {
-      address = Long.parseLong(addressString, 16);
+      address = V8LogTokenizer.parseNumber(source, start, end, 16);
     }
     if (addressTag != null) {
       addressTags.put(addressTag, address);
@@ -370,11 +370,20 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
   }
 
   /**
-   * Given an array of the fields in a single log line, execute the appropriate
-   * action on that entry based on the first field.
+   * Parses the field of a log line as an address.
    */
-  private void parseLogEntry(JsArrayString logEntries) {
-    if (logEntries.length() == 0) {
+  private double parseAddress(V8LogTokenizer logEntries, int field,
+      String addressTag) {
+    return parseAddress(logEntries.getSource(), logEntries.getStart(field),
+        logEntries.getEnd(field), addressTag);
+  }
+
+  /**
+   * Given the fields of a single log line, execute the appropriate action on
+   * that entry based on the first field.
+   */
+  private void parseLogEntry(V8LogTokenizer logEntries) {
+    if (logEntries.getFieldCount() == 0) {
       return;
     }
     String command = logEntries.get(0);
@@ -395,8 +404,8 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * 
    * alias, aliasName, originalName
    */
-  private void parseV8AliasEntry(JsArrayString logEntries) {
-    assert logEntries.length() == 3;
+  private void parseV8AliasEntry(V8LogTokenizer logEntries) {
+    assert logEntries.getFieldCount() == 3;
 
     String originalName = logEntries.get(2);
     String aliasName = logEntries.get(1);
@@ -424,21 +433,14 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * e.g. code-creation,lic,-5910913e,179,"parentNode"
    * 
    */
-  private void parseV8CodeCreationEntry(JsArrayString logEntries) {
-    assert logEntries.length() == 5;
+  private void parseV8CodeCreationEntry(V8LogTokenizer logEntries) {
+    assert logEntries.getFieldCount() == 5;
     V8SymbolType symbolType = symbolTypeMap.get(logEntries.get(1));
 
     String name = logEntries.get(4);
 
-    double address = parseAddress(logEntries.get(2), ADDRESS_TAG_CODE);
-    int executableSize = Integer.parseInt(logEntries.get(3));
-
-    // Keep some debugging stats around
-    V8Symbol found = symbolTable.lookup(address);
-
-    if (found != null) {
-      debugStats.addCollisions++;
-    }
+    double address = parseAddress(logEntries, 2, ADDRESS_TAG_CODE);
+    int executableSize = logEntries.getInt(3);
 
     V8Symbol symbol = new V8Symbol(scrubStringForXSS(name), symbolType,
         address, executableSize);
@@ -470,13 +472,10 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * 
    * code-delete, address
    */
-  private void parseV8CodeDeleteEntry(JsArrayString logEntries) {
-    assert logEntries.length() == 2;
-    double address = parseAddress(logEntries.get(1), ADDRESS_TAG_CODE);
-    V8Symbol symbol = symbolTable.lookup(address);
-    if (symbol != null) {
-      symbolTable.remove(symbol);
-    } else {
+  private void parseV8CodeDeleteEntry(V8LogTokenizer logEntries) {
+    assert logEntries.getFieldCount() == 2;
+    double address = parseAddress(logEntries, 1, ADDRESS_TAG_CODE);
+    if (symbolTable.remove(address) == null) {
       // update debugging stats
       debugStats.removeMisses++;
     }
@@ -489,16 +488,11 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * 
    * code-move, fromAddress, toAddress
    */
-  private void parseV8CodeMoveEntry(JsArrayString logEntries) {
-    assert logEntries.length() == 3;
-    double fromAddress = parseAddress(logEntries.get(1), ADDRESS_TAG_CODE);
-    double toAddress = parseAddress(logEntries.get(2), ADDRESS_TAG_CODE_MOVE);
-    V8Symbol symbol = symbolTable.lookup(fromAddress);
-    if (symbol != null) {
-      symbolTable.remove(symbol);
-      symbol.getAddressSpan().setAddress(toAddress);
-      symbolTable.add(symbol);
-    } else {
+  private void parseV8CodeMoveEntry(V8LogTokenizer logEntries) {
+    assert logEntries.getFieldCount() == 3;
+    double fromAddress = parseAddress(logEntries, 1, ADDRESS_TAG_CODE);
+    double toAddress = parseAddress(logEntries, 2, ADDRESS_TAG_CODE_MOVE);
+    if (symbolTable.move(fromAddress, toAddress) == null) {
       // update debugging stats
       debugStats.moveMisses++;
     }
@@ -511,10 +505,10 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * 
    * profiler, "type", ...
    */
-  private void parseV8ProfilerEntry(JsArrayString logEntries) {
+  private void parseV8ProfilerEntry(V8LogTokenizer logEntries) {
     final String arg = logEntries.get(1);
     if (arg.equals("compression")) {
-      int windowSize = Integer.parseInt(logEntries.get(2));
+      int windowSize = logEntries.getInt(2);
       this.logDecompressor = new V8LogDecompressor(windowSize);
     } else if (arg.equals("begin")) {
       // TODO(zundel): make sure all state is reset
@@ -523,7 +517,7 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
       // ignore pause and resume entries.
     } else if (ClientConfig.isDebugMode()) {
       Logging.getLogger().logText(
-          "Ignoring profiler command: " + logEntries.join());
+          "Ignoring profiler command: " + logEntries.getLine());
     }
   }
 
@@ -531,8 +525,8 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * A repeat entry is used to indicate that the command following is repeated
    * multiple times.
    */
-  private void parseV8RepeatEntry(JsArrayString logEntries) {
-    int numRepeats = Integer.parseInt(logEntries.get(1));
+  private void parseV8RepeatEntry(V8LogTokenizer logEntries) {
+    int numRepeats = logEntries.getInt(1);
     // run the command after the first 2 arguments numRepeats times.
     logEntries.shift();
     logEntries.shift();
@@ -548,13 +542,13 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
    * 
    * e.g.: t,-7364bb,+45c,0
    */
-  private void parseV8TickEntry(JsArrayString logEntries) {
-    assert logEntries.length() >= 4;
-    double address = parseAddress(logEntries.get(1), ADDRESS_TAG_CODE);
+  private void parseV8TickEntry(V8LogTokenizer logEntries) {
+    assert logEntries.getFieldCount() >= 4;
+    double address = parseAddress(logEntries, 1, ADDRESS_TAG_CODE);
     // stack address is currently ignored, but it must be parsed to keep the
     // stack address tag up to date if anyone else ever wants to use it.
     // double stackAddress = parseAddress(logEntries.get(2), ADDRESS_TAG_STACK);
-    int vmState = Integer.parseInt(logEntries.get(3));
+    int vmState = logEntries.getInt(3);
     currentProfile.addStateTime(vmState, 1.0);
 
     List<V8Symbol> symbols = new ArrayList<V8Symbol>();
@@ -563,8 +557,8 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
       symbols.add(found);
     }
     addressTags.put(ADDRESS_TAG_SCRATCH, address);
-    for (int i = 4; i < logEntries.length(); ++i) {
-      address = parseAddress(logEntries.get(i), ADDRESS_TAG_SCRATCH);
+    for (int i = 4, n = logEntries.getFieldCount(); i < n; ++i) {
+      address = parseAddress(logEntries, i, ADDRESS_TAG_SCRATCH);
       found = symbolTable.lookup(address);
       if (found != null) {
         symbols.add(found);
@@ -589,37 +583,37 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
     ActionType repeatType = createActionType("repeat", ACTION_TYPE_REPEAT);
 
     logActions.put(aliasType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8AliasEntry(logLine);
       }
     });
     logActions.put(profilerType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8ProfilerEntry(logLine);
       }
     });
     logActions.put(codeCreationType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8CodeCreationEntry(logLine);
       }
     });
     logActions.put(codeMoveType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8CodeMoveEntry(logLine);
       }
     });
     logActions.put(codeDeleteType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8CodeDeleteEntry(logLine);
       }
     });
     logActions.put(tickType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8TickEntry(logLine);
       }
     });
     logActions.put(repeatType, new LogAction() {
-      public void doAction(JsArrayString logLine) {
+      public void doAction(V8LogTokenizer logLine) {
         parseV8RepeatEntry(logLine);
       }
     });
@@ -657,14 +651,12 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
   }
 
   /**
-   * Process a portion of the logLines array. If the workQueue is enabled, exit
-   * early if the timeslice expires.
+   * Process a portion of the log. If the workQueue is enabled, exit early if
+   * the timeslice expires.
    */
   private void processLogLines(final UiEvent refRecord,
-      final JSOArray<String> logLines, int currentLine) {
-    final int logLinesLength = logLines.size();
-
-    for (; currentLine < logLinesLength; ++currentLine) {
+      final V8LogTokenizer logLines, int currentLine) {
+    for (; logLines.hasNextLine(); ++currentLine) {
       if (workQueue != null) {
         // Occasionally check to see if the time to run this chunk has expired.
         if ((currentLine % 10 == 0) && workQueue.isTimeSliceExpired()) {
@@ -672,20 +664,11 @@ public class JavaScriptProfileModelV8Impl extends JavaScriptProfileModelImpl {
         }
       }
 
-      String logLine = logLines.get(currentLine);
-      if (logDecompressor != null && logLine.length() > 0) {
-        logLine = logDecompressor.decompressLogEntry(logLine);
-      }
-      JsArrayString decompressedLogLine = Csv.split(logLine);
-      if (decompressedLogLine.length() > 0) {
-        parseLogEntry(decompressedLogLine);
-      }
-
-      // force gc on processed log lines.
-      logLines.set(currentLine, null);
+      logLines.nextLine(logDecompressor);
+      parseLogEntry(logLines);
     }
 
-    if (currentLine < logLinesLength) {
+    if (logLines.hasNextLine()) {
       // Schedule this record to be the next thing run off the queue
       workQueue.prepend(new LogLineWorker(logLines, refRecord, currentLine));
     } else {
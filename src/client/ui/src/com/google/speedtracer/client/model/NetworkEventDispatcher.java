@@ -30,6 +30,12 @@ import java.util.List;
 /**
  * Native dispatcher which sources Network Events for the UI. Hooks into
  * underlying DataInstance.
+ * 
+ * By default every resource is kept until {@link #clearData()}, since the
+ * views can look up any resource in the trace. A dispatcher created with a
+ * limit on completed resources evicts the oldest of them once the limit is
+ * passed, and does not keep the list of network events. That suits consumers
+ * that only look resources up while they are being loaded.
  */
 public class NetworkEventDispatcher implements DataDispatcherDelegate {
 
@@ -107,8 +113,16 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
     });
   }
 
+  // Completed resources, oldest first, starting at completedHead. Only kept
+  // when the number of completed resources is limited.
+  private JSOArray<NetworkResource> completedResources = JSOArray.create();
+
+  private int completedHead = 0;
+
   private final List<Listener> listeners = new ArrayList<Listener>();
 
+  private final int maxCompletedResources;
+
   private final List<ResourceRecord> networkEvents = new ArrayList<ResourceRecord>();
 
   private JsStringMap<JSOArray<NetworkResource>> redirects = JsStringMap.create();
@@ -117,11 +131,20 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
    * Map of NetworkResource POJOs. Information about a network resource is
    * filled in progressively as we get chunks of information about it.
    */
-  private final JsStringMap<NetworkResource> resourceStore = JsStringMap.create();
+  private JsStringMap<NetworkResource> resourceStore = JsStringMap.create();
 
   private final JsIntegerMap<EventRecordDispatcher> typeMap = JsIntegerMap.create();
 
   public NetworkEventDispatcher() {
+    this(-1);
+  }
+
+  /**
+   * @param maxCompletedResources how many completed resources to keep, or -1
+   *          to keep them all
+   */
+  public NetworkEventDispatcher(int maxCompletedResources) {
+    this.maxCompletedResources = maxCompletedResources;
     setNetworkEventCallbacks(this, typeMap);
   }
 
@@ -131,9 +154,25 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
 
   public void clearData() {
     redirects = JsStringMap.create();
+    resourceStore = JsStringMap.create();
+    completedResources = JSOArray.create();
+    completedHead = 0;
     networkEvents.clear();
   }
 
+  /**
+   * Returns a rough estimate of the memory held by the stored resources. This
+   * walks every resource, so is meant for debug reporting only.
+   */
+  public int getApproximateResourceBytes() {
+    JSOArray<NetworkResource> resources = resourceStore.getValues();
+    int bytes = 0;
+    for (int i = 0, n = resources.size(); i < n; i++) {
+      bytes += resources.get(i).getApproximateSize();
+    }
+    return bytes;
+  }
+
   public List<ResourceRecord> getNetworkEvents() {
     return networkEvents;
   }
@@ -156,10 +195,39 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
     }
   }
 
+  /**
+   * Returns the number of stored resources, for debug reporting.
+   */
+  public int getResourceCount() {
+    return resourceStore.getKeys().length();
+  }
+
   public void removeListener(Listener listener) {
     listeners.remove(listener);
   }
 
+  /**
+   * Drops the oldest completed resources once there are more than
+   * {@link #maxCompletedResources} of them.
+   */
+  private void evictCompletedResources() {
+    int size = completedResources.size();
+    while (size - completedHead > maxCompletedResources) {
+      NetworkResource resource = completedResources.get(completedHead);
+      completedResources.set(completedHead++, null);
+      String identifier = resource.getIdentifier();
+      // A redirect may have reused the identifier for a newer resource.
+      if (resourceStore.get(identifier) == resource) {
+        resourceStore.erase(identifier);
+        redirects.erase(identifier);
+      }
+    }
+    if (completedHead > maxCompletedResources) {
+      completedResources.splice(0, completedHead);
+      completedHead = 0;
+    }
+  }
+
   /**
    * @param identifier Resource ID
    * @param url The redirect URL that we are using to match a redirect
@@ -234,19 +302,25 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
   }
 
   private void onNetworkResourceFinished(ResourceFinishEvent resourceFinish) {
-    networkEvents.add(resourceFinish);
+    recordNetworkEvent(resourceFinish);
     NetworkResource resource = getResource(resourceFinish.getRequestId());
     if (resource != null) {
+      // Both the timeline and the network agent report the finish.
+      boolean wasFinished = !Double.isNaN(resource.getEndTime());
       resource.update(resourceFinish);
       for (int i = 0, n = listeners.size(); i < n; i++) {
         Listener listener = listeners.get(i);
         listener.onNetworkResourceResponseFinished(resource);
       }
+      if (maxCompletedResources >= 0 && !wasFinished) {
+        completedResources.push(resource);
+        evictCompletedResources();
+      }
     }
   }
 
   private void onNetworkResourceResponse(ResourceResponseEvent resourceResponse) {
-    networkEvents.add(resourceResponse);
+    recordNetworkEvent(resourceResponse);
     NetworkResource resource = getResource(resourceResponse.getRequestId());
     if (resource != null) {
       resource.update(resourceResponse);
@@ -258,7 +332,7 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
   }
 
   private void onNetworkResourceStarted(ResourceWillSendEvent resourceStart) {
-    networkEvents.add(resourceStart);
+    recordNetworkEvent(resourceStart);
     // Check for dupe IDs. If we find one, assume it is a redirect.
     NetworkResource previousResource = getResource(resourceStart.getRequestId());
     boolean isRedirect = false;
@@ -299,6 +373,12 @@ public class NetworkEventDispatcher implements DataDispatcherDelegate {
     }
   }
 
+  private void recordNetworkEvent(ResourceRecord record) {
+    if (maxCompletedResources < 0) {
+      networkEvents.add(record);
+    }
+  }
+
   private void redirectUpdated(NetworkResource redirectCandidate) {
     for (int i = 0, n = listeners.size(); i < n; i++) {
       Listener listener = listeners.get(i);
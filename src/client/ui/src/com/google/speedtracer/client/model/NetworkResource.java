@@ -44,6 +44,18 @@ public class NetworkResource {
       return this[key];
     }-*/;
 
+    /**
+     * Returns a rough estimate of the bytes held by the header names and
+     * values, at two bytes per character.
+     */
+    public final native int getApproximateSize() /*-{
+      var size = 0;
+      for (var key in this) {
+        size += key.length + String(this[key]).length;
+      }
+      return 2 * size;
+    }-*/;
+
     public final native void iterate(IterationCallBack cb) /*-{
       for (var key in this) {
       cb.@com.google.speedtracer.client.model.NetworkResource.HeaderMap.IterationCallBack::onIteration(Ljava/lang/String;Ljava/lang/String;)(key,this[key]);
@@ -55,8 +67,18 @@ public class NetworkResource {
     }-*/;
   }
 
+  /**
+   * A rough estimate of the bytes taken by the fields of a resource and the
+   * events it keeps.
+   */
+  private static final int APPROXIMATE_RESOURCE_SIZE = 512;
+
   private static final String SERVER_TRACE_HEADER_NAME = "X-TraceUrl";
 
+  private static int getApproximateSize(String value) {
+    return value == null ? 0 : 2 * value.length();
+  }
+
   public static boolean isRedirect(int statusCode) {
     return statusCode == 302 || statusCode == 301;
   }
@@ -164,6 +186,22 @@ public class NetworkResource {
     }
   }
 
+  /**
+   * Returns a rough estimate of the memory held by this resource, for debug
+   * reporting.
+   */
+  public int getApproximateSize() {
+    int size = APPROXIMATE_RESOURCE_SIZE + getApproximateSize(url)
+        + getApproximateSize(mimeType) + getApproximateSize(statusText);
+    if (requestHeaders != null) {
+      size += requestHeaders.getApproximateSize();
+    }
+    if (responseHeaders != null) {
+      size += responseHeaders.getApproximateSize();
+    }
+    return size;
+  }
+
   public double getConnectDuration() {
     return connectDuration;
   }
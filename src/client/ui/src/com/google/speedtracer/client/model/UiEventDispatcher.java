@@ -110,6 +110,8 @@ public class UiEventDispatcher implements DataDispatcherDelegate {
 
   private final List<UiEvent> eventList = new ArrayList<UiEvent>();
 
+  private final UiEventIndex eventIndex = new UiEventIndex(eventList);
+
   private final List<LoadEventListener> loadEventListeners = new ArrayList<LoadEventListener>();
 
   private final JsIntegerMap<EventRecordDispatcher> specialCasedTypeMap = JsIntegerMap.create();
@@ -134,6 +136,15 @@ public class UiEventDispatcher implements DataDispatcherDelegate {
 
   public void clearData() {
     eventList.clear();
+    eventIndex.clear();
+  }
+
+  /**
+   * Gets the index over the aggregate times of the events in
+   * {@link #getEventList()}.
+   */
+  public UiEventIndex getEventIndex() {
+    return eventIndex;
   }
 
   public List<UiEvent> getEventList() {
@@ -185,6 +196,7 @@ public class UiEventDispatcher implements DataDispatcherDelegate {
     
     // Keep a copy of the event.
     eventList.add(event);
+    eventIndex.add(event);
 
     for (int i = 0, n = uiEventListeners.size(); i < n; i++) {
       UiEventListener listener = uiEventListeners.get(i);
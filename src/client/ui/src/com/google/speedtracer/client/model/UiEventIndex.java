@@ -0,0 +1,279 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import com.google.gwt.core.client.JsArrayInteger;
+import com.google.gwt.core.client.JsArrayNumber;
+import com.google.gwt.coreext.client.JsIntegerDoubleMap;
+import com.google.gwt.coreext.client.JsIntegerMap;
+
+import java.util.List;
+
+/**
+ * Index over the top level {@link UiEvent}s kept by the
+ * {@link UiEventDispatcher}, maintained as events arrive.
+ * 
+ * It keeps running totals of event durations and of the self time spent in
+ * each event type. The totals over any contiguous range of events are then the
+ * difference of two prefix sums, rather than a walk over every event tree in
+ * the range. It also remembers which events have hints attached.
+ * 
+ * Events are sorted by start time but not by end time. A segment tree over the
+ * end times answers which events still run at a given time without walking
+ * back through the list.
+ * 
+ * Ranges are given as positions in the event list, with the first position
+ * inclusive and the last exclusive.
+ */
+public class UiEventIndex {
+  /**
+   * Running self time totals for a single event type. Only the positions of
+   * events that contain the type are recorded.
+   */
+  private static class TypeSums {
+    private final JsArrayInteger positions = JsArrayInteger.createArray().cast();
+
+    private final JsArrayNumber sums = JsArrayNumber.createArray().cast();
+
+    /**
+     * Returns the total self time of the type in the events before
+     * <code>position</code>.
+     */
+    double getSumBefore(int position) {
+      int index = lowerBound(positions, position);
+      return index == 0 ? 0 : sums.get(index - 1);
+    }
+
+    void add(int position, double selfTime) {
+      int length = sums.length();
+      sums.push(length == 0 ? selfTime : sums.get(length - 1) + selfTime);
+      positions.push(position);
+    }
+  }
+
+  private static final int INITIAL_TREE_CAPACITY = 1024;
+
+  private static JsArrayNumber createTree(int capacity) {
+    JsArrayNumber tree = JsArrayNumber.createArray().cast();
+    for (int i = 0, n = 2 * capacity; i < n; i++) {
+      tree.push(Double.POSITIVE_INFINITY);
+    }
+    return tree;
+  }
+
+  /**
+   * Returns the index of the first element of a sorted array that is not less
+   * than the key.
+   */
+  private static int lowerBound(JsArrayInteger array, int key) {
+    int low = 0;
+    int high = array.length();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (array.get(mid) < key) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // durationSums[i] is the total duration of the events before position i.
+  private final JsArrayNumber durationSums = JsArrayNumber.createArray().cast();
+
+  private final List<UiEvent> eventList;
+
+  // Sorted positions of the events that have hints.
+  private final JsArrayInteger hintedPositions = JsArrayInteger.createArray().cast();
+
+  // Segment tree of the minimum end time under each node. Node 1 is the root,
+  // the children of node i are 2i and 2i + 1, and the leaves start at
+  // treeCapacity. Unused leaves hold +Infinity.
+  private JsArrayNumber minEndTimes = createTree(INITIAL_TREE_CAPACITY);
+
+  private int treeCapacity = INITIAL_TREE_CAPACITY;
+
+  private JsIntegerMap<TypeSums> typeSums = JsIntegerMap.create();
+
+  UiEventIndex(List<UiEvent> eventList) {
+    this.eventList = eventList;
+    durationSums.push(0);
+  }
+
+  /**
+   * Sums the self time of each event type in a range of events into
+   * <code>out</code>.
+   */
+  public void addTypeDurations(final int first, final int last,
+      final JsIntegerDoubleMap out) {
+    if (first >= last) {
+      return;
+    }
+    typeSums.iterate(new JsIntegerMap.IterationCallBack<TypeSums>() {
+      public void onIteration(int key, TypeSums val) {
+        double duration = val.getSumBefore(last) - val.getSumBefore(first);
+        if (duration != 0) {
+          out.put(key, out.hasKey(key) ? out.get(key) + duration : duration);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the position of the last event before <code>end</code> that ends
+   * at or before <code>time</code>, or -1 if there is none. Every event after
+   * that one, up to <code>end</code>, is still running at <code>time</code>.
+   */
+  public int findLastEndedBy(int end, double time) {
+    return findLastEndedBy(1, 0, treeCapacity, end, time);
+  }
+
+  /**
+   * Returns the total duration of a range of events.
+   */
+  public double getDuration(int first, int last) {
+    return first >= last ? 0 : durationSums.get(last)
+        - durationSums.get(first);
+  }
+
+  /**
+   * Adds the events in a range that have hints to <code>out</code>, in order of
+   * position.
+   */
+  public void getHintedEvents(int first, int last, List<UiEvent> out) {
+    final int n = hintedPositions.length();
+    for (int i = lowerBound(hintedPositions, first); i < n; ++i) {
+      int position = hintedPositions.get(i);
+      if (position >= last) {
+        break;
+      }
+      out.add(eventList.get(position));
+    }
+  }
+
+  /**
+   * Records the next event appended to the event list.
+   */
+  void add(UiEvent event) {
+    final int position = durationSums.length() - 1;
+    assert (eventList.get(position) == event) : "Events must be added in order";
+
+    AggregateTimeVisitor.apply(event);
+    durationSums.push(durationSums.get(position) + event.getDuration());
+    setEndTime(position, event.getEndTime());
+    event.getTypeDurations().iterate(new JsIntegerDoubleMap.IterationCallBack() {
+      public void onIteration(int key, double val) {
+        TypeSums sums = typeSums.get(key);
+        if (sums == null) {
+          sums = new TypeSums();
+          typeSums.put(key, sums);
+        }
+        sums.add(position, val);
+      }
+    });
+
+    if (event.hasHintRecords()) {
+      addHintedPosition(position);
+    }
+  }
+
+  void clear() {
+    durationSums.setLength(1);
+    hintedPositions.setLength(0);
+    typeSums = JsIntegerMap.create();
+    minEndTimes = createTree(INITIAL_TREE_CAPACITY);
+    treeCapacity = INITIAL_TREE_CAPACITY;
+  }
+
+  /**
+   * Called when a hint is attached to a record after it was dispatched. Records
+   * that are not top level UiEvents are ignored.
+   */
+  void onHintAdded(EventRecord record) {
+    // Records are sorted by time, but several may share a time stamp.
+    int position = EventRecord.getIndexOfRecord(eventList, record);
+    for (int i = position; i >= 0 && i < eventList.size()
+        && eventList.get(i).getTime() == record.getTime(); --i) {
+      if (eventList.get(i) == record) {
+        addHintedPosition(i);
+        return;
+      }
+    }
+    for (int i = position + 1, n = eventList.size(); i < n
+        && eventList.get(i).getTime() == record.getTime(); ++i) {
+      if (eventList.get(i) == record) {
+        addHintedPosition(i);
+        return;
+      }
+    }
+  }
+
+  private int findLastEndedBy(int node, int nodeStart, int nodeEnd, int end,
+      double time) {
+    if (nodeStart >= end || minEndTimes.get(node) > time) {
+      return -1;
+    }
+    if (node >= treeCapacity) {
+      return nodeStart;
+    }
+    // Prefer the right half, since we want the last matching event.
+    int mid = (nodeStart + nodeEnd) >>> 1;
+    int result = findLastEndedBy(2 * node + 1, mid, nodeEnd, end, time);
+    return result >= 0 ? result : findLastEndedBy(2 * node, nodeStart, mid,
+        end, time);
+  }
+
+  private void setEndTime(int position, double endTime) {
+    if (position >= treeCapacity) {
+      // Double the capacity and rebuild the internal nodes.
+      JsArrayNumber leaves = minEndTimes;
+      int oldCapacity = treeCapacity;
+      treeCapacity *= 2;
+      minEndTimes = createTree(treeCapacity);
+      for (int i = 0; i < oldCapacity; i++) {
+        minEndTimes.set(treeCapacity + i, leaves.get(oldCapacity + i));
+      }
+      for (int node = treeCapacity - 1; node > 0; node--) {
+        updateMinEndTime(node);
+      }
+    }
+
+    int node = treeCapacity + position;
+    minEndTimes.set(node, endTime);
+    for (node >>>= 1; node > 0; node >>>= 1) {
+      updateMinEndTime(node);
+    }
+  }
+
+  private void addHintedPosition(int position) {
+    int index = lowerBound(hintedPositions, position);
+    int length = hintedPositions.length();
+    if (index < length && hintedPositions.get(index) == position) {
+      return;
+    }
+    // Hints usually arrive for recent events, so this rarely shifts much.
+    for (int i = length; i > index; --i) {
+      hintedPositions.set(i, hintedPositions.get(i - 1));
+    }
+    hintedPositions.set(index, position);
+  }
+
+  private void updateMinEndTime(int node) {
+    minEndTimes.set(node, Math.min(minEndTimes.get(2 * node),
+        minEndTimes.get(2 * node + 1)));
+  }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps ranges of code addresses to values, for resolving the program counters
+ * in V8 profiler ticks.
+ * 
+ * Ranges are kept sorted by start address in parallel primitive arrays and
+ * found with a binary search. A range matches any address from its start up to
+ * and including its end. Adding a range evicts every range it overlaps.
+ * 
+ * Profiler logs create, move and delete code in bursts between ticks, so
+ * changes are batched. Deleted ranges are left as empty slots until enough of
+ * them pile up, and new ranges wait in a small pending list that is merged
+ * into the sorted arrays on the next lookup.
+ * 
+ * @param <T> the type of value stored for each range
+ */
+class V8CodeMap<T> {
+  // Must be a power of 2.
+  private static final int CACHE_SIZE = 8;
+
+  private static final int INITIAL_CAPACITY = 256;
+
+  private static final int MAX_PENDING = 64;
+
+  private static int[] createCache() {
+    int[] cache = new int[CACHE_SIZE];
+    Arrays.fill(cache, -1);
+    return cache;
+  }
+
+  private static boolean overlaps(double start, double end, double otherStart,
+      double otherEnd) {
+    return start == otherStart || (start < otherEnd && otherStart < end);
+  }
+
+  private int deletedCount = 0;
+
+  private double[] ends = new double[INITIAL_CAPACITY];
+
+  private int evictionCount = 0;
+
+  // Indexes of the ranges found by the last few lookups, or -1. Successive
+  // ticks tend to have much the same stack, so they hit the same code.
+  private final int[] hitCache = createCache();
+
+  private int nextCacheSlot = 0;
+
+  private final double[] pendingEnds = new double[MAX_PENDING];
+
+  // Bounds of all pending ranges, to skip scanning them when they cannot
+  // overlap.
+  private double pendingMax;
+
+  private double pendingMin;
+
+  private int pendingSize = 0;
+
+  // True while each pending range starts past the end of the one before it,
+  // which is how fresh code is allocated.
+  private boolean pendingSorted;
+
+  private final double[] pendingStarts = new double[MAX_PENDING];
+
+  private final Object[] pendingValues = new Object[MAX_PENDING];
+
+  private int size = 0;
+
+  private double[] starts = new double[INITIAL_CAPACITY];
+
+  // Deleted and evicted slots hold null.
+  private Object[] values = new Object[INITIAL_CAPACITY];
+
+  /**
+   * Adds a range of code. Any ranges it overlaps are evicted.
+   */
+  public void add(double address, int length, T value) {
+    if (pendingSize == MAX_PENDING) {
+      flush();
+    }
+    double end = address + length;
+    if (pendingSize == 0) {
+      pendingMin = address;
+      pendingMax = end;
+      pendingSorted = true;
+    } else {
+      pendingSorted = pendingSorted && address >= pendingMax
+          && address > pendingStarts[pendingSize - 1];
+      pendingMin = Math.min(pendingMin, address);
+      pendingMax = Math.max(pendingMax, end);
+    }
+    pendingStarts[pendingSize] = address;
+    pendingEnds[pendingSize] = end;
+    pendingValues[pendingSize] = value;
+    ++pendingSize;
+  }
+
+  /**
+   * Returns the number of ranges evicted because a later range overlapped
+   * them.
+   */
+  public int getEvictionCount() {
+    flush();
+    return evictionCount;
+  }
+
+  /**
+   * Returns the values of all ranges, in order of address.
+   */
+  public List<T> getValues() {
+    flush();
+    List<T> result = new ArrayList<T>(size - deletedCount);
+    for (int i = 0; i < size; ++i) {
+      if (values[i] != null) {
+        result.add(this.<T> cast(values[i]));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the value of the range containing the address, or
+   * <code>null</code> if there is none.
+   */
+  public T lookup(double address) {
+    flush();
+    for (int i = 0; i < CACHE_SIZE; ++i) {
+      int cached = hitCache[i];
+      // The end of a range may also be the start of the next one, so only hit
+      // the cache strictly inside the range.
+      if (cached >= 0 && values[cached] != null && starts[cached] <= address
+          && address < ends[cached]) {
+        return this.<T> cast(values[cached]);
+      }
+    }
+    int index = findRange(address);
+    if (index < 0) {
+      return null;
+    }
+    hitCache[nextCacheSlot] = index;
+    nextCacheSlot = (nextCacheSlot + 1) & (CACHE_SIZE - 1);
+    return this.<T> cast(values[index]);
+  }
+
+  /**
+   * Removes the range containing the address.
+   * 
+   * @return the value of the removed range, or <code>null</code> if no range
+   *         contains the address.
+   */
+  public T remove(double address) {
+    // Pending ranges are newer than everything in the sorted arrays, and later
+    // pending ranges are newer than earlier ones. A range overlapped by a newer
+    // one is already gone.
+    int pending = -1;
+    int pendingCount = address < pendingMin || address > pendingMax ? 0
+        : pendingSize;
+    for (int i = 0; i < pendingCount; ++i) {
+      if (pendingValues[i] != null && pendingStarts[i] <= address
+          && address <= pendingEnds[i]
+          && (pending < 0 || pendingStarts[i] > pendingStarts[pending])
+          && !isEvictedByPending(i + 1, pendingStarts[i], pendingEnds[i])) {
+        pending = i;
+      }
+    }
+    int index = findLastStartedBy(address);
+    for (; index >= 0; --index) {
+      if (values[index] == null) {
+        continue;
+      }
+      if (ends[index] < address) {
+        index = -1;
+        break;
+      }
+      if (!isEvictedByPending(0, starts[index], ends[index])) {
+        break;
+      }
+    }
+
+    if (index >= 0
+        && (pending < 0 || starts[index] > pendingStarts[pending])) {
+      T value = this.<T> cast(values[index]);
+      values[index] = null;
+      ++deletedCount;
+      if (deletedCount * 2 > size) {
+        compact();
+      }
+      return value;
+    }
+    if (pending >= 0) {
+      // The range stays pending without a value, since it still evicts the
+      // ranges it overlapped when it was added.
+      T value = this.<T> cast(pendingValues[pending]);
+      pendingValues[pending] = null;
+      return value;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the number of ranges in the map.
+   */
+  public int size() {
+    flush();
+    return size - deletedCount;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <V> V cast(Object value) {
+    return (V) value;
+  }
+
+  /**
+   * Squeezes the empty slots out of the sorted arrays.
+   */
+  private void compact() {
+    int live = 0;
+    for (int i = 0; i < size; ++i) {
+      if (values[i] != null) {
+        starts[live] = starts[i];
+        ends[live] = ends[i];
+        values[live] = values[i];
+        ++live;
+      }
+    }
+    for (int i = live; i < size; ++i) {
+      values[i] = null;
+    }
+    size = live;
+    deletedCount = 0;
+    Arrays.fill(hitCache, -1);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= starts.length) {
+      return;
+    }
+    int newCapacity = Math.max(capacity, starts.length * 2);
+    double[] newStarts = new double[newCapacity];
+    double[] newEnds = new double[newCapacity];
+    Object[] newValues = new Object[newCapacity];
+    System.arraycopy(starts, 0, newStarts, 0, size);
+    System.arraycopy(ends, 0, newEnds, 0, size);
+    System.arraycopy(values, 0, newValues, 0, size);
+    starts = newStarts;
+    ends = newEnds;
+    values = newValues;
+  }
+
+  /**
+   * Returns the index of the last slot whose range starts at or before the
+   * address, or -1.
+   */
+  private int findLastStartedBy(double address) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] <= address) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low - 1;
+  }
+
+  /**
+   * Returns the index of the live range in the sorted arrays that contains the
+   * address, or -1.
+   */
+  private int findRange(double address) {
+    int index = findLastStartedBy(address);
+    // Live ranges do not overlap, so only the nearest live one can match.
+    while (index >= 0 && values[index] == null) {
+      --index;
+    }
+    return index >= 0 && address <= ends[index] ? index : -1;
+  }
+
+  /**
+   * Merges the pending ranges into the sorted arrays.
+   */
+  private void flush() {
+    if (pendingSize == 0) {
+      return;
+    }
+
+    // A range is evicted by any range added after it that overlaps it, even
+    // one that is itself evicted later.
+    int survivors = 0;
+    for (int i = 0; i < pendingSize; ++i) {
+      double start = pendingStarts[i];
+      double end = pendingEnds[i];
+      Object value = pendingValues[i];
+      // Only the nearest live range starting before this one can reach into
+      // it. Empty slots may hold ranges that did overlap it.
+      int first = findLastStartedBy(start);
+      while (first > 0 && values[first] == null) {
+        --first;
+      }
+      first = Math.max(first, 0);
+      for (int j = first; j < size && (starts[j] < end || starts[j] == start);
+          ++j) {
+        if (values[j] != null && overlaps(start, end, starts[j], ends[j])) {
+          values[j] = null;
+          ++deletedCount;
+          ++evictionCount;
+        }
+      }
+      if (value == null) {
+        // Removed while pending.
+        continue;
+      }
+      if (!pendingSorted && isEvictedByPending(i + 1, start, end)) {
+        ++evictionCount;
+        continue;
+      }
+      // Insertion sort the survivors by start address. There are only a few.
+      int k = survivors++;
+      for (; k > 0 && pendingStarts[k - 1] > start; --k) {
+        pendingStarts[k] = pendingStarts[k - 1];
+        pendingEnds[k] = pendingEnds[k - 1];
+        pendingValues[k] = pendingValues[k - 1];
+      }
+      pendingStarts[k] = start;
+      pendingEnds[k] = end;
+      pendingValues[k] = value;
+    }
+    for (int i = survivors; i < pendingSize; ++i) {
+      pendingValues[i] = null;
+    }
+    pendingSize = 0;
+
+    // Merge from the back, so nothing is overwritten before it is read.
+    ensureCapacity(size + survivors);
+    int read = size - 1;
+    int write = size + survivors - 1;
+    for (int k = survivors - 1; k >= 0; --write) {
+      if (read >= 0 && starts[read] > pendingStarts[k]) {
+        starts[write] = starts[read];
+        ends[write] = ends[read];
+        values[write] = values[read];
+        --read;
+      } else {
+        starts[write] = pendingStarts[k];
+        ends[write] = pendingEnds[k];
+        values[write] = pendingValues[k];
+        pendingValues[k] = null;
+        --k;
+      }
+    }
+    size += survivors;
+    Arrays.fill(hitCache, -1);
+
+    if (deletedCount * 2 > size) {
+      compact();
+    }
+  }
+
+  /**
+   * Returns true if a pending range at or after <code>first</code> overlaps
+   * the range.
+   */
+  private boolean isEvictedByPending(int first, double start, double end) {
+    if (first >= pendingSize || end < pendingMin || start > pendingMax) {
+      return false;
+    }
+    for (int i = first; i < pendingSize; ++i) {
+      if (overlaps(start, end, pendingStarts[i], pendingEnds[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -15,100 +15,74 @@
  */
 package com.google.speedtracer.client.model;
 
-import com.google.gwt.core.client.JsArrayString;
-import com.google.speedtracer.client.util.Csv;
-
 /**
  * Uses a window of the previous 'n' log entries to use in decompressing the v8
  * log when compression is enabled.
+ * 
+ * Entries are kept as ranges of the strings they were read from, so that
+ * {@link V8LogTokenizer} can refer back to them without copying.
  */
 public class V8LogDecompressor {
-  private String window[];
+  private final int[] windowEnds;
+  private final String[] windowSources;
+  private final int[] windowStarts;
   private int windowSize;
   private int lastWindow;
 
   public V8LogDecompressor(int windowSize) {
     this.windowSize = windowSize;
-    window = new String[windowSize];
+    windowSources = new String[windowSize];
+    windowStarts = new int[windowSize];
+    windowEnds = new int[windowSize];
   }
 
+  /**
+   * Decompresses a single log line, and adds it to the window.
+   * 
+   * Compression will cause some lines to have # references in them.
+   * 
+   * Formatting string for back references to the whole line. E.g. "#2" means
+   * "the second line above".
+   * 
+   * Formatting string for back references. E.g. "#2:10" means "the second line
+   * above, start from char 10 (0-based)".
+   */
   public String decompressLogEntry(String logLine) {
-    String decompressedLogEntry = logLine;
-
-    if (windowSize > 0) {
-
-      /**
-       * Compression will cause some lines to have # references in them.
-       * 
-       * Formatting string for back references to the whole line. E.g. "#2"
-       * means "the second line above".
-       * 
-       * Formatting string for back references. E.g. "#2:10" means
-       * "the second line above, start from char 10 (0-based)".
-       */
-
-      int compressionStart = logLine.indexOf('#');
+    V8LogTokenizer tokenizer = new V8LogTokenizer(logLine);
+    tokenizer.nextLine(this);
+    return tokenizer.getLine();
+  }
 
-      /**
-       * logLine.indexOf('#') is too simple - it is tricked by # chars inside of
-       * quoted strings. This follows the example of devtools, where they use
-       * the knowledge that only RegExp entries have an embedded #, and those
-       * lines always end with a quote character.
-       */
-      if (compressionStart != -1 && !logLine.endsWith("\"")) {
-        String compressionString = logLine.substring(compressionStart + 1);
-        int colonStart = compressionString.indexOf(':');
-        int lineOffset = 0;
-        int charOffset = 0;
-        if (colonStart < 0) {
-          lineOffset = Integer.parseInt(compressionString);
-        } else {
-          lineOffset = Integer.parseInt(compressionString.substring(0,
-              colonStart));
-          charOffset = Integer.parseInt(compressionString.substring(colonStart + 1));
-        }
-        assert charOffset >= 0;
-        decompressedLogEntry = logLine.substring(0, compressionStart)
-            + fetchLogBackref(lineOffset, charOffset);
-      }
-    }
-    JsArrayString logEntry = Csv.split(decompressedLogEntry);
-    if (logEntry.length() == 0) {
+  /**
+   * Adds the entry found between <code>start</code> and <code>end</code> of
+   * <code>source</code> to the window.
+   */
+  void append(String source, int start, int end) {
+    lastWindow = ++lastWindow % windowSize;
+    windowSources[lastWindow] = source;
+    windowStarts[lastWindow] = start;
+    windowEnds[lastWindow] = end;
+  }
 
-    } else {
-      String command = logEntry.get(0);
-      if (command.equals("profiler")) {
-        // ignore
-      } else if (command.equals("repeat") || command.equals("r")) {
-        // skip the first 2 fields.
-        int firstCommaOffset = decompressedLogEntry.indexOf(",");
-        int secondCommaOffset = decompressedLogEntry.indexOf(",",
-            firstCommaOffset + 1);
-        appendLogEntry(decompressedLogEntry.substring(secondCommaOffset + 1));
-      } else {
-        appendLogEntry(decompressedLogEntry);
-      }
-    }
-    return decompressedLogEntry;
+  int getEnd(int lineOffset) {
+    return windowEnds[getWindowIndex(lineOffset)];
   }
 
-  private void appendLogEntry(String logEntry) {
-    lastWindow = ++lastWindow % windowSize;
-    window[lastWindow] = logEntry;
+  String getSource(int lineOffset) {
+    return windowSources[getWindowIndex(lineOffset)];
   }
 
-  private String fetchLogBackref(int lineOffset, int charOffset) {
-    assert charOffset >= 0;
-    assert lineOffset >= 0;
-    return this.getWindowBackref(lineOffset).substring(charOffset);
+  int getStart(int lineOffset) {
+    return windowStarts[getWindowIndex(lineOffset)];
   }
 
-  private String getWindowBackref(int index) {
+  private int getWindowIndex(int index) {
+    assert index >= 0;
     int arrayIndex = (lastWindow - (index - 1)) % windowSize;
     if (arrayIndex < 0) {
       arrayIndex = windowSize + arrayIndex;
     }
-    assert (arrayIndex >= 0 && arrayIndex < window.length);
-    return window[arrayIndex];
+    assert (arrayIndex >= 0 && arrayIndex < windowSources.length);
+    return arrayIndex;
   }
 }
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+/**
+ * Reads the lines of a V8 profiler log one at a time and splits each into
+ * comma separated fields. Fields are kept as offsets into the log rather than
+ * copied out, so numbers and addresses are parsed where they sit and only the
+ * fields read as strings are ever extracted.
+ * 
+ * When the log is compressed, a line may end in a back reference to an earlier
+ * line (see {@link V8LogDecompressor}). A line that is only a back reference
+ * is read in place from the earlier line. Otherwise the line is joined once
+ * with the text it refers to.
+ */
+class V8LogTokenizer {
+  private static final int INITIAL_FIELD_CAPACITY = 16;
+
+  /**
+   * Parses the digits of a number in the given radix, with an optional leading
+   * minus sign.
+   * 
+   * @throws NumberFormatException if a character is not a digit
+   */
+  static double parseNumber(String source, int start, int end, int radix) {
+    boolean negative = start < end && source.charAt(start) == '-';
+    int index = negative ? start + 1 : start;
+    if (index >= end) {
+      throw new NumberFormatException(source.substring(start, end));
+    }
+    double value = 0;
+    for (; index < end; ++index) {
+      int digit = Character.digit(source.charAt(index), radix);
+      if (digit < 0) {
+        throw new NumberFormatException(source.substring(start, end));
+      }
+      value = value * radix + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private int fieldCount;
+
+  private int[] fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+
+  private int[] fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+
+  // Callers see the fields from firstField on.
+  private int firstField;
+
+  // The source, start and end of the current line.
+  private String line;
+
+  private int lineEnd;
+
+  private int lineStart;
+
+  private final String log;
+
+  // Where the next line starts in the log.
+  private int position = 0;
+
+  V8LogTokenizer(String log) {
+    this.log = log;
+  }
+
+  /**
+   * Returns true if the field, without any quotes, equals the value.
+   */
+  boolean fieldEquals(int field, String value) {
+    int start = fieldStarts[firstField + field];
+    int end = fieldEnds[firstField + field];
+    int quote = line.indexOf('"', start);
+    if (quote >= 0 && quote < end) {
+      if (!isQuoted(start, end)) {
+        return get(field).equals(value);
+      }
+      ++start;
+      --end;
+    }
+    return end - start == value.length()
+        && line.regionMatches(start, value, 0, value.length());
+  }
+
+  /**
+   * Returns the field as a string, with quotes removed as {@link
+   * com.google.speedtracer.client.util.Csv#split(String)} would.
+   */
+  String get(int field) {
+    int start = fieldStarts[firstField + field];
+    int end = fieldEnds[firstField + field];
+    int quote = line.indexOf('"', start);
+    if (quote < 0 || quote >= end) {
+      return line.substring(start, end);
+    }
+    if (isQuoted(start, end)) {
+      return line.substring(start + 1, end - 1);
+    }
+    return unquote(start, end);
+  }
+
+  /**
+   * Returns the offset one past the last character of the field in
+   * {@link #getSource()}.
+   */
+  int getEnd(int field) {
+    return fieldEnds[firstField + field];
+  }
+
+  int getFieldCount() {
+    return fieldCount - firstField;
+  }
+
+  /**
+   * Parses the field as a decimal integer.
+   */
+  int getInt(int field) {
+    return (int) parseNumber(line, fieldStarts[firstField + field],
+        fieldEnds[firstField + field], 10);
+  }
+
+  /**
+   * Returns a copy of the current line, after decompression.
+   */
+  String getLine() {
+    return line.substring(lineStart, lineEnd);
+  }
+
+  /**
+   * Returns the string that the offsets of the fields on the current line
+   * refer to.
+   */
+  String getSource() {
+    return line;
+  }
+
+  /**
+   * Returns the offset of the first character of the field in
+   * {@link #getSource()}.
+   */
+  int getStart(int field) {
+    return fieldStarts[firstField + field];
+  }
+
+  boolean hasNextLine() {
+    return position < log.length();
+  }
+
+  /**
+   * Reads the next line and splits it into fields.
+   * 
+   * @param decompressor the window of earlier lines, or <code>null</code> if
+   *          the log is not compressed.
+   */
+  void nextLine(V8LogDecompressor decompressor) {
+    int end = log.indexOf('\n', position);
+    if (end < 0) {
+      end = log.length();
+    }
+    line = log;
+    lineStart = position;
+    lineEnd = end;
+    position = end + 1;
+
+    if (decompressor == null || lineStart == lineEnd) {
+      split();
+      return;
+    }
+
+    // Only RegExp entries have an embedded #, and those lines always end with a
+    // quote character.
+    int hash = lineStart;
+    while (hash < lineEnd && log.charAt(hash) != '#') {
+      ++hash;
+    }
+    if (hash < lineEnd && log.charAt(lineEnd - 1) != '"') {
+      int colon = hash + 1;
+      while (colon < lineEnd && log.charAt(colon) != ':') {
+        ++colon;
+      }
+      int lineOffset = (int) parseNumber(log, hash + 1, colon, 10);
+      int charOffset = colon < lineEnd ? (int) parseNumber(log, colon + 1,
+          lineEnd, 10) : 0;
+      assert charOffset >= 0;
+      String refSource = decompressor.getSource(lineOffset);
+      int refStart = decompressor.getStart(lineOffset) + charOffset;
+      int refEnd = decompressor.getEnd(lineOffset);
+      if (hash == lineStart) {
+        line = refSource;
+        lineStart = refStart;
+        lineEnd = refEnd;
+      } else {
+        line = log.substring(lineStart, hash)
+            + refSource.substring(refStart, refEnd);
+        lineStart = 0;
+        lineEnd = line.length();
+      }
+    }
+
+    split();
+    if (fieldEquals(0, "profiler")) {
+      return;
+    }
+    if (fieldEquals(0, "repeat") || fieldEquals(0, "r")) {
+      // Keep the repeated entry, without the first 2 fields.
+      decompressor.append(line, fieldCount > 2 ? fieldStarts[2] : lineStart,
+          lineEnd);
+    } else {
+      decompressor.append(line, lineStart, lineEnd);
+    }
+  }
+
+  /**
+   * Drops the first field, so that field 1 becomes field 0.
+   */
+  void shift() {
+    ++firstField;
+  }
+
+  private void addField(int start, int end) {
+    if (fieldCount == fieldStarts.length) {
+      int[] newStarts = new int[fieldCount * 2];
+      int[] newEnds = new int[fieldCount * 2];
+      System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+      System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+      fieldStarts = newStarts;
+      fieldEnds = newEnds;
+    }
+    fieldStarts[fieldCount] = start;
+    fieldEnds[fieldCount] = end;
+    ++fieldCount;
+  }
+
+  /**
+   * Returns true if the field is a single quoted string.
+   */
+  private boolean isQuoted(int start, int end) {
+    if (end - start < 2 || line.charAt(start) != '"'
+        || line.charAt(end - 1) != '"') {
+      return false;
+    }
+    // Make sure the closing quote is not escaped, and there is no other quote.
+    for (int i = start + 1; i < end - 1; ++i) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        return false;
+      }
+      if (c == '\\') {
+        ++i;
+        if (i == end - 1) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Splits the current line at commas outside of quoted strings.
+   */
+  private void split() {
+    firstField = 0;
+    fieldCount = 0;
+    boolean inString = false;
+    int fieldStart = lineStart;
+    for (int i = lineStart; i < lineEnd; ++i) {
+      switch (line.charAt(i)) {
+        case ',':
+          if (!inString) {
+            addField(fieldStart, i);
+            fieldStart = i + 1;
+          }
+          break;
+        case '"':
+          inString = !inString;
+          break;
+        case '\\':
+          if (inString) {
+            // Skip the escaped character.
+            ++i;
+          }
+          break;
+      }
+    }
+    addField(fieldStart, lineEnd);
+  }
+
+  /**
+   * Removes the quotes from a field that mixes quoted and unquoted text.
+   */
+  private String unquote(int start, int end) {
+    StringBuilder field = new StringBuilder();
+    boolean inString = false;
+    for (int i = start; i < end; ++i) {
+      char c = line.charAt(i);
+      if (c == '"') {
+        inString = !inString;
+        continue;
+      }
+      field.append(c);
+      if (c == '\\' && inString && i + 1 < end) {
+        field.append(line.charAt(++i));
+      }
+    }
+    return field.toString();
+  }
+}
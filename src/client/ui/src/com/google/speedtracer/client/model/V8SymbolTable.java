@@ -18,17 +18,16 @@ package com.google.speedtracer.client.model;
 import com.google.gwt.coreext.client.JSOArray;
 import com.google.speedtracer.client.util.Url;
 
-import java.util.TreeMap;
-
 /**
- * Class used to hold an address to symbol map for V8 Profile data.
+ * Class used to hold an address to symbol map for V8 Profile data. Symbols are
+ * kept in a {@link V8CodeMap}.
  */
 public class V8SymbolTable {
   /**
    * A single block of code occupies a span of address space represented by this
    * data structure.
    */
-  static class AddressSpan implements Comparable<AddressSpan> {
+  static class AddressSpan {
     double address;
     int addressLength;
 
@@ -37,29 +36,6 @@ public class V8SymbolTable {
       this.addressLength = addressLength;
     }
 
-    /**
-     * This comparison function doesn't search for exact equality. Any overlap
-     * between the two address spans is considered a match.
-     */
-    public int compareTo(AddressSpan compareAddress) {
-
-      double aStart = compareAddress.address;
-      double aEnd = aStart + compareAddress.addressLength;
-      double bStart = address;
-      double bEnd = bStart + addressLength;
-
-      if (bStart >= aStart && bStart <= aEnd) {
-        return 0;
-      }
-      if (aStart >= bStart && aStart <= bEnd) {
-        return 0;
-      }
-      if (aStart < bStart) {
-        return -1;
-      }
-      return 1;
-    }
-
     public double getAddress() {
       return address;
     }
@@ -197,7 +173,7 @@ public class V8SymbolTable {
     }
   }
 
-  private TreeMap<AddressSpan, V8Symbol> table = new TreeMap<AddressSpan, V8Symbol>();
+  private final V8CodeMap<V8Symbol> codeMap = new V8CodeMap<V8Symbol>();
 
   public V8SymbolTable() {
   }
@@ -208,7 +184,8 @@ public class V8SymbolTable {
    * Note collisions overwrite the previous value.
    */
   public void add(V8Symbol toAdd) {
-    table.put(toAdd.getAddressSpan(), toAdd);
+    AddressSpan span = toAdd.getAddressSpan();
+    codeMap.add(span.getAddress(), span.getLength(), toAdd);
   }
 
   /**
@@ -217,7 +194,7 @@ public class V8SymbolTable {
   public void debugDumpHtml(StringBuilder output) {
     output.append("<table>");
     output.append("<tr><th>Name</th><th>Resource</th><th>Address</th><th>Length</th><th>type</th></tr>");
-    for (V8Symbol child : table.values()) {
+    for (V8Symbol child : codeMap.getValues()) {
       output.append("<tr>");
       output.append("<td>" + child.getJsSymbol().getSymbolName() + "</td>");
       output.append("<td>" + child.getJsSymbol().getResourceUrl().getUrl()
@@ -234,11 +211,38 @@ public class V8SymbolTable {
     output.append("</table>");
   }
 
+  /**
+   * Returns the number of symbols overwritten by a symbol added over them.
+   */
+  public int getCollisionCount() {
+    return codeMap.getEvictionCount();
+  }
+
   public V8Symbol lookup(double address) {
-    return table.get(new AddressSpan(address, 0));
+    return codeMap.lookup(address);
+  }
+
+  /**
+   * Moves the symbol containing <code>fromAddress</code> so that it starts at
+   * <code>toAddress</code>.
+   * 
+   * @return the moved symbol, or <code>null</code> if there was none.
+   */
+  public V8Symbol move(double fromAddress, double toAddress) {
+    V8Symbol symbol = codeMap.remove(fromAddress);
+    if (symbol != null) {
+      symbol.getAddressSpan().setAddress(toAddress);
+      add(symbol);
+    }
+    return symbol;
   }
 
-  public void remove(V8Symbol toRemove) {
-    table.remove(toRemove.getAddressSpan());
+  /**
+   * Removes the symbol containing the address.
+   * 
+   * @return the removed symbol, or <code>null</code> if there was none.
+   */
+  public V8Symbol remove(double address) {
+    return codeMap.remove(address);
   }
 }
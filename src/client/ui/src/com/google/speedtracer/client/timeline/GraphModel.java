@@ -73,13 +73,13 @@ public abstract class GraphModel {
         return indexRange;
       }
 
-      double currDomainVal = data.get(guess).getX();
+      double currDomainVal = data.getX(guess);
 
       // linear search to find most suitable spot for x index
       // If our heuristic was close
       if (currDomainVal < domainVal) {
         while (currDomainVal < domainVal && guess < indexRange) {
-          currDomainVal = data.get(guess + 1).getX();
+          currDomainVal = data.getX(guess + 1);
           guess++;
         }
         // We want to get the the closest domain value
@@ -89,7 +89,7 @@ public abstract class GraphModel {
         }
       } else {
         while (currDomainVal > domainVal && guess > 0) {
-          currDomainVal = data.get(guess - 1).getX();
+          currDomainVal = data.getX(guess - 1);
           guess--;
         }
       }
@@ -139,7 +139,7 @@ public abstract class GraphModel {
         int mid = Math.max(1, (upper - lower) / 2);
         int index = lower + mid;
 
-        double found = data.get(index).getX();
+        double found = data.getX(index);
         if (found > domainVal) {
           // move the pivot down
           upper = upper - mid;
@@ -153,7 +153,7 @@ public abstract class GraphModel {
         }
       }
 
-      if (data.get(lower).getX() <= domainVal) {
+      if (data.getX(lower) <= domainVal) {
         result = lower;
       }
 
@@ -210,7 +210,7 @@ public abstract class GraphModel {
     // defaults to data[0].x
     int dataSize = myData.size();
     if (dataSize > 0) {
-      minX = myData.get(0).getX();
+      minX = myData.getX(0);
     } else {
       // We are dealing with time.
       // Our initial data set is empty.
@@ -229,7 +229,7 @@ public abstract class GraphModel {
       minX = x;
     }
 
-    data.add(DataPoint.createDataPoint(x, y));
+    data.add(x, y);
 
     for (int i = 0, n = domainObservers.size(); i < n; i++) {
       domainObservers.get(i).onDomainChange(x);
@@ -261,7 +261,7 @@ public abstract class GraphModel {
     if (data.size() == 0) {
       return getMinX();
     } else {
-      return data.get(data.size() - 1).getX();
+      return data.getX(data.size() - 1);
     }
   }
 
@@ -336,21 +336,21 @@ public abstract class GraphModel {
   protected final double averageClosestIndices(int closestIndex,
       double targetDomainValue, double sampleRange) {
     int endIndex;
-    if (data.get(closestIndex).getX() > targetDomainValue) {
+    if (data.getX(closestIndex) > targetDomainValue) {
       endIndex = closestIndex - 1;
     } else {
       endIndex = closestIndex + 1;
     }
 
     if (endIndex < 0 || endIndex >= data.size()) {
-      return data.get(closestIndex).getY();
+      return data.getY(closestIndex);
     }
 
-    double x0 = data.get(closestIndex).getX();
-    double y0 = data.get(closestIndex).getY();
+    double x0 = data.getX(closestIndex);
+    double y0 = data.getY(closestIndex);
 
-    double x1 = data.get(endIndex).getX();
-    double y1 = data.get(endIndex).getY();
+    double x1 = data.getX(endIndex);
+    double y1 = data.getY(endIndex);
 
     double divisor = (x1 - x0);
 
@@ -385,27 +385,18 @@ public abstract class GraphModel {
     if (closestIndex < 0) {
       closestIndex = 0;
     }
-    int index = closestIndex;
-    // We round the first value <= the domainVal. Now, walk the data searching
-    // for the datapoint with the largest Y value.
-    DataPoint found;
-    DataPoint max = null;
-    while (index < data.size()
-        && (found = data.get(index)).getX() <= endDomainVal) {
-      if (found.getX() >= targetDomainValue) {
-        if (max == null || found.getY() > max.getY()) {
-          max = found;
-        }
-      }
-      index++;
-    }
+    // We round the first value <= the domainVal. Find the points from there
+    // that fall within the range, and take the largest Y value among them from
+    // the data's pyramid rather than walking every point.
+    int first = findFirstIndexAfter(closestIndex, targetDomainValue, false);
+    int last = findFirstIndexAfter(first, endDomainVal, true);
 
     // If no values were found within the range, return the point originally
     // returned.
-    if (max == null) {
-      max = data.get(closestIndex);
+    if (first >= last) {
+      return data.getY(closestIndex);
     }
-    return max.getY();
+    return data.getMaxValue(first, last);
   }
 
   /**
@@ -420,4 +411,25 @@ public abstract class GraphModel {
    */
   protected abstract double interpolateRangeValue(int closestIndex,
       double targetDomainValue, double sampleRange);
+
+  /**
+   * Binary search for the first index at or after <code>start</code> whose X
+   * value is greater than (or if <code>inclusive</code> is false, not less
+   * than) the domain value. Returns the size of the data if there is none.
+   */
+  private int findFirstIndexAfter(int start, double domainVal,
+      boolean inclusive) {
+    int low = start;
+    int high = data.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      double x = data.getX(mid);
+      if (x < domainVal || (inclusive && x == domainVal)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
 }
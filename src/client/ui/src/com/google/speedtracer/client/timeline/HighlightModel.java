@@ -18,12 +18,16 @@ package com.google.speedtracer.client.timeline;
 import com.google.speedtracer.client.model.HintRecord;
 
 import java.util.Iterator;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 
 /**
  * The HighlightModel contains points on the graph to be highlighted.
+ * 
+ * Points are kept in parallel arrays sorted by x, with a segment tree over
+ * their values giving the max value over any range of points. Highlights
+ * usually arrive in time order and are appended; out of order points are
+ * inserted in place.
  */
 public class HighlightModel {
 
@@ -55,27 +59,23 @@ public class HighlightModel {
   }
 
   /**
-   * This iterator finds the highest value for each specified delta.
+   * This iterator finds the highest value for each specified delta. Each call
+   * to next() costs a binary search and a range max, however many points the
+   * delta covers.
    */
   private class HighlightIterator implements Iterator<HighlightEntry> {
     private final double delta;
-    private Entry<Double, Integer> next;
-    private final Iterator<Entry<Double, Integer>> subMapIterator;
+    private final int end;
+    private int next;
 
     public HighlightIterator(double start, double end, double delta) {
-      SortedMap<Double, Integer> subMap = values.subMap(start, end);
-      if (subMap.size() > 0) {
-        subMapIterator = subMap.entrySet().iterator();
-        next = subMapIterator.hasNext() ? subMapIterator.next() : null;
-      } else {
-        subMapIterator = null;
-      }
+      this.next = findFirstIndexAtOrAfter(start);
+      this.end = findFirstIndexAtOrAfter(end);
       this.delta = delta;
     }
 
     public boolean hasNext() {
-      return (subMapIterator != null && subMapIterator.hasNext())
-          || next != null;
+      return next < end;
     }
 
     /**
@@ -83,16 +83,23 @@ public class HighlightModel {
      * encountered over the delta starting at the next data point.
      */
     public HighlightEntry next() {
-      double firstX = next.getKey();
-      int maxValue = 0;
-      while (next != null && next.getKey() - firstX < delta) {
-        maxValue = Math.max(maxValue, next.getValue());
-        if (!subMapIterator.hasNext()) {
-          next = null;
-          break;
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      double firstX = xValues[next];
+      // Find the first point at least delta past firstX.
+      int low = next + 1;
+      int high = end;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (xValues[mid] - firstX < delta) {
+          low = mid + 1;
+        } else {
+          high = mid;
         }
-        next = subMapIterator.next();
       }
+      int maxValue = Math.max(0, getMaxValue(next, low));
+      next = low;
       return new HighlightEntry(firstX, maxValue);
     }
 
@@ -107,6 +114,8 @@ public class HighlightModel {
   public static final Integer HIGHLIGHT_VALIDATION = HintRecord.SEVERITY_VALIDATION;
   public static final Integer HIGHLIGHT_WARNING = HintRecord.SEVERITY_WARNING;
 
+  private static final int INITIAL_CAPACITY = 64;
+
   /**
    * Factory method.
    */
@@ -129,7 +138,23 @@ public class HighlightModel {
     }
   }
 
-  TreeMap<Double, Integer> values = new TreeMap<Double, Integer>();
+  private static int[] createTree(int capacity) {
+    int[] tree = new int[2 * capacity];
+    for (int i = 0; i < tree.length; i++) {
+      tree[i] = Integer.MIN_VALUE;
+    }
+    return tree;
+  }
+
+  // Segment tree of the max value under each node. Node 1 is the root, the
+  // children of node i are 2i and 2i + 1, and the leaves start at capacity.
+  private int[] maxValues = createTree(INITIAL_CAPACITY);
+
+  private int size = 0;
+
+  private int[] values = new int[INITIAL_CAPACITY];
+
+  private double[] xValues = new double[INITIAL_CAPACITY];
 
   protected HighlightModel() {
   }
@@ -142,12 +167,21 @@ public class HighlightModel {
    * @param value One of the HighlightModel.HIGHLIGHT_XXX values.
    */
   public void addData(double x, int value) {
-    // Save just the max value if there is a collision.
-    Integer result = values.get(Double.valueOf(x));
-    if (result != null) {
-      values.put(x, Math.max(value, result));
+    // Points almost always arrive in order.
+    if (size == 0 || x > xValues[size - 1]) {
+      insert(size, x, value);
+      return;
+    }
+
+    int index = findFirstIndexAtOrAfter(x);
+    if (xValues[index] == x) {
+      // Save just the max value if there is a collision.
+      if (value > values[index]) {
+        values[index] = value;
+        updateTree(index);
+      }
     } else {
-      values.put(x, value);
+      insert(index, x, value);
     }
   }
 
@@ -155,7 +189,10 @@ public class HighlightModel {
    * Removes all data from the model.
    */
   public void clear() {
-    values.clear();
+    size = 0;
+    values = new int[INITIAL_CAPACITY];
+    xValues = new double[INITIAL_CAPACITY];
+    maxValues = createTree(INITIAL_CAPACITY);
   }
 
   /**
@@ -165,7 +202,10 @@ public class HighlightModel {
    * @throws java.util.NoSuchElementException if the model is empty.
    */
   public double getMaxX() {
-    return values.lastKey();
+    if (size == 0) {
+      throw new NoSuchElementException();
+    }
+    return xValues[size - 1];
   }
 
   /**
@@ -189,6 +229,80 @@ public class HighlightModel {
    * @return the number of points added with the add() method.
    */
   public int size() {
-    return values.size();
+    return size;
+  }
+
+  /**
+   * Binary search for the first point whose x value is not less than x.
+   */
+  private int findFirstIndexAtOrAfter(double x) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (xValues[mid] < x) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the max value of the points in [first, last).
+   */
+  private int getMaxValue(int first, int last) {
+    int capacity = values.length;
+    int max = Integer.MIN_VALUE;
+    for (int i = first + capacity, j = last + capacity; i < j; i >>= 1, j >>= 1) {
+      if ((i & 1) != 0) {
+        max = Math.max(max, maxValues[i++]);
+      }
+      if ((j & 1) != 0) {
+        max = Math.max(max, maxValues[--j]);
+      }
+    }
+    return max;
+  }
+
+  private void insert(int index, double x, int value) {
+    boolean rebuildTree = index < size;
+    if (size == values.length) {
+      int capacity = size * 2;
+      int[] newValues = new int[capacity];
+      double[] newXValues = new double[capacity];
+      System.arraycopy(values, 0, newValues, 0, size);
+      System.arraycopy(xValues, 0, newXValues, 0, size);
+      values = newValues;
+      xValues = newXValues;
+      maxValues = createTree(capacity);
+      rebuildTree = true;
+    }
+
+    System.arraycopy(values, index, values, index + 1, size - index);
+    System.arraycopy(xValues, index, xValues, index + 1, size - index);
+    values[index] = value;
+    xValues[index] = x;
+    ++size;
+
+    if (!rebuildTree) {
+      updateTree(index);
+    } else {
+      // The storage grew or points moved, so rebuild the whole tree.
+      int capacity = values.length;
+      System.arraycopy(values, 0, maxValues, capacity, size);
+      for (int node = capacity - 1; node > 0; node--) {
+        maxValues[node] = Math.max(maxValues[2 * node], maxValues[2 * node + 1]);
+      }
+    }
+  }
+
+  private void updateTree(int index) {
+    int node = values.length + index;
+    maxValues[node] = values[index];
+    for (node >>>= 1; node > 0; node >>>= 1) {
+      maxValues[node] = Math.max(maxValues[2 * node], maxValues[2 * node + 1]);
+    }
   }
 }
@@ -15,30 +15,129 @@
  */
 package com.google.speedtracer.client.timeline;
 
-import java.util.ArrayList;
-
 /**
- * A simple ArrayList extension that provides truncation and max value
- * tracking.
+ * The points of a graph, kept in parallel arrays of X and Y values rather than
+ * as a {@link DataPoint} per sample. Provides truncation and max value
+ * tracking. It also keeps a {@link RangePyramid} over the Y values so that the
+ * max, min and average over a range of points can be found without visiting
+ * each of them.
  */
-@SuppressWarnings("serial")
-public class ModelData extends ArrayList<DataPoint> {
+public class ModelData {
+  private static final int INITIAL_CAPACITY = 1024;
 
   private double maxEncounteredValue = 0;
 
-  @Override
+  private final RangePyramid pyramid = new RangePyramid(this);
+
+  private int size = 0;
+
+  private double[] xValues = new double[INITIAL_CAPACITY];
+
+  private double[] yValues = new double[INITIAL_CAPACITY];
+
+  /**
+   * Appends a point.
+   * 
+   * @return <code>true</code>, as with {@link java.util.List#add(Object)}
+   */
   public boolean add(DataPoint val) {
-    if (val.getY() > maxEncounteredValue) {
-      maxEncounteredValue = val.getY();
+    add(val.getX(), val.getY());
+    return true;
+  }
+
+  /**
+   * Appends a point without allocating a {@link DataPoint}.
+   */
+  public void add(double x, double y) {
+    if (y > maxEncounteredValue) {
+      maxEncounteredValue = y;
+    }
+    if (size == xValues.length) {
+      xValues = copyOf(xValues, size * 2);
+      yValues = copyOf(yValues, size * 2);
     }
-    return super.add(val);
+    xValues[size] = x;
+    yValues[size] = y;
+    ++size;
+    pyramid.onAdd();
+  }
+
+  public void clear() {
+    size = 0;
+    pyramid.truncate(0);
+  }
+
+  /**
+   * Returns the point at an index. This allocates a {@link DataPoint}, so
+   * prefer {@link #getX(int)} and {@link #getY(int)} in loops.
+   */
+  public DataPoint get(int index) {
+    checkIndex(index);
+    return DataPoint.createDataPoint(xValues[index], yValues[index]);
+  }
+
+  /**
+   * Returns the average Y value of the points in [first, last).
+   */
+  public double getAverageValue(int first, int last) {
+    return pyramid.getAverage(first, last);
   }
 
   public double getMaxEncounteredValue() {
     return maxEncounteredValue;
   }
 
+  /**
+   * Returns the largest Y value of the points in [first, last).
+   */
+  public double getMaxValue(int first, int last) {
+    return pyramid.getMax(first, last);
+  }
+
+  /**
+   * Returns the smallest Y value of the points in [first, last).
+   */
+  public double getMinValue(int first, int last) {
+    return pyramid.getMin(first, last);
+  }
+
+  public double getX(int index) {
+    checkIndex(index);
+    return xValues[index];
+  }
+
+  public double getY(int index) {
+    checkIndex(index);
+    return yValues[index];
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
   public void truncateBy(int indicesToAxe) {
-    removeRange(size() - indicesToAxe, size());
+    if (indicesToAxe < 0 || indicesToAxe > size) {
+      throw new IndexOutOfBoundsException("Cannot truncate " + indicesToAxe
+          + " of " + size + " points");
+    }
+    size -= indicesToAxe;
+    pyramid.truncate(size);
+  }
+
+  private static double[] copyOf(double[] array, int length) {
+    double[] copy = new double[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
   }
 }
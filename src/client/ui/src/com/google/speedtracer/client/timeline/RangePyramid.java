@@ -0,0 +1,215 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.timeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multi-resolution summary of the Y values of a {@link ModelData}, used to
+ * answer range queries without visiting every point in the range.
+ * 
+ * The finest level summarizes blocks of {@link #BLOCK_SIZE} values, and each
+ * coarser level summarizes pairs of entries of the level below. An entry only
+ * exists once all of the values it covers do. Each entry keeps the max, min
+ * and sum of the values it covers. A range query scans the values at its ends
+ * and combines O(log n) entries for the rest, most of them from the coarse
+ * levels. Not summarizing single values keeps the pyramid to a fraction of the
+ * size of the values themselves.
+ */
+class RangePyramid {
+  /**
+   * The max, min and sum arrays of one level.
+   */
+  private static class Level {
+    private double[] maxes = new double[INITIAL_CAPACITY];
+    private double[] mins = new double[INITIAL_CAPACITY];
+    private int size = 0;
+    private double[] sums = new double[INITIAL_CAPACITY];
+
+    void add(double max, double min, double sum) {
+      if (size == maxes.length) {
+        maxes = copyOf(maxes, size * 2);
+        mins = copyOf(mins, size * 2);
+        sums = copyOf(sums, size * 2);
+      }
+      maxes[size] = max;
+      mins[size] = min;
+      sums[size] = sum;
+      ++size;
+    }
+
+    double get(int stat, int index) {
+      switch (stat) {
+        case MAX:
+          return maxes[index];
+        case MIN:
+          return mins[index];
+        default:
+          return sums[index];
+      }
+    }
+  }
+
+  private static final int BLOCK_SHIFT = 3;
+
+  private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final int MAX = 0;
+
+  private static final int MIN = 1;
+
+  private static final int SUM = 2;
+
+  private static double combine(int stat, double a, double b) {
+    switch (stat) {
+      case MAX:
+        return Math.max(a, b);
+      case MIN:
+        return Math.min(a, b);
+      default:
+        return a + b;
+    }
+  }
+
+  private static double[] copyOf(double[] array, int length) {
+    double[] copy = new double[length];
+    System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+    return copy;
+  }
+
+  private static double identity(int stat) {
+    switch (stat) {
+      case MAX:
+        return Double.NEGATIVE_INFINITY;
+      case MIN:
+        return Double.POSITIVE_INFINITY;
+      default:
+        return 0;
+    }
+  }
+
+  private final ModelData data;
+
+  private final List<Level> levels = new ArrayList<Level>();
+
+  RangePyramid(ModelData data) {
+    this.data = data;
+  }
+
+  /**
+   * Returns the average of the values in [first, last).
+   */
+  double getAverage(int first, int last) {
+    return query(SUM, first, last) / (last - first);
+  }
+
+  /**
+   * Returns the largest value in [first, last).
+   */
+  double getMax(int first, int last) {
+    return query(MAX, first, last);
+  }
+
+  /**
+   * Returns the smallest value in [first, last).
+   */
+  double getMin(int first, int last) {
+    return query(MIN, first, last);
+  }
+
+  /**
+   * Called after a value is appended to the {@link ModelData}. Adds an entry
+   * for each block that the value completes.
+   */
+  void onAdd() {
+    int size = data.size();
+    if ((size & (BLOCK_SIZE - 1)) != 0) {
+      return;
+    }
+    double max = Double.NEGATIVE_INFINITY;
+    double min = Double.POSITIVE_INFINITY;
+    double sum = 0;
+    for (int i = size - BLOCK_SIZE; i < size; i++) {
+      double value = data.getY(i);
+      max = Math.max(max, value);
+      min = Math.min(min, value);
+      sum += value;
+    }
+
+    for (int level = 0;; level++) {
+      if (level == levels.size()) {
+        levels.add(new Level());
+      }
+      Level entries = levels.get(level);
+      entries.add(max, min, sum);
+
+      int index = entries.size - 1;
+      if ((index & 1) == 0) {
+        return;
+      }
+      max = Math.max(max, entries.maxes[index - 1]);
+      min = Math.min(min, entries.mins[index - 1]);
+      sum += entries.sums[index - 1];
+    }
+  }
+
+  /**
+   * Discards the entries covering values past the first <code>size</code>.
+   */
+  void truncate(int size) {
+    for (int level = 0, n = levels.size(); level < n; level++) {
+      Level entries = levels.get(level);
+      entries.size = Math.min(entries.size, size >> (BLOCK_SHIFT + level));
+    }
+  }
+
+  private double query(int stat, int first, int last) {
+    assert (first < last) : "Empty range";
+    double result = identity(stat);
+
+    // Scan the values outside of the whole blocks in the range.
+    int i = (first + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+    int j = last >> BLOCK_SHIFT;
+    if (i >= j) {
+      for (int index = first; index < last; index++) {
+        result = combine(stat, result, data.getY(index));
+      }
+      return result;
+    }
+    for (int index = first, n = i << BLOCK_SHIFT; index < n; index++) {
+      result = combine(stat, result, data.getY(index));
+    }
+    for (int index = j << BLOCK_SHIFT; index < last; index++) {
+      result = combine(stat, result, data.getY(index));
+    }
+
+    // Walk up the levels, taking the entries at the ends of the range that do
+    // not pair up.
+    for (int level = 0; i < j; level++, i >>= 1, j >>= 1) {
+      Level entries = levels.get(level);
+      if ((i & 1) != 0) {
+        result = combine(stat, result, entries.get(stat, i++));
+      }
+      if ((j & 1) != 0) {
+        result = combine(stat, result, entries.get(stat, --j));
+      }
+    }
+    return result;
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.google.speedtracer.client.util;
 
+import com.google.gwt.core.client.JavaScriptObject;
 import com.google.gwt.xhr.client.ReadyStateChangeHandler;
 import com.google.gwt.xhr.client.XMLHttpRequest;
 import com.google.speedtracer.client.util.dom.WindowExt;
@@ -79,6 +80,28 @@ public class Xhr {
     request(create(window), "POST", url, requestData, contentType, callback);
   }
 
+  /**
+   * Posts a Blob, which lets large payloads be assembled from parts without
+   * first concatenating them into one string.
+   */
+  public static void post(String url, JavaScriptObject requestData,
+      String contentType, XhrCallback callback) {
+    request(create(), url, requestData, contentType, null, callback);
+  }
+
+  /**
+   * Posts a Blob gzip compressed, with a <code>Content-Encoding: gzip</code>
+   * header. Falls back to an uncompressed post if the browser cannot compress.
+   */
+  public static void postCompressed(String url, JavaScriptObject requestData,
+      String contentType, XhrCallback callback) {
+    if (!isCompressionSupported()) {
+      post(url, requestData, contentType, callback);
+      return;
+    }
+    compressAndPost(create(), url, requestData, contentType, callback);
+  }
+
   /**
    * Replacement for XMHttpRequest.create() to allow using this method in a
    * Chrome Extensions background page.
@@ -91,6 +114,26 @@ public class Xhr {
     return new window.XMLHttpRequest();
   }-*/;
 
+  /**
+   * Compresses the data off the main thread with a CompressionStream and
+   * posts the resulting Blob once it is ready.
+   */
+  private static native void compressAndPost(XMLHttpRequest xhr, String url,
+      JavaScriptObject requestData, String contentType,
+      XhrCallback callback) /*-{
+    var stream = requestData.stream().pipeThrough(
+        new CompressionStream("gzip"));
+    new Response(stream).blob().then($entry(function(body) {
+      @com.google.speedtracer.client.util.Xhr::request(Lcom/google/gwt/xhr/client/XMLHttpRequest;Ljava/lang/String;Lcom/google/gwt/core/client/JavaScriptObject;Ljava/lang/String;Ljava/lang/String;Lcom/google/speedtracer/client/util/Xhr$XhrCallback;)(xhr, url, body, contentType, "gzip", callback);
+    }), $entry(function() {
+      callback.@com.google.speedtracer.client.util.Xhr.XhrCallback::onFail(Lcom/google/gwt/xhr/client/XMLHttpRequest;)(xhr);
+    }));
+  }-*/;
+
+  private static native boolean isCompressionSupported() /*-{
+    return typeof CompressionStream == "function";
+  }-*/;
+
   private static void request(XMLHttpRequest xhr, String method, String url,
       String requestData, String contentType, XhrCallback callback) {
     try {
@@ -105,6 +148,24 @@ public class Xhr {
     }
   }
 
+  private static void request(XMLHttpRequest xhr, String url,
+      JavaScriptObject body, String contentType, String contentEncoding,
+      XhrCallback callback) {
+    try {
+      xhr.setOnReadyStateChange(new Handler(callback));
+      xhr.open("POST", url);
+      xhr.setRequestHeader("Content-type", contentType);
+      if (contentEncoding != null) {
+        xhr.setRequestHeader("Content-Encoding", contentEncoding);
+      }
+      send(xhr, body);
+    } catch (Exception e) {
+      // Just fail.
+      callback.onFail(xhr);
+      xhr.clearOnReadyStateChange();
+    }
+  }
+
   private static void request(XMLHttpRequest xhr, String method, String url,
       final XhrCallback callback) {
     try {
@@ -117,4 +178,11 @@ public class Xhr {
       xhr.clearOnReadyStateChange();
     }
   }
+
+  /**
+   * {@link XMLHttpRequest#send(String)} only accepts strings.
+   */
+  private static native void send(XMLHttpRequest xhr, JavaScriptObject body) /*-{
+    xhr.send(body);
+  }-*/;
 }
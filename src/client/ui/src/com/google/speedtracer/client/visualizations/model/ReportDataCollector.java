@@ -26,6 +26,8 @@ import com.google.speedtracer.client.model.HintRecord;
 import com.google.speedtracer.client.model.NetworkResource;
 import com.google.speedtracer.client.model.ResourceRecord;
 import com.google.speedtracer.client.model.UiEvent;
+import com.google.speedtracer.client.model.UiEventDispatcher;
+import com.google.speedtracer.client.model.UiEventIndex;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -81,6 +83,13 @@ public class ReportDataCollector {
       this.totalAvailableTime = totalAvailableTime;
     }
 
+    /**
+     * Collects only the hints of a record whose times have already been
+     * accounted for.
+     */
+    void examineHints(EventRecord record) {
+    }
+
     abstract void examineRecord(EventRecord record, JsIntegerDoubleMap out);
 
     abstract void finishCollection(JsIntegerDoubleMap aggregateDurationsOut,
@@ -180,6 +189,11 @@ public class ReportDataCollector {
     Collector uiEventCollector = new Collector() {
       private List<HintRecord> hints = new ArrayList<HintRecord>();
 
+      @Override
+      void examineHints(EventRecord record) {
+        addHintsFromJSOArray(record.getHintRecords(), hints);
+      }
+
       @Override
       void examineRecord(EventRecord record, JsIntegerDoubleMap out) {
         UiEvent castedRecord = record.cast();
@@ -234,9 +248,8 @@ public class ReportDataCollector {
     };
 
     // Gather report for UiEvents.
-    ReportData uiEventReport = gatherDataWithinWindowImpl(leftBound,
-        rightBound, dataDispatcher.getUiEventDispatcher().getEventList(),
-        uiEventCollector);
+    ReportData uiEventReport = gatherUiEventDataWithinWindow(leftBound,
+        rightBound, dataDispatcher.getUiEventDispatcher(), uiEventCollector);
 
     // Gather report for Network Events.
     ReportData networkEventReport = gatherDataWithinWindowImpl(leftBound,
@@ -256,6 +269,85 @@ public class ReportDataCollector {
     }
   }
 
+  /**
+   * Gathers the report for UiEvents. Only the events that cross the window
+   * boundaries are split and examined. The events in between are accounted for
+   * by the {@link UiEventIndex}, which gives the same totals as examining each
+   * one in turn.
+   */
+  private ReportData gatherUiEventDataWithinWindow(double leftBound,
+      double rightBound, UiEventDispatcher uiEventDispatcher,
+      Collector collector) {
+    List<UiEvent> eventList = uiEventDispatcher.getEventList();
+    // Find the index of the last record that falls within the right edge of the
+    // selected window bound. See gatherDataWithinWindowImpl().
+    int numRecords = eventList.size();
+    int last = EventRecord.getIndexOfRecord(eventList, rightBound) - 1;
+    if (last < 0 || last >= numRecords) {
+      return new ReportData(null, null);
+    }
+
+    final List<HintRecord> hints = new ArrayList<HintRecord>();
+    final JsIntegerDoubleMap aggregateTypeDurations = JsIntegerDoubleMap.create();
+    collector.setTotalAvailableTime(rightBound - leftBound);
+
+    // We are starting at the right edge of the window, which may chop an event.
+    UiEvent lastRecord = splitEventTreeOnBoundary(eventList.get(last),
+        rightBound, true);
+    // Guard against having the record split an event outside the window.
+    if (lastRecord == null) {
+      return new ReportData(null, null);
+    }
+
+    // Top level UiEvents do not overlap, so only the last record that starts
+    // before the left edge can cross it. Every record between it and the last
+    // record lies wholly within the window.
+    int first = EventRecord.getIndexOfRecord(eventList, leftBound) - 1;
+    if (first == last) {
+      // A single record spans the whole window.
+      if (lastRecord.getTime() + lastRecord.getDuration() >= leftBound) {
+        examineUiEventOnLeftBoundary(lastRecord, leftBound,
+            aggregateTypeDurations, collector);
+      }
+      collector.finishCollection(aggregateTypeDurations, hints);
+      return new ReportData(aggregateTypeDurations, hints);
+    }
+
+    collector.examineRecord(lastRecord, aggregateTypeDurations);
+
+    UiEventIndex eventIndex = uiEventDispatcher.getEventIndex();
+    eventIndex.addTypeDurations(first + 1, last, aggregateTypeDurations);
+    collector.setTotalAvailableTime(collector.getTotalAvailableTime()
+        - eventIndex.getDuration(first + 1, last));
+    // Hints are collected walking backwards from the right edge, as in
+    // gatherDataWithinWindowImpl(), so they come out in the same order.
+    List<UiEvent> hintedEvents = new ArrayList<UiEvent>();
+    eventIndex.getHintedEvents(first + 1, last, hintedEvents);
+    for (int i = hintedEvents.size() - 1; i >= 0; i--) {
+      collector.examineHints(hintedEvents.get(i));
+    }
+
+    if (first >= 0) {
+      UiEvent firstRecord = eventList.get(first);
+      if (firstRecord.getTime() + firstRecord.getDuration() >= leftBound) {
+        examineUiEventOnLeftBoundary(firstRecord, leftBound,
+            aggregateTypeDurations, collector);
+      }
+    }
+
+    collector.finishCollection(aggregateTypeDurations, hints);
+    return new ReportData(aggregateTypeDurations, hints);
+  }
+
+  private void examineUiEventOnLeftBoundary(UiEvent record, double leftBound,
+      JsIntegerDoubleMap aggregateTypeDurations, Collector collector) {
+    if (record.getTime() < leftBound) {
+      record = splitEventTreeOnBoundary(record, leftBound, false);
+      assert (record != null) : "Splitting a node should yield a valid non-null clone here!";
+    }
+    collector.examineRecord(record, aggregateTypeDurations);
+  }
+
   private ReportData gatherDataWithinWindowImpl(double leftBound,
       double rightBound, List<? extends EventRecord> eventList,
       Collector collector) {
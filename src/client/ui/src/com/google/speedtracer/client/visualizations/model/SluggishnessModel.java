@@ -144,7 +144,8 @@ public class SluggishnessModel implements VisualizationModel,
     currentLeft = left;
     currentRight = right;
 
-    List<UiEvent> eventList = dataDispatcher.getUiEventDispatcher().getEventList();
+    UiEventDispatcher uiEventDispatcher = dataDispatcher.getUiEventDispatcher();
+    List<UiEvent> eventList = uiEventDispatcher.getEventList();
     int endIndex = EventRecord.getIndexOfRecord(eventList, right);
 
     // if we get back a negative number, then nothing starts left of
@@ -161,22 +162,10 @@ public class SluggishnessModel implements VisualizationModel,
       eventIndex -= 1;
     }
 
-    // TODO (jaimeyap): We just need the start and end indices.
-    // Therefore we should eventually just do a binary search for start index.
-    // Will need to do based on endTime, and therefore would need a list sorted
-    // by end time. Also need a new Comparator object.
-    UiEvent e = eventList.get(eventIndex);
-    double endTime = e.getEndTime();
-    while (endTime > left) {
-      // Walk backwards
-      --eventIndex;
-      if (eventIndex < 0) {
-        break;
-      } else {
-        e = eventList.get(eventIndex);
-        endTime = e.getEndTime();
-      }
-    }
+    // Find the last event at or before eventIndex that ended by the left
+    // bound. Everything after it is still running at the left bound.
+    eventIndex = uiEventDispatcher.getEventIndex().findLastEndedBy(
+        eventIndex + 1, left);
 
     int[] result = {(eventIndex + 1), endIndex};
     return result;
@@ -21,14 +21,15 @@ import com.google.gwt.chrome.crx.client.Chrome;
 import com.google.gwt.chrome.crx.client.Console;
 import com.google.gwt.chrome.crx.client.Extension;
 import com.google.gwt.chrome.crx.client.Port;
+import com.google.gwt.chrome.crx.client.Tabs;
 import com.google.gwt.chrome.crx.client.events.ConnectEvent;
 import com.google.gwt.chrome.crx.client.events.MessageEvent;
 import com.google.gwt.chrome.crx.client.events.MessageEvent.Message;
+import com.google.gwt.chrome.crx.client.events.TabRemovedEvent;
 import com.google.gwt.core.client.Duration;
 import com.google.gwt.core.client.GWT;
 import com.google.gwt.core.client.JavaScriptException;
 import com.google.gwt.core.client.JavaScriptObject;
-import com.google.gwt.core.client.JsArray;
 import com.google.gwt.core.client.JsArrayString;
 import com.google.gwt.coreext.client.JSON;
 import com.google.gwt.xhr.client.XMLHttpRequest;
@@ -78,13 +79,18 @@ public class HeadlessBackgroundPage extends Extension implements
    */
   public class MessageHandler implements MessageEvent.Listener {
     private class HeadlessDataModel implements DataInstance.DataListener {
+      private final HeadlessRecordBuffer recordBuffer;
       private int sequence = 0;
 
+      public HeadlessDataModel(HeadlessRecordBuffer recordBuffer) {
+        this.recordBuffer = recordBuffer;
+      }
+
       public void onEventRecord(EventRecord event) {
         event.setSequence(sequence++);
         // Send this message over to the content script
         String dataString = JSON.stringify(event);
-        eventRecordData.push(dataString);
+        recordBuffer.add(dataString);
       }
       
       public void onEventStreamStarted() {
@@ -126,13 +132,13 @@ public class HeadlessBackgroundPage extends Extension implements
     private void doHeadlessClearData(HeadlessClearDataMessage message) {
       DataInstance dataInstance = getDataInstance();
       dataInstance.setBaseTime(Duration.currentTimeMillis());
-      eventRecordData.setLength(0);
+      getRecordBuffer().clear();
     }
 
     private void doHeadlessDumpData(HeadlessDumpDataMessage message) {
       // Pack up the data we've been saving in our list and send it back
       // to the API.
-      HeadlessDumpDataAckMessage dumpMessage = HeadlessDumpDataAckMessage.create(eventRecordData.join("\n"));
+      HeadlessDumpDataAckMessage dumpMessage = HeadlessDumpDataAckMessage.create(getRecordBuffer().join());
       sendToContentScript(port, dumpMessage);
     }
 
@@ -151,6 +157,11 @@ public class HeadlessBackgroundPage extends Extension implements
       HeadlessMonitoringOnMessage.Options options = message.getOptions();
       HeadlessMonitoringOnAckMessage ackMessage = HeadlessMonitoringOnAckMessage.create();
       if (options != null) {
+        // Only the limits that were passed change; the others are kept.
+        HeadlessRecordBuffer recordBuffer = getRecordBuffer();
+        recordBuffer.setLimits(options.getMaxRecords(), options.getMaxSize(),
+            options.hasOverflow() ? options.isDropNewest()
+                : recordBuffer.isDropNewest());
         if (options.clearData()) {
           doHeadlessClearData(null);
         }
@@ -163,27 +174,35 @@ public class HeadlessBackgroundPage extends Extension implements
       DataInstance dataInstance = getDataInstance();
       // Pack up the data we've been saving in our list and send it out
       // via XHR.
-      JsArray<JavaScriptObject> data = getEventRecordData();
-      String payload = createXhrPayload(dataInstance.getBaseTime(), message,
-          data);
+      HeadlessRecordBuffer recordBuffer = getRecordBuffer();
+      JavaScriptObject payload = createXhrPayload(dataInstance.getBaseTime(),
+          message, recordBuffer.toArray(),
+          recordBuffer.getDroppedRecordCount(), recordBuffer.getDroppedSize());
 
       if (ClientConfig.isDebugMode()) {
-        console.log("Sending payload of " + payload.length() + " bytes ("
-            + data.length() + " trace records) to " + message.getUrl());
+        console.log("Sending payload of " + getBlobSize(payload) + " bytes ("
+            + recordBuffer.getRecordCount() + " trace records) to "
+            + message.getUrl()
+            + (message.isCompressed() ? " compressed" : ""));
       }
-      try {
-        Xhr.post(message.getUrl(), payload, "application/json",
-            new Xhr.XhrCallback() {
-              public void onFail(XMLHttpRequest xhr) {
-                HeadlessSendDataAckMessage sendMessage = HeadlessSendDataAckMessage.create(false);
-                sendToContentScript(port, sendMessage);
-              }
+      Xhr.XhrCallback callback = new Xhr.XhrCallback() {
+        public void onFail(XMLHttpRequest xhr) {
+          HeadlessSendDataAckMessage sendMessage = HeadlessSendDataAckMessage.create(false);
+          sendToContentScript(port, sendMessage);
+        }
 
-              public void onSuccess(XMLHttpRequest xhr) {
-                HeadlessSendDataAckMessage sendMessage = HeadlessSendDataAckMessage.create(true);
-                sendToContentScript(port, sendMessage);
-              }
-            });
+        public void onSuccess(XMLHttpRequest xhr) {
+          HeadlessSendDataAckMessage sendMessage = HeadlessSendDataAckMessage.create(true);
+          sendToContentScript(port, sendMessage);
+        }
+      };
+      try {
+        if (message.isCompressed()) {
+          Xhr.postCompressed(message.getUrl(), payload, "application/json",
+              callback);
+        } else {
+          Xhr.post(message.getUrl(), payload, "application/json", callback);
+        }
       } catch (JavaScriptException ex) {
         console.log("XHR failed: " + ex);
         HeadlessSendDataAckMessage sendMessage = HeadlessSendDataAckMessage.create(false);
@@ -202,28 +221,57 @@ public class HeadlessBackgroundPage extends Extension implements
       if (dataInstance == null) {
         dataInstance = ChromeDebuggerDataInstance.create(id);
         dataInstances.put(id, dataInstance);
-        HeadlessDataModel dataModel = new HeadlessDataModel();
+        HeadlessDataModel dataModel = new HeadlessDataModel(getRecordBuffer());
         dataInstance.load(dataModel);
       }
       return dataInstance;
     }
 
-    private JsArray<JavaScriptObject> getEventRecordData() {
-      JsArray<JavaScriptObject> result = JsArray.createArray().cast();
-      for (int i = 0, length = eventRecordData.length(); i < length; ++i) {
-        JavaScriptObject row = JSON.parse(eventRecordData.get(i));
-        result.push(row);
+    /**
+     * Find the record storage for this tab, or create a new one.
+     */
+    private HeadlessRecordBuffer getRecordBuffer() {
+      int id = port.getSender().getTab().getId();
+      HeadlessRecordBuffer recordBuffer = recordBuffers.get(id);
+      if (recordBuffer == null) {
+        recordBuffer = new HeadlessRecordBuffer();
+        recordBuffers.put(id, recordBuffer);
       }
-      return result;
+      return recordBuffer;
     }
   }
 
-  private static native String createXhrPayload(double baseTime,
-      HeadlessSendDataMessage message, JsArray<JavaScriptObject> data) /*-{
+  /**
+   * Number of serialized records joined into each part of the XHR payload.
+   */
+  private static final int PAYLOAD_CHUNK_SIZE = 1000;
+
+  /**
+   * Builds the body of the XHR as a Blob. The records are already serialized,
+   * so they are joined into the envelope as they are rather than being parsed
+   * and stringified again. They are joined a chunk at a time so that the
+   * payload never has to exist as a single string. The header reports how many
+   * records were lost to the limits of the {@link HeadlessRecordBuffer}.
+   */
+  private static native JavaScriptObject createXhrPayload(double baseTime,
+      HeadlessSendDataMessage message, JsArrayString records,
+      int droppedRecords, double droppedSize) /*-{
     var header = message.header ? message.header : {} ;
     header.timeStamp = baseTime;
-    var resultObject = {'header':header, 'data':data};
-    return JSON.stringify(resultObject);
+    header.droppedRecords = droppedRecords;
+    header.droppedSize = droppedSize;
+    var parts = ['{"header":' + JSON.stringify(header) + ',"data":['];
+    var chunkSize = @com.google.speedtracer.headlessextension.client.HeadlessBackgroundPage::PAYLOAD_CHUNK_SIZE;
+    for (var i = 0, n = records.length; i < n; i += chunkSize) {
+      var chunk = records.slice(i, i + chunkSize).join(',');
+      parts.push(i > 0 ? ',' + chunk : chunk);
+    }
+    parts.push(']}');
+    return new Blob(parts, {'type':'application/json'});
+  }-*/;
+
+  private static native double getBlobSize(JavaScriptObject blob) /*-{
+    return blob.size;
   }-*/;
 
   /**
@@ -238,7 +286,7 @@ public class HeadlessBackgroundPage extends Extension implements
 
   private HashMap<Integer, DataInstance> dataInstances = new HashMap<Integer, DataInstance>();
 
-  private final JsArrayString eventRecordData = JsArrayString.createArray().cast();
+  private final HashMap<Integer, HeadlessRecordBuffer> recordBuffers = new HashMap<Integer, HeadlessRecordBuffer>();
 
   @Override
   public String getVersion() {
@@ -264,6 +312,14 @@ public class HeadlessBackgroundPage extends Extension implements
   private void initialize() {
     // Listen for messages from the content script
     Chrome.getExtension().getOnConnectEvent().addListener(this);
+    // Drop the state of tabs that are closed, so it is not held for the life
+    // of the background page.
+    Tabs.getOnTabRemovedEvent().addListener(new TabRemovedEvent.Listener() {
+      public void onTabRemoved(int tabId) {
+        recordBuffers.remove(tabId);
+        dataInstances.remove(tabId);
+      }
+    });
     console = Chrome.getExtension().getBackgroundPage().getConsole();
   }
 }
\ No newline at end of file
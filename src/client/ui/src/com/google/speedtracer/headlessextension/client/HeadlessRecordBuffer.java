@@ -0,0 +1,190 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.headlessextension.client;
+
+import com.google.gwt.core.client.JsArrayString;
+
+/**
+ * Bounded storage for the serialized event records of one tab. Records are
+ * kept in a ring so that a long running session holds at most a configured
+ * number of records and characters. When a limit is reached, either the oldest
+ * records are evicted or new records are discarded, and the number of lost
+ * records is tracked so it can be reported with the dump.
+ */
+public class HeadlessRecordBuffer {
+  /**
+   * Default limit on the number of records held per tab.
+   */
+  public static final int DEFAULT_MAX_RECORDS = 200000;
+
+  /**
+   * Default limit on the total length, in characters, of the records held per
+   * tab.
+   */
+  public static final int DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+
+  private int currentSize = 0;
+
+  // A double, as long drop-oldest runs discard more than 2^31 characters.
+  private double droppedSize = 0;
+
+  private int droppedRecordCount = 0;
+
+  private boolean dropNewest = false;
+
+  /**
+   * Index of the oldest record in {@link #records}.
+   */
+  private int head = 0;
+
+  private int maxRecords = DEFAULT_MAX_RECORDS;
+
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  private JsArrayString records = JsArrayString.createArray().cast();
+
+  private int recordCount = 0;
+
+  public void add(String record) {
+    final int length = record.length();
+    if (length > maxSize) {
+      drop(length);
+      return;
+    }
+
+    while (recordCount > 0
+        && (recordCount == maxRecords || currentSize + length > maxSize)) {
+      if (dropNewest) {
+        drop(length);
+        return;
+      }
+      removeOldest();
+    }
+
+    records.set((head + recordCount) % maxRecords, record);
+    ++recordCount;
+    currentSize += length;
+  }
+
+  public void clear() {
+    records = JsArrayString.createArray().cast();
+    head = 0;
+    recordCount = 0;
+    currentSize = 0;
+    droppedRecordCount = 0;
+    droppedSize = 0;
+  }
+
+  /**
+   * Returns the total length, in characters, of the records that were
+   * discarded because a limit was reached.
+   */
+  public double getDroppedSize() {
+    return droppedSize;
+  }
+
+  /**
+   * Returns the number of records that were discarded because a limit was
+   * reached.
+   */
+  public int getDroppedRecordCount() {
+    return droppedRecordCount;
+  }
+
+  public int getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Whether new records are discarded once a limit is reached, rather than
+   * the oldest records being evicted.
+   */
+  public boolean isDropNewest() {
+    return dropNewest;
+  }
+
+  /**
+   * Returns the stored records, oldest first, separated by newlines.
+   */
+  public String join() {
+    return toArray().join("\n");
+  }
+
+  /**
+   * Changes the limits. Records over the new limits are evicted, oldest first,
+   * regardless of the overflow policy.
+   * 
+   * @param maxRecords the maximum number of records to keep, or 0 to keep
+   *          the current limit
+   * @param maxSize the maximum number of characters to keep, or 0 to keep the
+   *          current limit
+   * @param dropNewest <code>true</code> to discard new records once full,
+   *          <code>false</code> to evict the oldest records
+   */
+  public void setLimits(int maxRecords, int maxSize, boolean dropNewest) {
+    if (maxRecords <= 0 || maxRecords == this.maxRecords) {
+      if (maxSize <= 0 || maxSize == this.maxSize) {
+        // Neither limit changes, so the records can stay where they are.
+        this.dropNewest = dropNewest;
+        return;
+      }
+    }
+
+    final JsArrayString current = toArray();
+    if (maxRecords > 0) {
+      this.maxRecords = maxRecords;
+    }
+    if (maxSize > 0) {
+      this.maxSize = maxSize;
+    }
+    this.dropNewest = false;
+
+    // Re-add the records so that they are laid out for the new ring size.
+    records = JsArrayString.createArray().cast();
+    head = 0;
+    recordCount = 0;
+    currentSize = 0;
+    for (int i = 0, n = current.length(); i < n; ++i) {
+      add(current.get(i));
+    }
+    this.dropNewest = dropNewest;
+  }
+
+  /**
+   * Returns the stored records, oldest first.
+   */
+  public JsArrayString toArray() {
+    final JsArrayString result = JsArrayString.createArray().cast();
+    for (int i = 0; i < recordCount; ++i) {
+      result.push(records.get((head + i) % maxRecords));
+    }
+    return result;
+  }
+
+  private void drop(int length) {
+    ++droppedRecordCount;
+    droppedSize += length;
+  }
+
+  private void removeOldest() {
+    final String oldest = records.get(head);
+    records.set(head, null);
+    head = (head + 1) % maxRecords;
+    --recordCount;
+    currentSize -= oldest.length();
+    drop(oldest.length());
+  }
+}
@@ -169,6 +169,14 @@ window.speedtracer.clearData = function() {
 // Valid properties for options:
 //   clearData - clears any previously recorded timeline data if true
 //   reload - a url to load in this tab after turning monitoring on
+//   maxRecords - the most records to keep for this tab (default 200000)
+//   maxSize - the most characters of records to keep for this tab (default
+//       64M)
+//   overflow - 'dropOldest' (default) to evict the oldest records when a
+//       limit is reached, 'dropNewest' to discard new records instead. The
+//       number of lost records is reported in the header of sendDump().
+//   Limits and overflow that are left out keep the value set by an earlier
+//   call for this tab.
 // cb - optional function to be called after monitoring has been enabled
 window.speedtracer.startMonitoring = function(options, cb) {
   sendMsg({'type':PORT_HEADLESS_MONITORING_ON, 'options':options}); 
@@ -201,12 +209,16 @@ window.speedtracer.getDump = function(callback) {
 // Use cross site XHR to publish the dump
 //    the callback will be invoked when the transmission is completed.
 //       callback (number responseCode)
-window.speedtracer.sendDump = function(url, header, callback) {
+//    options - optional object
+//       compress: true to send the dump gzip compressed
+window.speedtracer.sendDump = function(url, header, callback, options) {
   if (!header) {
     header = {};
   }
   header.baseTime = baseTime.getTime();
-  sendMsg({'type':PORT_HEADLESS_SEND_DUMP, 'header': header, 'url':url});
+  var compress = !!(options && options.compress);
+  sendMsg({'type':PORT_HEADLESS_SEND_DUMP, 'header': header, 'url':url,
+      'compress':compress});
   sendDumpCallbacks.push(callback);
 }
 
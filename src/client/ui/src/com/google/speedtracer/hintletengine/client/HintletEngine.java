@@ -14,6 +14,7 @@
 package com.google.speedtracer.hintletengine.client;
 
 import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.coreext.client.JSOArray;
 import com.google.gwt.coreext.client.JSON;
 import com.google.gwt.webworker.client.DedicatedWorkerEntryPoint;
 import com.google.gwt.webworker.client.MessageEvent;
@@ -33,31 +34,42 @@ import java.util.List;
 
 /**
  * The entrypoint for the HintletEngine that runs in a worker thread.
+ * 
+ * Records arrive in batches, as a JSON array. The hints fired while processing
+ * a batch are sent back together in a single message once the batch is done.
  */
 public class HintletEngine extends DedicatedWorkerEntryPoint implements MessageHandler {
 
   private class OnHintCallback implements HintletOnHintListener {
 
     /**
-     * Sends a hint record (as JSON) to the user interface
+     * Queues a hint record to be sent to the user interface with the rest of
+     * the batch.
      */
     public void onHint(String hintletRule, double timestamp, String description, int refRecord,
         int severity) {
       JavaScriptObject value =
           HintRecord.create(hintletRule, timestamp, severity, description, refRecord);
-      postMessage(JSON.stringify(createHintMessage(value)));
+      pendingHints.push(value);
     }
-
-    private native JavaScriptObject createHintMessage(JavaScriptObject value) /*-{
-      return {
-        type : 2,
-        payload : value
-      };
-    }-*/;
   }
 
+  private static native JavaScriptObject createHintBatchMessage(
+      JSOArray<JavaScriptObject> hints) /*-{
+    return {
+      type : 3,
+      payload : hints
+    };
+  }-*/;
+
+  private static native boolean isArray(JavaScriptObject value) /*-{
+    return value instanceof Array;
+  }-*/;
+
   private HintletEventRecordProcessor eventRecordProcessor;
 
+  private JSOArray<JavaScriptObject> pendingHints = JSOArray.create();
+
   @Override
   public void onWorkerLoad() {
     setOnMessage(this);
@@ -82,8 +94,39 @@ public class HintletEngine extends DedicatedWorkerEntryPoint implements MessageH
     if (eventRecordProcessor == null) {
       eventRecordProcessor = new HintletEventRecordProcessor(getAllRules());
     }
-    JavaScriptObject record = JSON.parse(event.getDataAsString());
-    eventRecordProcessor.onEventRecord(record);
+    JavaScriptObject message = JSON.parse(event.getDataAsString());
+    if (!isArray(message)) {
+      eventRecordProcessor.onEventRecord(message);
+      flushHints();
+      return;
+    }
+
+    // A hintlet failing on one record should not keep the rest of the batch
+    // from being processed. The first failure is reported once all are done.
+    RuntimeException failure = null;
+    JSOArray<JavaScriptObject> records = message.cast();
+    for (int i = 0, n = records.size(); i < n; i++) {
+      try {
+        eventRecordProcessor.onEventRecord(records.get(i));
+      } catch (RuntimeException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    flushHints();
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void flushHints() {
+    if (pendingHints.isEmpty()) {
+      return;
+    }
+    JSOArray<JavaScriptObject> hints = pendingHints;
+    pendingHints = JSOArray.create();
+    postMessage(JSON.stringify(createHintBatchMessage(hints)));
   }
   
 }
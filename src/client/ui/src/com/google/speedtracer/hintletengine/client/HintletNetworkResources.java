@@ -23,13 +23,17 @@ import com.google.speedtracer.client.model.NetworkResource;
  */
 public final class HintletNetworkResources {
 
+  // Hintlets look up a resource when it finishes, so only the most recently
+  // completed ones need to be kept.
+  private static final int MAX_COMPLETED_RESOURCES = 200;
+
   // Reuse NetworkEventDispatcher. No listeners attached.
   // Since hintlet runs in web worker, a separate instance is needed  
   private final NetworkEventDispatcher networkEventDispatcher;
   private static HintletNetworkResources resources;
 
   private HintletNetworkResources() {
-    networkEventDispatcher = new NetworkEventDispatcher();
+    networkEventDispatcher = new NetworkEventDispatcher(MAX_COMPLETED_RESOURCES);
   }
 
   public static HintletNetworkResources getInstance() {
@@ -24,8 +24,12 @@ import com.google.speedtracer.client.SymbolServerControllerTests;
 import com.google.speedtracer.client.WindowChannelTests;
 import com.google.speedtracer.client.model.JavaScriptProfileModelV8ImplTests;
 import com.google.speedtracer.client.model.JavaScriptProfileNodeTests;
+import com.google.speedtracer.client.model.NetworkEventDispatcherTests;
+import com.google.speedtracer.client.model.UiEventIndexTests;
 import com.google.speedtracer.client.model.UiEventTests;
+import com.google.speedtracer.client.model.V8CodeMapTests;
 import com.google.speedtracer.client.model.V8LogDecompressorTests;
+import com.google.speedtracer.client.model.V8LogTokenizerTests;
 import com.google.speedtracer.client.model.V8SymbolTableTests;
 import com.google.speedtracer.client.timeline.GraphModelTests;
 import com.google.speedtracer.client.timeline.HighlightModelTests;
@@ -41,6 +45,7 @@ import com.google.speedtracer.client.visualizations.model.UiThreadUtilizationTes
 import com.google.speedtracer.client.visualizations.view.EventFilterTests;
 import com.google.speedtracer.extension.client.DataLoaderTests;
 import com.google.speedtracer.headlessextension.client.HeadlessContentScriptTests;
+import com.google.speedtracer.headlessextension.client.HeadlessRecordBufferTests;
 import com.google.speedtracer.hintletengine.client.HintletCacheUtilsTests;
 import com.google.speedtracer.hintletengine.client.HintletHeaderUtilsTests;
 import com.google.speedtracer.hintletengine.client.WebInspectorTypeTests;
@@ -73,7 +78,10 @@ public class AllTestsSuite extends GWTTestSuite {
     suite.addTestSuite(SourceViewerTests.class);
     suite.addTestSuite(JavaScriptProfileModelV8ImplTests.class);
     suite.addTestSuite(JavaScriptProfileNodeTests.class);
+    suite.addTestSuite(NetworkEventDispatcherTests.class);
+    suite.addTestSuite(V8CodeMapTests.class);
     suite.addTestSuite(V8LogDecompressorTests.class);
+    suite.addTestSuite(V8LogTokenizerTests.class);
     suite.addTestSuite(V8SymbolTableTests.class);
     suite.addTestSuite(JsSymbolMapTests.class);
     suite.addTestSuite(UrlTests.class);
@@ -81,7 +89,9 @@ public class AllTestsSuite extends GWTTestSuite {
     suite.addTestSuite(WorkQueueTests.class);
     suite.addTestSuite(CsvTests.class);
     suite.addTestSuite(UiEventTests.class);
+    suite.addTestSuite(UiEventIndexTests.class);
     suite.addTestSuite(HeadlessContentScriptTests.class);
+    suite.addTestSuite(HeadlessRecordBufferTests.class);
     suite.addTestSuite(ServerEventControllerTests.class);
     suite.addTestSuite(SourceViewerServerTests.class);
     suite.addTestSuite(ReportDataCollectorTests.class);
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests the bookkeeping of resources in {@link NetworkEventDispatcher}.
+ */
+public class NetworkEventDispatcherTests extends GWTTestCase {
+
+  private static native EventRecord createFinish(String requestId,
+      double time) /*-{
+    return {
+      type: @com.google.speedtracer.shared.EventRecordType::RESOURCE_FINISH,
+      time: time,
+      data: {
+        requestId: requestId,
+        didFail: false
+      }
+    };
+  }-*/;
+
+  private static native EventRecord createStart(String requestId,
+      double time) /*-{
+    return {
+      type: @com.google.speedtracer.shared.EventRecordType::RESOURCE_SEND_REQUEST,
+      time: time,
+      data: {
+        requestId: requestId,
+        url: "http://www.example.com/" + requestId,
+        requestMethod: "GET"
+      }
+    };
+  }-*/;
+
+  @Override
+  public String getModuleName() {
+    return "com.google.speedtracer.Common";
+  }
+
+  public void testClearData() {
+    NetworkEventDispatcher dispatcher = new NetworkEventDispatcher();
+    dispatcher.onEventRecord(createStart("1", 1));
+    dispatcher.onEventRecord(createFinish("1", 2));
+    assertEquals(1, dispatcher.getResourceCount());
+    assertEquals(2, dispatcher.getNetworkEvents().size());
+    assertTrue(dispatcher.getApproximateResourceBytes() > 0);
+
+    dispatcher.clearData();
+    assertNull(dispatcher.getResource("1"));
+    assertEquals(0, dispatcher.getResourceCount());
+    assertEquals(0, dispatcher.getNetworkEvents().size());
+  }
+
+  public void testEvictsOldestCompletedResources() {
+    NetworkEventDispatcher dispatcher = new NetworkEventDispatcher(2);
+    for (int i = 0; i < 5; i++) {
+      dispatcher.onEventRecord(createStart("" + i, i));
+    }
+    dispatcher.onEventRecord(createFinish("2", 10));
+    dispatcher.onEventRecord(createFinish("0", 11));
+    // A second finish for the same resource is not counted twice.
+    dispatcher.onEventRecord(createFinish("0", 11));
+    assertEquals(5, dispatcher.getResourceCount());
+
+    dispatcher.onEventRecord(createFinish("4", 12));
+    assertNull(dispatcher.getResource("2"));
+    assertNotNull(dispatcher.getResource("0"));
+    assertNotNull(dispatcher.getResource("4"));
+
+    // Resources still loading are never evicted.
+    assertNotNull(dispatcher.getResource("1"));
+    assertNotNull(dispatcher.getResource("3"));
+    assertEquals(4, dispatcher.getResourceCount());
+    assertEquals(0, dispatcher.getNetworkEvents().size());
+  }
+
+  public void testKeepsAllResourcesByDefault() {
+    NetworkEventDispatcher dispatcher = new NetworkEventDispatcher();
+    for (int i = 0; i < 50; i++) {
+      dispatcher.onEventRecord(createStart("" + i, i));
+      dispatcher.onEventRecord(createFinish("" + i, i + 0.5));
+    }
+    assertEquals(50, dispatcher.getResourceCount());
+    assertNotNull(dispatcher.getResource("0"));
+  }
+}
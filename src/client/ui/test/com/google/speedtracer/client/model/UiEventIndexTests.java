@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import com.google.gwt.coreext.client.JsIntegerDoubleMap;
+import com.google.gwt.junit.client.GWTTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link UiEventIndex}.
+ */
+public class UiEventIndexTests extends GWTTestCase {
+  private static final double ERROR_MARGIN = 0.01;
+
+  /**
+   * Creates a top level event with a single child of type 2 that covers the
+   * first half of the event.
+   */
+  private static native UiEvent createUiEvent(double time, double duration) /*-{
+    return {
+      time: time,
+      duration: duration,
+      type: 1,
+      children: [
+        {
+          time: time,
+          duration: duration / 2,
+          type: 2,
+          children: []
+        }
+      ]
+    };
+  }-*/;
+
+  @Override
+  public String getModuleName() {
+    return "com.google.speedtracer.ModelTests";
+  }
+
+  /**
+   * Tests finding the events still running at a time against walking back
+   * through the list, with enough events to grow the tree.
+   */
+  public void testFindLastEndedBy() {
+    UiEventDispatcher dispatcher = new UiEventDispatcher();
+    double time = 0;
+    for (int i = 0; i < 3000; i++) {
+      // Every 100th event runs for a long time.
+      double duration = (i % 100 == 0) ? 500 : 1 + (i % 7);
+      dispatcher.onEventRecord(createUiEvent(time, duration));
+      time += 2;
+    }
+
+    UiEventIndex index = dispatcher.getEventIndex();
+    List<UiEvent> events = dispatcher.getEventList();
+    assertEquals(-1, index.findLastEndedBy(events.size(), -1));
+    for (double left = 0; left < time; left += 13.5) {
+      for (int end = 0; end <= events.size(); end += 250) {
+        int expected = end - 1;
+        while (expected >= 0 && events.get(expected).getEndTime() > left) {
+          expected--;
+        }
+        assertEquals(expected, index.findLastEndedBy(end, left));
+      }
+    }
+
+    dispatcher.clearData();
+    assertEquals(-1, index.findLastEndedBy(1, time));
+  }
+
+  /**
+   * Tests the totals over ranges of events.
+   */
+  public void testRangeTotals() {
+    UiEventDispatcher dispatcher = new UiEventDispatcher();
+    for (int i = 0; i < 10; i++) {
+      dispatcher.onEventRecord(createUiEvent(i * 10, 4));
+    }
+
+    UiEventIndex index = dispatcher.getEventIndex();
+    assertEquals(12.0, index.getDuration(2, 5), ERROR_MARGIN);
+    assertEquals(0.0, index.getDuration(5, 5), ERROR_MARGIN);
+
+    JsIntegerDoubleMap typeDurations = JsIntegerDoubleMap.create();
+    index.addTypeDurations(2, 5, typeDurations);
+    assertEquals(6.0, typeDurations.get(1), ERROR_MARGIN);
+    assertEquals(6.0, typeDurations.get(2), ERROR_MARGIN);
+
+    List<UiEvent> hinted = new ArrayList<UiEvent>();
+    UiEvent event = dispatcher.getEventList().get(3);
+    event.addHint(HintRecord.create("testrule", event.getTime(),
+        HintRecord.SEVERITY_INFO, "testrule", 0));
+    index.onHintAdded(event);
+    index.getHintedEvents(0, 3, hinted);
+    assertEquals(0, hinted.size());
+    index.getHintedEvents(3, 10, hinted);
+    assertEquals(1, hinted.size());
+    assertSame(event, hinted.get(0));
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Compares {@link V8CodeMap} against a TreeMap keyed by address spans with an
+ * overlap comparison, which is how {@link V8SymbolTable} used to keep symbols.
+ * 
+ * The pages in src/test/profiler only produce a log when profiled in the
+ * browser, so this replays a synthetic log shaped like theirs: code created
+ * bump allocated at startup, then ticks resolving a stack of a few frames in
+ * a hot set of functions, with garbage collections that move and delete code
+ * in bursts. This is not part of the test suite; it only uses plain Java, so
+ * run it by hand in a JVM, e.g.
+ * 
+ * <pre>
+ * java com.google.speedtracer.client.model.V8CodeMapBenchmark
+ * </pre>
+ */
+public class V8CodeMapBenchmark {
+  /**
+   * The code map being measured.
+   */
+  private interface CodeMap {
+    void add(double address, int length, Object value);
+
+    Object lookup(double address);
+
+    Object remove(double address);
+  }
+
+  /**
+   * A span used as a TreeMap key, where any overlap compares as equal.
+   */
+  private static class Span implements Comparable<Span> {
+    final double address;
+    final int length;
+
+    Span(double address, int length) {
+      this.address = address;
+      this.length = length;
+    }
+
+    public int compareTo(Span other) {
+      double aStart = other.address;
+      double aEnd = aStart + other.length;
+      double bStart = address;
+      double bEnd = bStart + length;
+      if (bStart >= aStart && bStart <= aEnd) {
+        return 0;
+      }
+      if (aStart >= bStart && aStart <= bEnd) {
+        return 0;
+      }
+      return aStart < bStart ? -1 : 1;
+    }
+  }
+
+  private static final int CODE_COUNT = 20000;
+  private static final int GC_INTERVAL = 2000;
+  private static final int HOT_COUNT = 200;
+  private static final int MEASURED_RUNS = 10;
+  private static final int STACK_DEPTH = 6;
+  private static final int TICK_COUNT = 100000;
+  private static final int WARMUP_RUNS = 3;
+
+  public static void main(String[] args) {
+    report("TreeMap", new Runnable() {
+      public void run() {
+        final TreeMap<Span, Object> map = new TreeMap<Span, Object>();
+        replay(new CodeMap() {
+          public void add(double address, int length, Object value) {
+            map.put(new Span(address, length), value);
+          }
+
+          public Object lookup(double address) {
+            return map.get(new Span(address, 0));
+          }
+
+          public Object remove(double address) {
+            return map.remove(new Span(address, 0));
+          }
+        });
+      }
+    });
+    report("V8CodeMap", new Runnable() {
+      public void run() {
+        final V8CodeMap<Object> map = new V8CodeMap<Object>();
+        replay(new CodeMap() {
+          public void add(double address, int length, Object value) {
+            map.add(address, length, value);
+          }
+
+          public Object lookup(double address) {
+            return map.lookup(address);
+          }
+
+          public Object remove(double address) {
+            return map.remove(address);
+          }
+        });
+      }
+    });
+  }
+
+  private static int replay(CodeMap map) {
+    final Random random = new Random(42);
+    final double[] addresses = new double[CODE_COUNT];
+    final int[] lengths = new int[CODE_COUNT];
+    double next = 0x10000000;
+    for (int i = 0; i < CODE_COUNT; ++i) {
+      addresses[i] = next;
+      lengths[i] = 32 + random.nextInt(512);
+      map.add(next, lengths[i], Integer.valueOf(i));
+      next += lengths[i] + 16;
+    }
+
+    int found = 0;
+    final int[] stack = new int[STACK_DEPTH];
+    for (int tick = 1; tick <= TICK_COUNT; ++tick) {
+      // Most ticks land in the same stack as the last one, as when a page
+      // spins in a loop.
+      if (tick == 1 || random.nextInt(5) == 0) {
+        for (int frame = 0; frame < STACK_DEPTH; ++frame) {
+          stack[frame] = random.nextInt(HOT_COUNT);
+        }
+      }
+      for (int frame = 0; frame < STACK_DEPTH; ++frame) {
+        int code = stack[frame];
+        if (map.lookup(addresses[code] + lengths[code] / 2) != null) {
+          ++found;
+        }
+      }
+
+      if (tick % GC_INTERVAL == 0) {
+        // A scavenge moves a quarter of the code to fresh space and deletes a
+        // few pieces.
+        for (int code = random.nextInt(4); code < CODE_COUNT; code += 4) {
+          Object value = map.remove(addresses[code]);
+          addresses[code] = next;
+          map.add(next, lengths[code], value);
+          next += lengths[code] + 16;
+        }
+        for (int i = 0; i < 10; ++i) {
+          int code = HOT_COUNT + random.nextInt(CODE_COUNT - HOT_COUNT);
+          map.remove(addresses[code]);
+          map.add(addresses[code], lengths[code], Integer.valueOf(code));
+        }
+      }
+    }
+    return found;
+  }
+
+  private static void report(String name, Runnable replay) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      replay.run();
+    }
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_RUNS; ++i) {
+      replay.run();
+    }
+    final double millis = (System.nanoTime() - start) / 1e6 / MEASURED_RUNS;
+    System.out.println(name + ": " + Math.round(millis * 100) / 100.0 + " ms");
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import com.google.gwt.junit.client.GWTTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link V8CodeMap}.
+ */
+public class V8CodeMapTests extends GWTTestCase {
+
+  /**
+   * A range kept by {@link #testMatchesListOfRanges()} to check against.
+   */
+  private static class Range {
+    final double end;
+    final double start;
+    final String value;
+
+    Range(double start, int length, String value) {
+      this.start = start;
+      this.end = start + length;
+      this.value = value;
+    }
+
+    boolean contains(double address) {
+      return start <= address && address <= end;
+    }
+
+    boolean overlaps(Range other) {
+      return start == other.start || (start < other.end && other.start < end);
+    }
+  }
+
+  /**
+   * Returns the range containing the address. If the address is both the end
+   * of one range and the start of another, the latter wins.
+   */
+  private static Range find(List<Range> ranges, double address) {
+    Range found = null;
+    for (Range range : ranges) {
+      if (range.contains(address)
+          && (found == null || range.start > found.start)) {
+        found = range;
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public String getModuleName() {
+    return "com.google.speedtracer.Common";
+  }
+
+  public void testAddEvictsOverlaps() {
+    V8CodeMap<String> codeMap = new V8CodeMap<String>();
+    codeMap.add(0x100, 0x10, "one");
+    codeMap.add(0x120, 0x10, "two");
+    codeMap.add(0x140, 0x10, "three");
+    assertEquals("two", codeMap.lookup(0x125));
+
+    // Covers the end of "one" and all of "two".
+    codeMap.add(0x108, 0x20, "four");
+    assertEquals(2, codeMap.getEvictionCount());
+    assertEquals(2, codeMap.size());
+    assertNull(codeMap.lookup(0x100));
+    assertEquals("four", codeMap.lookup(0x125));
+    assertEquals("three", codeMap.lookup(0x140));
+
+    // Code recompiled at the same address replaces the old code.
+    codeMap.add(0x140, 0x8, "five");
+    assertEquals("five", codeMap.lookup(0x144));
+    assertNull(codeMap.lookup(0x14c));
+  }
+
+  public void testLookup() {
+    V8CodeMap<String> codeMap = new V8CodeMap<String>();
+    codeMap.add(0x100, 0x10, "one");
+    codeMap.add(0x110, 0x10, "two");
+    codeMap.add(0x90, 0x5, "three");
+
+    assertEquals("three", codeMap.lookup(0x90));
+    assertEquals("three", codeMap.lookup(0x95));
+    assertEquals("one", codeMap.lookup(0x100));
+    assertEquals("one", codeMap.lookup(0x10f));
+    // Adjacent code belongs to the range starting at the address.
+    assertEquals("two", codeMap.lookup(0x110));
+    assertEquals("two", codeMap.lookup(0x120));
+    assertNull(codeMap.lookup(0x50));
+    assertNull(codeMap.lookup(0x96));
+    assertNull(codeMap.lookup(0x121));
+    assertEquals(0, codeMap.getEvictionCount());
+    assertEquals(3, codeMap.size());
+  }
+
+  /**
+   * Random creates, moves, deletes and lookups should give the same results as
+   * a list of ranges scanned in full.
+   */
+  public void testMatchesListOfRanges() {
+    V8CodeMap<String> codeMap = new V8CodeMap<String>();
+    List<Range> ranges = new ArrayList<Range>();
+    int seed = 1;
+    for (int i = 0; i < 5000; ++i) {
+      seed = (seed * 1103515245 + 12345) & 0x7fffffff;
+      double address = (seed >> 4) % 0x4000;
+      int length = (seed >> 20) % 0x40;
+      switch ((seed >> 16) % 4) {
+        case 0:
+          Range added = new Range(address, length, "code" + i);
+          for (int j = ranges.size() - 1; j >= 0; --j) {
+            if (ranges.get(j).overlaps(added)) {
+              ranges.remove(j);
+            }
+          }
+          ranges.add(added);
+          codeMap.add(address, length, added.value);
+          break;
+        case 1:
+          Range removed = find(ranges, address);
+          if (removed != null) {
+            ranges.remove(removed);
+          }
+          assertEquals(removed == null ? null : removed.value,
+              codeMap.remove(address));
+          break;
+        default:
+          Range found = find(ranges, address);
+          assertEquals(found == null ? null : found.value,
+              codeMap.lookup(address));
+          break;
+      }
+    }
+    assertEquals(ranges.size(), codeMap.size());
+  }
+
+  public void testRemove() {
+    V8CodeMap<String> codeMap = new V8CodeMap<String>();
+    codeMap.add(0x100, 0x10, "one");
+    codeMap.add(0x120, 0x10, "two");
+    assertEquals("one", codeMap.lookup(0x100));
+
+    // "three" is still pending when it is removed.
+    codeMap.add(0x140, 0x10, "three");
+    assertEquals("three", codeMap.remove(0x148));
+    assertEquals("one", codeMap.remove(0x108));
+    assertNull(codeMap.remove(0x108));
+    assertNull(codeMap.lookup(0x100));
+    assertNull(codeMap.lookup(0x140));
+    assertEquals("two", codeMap.lookup(0x120));
+    assertEquals(1, codeMap.size());
+
+    // Move "two" by removing and adding it back.
+    codeMap.add(0x200, 0x10, codeMap.remove(0x120));
+    assertNull(codeMap.lookup(0x120));
+    assertEquals("two", codeMap.lookup(0x208));
+
+    // Removing a pending range does not bring back what it evicted.
+    codeMap.add(0x204, 0x4, "four");
+    assertEquals("four", codeMap.remove(0x204));
+    assertNull(codeMap.lookup(0x200));
+    assertEquals(0, codeMap.size());
+  }
+}
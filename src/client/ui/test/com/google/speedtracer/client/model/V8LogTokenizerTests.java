@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.model;
+
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests for {@link V8LogTokenizer}.
+ */
+public class V8LogTokenizerTests extends GWTTestCase {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.speedtracer.Common";
+  }
+
+  public void testBackReferences() {
+    V8LogDecompressor decompressor = new V8LogDecompressor(4);
+    V8LogTokenizer tokenizer = new V8LogTokenizer(
+        "code-creation,LazyCompile,0x10,5,\"foo\"\n#1\ntick,#2:5\n"
+            + "repeat,3,t,+1,+2,0\n#1");
+
+    tokenizer.nextLine(decompressor);
+    assertEquals(5, tokenizer.getFieldCount());
+
+    // A whole line reference reads the earlier line in place.
+    tokenizer.nextLine(decompressor);
+    assertEquals("code-creation,LazyCompile,0x10,5,\"foo\"",
+        tokenizer.getLine());
+    assertEquals(5, tokenizer.getFieldCount());
+    assertEquals("foo", tokenizer.get(4));
+
+    tokenizer.nextLine(decompressor);
+    assertEquals("tick,creation,LazyCompile,0x10,5,\"foo\"",
+        tokenizer.getLine());
+    assertEquals(6, tokenizer.getFieldCount());
+    assertEquals("creation", tokenizer.get(1));
+
+    // Only the repeated entry is kept in the window.
+    tokenizer.nextLine(decompressor);
+    tokenizer.nextLine(decompressor);
+    assertEquals("t,+1,+2,0", tokenizer.getLine());
+    assertEquals(0, tokenizer.getInt(3));
+    assertFalse(tokenizer.hasNextLine());
+  }
+
+  public void testFields() {
+    V8LogTokenizer tokenizer = new V8LogTokenizer(
+        "code-creation,lic,-5910913e,179,\"parent,Node\"\n\n"
+            + "t,a\"b\"c,\"\\\"\"");
+    assertTrue(tokenizer.hasNextLine());
+    tokenizer.nextLine(null);
+    assertEquals(5, tokenizer.getFieldCount());
+    assertEquals("code-creation", tokenizer.get(0));
+    assertTrue(tokenizer.fieldEquals(0, "code-creation"));
+    assertFalse(tokenizer.fieldEquals(0, "code"));
+    assertEquals("-5910913e", tokenizer.get(2));
+    assertEquals(179, tokenizer.getInt(3));
+    assertEquals("parent,Node", tokenizer.get(4));
+    assertTrue(tokenizer.fieldEquals(4, "parent,Node"));
+
+    tokenizer.nextLine(null);
+    assertEquals(1, tokenizer.getFieldCount());
+    assertEquals("", tokenizer.get(0));
+
+    tokenizer.nextLine(null);
+    assertEquals(3, tokenizer.getFieldCount());
+    assertEquals("abc", tokenizer.get(1));
+    assertEquals("\\\"", tokenizer.get(2));
+    assertFalse(tokenizer.hasNextLine());
+  }
+
+  public void testParseNumber() {
+    String source = "x,-ff,0777,12";
+    assertEquals(-255.0, V8LogTokenizer.parseNumber(source, 2, 5, 16));
+    assertEquals(511.0, V8LogTokenizer.parseNumber(source, 6, 10, 8));
+    assertEquals(12.0, V8LogTokenizer.parseNumber(source, 11, 13, 10));
+    try {
+      V8LogTokenizer.parseNumber(source, 0, 5, 16);
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      // Expected.
+    }
+    try {
+      V8LogTokenizer.parseNumber(source, 2, 3, 16);
+      fail("Expected NumberFormatException");
+    } catch (NumberFormatException e) {
+      // Expected.
+    }
+  }
+
+  public void testShift() {
+    V8LogTokenizer tokenizer = new V8LogTokenizer("repeat,2,tick,+1,0");
+    tokenizer.nextLine(null);
+    assertEquals(2, tokenizer.getInt(1));
+    tokenizer.shift();
+    tokenizer.shift();
+    assertEquals(3, tokenizer.getFieldCount());
+    assertEquals("tick", tokenizer.get(0));
+    assertEquals(0, tokenizer.getInt(2));
+    assertEquals("+1", tokenizer.getSource().substring(tokenizer.getStart(1),
+        tokenizer.getEnd(1)));
+  }
+}
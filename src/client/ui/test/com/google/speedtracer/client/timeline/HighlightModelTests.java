@@ -112,4 +112,41 @@ public class HighlightModelTests extends GWTTestCase {
     assertFalse(it.hasNext());
   }  
 
+  /**
+   * Points added out of order, and enough of them to grow the storage, should
+   * aggregate the same as a scan over every point.
+   */
+  public void testHighlightModelOutOfOrder() {
+    HighlightModel model = HighlightModel.create();
+    final int count = 1000;
+    final int[] expected = new int[count];
+    for (int i = 0; i < count; ++i) {
+      expected[i] = HighlightModel.HIGHLIGHT_NONE;
+    }
+    // Even x values in descending order, then odd x values in ascending order,
+    // so every point lands in front of or between earlier points.
+    for (int i = 0; i < count; ++i) {
+      int x = i < count / 2 ? count - 2 - 2 * i : 2 * (i - count / 2) + 1;
+      int value = (x * 13) % 5 - 1;
+      model.addData(x, value);
+      expected[x] = value;
+    }
+    model.addData(500.0, 3);
+    expected[500] = 3;
+    assertEquals("size", count, model.size());
+    assertEquals("getMaxX", count - 1.0, model.getMaxX());
+
+    Iterator<HighlightEntry> it = model.getRangeValues(0.0, 995.0, 10.0);
+    for (int x = 0; x < 995; x += 10) {
+      assertTrue(it.hasNext());
+      HighlightEntry entry = it.next();
+      int max = 0;
+      for (int i = x; i < Math.min(x + 10, 995); ++i) {
+        max = Math.max(max, expected[i]);
+      }
+      assertEquals("entry key", (double) x, entry.getKey());
+      assertEquals("entry value", max, entry.getValue().intValue());
+    }
+    assertFalse(it.hasNext());
+  }
 }
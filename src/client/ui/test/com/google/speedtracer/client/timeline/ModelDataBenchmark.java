@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.client.timeline;
+
+import com.google.speedtracer.client.MonitorConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the memory use and paint time of {@link ModelData} against a list
+ * of {@link DataPoint}s scanned point by point, which is how graph data used to
+ * be stored and queried. The series is synthetic, with a point every
+ * {@link MonitorConstants#MIN_GRAPH_DATA_RESOLUTION} ms as the sluggishness
+ * graph would record them. This is not part of the test suite; it only uses
+ * plain Java, so run it by hand in a JVM, e.g.
+ * 
+ * <pre>
+ * java com.google.speedtracer.client.timeline.ModelDataBenchmark
+ * </pre>
+ */
+public class ModelDataBenchmark {
+  private static final int MEASURED_RUNS = 20;
+  private static final int POINT_COUNT = 1000000;
+  private static final int WARMUP_RUNS = 5;
+
+  public static void main(String[] args) {
+    final double interval = MonitorConstants.MIN_GRAPH_DATA_RESOLUTION;
+
+    long before = usedMemory();
+    final List<DataPoint> points = new ArrayList<DataPoint>();
+    for (int i = 0; i < POINT_COUNT; i++) {
+      points.add(DataPoint.createDataPoint(i * interval, getY(i)));
+    }
+    long listBytes = usedMemory() - before;
+
+    before = usedMemory();
+    final ModelData data = new ModelData();
+    for (int i = 0; i < POINT_COUNT; i++) {
+      data.add(i * interval, getY(i));
+    }
+    long modelDataBytes = usedMemory() - before;
+
+    System.out.println(POINT_COUNT + " points");
+    System.out.println("List<DataPoint>: " + (listBytes / 1024) + " KB");
+    System.out.println("ModelData: " + (modelDataBytes / 1024) + " KB");
+
+    final GraphModel model = GraphModel.createGraphModel(data, "", "", "", "",
+        false);
+    final double domain = POINT_COUNT * interval;
+    report("List<DataPoint> paint", new Runnable() {
+      public void run() {
+        paint(points, domain);
+      }
+    });
+    report("ModelData paint", new Runnable() {
+      public void run() {
+        paint(model, domain);
+      }
+    });
+  }
+
+  private static double getY(int i) {
+    return (i * 7919) % 100;
+  }
+
+  /**
+   * Queries every plot point of a graph showing the whole domain, as
+   * MainGraph.paintGraph does.
+   */
+  private static double paint(GraphModel model, double domain) {
+    double domainDelta = domain / Constants.PLOT_PRECISION;
+    double sum = 0;
+    for (int x = 0; x <= Constants.PLOT_PRECISION; x++) {
+      sum += model.getRangeValue(domainDelta * x, domainDelta);
+    }
+    return sum;
+  }
+
+  /**
+   * The same queries, walking the points in each plot point's range.
+   */
+  private static double paint(List<DataPoint> points, double domain) {
+    double domainDelta = domain / Constants.PLOT_PRECISION;
+    double sum = 0;
+    int index = 0;
+    for (int x = 0; x <= Constants.PLOT_PRECISION; x++) {
+      double start = domainDelta * x;
+      double end = start + domainDelta - .0001;
+      double max = 0;
+      while (index < points.size() && points.get(index).getX() <= end) {
+        DataPoint found = points.get(index++);
+        if (found.getX() >= start) {
+          max = Math.max(max, found.getY());
+        }
+      }
+      sum += max;
+    }
+    return sum;
+  }
+
+  private static void report(String name, Runnable paint) {
+    for (int i = 0; i < WARMUP_RUNS; ++i) {
+      paint.run();
+    }
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < MEASURED_RUNS; ++i) {
+      paint.run();
+    }
+    final double millis = (System.nanoTime() - start) / 1e6 / MEASURED_RUNS;
+    System.out.println(name + ": " + Math.round(millis * 100) / 100.0 + " ms");
+  }
+
+  private static long usedMemory() {
+    final Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -53,6 +53,23 @@ public class ModelDataTests extends GWTTestCase {
     assertEquals("val4.getY()", 0.0, val4.getY(), .00001);
   }
 
+  public void testModelDataGrowth() {
+    ModelData data = new ModelData();
+    for (int i = 0; i < 5000; i++) {
+      data.add(i * 35.0, i % 100);
+    }
+    assertEquals("data.size()", 5000, data.size());
+    assertEquals("data.getX(4999)", 4999 * 35.0, data.getX(4999), .00001);
+    assertEquals("data.getY(4999)", 99.0, data.getY(4999), .00001);
+    assertEquals("data.get(1234).getY()", 34.0, data.get(1234).getY(), .00001);
+
+    data.truncateBy(4000);
+    data.add(-1.0, -2.0);
+    assertEquals("data.size()", 1001, data.size());
+    assertEquals("data.getX(1000)", -1.0, data.getX(1000), .00001);
+    assertEquals("data.getY(1000)", -2.0, data.getY(1000), .00001);
+  }
+
   public void testModelDataMax() {
     ModelData data = new ModelData();
     data.add(new DataPoint(1.0, 0.0)); // 0
@@ -75,6 +92,42 @@ public class ModelDataTests extends GWTTestCase {
     assertEquals("max encountered value 3", 11.0, max, .00001);
   }
 
+  public void testModelDataRangeValues() {
+    ModelData data = new ModelData();
+    for (int i = 0; i < 100; i++) {
+      data.add(new DataPoint(i, (i * 37) % 101));
+    }
+
+    for (int first = 0; first < 100; first += 7) {
+      for (int last = first + 1; last <= 100; last += 5) {
+        double max = Double.NEGATIVE_INFINITY;
+        double min = Double.POSITIVE_INFINITY;
+        double sum = 0;
+        for (int i = first; i < last; i++) {
+          max = Math.max(max, data.get(i).getY());
+          min = Math.min(min, data.get(i).getY());
+          sum += data.get(i).getY();
+        }
+        assertEquals("max", max, data.getMaxValue(first, last), .00001);
+        assertEquals("min", min, data.getMinValue(first, last), .00001);
+        assertEquals("average", sum / (last - first), data.getAverageValue(
+            first, last), .00001);
+      }
+    }
+
+    // Replace the tail with smaller values.
+    data.truncateBy(50);
+    for (int i = 50; i < 100; i++) {
+      data.add(new DataPoint(i, 1.0));
+    }
+    assertEquals("max after truncate", 1.0, data.getMaxValue(50, 100), .00001);
+    assertEquals("min after truncate", 1.0, data.getMinValue(50, 100), .00001);
+
+    data.clear();
+    data.add(new DataPoint(0, 3.0));
+    assertEquals("max after clear", 3.0, data.getMaxValue(0, 1), .00001);
+  }
+
   public void testModelDataTruncateBy() {
     ModelData data = new ModelData();
     data.add(new DataPoint(1.0, 0.0));
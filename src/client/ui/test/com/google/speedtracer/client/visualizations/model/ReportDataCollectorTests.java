@@ -18,6 +18,7 @@ package com.google.speedtracer.client.visualizations.model;
 import com.google.gwt.coreext.client.JSON;
 import com.google.gwt.coreext.client.JsIntegerDoubleMap;
 import com.google.gwt.junit.client.GWTTestCase;
+import com.google.speedtracer.client.model.AggregateTimeVisitor;
 import com.google.speedtracer.client.model.DataDispatcher;
 import com.google.speedtracer.client.model.HintRecord;
 import com.google.speedtracer.client.model.ResourceRecord;
@@ -93,6 +94,52 @@ public class ReportDataCollectorTests extends GWTTestCase {
     assertEquals(20.0, typeDurations.get(-1), ERROR_MARGIN);
   }
 
+  /**
+   * Tests that the totals taken from the index agree with splitting and
+   * aggregating every event in the window.
+   */
+  public void testAggregatingMatchesFullScan() {
+    MockDataDispatcher mockDispatcher = new MockDataDispatcher();
+    double time = 0;
+    for (int i = 0; i < 50; i++) {
+      UiEvent event = makeTestUiEvent(time);
+      mockDispatcher.onEventRecord(event);
+      time += event.getDuration() + (i % 3) * 0.5;
+    }
+
+    ReportDataCollector dataCollector = new ReportDataCollector(mockDispatcher);
+    List<UiEvent> events = mockDispatcher.getUiEventDispatcher().getEventList();
+    for (double left = -3; left < time; left += 2.3) {
+      double right = left + 17.9;
+      JsIntegerDoubleMap expected = JsIntegerDoubleMap.create();
+      double available = right - left;
+      for (int i = 0, n = events.size(); i < n; i++) {
+        UiEvent event = ReportDataCollector.splitEventTreeOnBoundary(
+            events.get(i), right, true);
+        if (event == null) {
+          continue;
+        }
+        event = ReportDataCollector.splitEventTreeOnBoundary(event, left,
+            false);
+        if (event == null) {
+          continue;
+        }
+        AggregateTimeVisitor.apply(event);
+        addTypeDurations(event.getTypeDurations(), expected);
+        available -= event.getDuration();
+      }
+
+      JsIntegerDoubleMap typeDurations = dataCollector.gatherDataWithinWindow(
+          left, right).getAggregatedTypeDurations();
+      assertEquals(available, typeDurations.get(-1), ERROR_MARGIN);
+      for (int type = 1; type <= 4; type++) {
+        assertEquals(expected.hasKey(type) ? expected.get(type) : 0,
+            typeDurations.hasKey(type) ? typeDurations.get(type) : 0,
+            ERROR_MARGIN);
+      }
+    }
+  }
+
   /**
    * Tests collecting hints attached to UiEvents.
    */
@@ -106,6 +153,10 @@ public class ReportDataCollectorTests extends GWTTestCase {
     List<HintRecord> hints = data.getHints();
 
     assertEquals(3, hints.size());
+    // Hints come out walking backwards from the right edge of the window.
+    assertEquals("testrule3", hints.get(0).getHintletRule());
+    assertEquals("testrule", hints.get(1).getHintletRule());
+    assertEquals("testrule2", hints.get(2).getHintletRule());
   }
 
   /**
@@ -123,6 +174,15 @@ public class ReportDataCollectorTests extends GWTTestCase {
     assertEquals(1, hints.size());
   }
 
+  private void addTypeDurations(JsIntegerDoubleMap in,
+      final JsIntegerDoubleMap out) {
+    in.iterate(new JsIntegerDoubleMap.IterationCallBack() {
+      public void onIteration(int key, double val) {
+        out.put(key, out.hasKey(key) ? out.get(key) + val : val);
+      }
+    });
+  }
+
   private void dispatchTestNetworkEvents(MockDataDispatcher mockDispatcher) {
     final String[] networkRecords = {
         "{\"data\":{\"identifier\":1,\"url\":\"http://digg.com/\",\"requestMethod\":\"GET\",\"isMainResource\":true},\"type\":12,\"time\":0,\"sequence\":0}",
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010 Google Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.speedtracer.headlessextension.client;
+
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests {@link HeadlessRecordBuffer}.
+ */
+public class HeadlessRecordBufferTests extends GWTTestCase {
+
+  @Override
+  public String getModuleName() {
+    return "com.google.speedtracer.headlessextension.HeadlessTests";
+  }
+
+  public void testClear() {
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    buffer.setLimits(1, 0, false);
+    buffer.add("a");
+    buffer.add("b");
+    assertEquals(1, buffer.getDroppedRecordCount());
+    buffer.clear();
+    assertEquals(0, buffer.getRecordCount());
+    assertEquals(0, buffer.getDroppedRecordCount());
+    assertEquals("", buffer.join());
+  }
+
+  public void testDropNewest() {
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    buffer.setLimits(2, 0, true);
+    buffer.add("a");
+    buffer.add("b");
+    buffer.add("c");
+    assertEquals("a\nb", buffer.join());
+    assertEquals(1, buffer.getDroppedRecordCount());
+    assertEquals(1, buffer.getDroppedSize(), 0);
+  }
+
+  public void testDropOldest() {
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    buffer.setLimits(3, 0, false);
+    for (int i = 0; i < 10; ++i) {
+      buffer.add("r" + i);
+    }
+    assertEquals(3, buffer.getRecordCount());
+    assertEquals("r7\nr8\nr9", buffer.join());
+    assertEquals(7, buffer.getDroppedRecordCount());
+    assertEquals(14, buffer.getDroppedSize(), 0);
+  }
+
+  public void testDroppedSizeDoesNotOverflow() {
+    String record = "a";
+    for (int i = 0; i < 20; ++i) {
+      record += record;
+    }
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    buffer.setLimits(1, 0, false);
+    // 2^11 dropped records of 2^20 characters each.
+    for (int i = 0; i <= 2048; ++i) {
+      buffer.add(record);
+    }
+    assertEquals(2048, buffer.getDroppedRecordCount());
+    assertEquals(2147483648.0, buffer.getDroppedSize(), 0);
+  }
+
+  public void testMaxSize() {
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    buffer.setLimits(0, 10, false);
+    buffer.add("aaaa");
+    buffer.add("bbbb");
+    buffer.add("cccc");
+    assertEquals("bbbb\ncccc", buffer.join());
+
+    // A record larger than the limit is never stored.
+    buffer.add("dddddddddddd");
+    assertEquals("bbbb\ncccc", buffer.join());
+    assertEquals(2, buffer.getDroppedRecordCount());
+  }
+
+  public void testSetLimitsKeepsUnchangedLimits() {
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    buffer.setLimits(2, 10, true);
+    // Only the overflow policy is passed; the limits set before stay.
+    buffer.setLimits(0, 0, false);
+    assertFalse(buffer.isDropNewest());
+    buffer.add("a");
+    buffer.add("b");
+    buffer.add("c");
+    assertEquals("b\nc", buffer.join());
+
+    // Only the size is passed; the record limit stays.
+    buffer.setLimits(0, 20, false);
+    buffer.add("d");
+    assertEquals("c\nd", buffer.join());
+  }
+
+  public void testSetLimitsKeepsNewest() {
+    HeadlessRecordBuffer buffer = new HeadlessRecordBuffer();
+    for (int i = 0; i < 5; ++i) {
+      buffer.add("r" + i);
+    }
+    buffer.setLimits(2, 0, false);
+    assertEquals("r3\nr4", buffer.join());
+    buffer.add("r5");
+    assertEquals("r4\nr5", buffer.join());
+    assertEquals(4, buffer.getDroppedRecordCount());
+  }
+}